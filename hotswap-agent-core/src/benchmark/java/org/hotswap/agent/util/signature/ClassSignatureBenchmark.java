@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.bytecode.ConstPool;
+import org.hotswap.agent.util.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares signature computation of a large class (javassist ConstPool): reflection, CtClass, class file
+ * structure and the streaming fingerprint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassSignatureBenchmark {
+
+    private static final Class<?> BENCHMARKED_CLASS = ConstPool.class;
+
+    private static final ClassSignatureElement[] ELEMENTS = ClassSignatureElement.values();
+
+    private byte[] bytes;
+    private ClassPool classPool;
+
+    @Setup
+    public void setup() throws Exception {
+        String resource = BENCHMARKED_CLASS.getName().replace('.', '/') + ".class";
+        bytes = IOUtils.toByteArray(BENCHMARKED_CLASS.getClassLoader().getResource(resource).toURI());
+        classPool = new ClassPool(true);
+    }
+
+    @Benchmark
+    public String javaClassSignature() throws Exception {
+        return ClassSignatureComparerHelper.getJavaClassSignature(BENCHMARKED_CLASS, ELEMENTS);
+    }
+
+    @Benchmark
+    public String ctClassSignature() throws Exception {
+        CtClass ctClass = classPool.makeClass(new ByteArrayInputStream(bytes));
+        try {
+            return ClassSignatureComparerHelper.getCtClassSignature(ctClass, ELEMENTS);
+        } finally {
+            ctClass.detach();
+        }
+    }
+
+    @Benchmark
+    public String classFileSignature() throws Exception {
+        return ClassSignatureComparerHelper.getClassFileSignature(bytes, classPool, ELEMENTS);
+    }
+
+    @Benchmark
+    public String classFileFingerprint() throws Exception {
+        return ClassFileFingerprint.of(bytes, ELEMENTS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ClassSignatureBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -40,6 +40,7 @@ import static org.hotswap.agent.annotation.LoadEvent.REDEFINE;
  * this class is used as transformation result. You can modify this class directly.</li>
  * <li>AppClassLoaderExecutor - executor to run code in app classloader</li>
  * <li>LoadEvent - originating load event. If classBeingRedefined is null, this is DEFINE, otherwise REDEFINE.</li>
+ * <li>ClassChangeKind - kind of change against the loaded class (e.g. method body only), null on DEFINE.</li>
  * </ul>
  * <p/>
  * If registered on static method, transformation is invoked even before the plugin is initialized.
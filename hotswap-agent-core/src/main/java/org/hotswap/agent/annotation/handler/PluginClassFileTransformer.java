@@ -38,6 +38,8 @@ import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.AppClassLoaderExecutor;
 import org.hotswap.agent.util.HaClassFileTransformer;
+import org.hotswap.agent.util.signature.ClassChangeClassifier;
+import org.hotswap.agent.util.signature.ClassChangeKind;
 import org.hotswap.agent.versions.DeploymentInfo;
 
 public class PluginClassFileTransformer implements HaClassFileTransformer {
@@ -208,6 +210,8 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
                 }
             } else if (type.isAssignableFrom(LoadEvent.class)) {
                 args.add(redefiningClass == null ? LoadEvent.DEFINE : LoadEvent.REDEFINE);
+            } else if (type.isAssignableFrom(ClassChangeKind.class)) {
+                args.add(ClassChangeClassifier.getChangeKind(redefiningClass, bytes));
             } else if (type.isAssignableFrom(AppClassLoaderExecutor.class)) {
                 args.add(new AppClassLoaderExecutor(classLoader, protectionDomain));
             } else {
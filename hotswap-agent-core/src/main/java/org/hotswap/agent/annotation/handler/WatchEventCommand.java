@@ -27,11 +27,11 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.LoaderClassPath;
@@ -55,34 +55,26 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
     private final WatchFileEvent event;
     private final ClassLoader classLoader;
 
+    /**
+     * Create command for the event.
+     * <p/>
+     * The watcher already applied {@link WatchEventDTO#getWatchEventFilter()} before the event was created,
+     * the filter is checked again only for events fired by other means.
+     *
+     * @param pluginAnnotation the annotation
+     * @param watchEventDTO    annotation parsed once on listener registration
+     * @param event            the event
+     * @param classLoader      application classloader
+     * @return the command or null if the event is not accepted
+     */
     public static <T extends Annotation> WatchEventCommand<T> createCmdForEvent(PluginAnnotation<T> pluginAnnotation,
-            WatchFileEvent event, ClassLoader classLoader) {
-        WatchEventDTO watchEventDTO = WatchEventDTO.parse(pluginAnnotation.getAnnotation());
+            WatchEventDTO watchEventDTO, WatchFileEvent event, ClassLoader classLoader) {
 
-        // Watch event is not supported.
+        // Watch event is not supported (event type, regular file, resource name filter).
         if (!watchEventDTO.accept(event)) {
+            LOGGER.trace("Skipping URI {} because it is not accepted by filter {}.", event.getURI(), watchEventDTO.getWatchEventFilter());
             return null;
         }
-
-        // regular files filter
-        if (watchEventDTO.isOnlyRegularFiles() && !event.isFile()) {
-            LOGGER.trace("Skipping URI {} because it is not a regular file.", event.getURI());
-            return null;
-        }
-
-        // watch type filter
-        if (!Arrays.asList(watchEventDTO.getEvents()).contains(event.getEventType())) {
-            LOGGER.trace("Skipping URI {} because it is not a requested event.", event.getURI());
-            return null;
-        }
-
-        // resource name filter regexp
-        if (watchEventDTO.getFilter() != null && watchEventDTO.getFilter().length() > 0) {
-            if (!event.getURI().toString().matches(watchEventDTO.getFilter())) {
-                LOGGER.trace("Skipping URI {} because it does not match filter.", event.getURI(), watchEventDTO.getFilter());
-                return null;
-            }
-        }
         return new WatchEventCommand<>(pluginAnnotation, event, classLoader, watchEventDTO);
     }
 
@@ -145,14 +137,14 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
         if (watchEventDTO.isClassFileEvent()) {
             try {
                 // TODO creating class only to check name may slow down if lot of handlers is in use.
-                ctClass = createCtClass(event.getURI(), classLoader);
+                ctClass = createCtClass(event, classLoader);
             } catch (Exception e) {
                 LOGGER.error("Unable create CtClass for URI '{}'.", e, event.getURI());
                 return;
             }
 
             // unable to create CtClass or it's name does not match
-            if (ctClass == null || !ctClass.getName().matches(watchEventDTO.getClassNameRegexp()))
+            if (ctClass == null || !watchEventDTO.matchesClassName(ctClass.getName()))
                 return;
         }
 
@@ -174,7 +166,7 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
                     return;
                 }
             } else if (type.isAssignableFrom(ClassPool.class)) {
-                args.add(ClassPool.getDefault());
+                args.add(PluginManager.getInstance().getClassPool());
             } else if (type.isAssignableFrom(FileEvent.class)) {
                 args.add(event.getEventType());
             } else if (watchEventDTO.isClassFileEvent() && type.isAssignableFrom(CtClass.class)) {
@@ -207,14 +199,17 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
     /**
      * Creats javaassist CtClass for bytecode manipulation. Add default classloader.
      *
-     * @param uri         uri
+     * @param event       event on the class file or jar entry
      * @param classLoader loader
-     * @return created class
+     * @return created class or null if the class file does not exist
      * @throws org.hotswap.agent.javassist.NotFoundException
      */
-    private CtClass createCtClass(URI uri, ClassLoader classLoader) throws NotFoundException, IOException {
-        File file = new File(uri);
-        if (file.exists()) {
+    private CtClass createCtClass(WatchFileEvent event, ClassLoader classLoader) throws NotFoundException, IOException {
+        URI uri = event.getURI();
+        // changed jar entry (jar:file:/...!/...) exists unless deleted, it was found by jar index comparison
+        boolean exists = IOUtils.URL_PROTOCOL_FILE.equals(uri.getScheme()) ? new File(uri).exists()
+                : event.getEventType() != FileEvent.DELETE;
+        if (exists) {
           ClassPool cp = new ClassPool();
           cp.appendClassPath(new LoaderClassPath(classLoader));
           return cp.makeClass(new ByteArrayInputStream(IOUtils.toByteArray(uri)));
@@ -21,9 +21,11 @@ package org.hotswap.agent.annotation.handler;
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.annotation.OnClassFileEvent;
 import org.hotswap.agent.annotation.OnResourceFileEvent;
+import org.hotswap.agent.watch.WatchEventFilter;
 import org.hotswap.agent.watch.WatchFileEvent;
 
 import java.lang.annotation.Annotation;
+import java.util.regex.Pattern;
 
 /**
  * Container to merge attributes from similar annotations: OnClassFileEvent and OnResourceFileEvent.
@@ -37,6 +39,15 @@ public class WatchEventDTO {
     private final String path;
     private final boolean onlyRegularFiles;
 
+    // load class files only from files named ".class"
+    // Don't treat _jsp.class as a class file. JSP class files are compiled by application server, compilation
+    // has two phases that cause many problems with HA. Look at JSR45
+    private static final String CLASS_FILE_URI_REGEXP = ".*(?<!_jsp)\\.class";
+
+    // precompiled filters, annotation is parsed only once per registration
+    private final Pattern classNamePattern;
+    private final WatchEventFilter watchEventFilter;
+
     /**
      * Parse the annotation to fill in the container.
      */
@@ -57,6 +68,9 @@ public class WatchEventDTO {
         onlyRegularFiles = true;
         filter = null;
         path = null;
+        classNamePattern = Pattern.compile(classNameRegexp);
+        // all handlers currently support only files
+        watchEventFilter = WatchEventFilter.ofRegexp(events, CLASS_FILE_URI_REGEXP, false);
     }
 
     public WatchEventDTO(OnResourceFileEvent annotation) {
@@ -67,6 +81,9 @@ public class WatchEventDTO {
         events = annotation.events();
         onlyRegularFiles = annotation.onlyRegularFiles();
         classNameRegexp = null;
+        classNamePattern = null;
+        // all handlers currently support only files
+        watchEventFilter = WatchEventFilter.ofRegexp(events, filter, false);
     }
 
     public boolean isClassFileEvent() {
@@ -97,25 +114,31 @@ public class WatchEventDTO {
         return onlyRegularFiles;
     }
 
+    /**
+     * Filter of events to be registered with the listener and evaluated directly by the watcher.
+     *
+     * @return precompiled filter (event types, file name regexp, files only)
+     */
+    public WatchEventFilter getWatchEventFilter() {
+        return watchEventFilter;
+    }
+
+    /**
+     * Check if class name matches classNameRegexp of class file event.
+     *
+     * @param className class name
+     * @return true if matches (always false for resource event)
+     */
+    public boolean matchesClassName(String className) {
+        return classNamePattern != null && classNamePattern.matcher(className).matches();
+    }
+
     /**
      * Check if this handler supports actual event.
      * @param event file event fired by filesystem
      * @return true if supports - should continue handling
      */
     public boolean accept(WatchFileEvent event) {
-
-        // all handlers currently support only files
-        if (!event.isFile()) {
-            return false;
-        }
-
-        // load class files only from files named ".class"
-        // Don't treat _jsp.class as a class file. JSP class files are compiled by application server, compilation
-        // has two phases that cause many problems with HA. Look at JSR45
-        if (isClassFileEvent() &&  (!event.getURI().toString().endsWith(".class") || event.getURI().toString().endsWith("_jsp.class"))) {
-            return false;
-        }
-
-        return true;
+        return watchEventFilter.accept(event);
     }
 }
@@ -24,12 +24,15 @@ import java.lang.annotation.Annotation;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Enumeration;
 
+import org.hotswap.agent.config.PluginConfiguration;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.IOUtils;
 import org.hotswap.agent.watch.WatchEventListener;
 import org.hotswap.agent.watch.WatchFileEvent;
 
@@ -90,18 +93,29 @@ public class WatchHandler<T extends Annotation> implements PluginHandler<T> {
             path = path.substring(0, path.length() - 2);
 
 
+        PluginConfiguration pluginConfiguration = pluginManager.getPluginConfiguration(classLoader);
+
         // classpath resources (already should contain extraClasspath)
         Enumeration<URL> en = classLoader.getResources(path);
         while (en.hasMoreElements()) {
             try {
-                URI uri = en.nextElement().toURI();
-
-                // check that this is a local accessible file (not vfs inside JAR etc.)
-                try {
-                    new File(uri);
-                } catch (Exception e) {
-                    LOGGER.trace("Skipping uri {}, not a local file.", uri);
-                    continue;
+                URL url = en.nextElement();
+                URI uri = url.toURI();
+
+                if (IOUtils.isJarURL(url)) {
+                    // directory inside JAR file, watch only jars enabled by watchJars property
+                    if (!pluginConfiguration.isWatchedJar(url)) {
+                        LOGGER.trace("Skipping uri {}, jar file is not watched.", uri);
+                        continue;
+                    }
+                } else {
+                    // check that this is a local accessible file (not vfs inside JAR etc.)
+                    try {
+                        new File(uri);
+                    } catch (Exception e) {
+                        LOGGER.trace("Skipping uri {}, not a local file.", uri);
+                        continue;
+                    }
                 }
 
 
@@ -112,9 +126,23 @@ public class WatchHandler<T extends Annotation> implements PluginHandler<T> {
             }
         }
 
+        // JAR files do not contain root directory entry, add watched jars from classpath explicitly
+        if (path.isEmpty() && classLoader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) classLoader).getURLs()) {
+                if (IOUtils.isFileURL(url) && url.getPath().toLowerCase().endsWith(".jar") && pluginConfiguration.isWatchedJar(url)) {
+                    try {
+                        LOGGER.debug("Registering resource listener on classpath jar {}", url);
+                        registerResourceListener(pluginAnnotation, watchEventDTO, classLoader, url.toURI());
+                    } catch (URISyntaxException e) {
+                        LOGGER.error("Unable convert jar URL {} to URI", e, url);
+                    }
+                }
+            }
+        }
+
         // add extra directories for watchResources property
         if (!watchEventDTO.isClassFileEvent()) {
-            for (URL url : pluginManager.getPluginConfiguration(classLoader).getWatchResources()) {
+            for (URL url : pluginConfiguration.getWatchResources()) {
                 try {
                     Path watchResourcePath = Paths.get(url.toURI());
                     Path pathInWatchResource = watchResourcePath.resolve(path);
@@ -137,10 +165,10 @@ public class WatchHandler<T extends Annotation> implements PluginHandler<T> {
      */
     private void registerResourceListener(final PluginAnnotation<T> pluginAnnotation, final WatchEventDTO watchEventDTO,
                                           final ClassLoader classLoader, URI uri) throws IOException {
-        pluginManager.getWatcher().addEventListener(classLoader, uri, new WatchEventListener() {
+        pluginManager.getWatcher().addEventListener(classLoader, uri, watchEventDTO.getWatchEventFilter(), new WatchEventListener() {
             @Override
             public void onEvent(WatchFileEvent event) {
-                WatchEventCommand<T> command = WatchEventCommand.createCmdForEvent(pluginAnnotation, event, classLoader);
+                WatchEventCommand<T> command = WatchEventCommand.createCmdForEvent(pluginAnnotation, watchEventDTO, event, classLoader);
                 if (command != null) {
                     pluginManager.getScheduler().scheduleCommand(command, watchEventDTO.getTimeout());
                     LOGGER.trace("Resource changed {}", event);
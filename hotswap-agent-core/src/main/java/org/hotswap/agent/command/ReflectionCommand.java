@@ -187,6 +187,7 @@ public class ReflectionCommand extends MergeableCommand {
     }
 
     protected Object doExecuteReflectionCommand(ClassLoader targetClassLoader, String className, Object target, String method, List<Object> params) throws ClassNotFoundException, IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
+        PluginManager.getInstance().definePluginClass(targetClassLoader, className);
         Class<?> classInAppClassLoader = Class.forName(className, true, targetClassLoader);
 
         LOGGER.trace("Executing command: requestedClassLoader={}, resolvedClassLoader={}, class={}, method={}, params={}",
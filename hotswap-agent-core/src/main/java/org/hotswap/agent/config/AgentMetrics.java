@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.BoundedClassPool;
+import org.hotswap.agent.util.ClassBytesStore;
+import org.hotswap.agent.util.StartupCache;
+import org.hotswap.agent.util.WeakRegistry;
+
+/**
+ * Metrics of the plugin manager subsystems.
+ */
+public class AgentMetrics implements AgentMetricsMXBean {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(AgentMetrics.class);
+
+    public static final String OBJECT_NAME = "org.hotswap.agent:type=Metrics";
+
+    private final PluginManager pluginManager;
+
+    public AgentMetrics(PluginManager pluginManager) {
+        this.pluginManager = pluginManager;
+    }
+
+    /**
+     * Register the MBean to the platform MBean server.
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            LOGGER.debug("Agent metrics registered as {}.", OBJECT_NAME);
+        } catch (Exception e) {
+            LOGGER.warning("Unable to register agent metrics MBean {}.", e, OBJECT_NAME);
+        }
+    }
+
+    @Override
+    public long getRedefinitionSubmissionCount() {
+        RedefinitionCoalescer coalescer = pluginManager.getRedefinitionCoalescer();
+        return coalescer != null ? coalescer.getSubmissionCount() : -1;
+    }
+
+    @Override
+    public long getRedefineCallCount() {
+        RedefinitionCoalescer coalescer = pluginManager.getRedefinitionCoalescer();
+        return coalescer != null ? coalescer.getRedefineCallCount() : -1;
+    }
+
+    @Override
+    public long getSavedSafepointCount() {
+        RedefinitionCoalescer coalescer = pluginManager.getRedefinitionCoalescer();
+        return coalescer != null ? coalescer.getSavedSafepointCount() : -1;
+    }
+
+    @Override
+    public long getRedefinedClassCount() {
+        RedefinitionCoalescer coalescer = pluginManager.getRedefinitionCoalescer();
+        return coalescer != null ? coalescer.getRedefinedClassCount() : -1;
+    }
+
+    @Override
+    public long getSkippedClassCount() {
+        RedefinitionCoalescer coalescer = pluginManager.getRedefinitionCoalescer();
+        return coalescer != null ? coalescer.getSkippedClassCount() : -1;
+    }
+
+    @Override
+    public int getClassBytesStoreCount() {
+        ClassBytesStore store = pluginManager.getClassBytesStore();
+        return store != null ? store.getCount() : -1;
+    }
+
+    @Override
+    public long getClassBytesStoreSize() {
+        ClassBytesStore store = pluginManager.getClassBytesStore();
+        return store != null ? store.getSize() : -1;
+    }
+
+    @Override
+    public long getClassBytesStoreEvictionCount() {
+        ClassBytesStore store = pluginManager.getClassBytesStore();
+        return store != null ? store.getEvictionCount() : -1;
+    }
+
+    @Override
+    public int getStartupCacheHitCount() {
+        StartupCache startupCache = pluginManager.getStartupCache();
+        return startupCache != null ? startupCache.getHitCount() : -1;
+    }
+
+    @Override
+    public int getStartupCacheMissCount() {
+        StartupCache startupCache = pluginManager.getStartupCache();
+        return startupCache != null ? startupCache.getMissCount() : -1;
+    }
+
+    @Override
+    public int getPendingPluginCount() {
+        LazyPluginActivator activator = pluginManager.getPluginRegistry().getLazyPluginActivator();
+        return activator != null ? activator.getPendingPluginCount() : -1;
+    }
+
+    @Override
+    public int getActivatedPluginCount() {
+        LazyPluginActivator activator = pluginManager.getPluginRegistry().getLazyPluginActivator();
+        return activator != null ? activator.getActivatedPluginCount() : -1;
+    }
+
+    @Override
+    public int getClassPoolCachedCount() {
+        return pluginManager.getClassPool() instanceof BoundedClassPool ?
+                ((BoundedClassPool) pluginManager.getClassPool()).getCachedCount() : -1;
+    }
+
+    @Override
+    public long getClassPoolEvictionCount() {
+        return pluginManager.getClassPool() instanceof BoundedClassPool ?
+                ((BoundedClassPool) pluginManager.getClassPool()).getEvictionCount() : -1;
+    }
+
+    @Override
+    public int getClassReferenceGraphClassCount() {
+        return pluginManager.getClassReferenceGraph().getClassCount();
+    }
+
+    @Override
+    public int getClassHierarchyIndexClassCount() {
+        return pluginManager.getClassHierarchyIndex().getClassCount();
+    }
+
+    @Override
+    public Map<String, String> getTrackedClassLoaders() {
+        Map<String, String> ret = new LinkedHashMap<>();
+        for (Map.Entry<ClassLoader, List<String>> entry : WeakRegistry.getTrackedClassLoaders().entrySet()) {
+            // toString() of distinct classloaders may be equal
+            String name = entry.getKey().toString() + "@" + Integer.toHexString(System.identityHashCode(entry.getKey()));
+            ret.put(name, entry.getValue().toString());
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<String, Long> getRetainedSizes() {
+        return pluginManager.getMemoryFootprint().measure();
+    }
+}
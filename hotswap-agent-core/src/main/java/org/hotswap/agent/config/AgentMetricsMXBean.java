@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import java.util.Map;
+
+/**
+ * Agent metrics exposed via JMX (object name {@value AgentMetrics#OBJECT_NAME}), registered if the metrics.mbean
+ * property is true. Counters of disabled features are -1.
+ */
+public interface AgentMetricsMXBean {
+
+    long getRedefinitionSubmissionCount();
+
+    long getRedefineCallCount();
+
+    long getSavedSafepointCount();
+
+    long getRedefinedClassCount();
+
+    long getSkippedClassCount();
+
+    int getClassBytesStoreCount();
+
+    long getClassBytesStoreSize();
+
+    long getClassBytesStoreEvictionCount();
+
+    int getStartupCacheHitCount();
+
+    int getStartupCacheMissCount();
+
+    int getPendingPluginCount();
+
+    int getActivatedPluginCount();
+
+    int getClassPoolCachedCount();
+
+    long getClassPoolEvictionCount();
+
+    int getClassReferenceGraphClassCount();
+
+    int getClassHierarchyIndexClassCount();
+
+    /**
+     * @return class loaders still tracked by agent registries (toString of the class loader -> registry names)
+     */
+    Map<String, String> getTrackedClassLoaders();
+
+    /**
+     * Estimate heap retained by agent subsystems, the object graph is walked on each call.
+     *
+     * @return subsystem name -> estimated size in bytes
+     */
+    Map<String, Long> getRetainedSizes();
+}
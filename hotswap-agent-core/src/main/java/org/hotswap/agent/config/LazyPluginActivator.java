@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.scanner.PluginIndex;
+
+/**
+ * Activates plugins lazily on first class matching any of the plugin trigger patterns.
+ * <p/>
+ * Only trigger patterns (classNameRegexp of static {@code @OnClassLoadEvent} methods from the plugin index) are
+ * registered at startup. When the transformer sees a matching class, the plugin class is loaded and processed
+ * (static handlers registered) before transformers are resolved for this class, hence the plugin transforms
+ * the triggering class as if it were registered eagerly.
+ * <p/>
+ * Triggers of plugins not used by the application never fire, hence the check runs on every class load. It matches
+ * the class name against one combined pattern of all pending triggers without locking, the lock is taken only
+ * when a trigger matches.
+ */
+public class LazyPluginActivator {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(LazyPluginActivator.class);
+
+    private static class Trigger {
+        final Pattern pattern;
+        final PluginIndex.Entry entry;
+
+        Trigger(Pattern pattern, PluginIndex.Entry entry) {
+            this.pattern = pattern;
+            this.entry = entry;
+        }
+    }
+
+    private final PluginRegistry pluginRegistry;
+
+    // guarded by this
+    private final List<Trigger> triggers = new ArrayList<>();
+
+    // alternation of all pending trigger patterns, null if none, rebuilt whenever triggers change
+    private volatile Pattern combinedPattern;
+
+    private volatile int activatedPluginCount;
+
+    public LazyPluginActivator(PluginRegistry pluginRegistry) {
+        this.pluginRegistry = pluginRegistry;
+    }
+
+    /**
+     * Register trigger patterns of a lazy plugin.
+     *
+     * @param entry plugin index entry
+     */
+    public synchronized void register(PluginIndex.Entry entry) {
+        for (String triggerPattern : entry.getTriggerPatterns()) {
+            triggers.add(new Trigger(Pattern.compile(normalizeRegexp(triggerPattern)), entry));
+        }
+        updateCombinedPattern();
+    }
+
+    /**
+     * Activate all pending plugins with a trigger matching the class.
+     *
+     * @param className       class name as in the transformer ('/' separated), may be null
+     * @param redefiningClass class being redefined or null
+     */
+    public void activate(String className, Class<?> redefiningClass) {
+        Pattern combined = combinedPattern;
+        if (combined == null || !(matches(combined, className)
+                || (redefiningClass != null && matches(combined, redefiningClass.getName())))) {
+            return;
+        }
+        synchronized (this) {
+            List<PluginIndex.Entry> toActivate = null;
+            for (Trigger trigger : triggers) {
+                if ((className != null && trigger.pattern.matcher(className).matches())
+                        || (redefiningClass != null && trigger.pattern.matcher(redefiningClass.getName()).matches())) {
+                    if (toActivate == null) {
+                        toActivate = new ArrayList<>();
+                    }
+                    if (!toActivate.contains(trigger.entry)) {
+                        toActivate.add(trigger.entry);
+                    }
+                }
+            }
+            if (toActivate == null) {
+                return;
+            }
+
+            // remove triggers first - plugin class loading reenters the transformer
+            for (Iterator<Trigger> it = triggers.iterator(); it.hasNext(); ) {
+                if (toActivate.contains(it.next().entry)) {
+                    it.remove();
+                }
+            }
+            updateCombinedPattern();
+
+            for (PluginIndex.Entry entry : toActivate) {
+                LOGGER.debug("Activating plugin {} by class {}.", entry.getName(), className);
+                pluginRegistry.activatePlugin(entry.getPluginClass());
+                activatedPluginCount++;
+            }
+        }
+    }
+
+    /**
+     * @return number of plugins waiting for a trigger class
+     */
+    public synchronized int getPendingPluginCount() {
+        List<PluginIndex.Entry> entries = new ArrayList<>();
+        for (Trigger trigger : triggers) {
+            if (!entries.contains(trigger.entry)) {
+                entries.add(trigger.entry);
+            }
+        }
+        return entries.size();
+    }
+
+    /**
+     * @return number of plugins activated by a trigger class
+     */
+    public int getActivatedPluginCount() {
+        return activatedPluginCount;
+    }
+
+    private static boolean matches(Pattern pattern, String className) {
+        return className != null && pattern.matcher(className).matches();
+    }
+
+    // guarded by this
+    private void updateCombinedPattern() {
+        if (triggers.isEmpty()) {
+            combinedPattern = null;
+            return;
+        }
+        StringBuilder b = new StringBuilder();
+        for (Trigger trigger : triggers) {
+            if (b.length() > 0) {
+                b.append('|');
+            }
+            b.append("(?:").append(trigger.pattern.pattern()).append(')');
+        }
+        combinedPattern = Pattern.compile(b.toString());
+    }
+
+    private static String normalizeRegexp(String regexp) {
+        String result = regexp;
+        if (!result.startsWith("^")) {
+            result = "^" + result;
+        }
+        if (!result.endsWith("$")) {
+            result = result + "$";
+        }
+        return result;
+    }
+}
@@ -278,6 +278,31 @@ public class PluginConfiguration {
         return convertToURL(getProperty("watchResources"));
     }
 
+    /**
+     * Check if the jar should be watched for changes (watchJars property).
+     *
+     * @param url jar file URL or jar URL of an entry inside the jar
+     * @return true if the jar file name matches any of watchJars patterns
+     */
+    public boolean isWatchedJar(URL url) {
+        String watchJars = getProperty("watchJars");
+        if (watchJars == null || watchJars.trim().isEmpty()) {
+            return false;
+        }
+        String path = url.getPath();
+        int separator = path.indexOf("!/");
+        if (separator != -1) {
+            path = path.substring(0, separator);
+        }
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        for (String pattern : watchJars.split(",")) {
+            if (Pattern.matches(pattern.trim(), fileName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Converts watchResources property to URL array. Invalid URLs will be skipped and logged as error.
      */
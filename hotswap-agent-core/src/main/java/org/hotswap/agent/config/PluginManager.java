@@ -19,20 +19,27 @@
 package org.hotswap.agent.config;
 
 import java.io.IOException;
-import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
 import java.security.ProtectionDomain;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.command.impl.SchedulerImpl;
+import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.BoundedClassPool;
+import org.hotswap.agent.util.ClassBytesStore;
+import org.hotswap.agent.util.ClassHierarchyIndex;
+import org.hotswap.agent.util.ClassReferenceGraph;
 import org.hotswap.agent.util.HotswapTransformer;
+import org.hotswap.agent.util.MemoryFootprint;
+import org.hotswap.agent.util.StartupCache;
+import org.hotswap.agent.util.WeakRegistry;
 import org.hotswap.agent.util.classloader.ClassLoaderDefineClassPatcher;
+import org.hotswap.agent.util.signature.ClassChangeClassifier;
+import org.hotswap.agent.util.signature.ClassSignatureComparerHelper;
 import org.hotswap.agent.watch.Watcher;
 import org.hotswap.agent.watch.WatcherFactory;
 
@@ -69,6 +76,22 @@ public class PluginManager {
 
     private Object hotswapLock = new Object();
 
+    // all redefinitions are merged here
+    private RedefinitionCoalescer redefinitionCoalescer;
+
+    private ClassBytesStore classBytesStore;
+
+    private StartupCache startupCache;
+
+    private BoundedClassPool classPool;
+
+    // replaced by configured instance in init()
+    private MemoryFootprint memoryFootprint = new MemoryFootprint(null, 0);
+
+    private final ClassReferenceGraph classReferenceGraph = new ClassReferenceGraph();
+
+    private final ClassHierarchyIndex classHierarchyIndex = new ClassHierarchyIndex();
+
     //////////////////////////   PLUGINS /////////////////////////////////////
 
     /**
@@ -79,6 +102,11 @@ public class PluginManager {
      * @return plugin instance or null if not found
      */
     public Object getPlugin(String clazz, ClassLoader classLoader) {
+        // hot path from instrumented code, skip class resolution if already resolved
+        Object plugin = pluginRegistry.getResolvedPlugin(clazz, classLoader);
+        if (plugin != null) {
+            return plugin;
+        }
         try {
             return getPlugin(Class.forName(clazz), classLoader);
         } catch (ClassNotFoundException e) {
@@ -126,11 +154,12 @@ public class PluginManager {
 
         // create default configuration from this classloader
         ClassLoader classLoader = getClass().getClassLoader();
-        classLoaderConfigurations.put(classLoader, new PluginConfiguration(classLoader));
+        PluginConfiguration agentConfiguration = new PluginConfiguration(classLoader);
+        classLoaderConfigurations.put(classLoader, agentConfiguration);
 
         if (watcher == null) {
             try {
-                watcher = new WatcherFactory().getWatcher();
+                watcher = new WatcherFactory().getWatcher(agentConfiguration);
             } catch (IOException e) {
                 LOGGER.debug("Unable to create default watcher.", e);
             }
@@ -142,14 +171,72 @@ public class PluginManager {
         }
         scheduler.run();
 
+        redefinitionCoalescer = new RedefinitionCoalescer(instrumentation, scheduler, hotswapLock);
+        redefinitionCoalescer.setHotswapTransformer(hotswapTransformer);
+        redefinitionCoalescer.setSkipDebugInfoOnly(agentConfiguration.getPropertyBoolean("redefinition.skipDebugInfoOnly"));
+
+        classBytesStore = ClassBytesStore.create(agentConfiguration);
+        startupCache = StartupCache.create(agentConfiguration, scheduler);
+        classPool = BoundedClassPool.create(agentConfiguration);
+        hotswapTransformer.setClassBytesStore(classBytesStore);
+        hotswapTransformer.setClassReferenceGraph(classReferenceGraph);
+        hotswapTransformer.setClassHierarchyIndex(classHierarchyIndex);
+
+        initMemoryFootprint(agentConfiguration);
+        if (agentConfiguration.getPropertyBoolean("metrics.mbean")) {
+            new AgentMetrics(this).register();
+        }
+
+        if (agentConfiguration.getPropertyBoolean("lazyPluginActivation")) {
+            LazyPluginActivator lazyPluginActivator = new LazyPluginActivator(pluginRegistry);
+            pluginRegistry.setLazyPluginActivator(lazyPluginActivator);
+            hotswapTransformer.setLazyPluginActivator(lazyPluginActivator);
+        }
+
+        lazyPluginClassDefinition = agentConfiguration.getPropertyBoolean("lazyPluginClassDefinition");
+        if (lazyPluginClassDefinition) {
+            hotswapTransformer.setClassLoaderPatcher(classLoaderPatcher);
+        }
+
         pluginRegistry.scanPlugins(getClass().getClassLoader(), PLUGIN_PACKAGE);
 
         LOGGER.debug("Registering transformer ");
         instrumentation.addTransformer(hotswapTransformer);
     }
 
+    // register agent subsystems for memory accounting, plugins are registered by the plugin registry
+    private void initMemoryFootprint(PluginConfiguration agentConfiguration) {
+        memoryFootprint = MemoryFootprint.create(agentConfiguration, instrumentation, scheduler);
+        memoryFootprint.exclude(this);
+        memoryFootprint.register("pluginRegistry", pluginRegistry);
+        memoryFootprint.register("hotswapTransformer", hotswapTransformer);
+        memoryFootprint.register("pluginClassCache", ClassLoaderDefineClassPatcher.class);
+        memoryFootprint.register("classLoaderConfigurations", classLoaderConfigurations);
+        memoryFootprint.register("classPool", getClassPool());
+        memoryFootprint.register("classSignatures", ClassChangeClassifier.class);
+        memoryFootprint.register("classSignatures", ClassSignatureComparerHelper.class);
+        memoryFootprint.register("classReferenceGraph", classReferenceGraph);
+        memoryFootprint.register("classHierarchyIndex", classHierarchyIndex);
+        memoryFootprint.register("redefinitionCoalescer", redefinitionCoalescer);
+        if (classBytesStore != null) {
+            memoryFootprint.register("classBytesStore", classBytesStore);
+        }
+        if (startupCache != null) {
+            memoryFootprint.register("startupCache", startupCache);
+        }
+        memoryFootprint.register("watcher", watcher);
+        memoryFootprint.register("scheduler", scheduler);
+    }
+
     ClassLoaderDefineClassPatcher classLoaderPatcher = new ClassLoaderDefineClassPatcher();
-    Map<ClassLoader, PluginConfiguration> classLoaderConfigurations = new HashMap<>();
+    // define plugin classes in application classloaders only when used instead of copying all of them
+    boolean lazyPluginClassDefinition;
+    // the configuration references its classloader
+    WeakRegistry<ClassLoader, PluginConfiguration> classLoaderConfigurations =
+            WeakRegistry.classLoaderScoped("PluginManager.classLoaderConfigurations");
+    // classloader being initialized on the thread holding the lock, storing its configuration may define
+    // a class in it and call initClassLoader() again
+    private ClassLoader initializingClassLoader;
     Set<ClassLoaderInitListener> classLoaderInitListeners = new HashSet<>();
 
     public void registerClassLoaderInitListener(ClassLoaderInitListener classLoaderInitListener) {
@@ -178,18 +265,23 @@ public class PluginManager {
         // synchronize ClassLoader patching - multiple classloaders may be patched at the same time
         // and they may synchronize loading for security reasons and introduce deadlocks
         synchronized (this) {
-            if (classLoaderConfigurations.containsKey(classLoader))
+            if (classLoaderConfigurations.containsKey(classLoader) || classLoader == initializingClassLoader)
                 return;
 
             // transformation
-            if (classLoader != null && classLoaderPatcher.isPatchAvailable(classLoader)) {
+            if (classLoader != null && !lazyPluginClassDefinition && classLoaderPatcher.isPatchAvailable(classLoader)) {
                 classLoaderPatcher.patch(getClass().getClassLoader(), PLUGIN_PACKAGE.replace(".", "/"),
                         classLoader, protectionDomain);
             }
 
             // create new configuration for the classloader
             PluginConfiguration configuration = new PluginConfiguration(getPluginConfiguration(getClass().getClassLoader()), classLoader);
-            classLoaderConfigurations.put(classLoader, configuration);
+            initializingClassLoader = classLoader;
+            try {
+                classLoaderConfigurations.put(classLoader, configuration);
+            } finally {
+                initializingClassLoader = null;
+            }
         }
 
         // call listeners
@@ -197,6 +289,22 @@ public class PluginManager {
             classLoaderInitListener.onInit(classLoader);
     }
 
+    /**
+     * Ensure a plugin class looked up by name in an application classloader is defined in this classloader
+     * (and not resolved from the agent classloader). Needed only if plugin classes are defined on demand,
+     * plugin classes referenced from instrumented code are defined automatically.
+     *
+     * @param classLoader application classloader
+     * @param className   class name, ignored if not a plugin class
+     */
+    public void definePluginClass(ClassLoader classLoader, String className) {
+        if (lazyPluginClassDefinition && classLoader != null && classLoader != getClass().getClassLoader()
+                && className.startsWith(PLUGIN_PACKAGE + ".") && classLoaderPatcher.isPatchAvailable(classLoader)) {
+            classLoaderPatcher.patchClass(getClass().getClassLoader(), PLUGIN_PACKAGE.replace(".", "/"),
+                    classLoader, null, className);
+        }
+    }
+
     /**
      * Remove any classloader reference and close all plugin instances associated with classloader.
      * This method is called typically after webapp undeploy.
@@ -207,6 +315,11 @@ public class PluginManager {
         pluginRegistry.closeClassLoader(classLoader);
         classLoaderConfigurations.remove(classLoader);
         hotswapTransformer.closeClassLoader(classLoader);
+        if (classBytesStore != null) {
+            classBytesStore.closeClassLoader(classLoader);
+        }
+        classReferenceGraph.closeClassLoader(classLoader);
+        classHierarchyIndex.closeClassLoader(classLoader);
     }
 
 
@@ -268,7 +381,8 @@ public class PluginManager {
      * Redefine the supplied set of classes using the supplied bytecode.
      *
      * This method operates on a set in order to allow interdependent changes to more than one class at the same time
-     * (a redefinition of class A can require a redefinition of class B).
+     * (a redefinition of class A can require a redefinition of class B). Redefinitions pending in
+     * {@link RedefinitionCoalescer} are redefined in the same call.
      *
      * @param reloadMap class -> new bytecode
      * @see java.lang.instrument.Instrumentation#redefineClasses(java.lang.instrument.ClassDefinition...)
@@ -279,22 +393,7 @@ public class PluginManager {
         }
 
         synchronized (reloadMap) {
-            ClassDefinition[] definitions = new ClassDefinition[reloadMap.size()];
-            String[] classNames = new String[reloadMap.size()];
-            int i = 0;
-            for (Map.Entry<Class<?>, byte[]> entry : reloadMap.entrySet()) {
-                classNames[i] = entry.getKey().getName();
-                definitions[i++] = new ClassDefinition(entry.getKey(), entry.getValue());
-            }
-            try {
-                LOGGER.reload("Reloading classes {} (autoHotswap)", Arrays.toString(classNames));
-                synchronized (hotswapLock) {
-                    instrumentation.redefineClasses(definitions);
-                }
-                LOGGER.debug("... reloaded classes {} (autoHotswap)", Arrays.toString(classNames));
-            } catch (Exception e) {
-                throw new IllegalStateException("Unable to redefine classes", e);
-            }
+            redefinitionCoalescer.redefine(reloadMap);
             reloadMap.clear();
         }
     }
@@ -308,6 +407,7 @@ public class PluginManager {
 
     /**
      * Redefine the supplied set of classes using the supplied bytecode in scheduled command. Actual hotswap is postponed by timeout
+     * and merged with other redefinitions submitted in the meantime (see {@link RedefinitionCoalescer}).
      *
      * This method operates on a set in order to allow interdependent changes to more than one class at the same time
      * (a redefinition of class A can require a redefinition of class B).
@@ -319,7 +419,64 @@ public class PluginManager {
         if (instrumentation == null) {
             throw new IllegalStateException("Plugin manager is not correctly initialized - no instrumentation available.");
         }
-        getScheduler().scheduleCommand(new ScheduledHotswapCommand(reloadMap), timeout);
+        redefinitionCoalescer.submit(reloadMap, timeout, null);
+    }
+
+    /**
+     * Returns the coalescer merging redefinitions from all sources into a single redefineClasses() call.
+     */
+    public RedefinitionCoalescer getRedefinitionCoalescer() {
+        return redefinitionCoalescer;
+    }
+
+    /**
+     * Returns original class files of loaded classes captured on class definition.
+     *
+     * @return the store or null if disabled
+     */
+    public ClassBytesStore getClassBytesStore() {
+        return classBytesStore;
+    }
+
+    /**
+     * Persistent cache of data computed from JAR files at startup.
+     *
+     * @return the cache or null if disabled (startupCache property)
+     */
+    public StartupCache getStartupCache() {
+        return startupCache;
+    }
+
+    /**
+     * Estimate of heap retained by agent subsystems and plugins.
+     *
+     * @return the memory footprint
+     */
+    public MemoryFootprint getMemoryFootprint() {
+        return memoryFootprint;
+    }
+
+    /**
+     * Class pool passed to plugin methods (watch event handlers with a ClassPool parameter).
+     *
+     * @return bounded pool if configured (classPool.maxSize or classPool.maxAgeSeconds), otherwise default ClassPool
+     */
+    public ClassPool getClassPool() {
+        return classPool != null ? classPool : ClassPool.getDefault();
+    }
+
+    /**
+     * Returns class reference graph of application classes (classes defined from a directory).
+     */
+    public ClassReferenceGraph getClassReferenceGraph() {
+        return classReferenceGraph;
+    }
+
+    /**
+     * Returns superclass, interface and annotation index of application classes (classes defined from a directory).
+     */
+    public ClassHierarchyIndex getClassHierarchyIndex() {
+        return classHierarchyIndex;
     }
 
 }
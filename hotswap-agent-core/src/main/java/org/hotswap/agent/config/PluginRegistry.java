@@ -29,9 +29,11 @@ import org.hotswap.agent.HotswapAgent;
 import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.annotation.handler.AnnotationProcessor;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.WeakRegistry;
 import org.hotswap.agent.util.classloader.ClassLoaderDefineClassPatcher;
 import org.hotswap.agent.util.scanner.ClassPathAnnotationScanner;
-import org.hotswap.agent.util.scanner.ClassPathScanner;
+import org.hotswap.agent.util.scanner.ParallelClassPathScanner;
+import org.hotswap.agent.util.scanner.PluginIndex;
 
 /**
  * Registry to support plugin manager.
@@ -42,7 +44,7 @@ public class PluginRegistry {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(PluginRegistry.class);
 
-    // plugin class -> Map (ClassLoader -> Plugin instance)
+    // plugin class -> Map (ClassLoader -> Plugin instance), app classloaders are held weakly
     protected Map<Class, Map<ClassLoader, Object>> registeredPlugins = Collections.synchronizedMap(new HashMap<Class, Map<ClassLoader, Object>>());
 
     /**
@@ -51,9 +53,22 @@ public class PluginRegistry {
      * @return map plugin class -> Map (ClassLoader -> Plugin instance)
      */
     public Map<Class, Map<ClassLoader, Object>> getRegisteredPlugins() {
+        // the caller may modify the registry directly
+        clearResolvedPlugins();
         return registeredPlugins;
     }
 
+    // resolved getPlugin() lookups: requesting classloader -> (plugin class name -> plugin instance)
+    private final WeakRegistry<ClassLoader, Map<String, Object>> resolvedPlugins =
+            WeakRegistry.classLoaderScoped("PluginRegistry.resolvedPlugins");
+
+    // incremented on each registry change to discard lookups resolved concurrently, guarded by resolvedPlugins
+    private long resolvedPluginsVersion;
+
+    // reverse map plugin instance -> app classloader
+    private final WeakRegistry<Object, ClassLoader> pluginClassLoaders =
+            WeakRegistry.weakValues("PluginRegistry.pluginClassLoaders");
+
     // plugin manager instance
     private PluginManager pluginManager;
 
@@ -78,13 +93,24 @@ public class PluginRegistry {
         this.classLoaderPatcher = classLoaderPatcher;
     }
 
+    // activate plugins from the plugin index on first trigger class, null for eager processing of all plugins
+    private LazyPluginActivator lazyPluginActivator;
+
+    public void setLazyPluginActivator(LazyPluginActivator lazyPluginActivator) {
+        this.lazyPluginActivator = lazyPluginActivator;
+    }
+
+    public LazyPluginActivator getLazyPluginActivator() {
+        return lazyPluginActivator;
+    }
+
     /**
      * Create an instanec of plugin registry and initialize scanner and processor.
      */
     public PluginRegistry(PluginManager pluginManager, ClassLoaderDefineClassPatcher classLoaderPatcher) {
         this.pluginManager = pluginManager;
         this.classLoaderPatcher = classLoaderPatcher;
-        annotationScanner = new ClassPathAnnotationScanner(Plugin.class.getName(), new ClassPathScanner());
+        annotationScanner = new ClassPathAnnotationScanner(Plugin.class.getName(), new ParallelClassPathScanner());
         annotationProcessor = new AnnotationProcessor(pluginManager);
     }
 
@@ -99,8 +125,25 @@ public class PluginRegistry {
         ClassLoader agentClassLoader = getClass().getClassLoader();
 
         try {
-            List<String> discoveredPlugins = annotationScanner.scanPlugins(classLoader, pluginPath);
+            // prefer the build-time index, scan only packages without it (third party plugins, IDE class directories)
+            List<String> discoveredPlugins;
             List<String> discoveredPluginNames = new ArrayList<>();
+            PluginIndex pluginIndex = PluginIndex.load(classLoader, pluginPath);
+            if (pluginIndex != null) {
+                discoveredPlugins = new ArrayList<>();
+                for (PluginIndex.Entry entry : pluginIndex.getEntries()) {
+                    if (HotswapAgent.isPluginDisabled(entry.getName())) {
+                        LOGGER.debug("Plugin {} is disabled, skipping...", entry.getName());
+                    } else if (lazyPluginActivator != null && entry.isLazy() && agentClassLoader == classLoader) {
+                        lazyPluginActivator.register(entry);
+                        discoveredPluginNames.add(entry.getName());
+                    } else {
+                        discoveredPlugins.add(entry.getPluginClass());
+                    }
+                }
+            } else {
+                discoveredPlugins = annotationScanner.scanPlugins(classLoader, pluginPath);
+            }
 
             // Plugin class must be always defined directly in the agent classloader, otherwise it will not be available
             // to the instrumentation process. Copy the definition using patcher
@@ -109,42 +152,71 @@ public class PluginRegistry {
             }
 
             for (String discoveredPlugin : discoveredPlugins) {
-                Class pluginClass = Class.forName(discoveredPlugin, true, agentClassLoader);
-                Plugin pluginAnnotation = (Plugin) pluginClass.getAnnotation(Plugin.class);
-
-                if (pluginAnnotation == null) {
-                    LOGGER.error("Scanner discovered plugin class {} which does not contain @Plugin annotation.", pluginClass);
-                    continue;
+                String pluginName = processPlugin(discoveredPlugin, agentClassLoader);
+                if (pluginName != null) {
+                    discoveredPluginNames.add(pluginName);
                 }
-                String pluginName = pluginAnnotation.name();
+            }
 
-                if (HotswapAgent.isPluginDisabled(pluginName)) {
-                    LOGGER.debug("Plugin {} is disabled, skipping...", pluginName);
-                    continue;
-                }
+            LOGGER.info("Discovered plugins: " + Arrays.toString(discoveredPluginNames.toArray()));
 
-                // check for duplicate plugin definition. It may happen if class directory AND the JAR file
-                // are both available.
-                if (registeredPlugins.containsKey(pluginClass))
-                    continue;
+        } catch (Exception e) {
+            LOGGER.error("Error in plugin initial processing for plugin package '{}'", e, pluginPackage);
+        }
+    }
 
-                registeredPlugins.put(pluginClass, Collections.synchronizedMap(new HashMap<ClassLoader, Object>()));
+    /**
+     * Load and process a lazy plugin in the agent classloader, called by {@link LazyPluginActivator}
+     * on first trigger class.
+     *
+     * @param pluginClassName plugin class name
+     */
+    public void activatePlugin(String pluginClassName) {
+        try {
+            if (processPlugin(pluginClassName, getClass().getClassLoader()) != null) {
+                LOGGER.debug("Plugin {} activated.", pluginClassName);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error activating plugin '{}'", e, pluginClassName);
+        }
+    }
 
-                if (annotationProcessor.processAnnotations(pluginClass, pluginClass)) {
-                    LOGGER.debug("Plugin registered {}.", pluginClass);
-                } else {
-                    LOGGER.error("Error processing annotations for plugin {}. Plugin was unregistered.", pluginClass);
-                    registeredPlugins.remove(pluginClass);
-                }
+    // load the plugin class, register it and process static annotations. Returns plugin name or null if skipped.
+    private String processPlugin(String pluginClassName, ClassLoader agentClassLoader) throws ClassNotFoundException {
+        Class pluginClass = Class.forName(pluginClassName, true, agentClassLoader);
+        Plugin pluginAnnotation = (Plugin) pluginClass.getAnnotation(Plugin.class);
 
-                discoveredPluginNames.add(pluginName);
-            }
+        if (pluginAnnotation == null) {
+            LOGGER.error("Scanner discovered plugin class {} which does not contain @Plugin annotation.", pluginClass);
+            return null;
+        }
+        String pluginName = pluginAnnotation.name();
 
-            LOGGER.info("Discovered plugins: " + Arrays.toString(discoveredPluginNames.toArray()));
+        if (HotswapAgent.isPluginDisabled(pluginName)) {
+            LOGGER.debug("Plugin {} is disabled, skipping...", pluginName);
+            return null;
+        }
 
-        } catch (Exception e) {
-            LOGGER.error("Error in plugin initial processing for plugin package '{}'", e, pluginPackage);
+        // check for duplicate plugin definition. It may happen if class directory AND the JAR file
+        // are both available.
+        if (registeredPlugins.containsKey(pluginClass))
+            return null;
+
+        registeredPlugins.put(pluginClass, WeakRegistry.<Object>classLoaderScoped("PluginRegistry." + pluginClass.getSimpleName()));
+        clearResolvedPlugins();
+        if (pluginManager != null) {
+            pluginManager.getMemoryFootprint().register("plugin." + pluginName, registeredPlugins.get(pluginClass));
         }
+
+        if (annotationProcessor.processAnnotations(pluginClass, pluginClass)) {
+            LOGGER.debug("Plugin registered {}.", pluginClass);
+        } else {
+            LOGGER.error("Error processing annotations for plugin {}. Plugin was unregistered.", pluginClass);
+            registeredPlugins.remove(pluginClass);
+            clearResolvedPlugins();
+        }
+
+        return pluginName;
     }
 
     /**
@@ -183,6 +255,10 @@ public class PluginRegistry {
         } else {
             LOGGER.error("Plugin '{}' NOT initialized in ClassLoader '{}', error while processing annotations.", pluginClass, appClassLoader);
             registeredPlugins.get(clazz).remove(appClassLoader);
+            if (pluginInstance != null) {
+                pluginClassLoaders.remove(pluginInstance);
+            }
+            clearResolvedPlugins();
         }
 
         return pluginInstance;
@@ -191,6 +267,7 @@ public class PluginRegistry {
     public void initializePluginInstance(Object pluginInstance) {
         registeredPlugins.put(pluginInstance.getClass(),
                 Collections.singletonMap(pluginInstance.getClass().getClassLoader(), pluginInstance));
+        clearResolvedPlugins();
         if (!annotationProcessor.processAnnotations(pluginInstance)) {
             throw new IllegalStateException("Unable to initialize plugin");
         }
@@ -213,6 +290,13 @@ public class PluginRegistry {
                     "Please check your mapPreviousState.");
         }
 
+        Object resolved = getResolvedPlugin(pluginClass.getName(), classLoader);
+        if (resolved != null) {
+            //noinspection unchecked
+            return (T) resolved;
+        }
+        long version = getResolvedPluginsVersion();
+
         if (!registeredPlugins.containsKey(pluginClass))
             throw new IllegalArgumentException(String.format("Plugin %s is not known to the registry.", pluginClass));
 
@@ -220,6 +304,7 @@ public class PluginRegistry {
         synchronized(pluginInstances) {
             for (Map.Entry<ClassLoader, Object> registeredClassLoaderEntry : pluginInstances.entrySet()) {
                 if (isParentClassLoader(registeredClassLoaderEntry.getKey(), classLoader)) {
+                    putResolvedPlugin(pluginClass.getName(), classLoader, registeredClassLoaderEntry.getValue(), version);
                     //noinspection unchecked
                     return (T) registeredClassLoaderEntry.getValue();
                 }
@@ -258,6 +343,10 @@ public class PluginRegistry {
             if (createIfMissing) {
                 Object pluginInstance = instantiate((Class<Object>) pluginClass);
                 pluginInstances.put(classLoader, pluginInstance);
+                if (pluginInstance != null) {
+                    pluginClassLoaders.put(pluginInstance, classLoader);
+                }
+                clearResolvedPlugins();
             }
         }
         return false;
@@ -270,14 +359,21 @@ public class PluginRegistry {
      * @return the classloader this plugin is associated with
      */
     public ClassLoader getAppClassLoader(Object plugin) {
-        // search with for loop. Maybe performance improvement to create reverse map if this is used heavily
+        ClassLoader appClassLoader = pluginClassLoaders.get(plugin);
+        if (appClassLoader != null) {
+            return appClassLoader;
+        }
+
+        // plugin instances registered directly to the map (not via initializePlugin)
         Class<Object> clazz = getPluginClass(plugin.getClass().getName());
         Map<ClassLoader, Object> pluginInstances = registeredPlugins.get(clazz);
         if (pluginInstances != null) {
             synchronized(pluginInstances) {
                 for (Map.Entry<ClassLoader, Object> entry : pluginInstances.entrySet()) {
-                    if (entry.getValue().equals(plugin))
+                    if (entry.getValue().equals(plugin)) {
+                        pluginClassLoaders.put(plugin, entry.getKey());
                         return entry.getKey();
+                    }
                 }
             }
         }
@@ -335,8 +431,57 @@ public class PluginRegistry {
         LOGGER.debug("Closing classloader {}.", classLoader);
         synchronized (registeredPlugins) {
             for (Map<ClassLoader, Object> plugins : registeredPlugins.values()) {
-                plugins.remove(classLoader);
+                Object pluginInstance = plugins.remove(classLoader);
+                if (pluginInstance != null) {
+                    pluginClassLoaders.remove(pluginInstance);
+                }
             }
         }
+        clearResolvedPlugins();
+    }
+
+    /**
+     * Returns plugin instance resolved by a previous {@link #getPlugin(Class, ClassLoader)} call.
+     *
+     * @param pluginClassName plugin class name
+     * @param classLoader     requesting classloader
+     * @return the plugin or null if not resolved yet
+     */
+    public Object getResolvedPlugin(String pluginClassName, ClassLoader classLoader) {
+        if (classLoader == null) {
+            return null;
+        }
+        synchronized (resolvedPlugins) {
+            Map<String, Object> plugins = resolvedPlugins.get(classLoader);
+            return plugins != null ? plugins.get(pluginClassName) : null;
+        }
+    }
+
+    private long getResolvedPluginsVersion() {
+        synchronized (resolvedPlugins) {
+            return resolvedPluginsVersion;
+        }
+    }
+
+    private void putResolvedPlugin(String pluginClassName, ClassLoader classLoader, Object plugin, long version) {
+        synchronized (resolvedPlugins) {
+            // the registry changed while resolving
+            if (version != resolvedPluginsVersion || classLoader == null) {
+                return;
+            }
+            Map<String, Object> plugins = resolvedPlugins.get(classLoader);
+            if (plugins == null) {
+                plugins = new HashMap<>();
+                resolvedPlugins.put(classLoader, plugins);
+            }
+            plugins.put(pluginClassName, plugin);
+        }
+    }
+
+    private void clearResolvedPlugins() {
+        synchronized (resolvedPlugins) {
+            resolvedPluginsVersion++;
+            resolvedPlugins.clear();
+        }
     }
 }
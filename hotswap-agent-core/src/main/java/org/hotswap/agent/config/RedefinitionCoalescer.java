@@ -0,0 +1,478 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.Scheduler;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ClassReferenceGraph;
+import org.hotswap.agent.util.HotswapTransformer;
+import org.hotswap.agent.util.signature.ClassChangeClassifier;
+import org.hotswap.agent.util.signature.ClassChangeKind;
+import org.hotswap.agent.util.signature.ClassSignatureComparerHelper;
+
+/**
+ * Single point of class redefinition. Redefinitions from all sources (autoHotswap, plugins, proxy transformer)
+ * arriving within a window are merged into one Instrumentation.redefineClasses() call.
+ * <p/>
+ * Each redefineClasses() call stops the JVM at a safepoint (with DCEVM followed by a full heap walk), hence
+ * merging redefinitions saves a lot of time on a bulk change. Later bytecode of the same class replaces the
+ * earlier one. If the merged batch is rejected, it is split into independent sets - classes referencing each
+ * other in the constant pool stay in the same set - and each set is redefined separately. An invalid class
+ * does not block redefinition of unrelated classes.
+ * <p/>
+ * The batch is ordered by class references (referenced classes first), class load handlers of plugins are
+ * called in this order, hence plugin refresh commands of a class are scheduled after commands of its dependencies.
+ * <p/>
+ * Optionally (skipDebugInfoOnly), classes whose new bytecode differs only in debug attributes (line numbers, local
+ * variables, source file) are not redefined at all - the debugger then shows stale line numbers. Forced submissions
+ * (plugin-initiated redefinitions, e.g. the second step of a proxy redefinition with identical bytes) and immediate
+ * redefinitions are never skipped.
+ */
+public class RedefinitionCoalescer {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(RedefinitionCoalescer.class);
+
+    /**
+     * Default time to wait for other redefinitions after the last submission.
+     */
+    public static final int DEFAULT_WINDOW = 100;
+
+    /**
+     * Maximum time to postpone the oldest pending redefinition while other submissions keep coming.
+     */
+    public static final int MAX_DELAY = 2000;
+
+    private final Instrumentation instrumentation;
+    private final Scheduler scheduler;
+    private final Object hotswapLock;
+
+    // pending redefinitions, guarded by this
+    private Map<Class<?>, byte[]> pending = new LinkedHashMap<>();
+    private Map<Class<?>, List<Runnable>> failureHandlers = new HashMap<>();
+    private Set<Class<?>> forced = new HashSet<>();
+    private long firstSubmitTime;
+
+    // each submission would be a separate redefineClasses() call without the coalescer
+    private final AtomicLong submissionCount = new AtomicLong();
+    private final AtomicLong redefineCallCount = new AtomicLong();
+    private final AtomicLong redefinedClassCount = new AtomicLong();
+    private final AtomicLong skippedClassCount = new AtomicLong();
+
+    private volatile boolean skipDebugInfoOnly;
+
+    private volatile HotswapTransformer hotswapTransformer;
+
+    private final Command flushCommand = new Command() {
+        @Override
+        public void executeCommand() {
+            flush();
+        }
+
+        @Override
+        public String toString() {
+            return "RedefinitionCoalescer.flush()";
+        }
+    };
+
+    /**
+     * @param instrumentation instrumentation to redefine classes
+     * @param scheduler       scheduler to run postponed redefinition
+     * @param hotswapLock     lock to serialize redefineClasses() calls
+     */
+    public RedefinitionCoalescer(Instrumentation instrumentation, Scheduler scheduler, Object hotswapLock) {
+        this.instrumentation = instrumentation;
+        this.scheduler = scheduler;
+        this.hotswapLock = hotswapLock;
+    }
+
+    /**
+     * Submit redefinitions with the default window.
+     *
+     * @param definitions class -> new bytecode
+     */
+    public void submit(Map<Class<?>, byte[]> definitions) {
+        submit(definitions, DEFAULT_WINDOW, null);
+    }
+
+    /**
+     * Submit redefinitions of changed class files. Redefinition is postponed until no other submission comes
+     * within the window (at most {@link #MAX_DELAY} for the oldest pending redefinition).
+     *
+     * @param definitions class -> new bytecode
+     * @param window      time to wait for other redefinitions
+     * @param onFailure   called if redefinition of any of the classes fails, may be null
+     */
+    public void submit(Map<Class<?>, byte[]> definitions, int window, Runnable onFailure) {
+        submit(definitions, window, onFailure, false);
+    }
+
+    /**
+     * Submit redefinitions. Redefinition is postponed until no other submission comes within the window
+     * (at most {@link #MAX_DELAY} for the oldest pending redefinition).
+     *
+     * @param definitions class -> new bytecode
+     * @param window      time to wait for other redefinitions
+     * @param onFailure   called if redefinition of any of the classes fails, may be null
+     * @param force       always redefine, even if the bytecode differs only in debug attributes or not at all
+     *                    (plugin-initiated redefinitions)
+     */
+    public void submit(Map<Class<?>, byte[]> definitions, int window, Runnable onFailure, boolean force) {
+        if (definitions.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean reschedule;
+        synchronized (this) {
+            boolean wasEmpty = pending.isEmpty();
+            if (wasEmpty) {
+                firstSubmitTime = now;
+            }
+            pending.putAll(definitions);
+            if (force) {
+                forced.addAll(definitions.keySet());
+            }
+            if (onFailure != null) {
+                for (Class<?> clazz : definitions.keySet()) {
+                    List<Runnable> handlers = failureHandlers.get(clazz);
+                    if (handlers == null) {
+                        handlers = new ArrayList<>();
+                        failureHandlers.put(clazz, handlers);
+                    }
+                    handlers.add(onFailure);
+                }
+            }
+            submissionCount.incrementAndGet();
+            // rescheduling restarts the timer, do not postpone the oldest redefinition forever
+            reschedule = wasEmpty || now - firstSubmitTime < MAX_DELAY;
+        }
+        if (reschedule) {
+            scheduler.scheduleCommand(flushCommand, window);
+        }
+    }
+
+    /**
+     * Redefine classes immediately. Pending redefinitions are redefined in the same call.
+     *
+     * @param definitions class -> new bytecode
+     * @throws IllegalStateException if any of the classes could not be redefined
+     */
+    public void redefine(Map<Class<?>, byte[]> definitions) {
+        Map<Class<?>, byte[]> batch;
+        Map<Class<?>, List<Runnable>> handlers;
+        Set<Class<?>> forcedClasses;
+        synchronized (this) {
+            batch = pending;
+            handlers = failureHandlers;
+            forcedClasses = forced;
+            pending = new LinkedHashMap<>();
+            failureHandlers = new HashMap<>();
+            forced = new HashSet<>();
+            submissionCount.incrementAndGet();
+        }
+        // immediate redefinition is the latest bytecode, requested explicitly
+        batch.putAll(definitions);
+        forcedClasses.addAll(definitions.keySet());
+
+        Set<Class<?>> failed = new HashSet<>();
+        Throwable cause = redefineBatch(batch, forcedClasses, failed);
+        runFailureHandlers(handlers, failed);
+        if (!Collections.disjoint(failed, definitions.keySet())) {
+            throw new IllegalStateException("Unable to redefine classes", cause);
+        }
+    }
+
+    /**
+     * Redefine all pending classes now.
+     */
+    public void flush() {
+        Map<Class<?>, byte[]> batch;
+        Map<Class<?>, List<Runnable>> handlers;
+        Set<Class<?>> forcedClasses;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            handlers = failureHandlers;
+            forcedClasses = forced;
+            pending = new LinkedHashMap<>();
+            failureHandlers = new HashMap<>();
+            forced = new HashSet<>();
+        }
+
+        Set<Class<?>> failed = new HashSet<>();
+        redefineBatch(batch, forcedClasses, failed);
+        runFailureHandlers(handlers, failed);
+    }
+
+    /**
+     * @param hotswapTransformer transformer to notify about successful redefinitions (class indexes are
+     *                           updated only after a successful redefinition), null to disable
+     */
+    public void setHotswapTransformer(HotswapTransformer hotswapTransformer) {
+        this.hotswapTransformer = hotswapTransformer;
+    }
+
+    /**
+     * Do not redefine submitted classes which differ only in debug attributes from the loaded version. Line numbers
+     * in the debugger are then out of sync with the source code.
+     *
+     * @param skipDebugInfoOnly true to skip debug-info-only changes
+     */
+    public void setSkipDebugInfoOnly(boolean skipDebugInfoOnly) {
+        this.skipDebugInfoOnly = skipDebugInfoOnly;
+    }
+
+    /**
+     * @return number of submitted redefinitions (each would be a redefineClasses() call on its own)
+     */
+    public long getSubmissionCount() {
+        return submissionCount.get();
+    }
+
+    /**
+     * @return number of actual redefineClasses() calls (safepoints)
+     */
+    public long getRedefineCallCount() {
+        return redefineCallCount.get();
+    }
+
+    /**
+     * @return number of redefineClasses() calls (safepoints) saved by merging
+     */
+    public long getSavedSafepointCount() {
+        return Math.max(0, submissionCount.get() - redefineCallCount.get());
+    }
+
+    /**
+     * @return number of redefined classes
+     */
+    public long getRedefinedClassCount() {
+        return redefinedClassCount.get();
+    }
+
+    /**
+     * @return number of classes not redefined because only debug attributes changed
+     */
+    public long getSkippedClassCount() {
+        return skippedClassCount.get();
+    }
+
+    // redefine the batch, on failure split to independent sets and redefine each separately
+    private Throwable redefineBatch(Map<Class<?>, byte[]> batch, Set<Class<?>> forcedClasses, Set<Class<?>> failed) {
+        if (skipDebugInfoOnly) {
+            removeDebugInfoOnly(batch, forcedClasses);
+        }
+        if (batch.isEmpty()) {
+            return null;
+        }
+        batch = ClassReferenceGraph.order(batch);
+        Throwable cause = null;
+        try {
+            redefineClasses(batch);
+        } catch (Throwable e) {
+            cause = e;
+            List<Map<Class<?>, byte[]>> sets = splitIndependentSets(batch);
+            if (sets.size() == 1) {
+                LOGGER.error("Unable to redefine classes {}", e, classNames(batch));
+                failed.addAll(batch.keySet());
+            } else {
+                LOGGER.debug("Redefinition of {} classes failed, redefining {} independent sets separately.",
+                        batch.size(), sets.size());
+                for (Map<Class<?>, byte[]> set : sets) {
+                    try {
+                        redefineClasses(set);
+                    } catch (Throwable setException) {
+                        LOGGER.error("Unable to redefine classes {}", setException, classNames(set));
+                        failed.addAll(set.keySet());
+                        cause = setException;
+                    }
+                }
+            }
+        }
+        LOGGER.debug("{} redefineClasses() calls for {} submitted redefinitions, {} safepoints saved.",
+                redefineCallCount.get(), submissionCount.get(), getSavedSafepointCount());
+        return cause;
+    }
+
+    private void removeDebugInfoOnly(Map<Class<?>, byte[]> batch, Set<Class<?>> forcedClasses) {
+        for (Iterator<Map.Entry<Class<?>, byte[]>> it = batch.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Class<?>, byte[]> entry = it.next();
+            if (forcedClasses.contains(entry.getKey())) {
+                continue;
+            }
+            ClassChangeKind changeKind = ClassChangeClassifier.classify(entry.getKey(), entry.getValue());
+            // identical bytes (NONE) are redefined - a resubmission may be intentional
+            if (changeKind == ClassChangeKind.DEBUG_INFO_ONLY) {
+                LOGGER.debug("Skipping redefinition of class {}, change kind {}.", entry.getKey().getName(), changeKind);
+                skippedClassCount.incrementAndGet();
+                it.remove();
+            }
+        }
+    }
+
+    private void redefineClasses(Map<Class<?>, byte[]> batch) throws Exception {
+        ClassDefinition[] definitions = new ClassDefinition[batch.size()];
+        int i = 0;
+        for (Map.Entry<Class<?>, byte[]> entry : batch.entrySet()) {
+            definitions[i++] = new ClassDefinition(entry.getKey(), entry.getValue());
+        }
+        String classNames = classNames(batch);
+        LOGGER.reload("Reloading classes {} (autoHotswap)", classNames);
+        synchronized (hotswapLock) {
+            redefineCallCount.incrementAndGet();
+            try {
+                instrumentation.redefineClasses(definitions);
+            } catch (Exception | Error e) {
+                for (Class<?> clazz : batch.keySet()) {
+                    ClassChangeClassifier.redefinitionFailed(clazz);
+                }
+                throw e;
+            }
+        }
+        HotswapTransformer transformer = hotswapTransformer;
+        for (Map.Entry<Class<?>, byte[]> entry : batch.entrySet()) {
+            ClassChangeClassifier.redefinitionSucceeded(entry.getKey(), entry.getValue());
+            if (transformer != null) {
+                transformer.redefinitionSucceeded(entry.getKey(), entry.getValue());
+            }
+        }
+        // cached signatures may have been computed between transformation and the actual redefinition
+        for (Class<?> clazz : batch.keySet()) {
+            ClassSignatureComparerHelper.invalidate(clazz);
+        }
+        redefinedClassCount.addAndGet(definitions.length);
+        LOGGER.debug("... reloaded classes {} (autoHotswap)", classNames);
+    }
+
+    private void runFailureHandlers(Map<Class<?>, List<Runnable>> handlers, Set<Class<?>> failed) {
+        if (failed.isEmpty() || handlers.isEmpty()) {
+            return;
+        }
+        Set<Runnable> toRun = new LinkedHashSet<>();
+        for (Class<?> clazz : failed) {
+            List<Runnable> classHandlers = handlers.get(clazz);
+            if (classHandlers != null) {
+                toRun.addAll(classHandlers);
+            }
+        }
+        for (Runnable handler : toRun) {
+            try {
+                handler.run();
+            } catch (Exception e) {
+                LOGGER.error("Error in redefinition failure handler {}", e, handler);
+            }
+        }
+    }
+
+    /**
+     * Split the batch into sets of classes not referencing each other (connected components by constant pool
+     * class references). Classes of the same name (in different classloaders) stay together.
+     */
+    static List<Map<Class<?>, byte[]>> splitIndependentSets(Map<Class<?>, byte[]> batch) {
+        List<Class<?>> classes = new ArrayList<>(batch.keySet());
+        int[] parent = new int[classes.size()];
+        Map<String, Integer> nameIndex = new HashMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            parent[i] = i;
+            String name = classes.get(i).getName();
+            Integer same = nameIndex.get(name);
+            if (same == null) {
+                nameIndex.put(name, i);
+            } else {
+                union(parent, same, i);
+            }
+        }
+
+        for (int i = 0; i < classes.size(); i++) {
+            for (String referenced : referencedClassNames(batch.get(classes.get(i)))) {
+                Integer j = nameIndex.get(referenced);
+                if (j != null) {
+                    union(parent, i, j);
+                }
+            }
+        }
+
+        Map<Integer, Map<Class<?>, byte[]>> sets = new LinkedHashMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            int root = find(parent, i);
+            Map<Class<?>, byte[]> set = sets.get(root);
+            if (set == null) {
+                set = new LinkedHashMap<>();
+                sets.put(root, set);
+            }
+            set.put(classes.get(i), batch.get(classes.get(i)));
+        }
+        return new ArrayList<>(sets.values());
+    }
+
+    private static Set<String> referencedClassNames(byte[] bytecode) {
+        try {
+            ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode)));
+            Set<String> result = new HashSet<>();
+            for (String name : classFile.getConstPool().getClassNames()) {
+                result.add(name.replace('/', '.'));
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // invalid bytecode, it will fail on its own
+            return Collections.emptySet();
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        parent[find(parent, i)] = find(parent, j);
+    }
+
+    private static String classNames(Map<Class<?>, byte[]> batch) {
+        String[] names = new String[batch.size()];
+        int i = 0;
+        for (Class<?> clazz : batch.keySet()) {
+            names[i++] = clazz.getName();
+        }
+        return Arrays.toString(names);
+    }
+}
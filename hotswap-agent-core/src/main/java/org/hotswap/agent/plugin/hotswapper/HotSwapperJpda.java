@@ -36,6 +36,7 @@ package org.hotswap.agent.plugin.hotswapper;
 
 import com.sun.jdi.Bootstrap;
 import com.sun.jdi.ReferenceType;
+import com.sun.jdi.VMDisconnectedException;
 import com.sun.jdi.VirtualMachine;
 import com.sun.jdi.connect.AttachingConnector;
 import com.sun.jdi.connect.Connector;
@@ -104,16 +105,26 @@ class Trigger {
  * the class file for the <code>Test</code> class.  The developers can
  * repatedly call <code>reload()</code> on the same <code>HotSwapperJpda</code>
  * object so that they can reload a number of classes.
+ * <p/>
+ * <p>Unlike the javassist original, the connection is kept for the whole
+ * life of the object and a single daemon thread processes the JDWP events.
+ * Each <code>reload()</code> call is sent as a single
+ * <code>redefineClasses</code> request.
+ * Use {@link #isConnected()} to check the connection before reuse.
  *
  * @since 3.1
  */
 public class HotSwapperJpda {
     private VirtualMachine jvm;
     private MethodEntryRequest request;
-    private Map<ReferenceType,byte[]> newClassFiles;
+    private volatile Map<ReferenceType,byte[]> newClassFiles;
+    private volatile Throwable failure;
+    private volatile boolean connected;
 
     private Trigger trigger;
 
+    private int redefineCount;
+
     private static final String HOST_NAME = "localhost";
     private static final String TRIGGER_NAME = Trigger.class.getName();
 
@@ -147,6 +158,45 @@ public class HotSwapperJpda {
         jvm = connector.attach(arguments);
         EventRequestManager manager = jvm.eventRequestManager();
         request = methodEntryRequests(manager, TRIGGER_NAME);
+        connected = true;
+        startDaemon();
+    }
+
+    /**
+     * Check that the JDWP connection is still alive. It does a cheap round trip to the JVM.
+     *
+     * @return false if the JVM disconnected, the object cannot be used anymore
+     */
+    public boolean isConnected() {
+        if (!connected)
+            return false;
+
+        try {
+            jvm.classesByName(TRIGGER_NAME);
+            return true;
+        } catch (VMDisconnectedException e) {
+            connected = false;
+            return false;
+        }
+    }
+
+    /**
+     * Close the connection to the JVM.
+     */
+    public void dispose() {
+        connected = false;
+        try {
+            jvm.dispose();
+        } catch (VMDisconnectedException e) {
+            // already disconnected
+        }
+    }
+
+    /**
+     * @return number of redefineClasses requests sent to the JVM
+     */
+    public synchronized int getRedefineCount() {
+        return redefineCount;
     }
 
     private Connector findConnector(String connector) throws IOException {
@@ -183,10 +233,7 @@ public class HotSwapperJpda {
      * @param classFile the contents of the class file.
      */
     public void reload(String className, byte[] classFile) {
-        ReferenceType classtype = toRefType(className);
-        Map<ReferenceType,byte[]> map = new HashMap<ReferenceType,byte[]>();
-        map.put(classtype, classFile);
-        reload2(map, className);
+        reload(Collections.singletonMap(className, classFile));
     }
 
     /**
@@ -197,7 +244,7 @@ public class HotSwapperJpda {
      *                   is <code>String</code> and the type of the
      *                   class files is <code>byte[]</code>.
      */
-    public void reload(Map<String,byte[]> classFiles) {
+    public synchronized void reload(Map<String,byte[]> classFiles) {
         Map<ReferenceType,byte[]> map = new HashMap<ReferenceType,byte[]>();
         String className = null;
         for (Map.Entry<String,byte[]> e:classFiles.entrySet()) {
@@ -205,8 +252,10 @@ public class HotSwapperJpda {
             map.put(toRefType(className), e.getValue());
         }
 
-        if (className != null)
-            reload2(map, className + " etc.");
+        if (className != null) {
+            reload2(map, map.size() > 1 ? className + " etc." : className);
+            redefineCount++;
+        }
     }
 
     private ReferenceType toRefType(String className) {
@@ -218,7 +267,10 @@ public class HotSwapperJpda {
 
     private void reload2(Map<ReferenceType,byte[]> map, String msg) {
         synchronized (trigger) {
-            startDaemon();
+            if (!connected)
+                throw new VMDisconnectedException("not connected, failed to reload: " + msg);
+
+            failure = null;
             newClassFiles = map;
             request.enable();
             trigger.doSwap();
@@ -226,13 +278,16 @@ public class HotSwapperJpda {
             Map<ReferenceType,byte[]> ncf = newClassFiles;
             if (ncf != null) {
                 newClassFiles = null;
-                throw new RuntimeException("failed to reload: " + msg);
+                throw new RuntimeException("failed to reload: " + msg, failure);
             }
         }
     }
 
+    /* Single event loop for the whole connection. The trigger thread is suspended
+     * on method entry until the redefinition is done and the event set resumed.
+     */
     private void startDaemon() {
-        new Thread() {
+        Thread daemon = new Thread("HotSwap") {
             private void errorMsg(Throwable e) {
                 System.err.print("Exception in thread \"HotSwap\" ");
                 e.printStackTrace(System.err);
@@ -240,28 +295,36 @@ public class HotSwapperJpda {
 
             @Override
             public void run() {
-                EventSet events = null;
                 try {
-                    events = waitEvent();
-                    EventIterator iter = events.eventIterator();
-                    while (iter.hasNext()) {
-                        Event event = iter.nextEvent();
-                        if (event instanceof MethodEntryEvent) {
-                            hotswap();
-                            break;
+                    while (connected) {
+                        EventSet events = waitEvent();
+                        try {
+                            EventIterator iter = events.eventIterator();
+                            while (iter.hasNext()) {
+                                Event event = iter.nextEvent();
+                                if (event instanceof MethodEntryEvent) {
+                                    hotswap();
+                                    break;
+                                } else if (event instanceof VMDisconnectEvent) {
+                                    connected = false;
+                                }
+                            }
+                        } finally {
+                            if (connected)
+                                events.resume();
                         }
                     }
+                } catch (VMDisconnectedException e) {
+                    // connection closed
                 } catch (Throwable e) {
                     errorMsg(e);
-                }
-                try {
-                    if (events != null)
-                        events.resume();
-                } catch (Throwable e) {
-                    errorMsg(e);
+                } finally {
+                    connected = false;
                 }
             }
-        }.start();
+        };
+        daemon.setDaemon(true);
+        daemon.start();
     }
 
     EventSet waitEvent() throws InterruptedException {
@@ -271,8 +334,12 @@ public class HotSwapperJpda {
 
     void hotswap() {
         Map<ReferenceType,byte[]> map = newClassFiles;
-        jvm.redefineClasses(map);
-        newClassFiles = null;
+        try {
+            jvm.redefineClasses(map);
+            newClassFiles = null;
+        } catch (Throwable e) {
+            failure = e;
+        }
     }
 
     /**
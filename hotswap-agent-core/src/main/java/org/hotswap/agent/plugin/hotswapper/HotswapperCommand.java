@@ -18,16 +18,31 @@
  */
 package org.hotswap.agent.plugin.hotswapper;
 
+import com.sun.jdi.VMDisconnectedException;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.HotswapTransformer;
+import org.hotswap.agent.util.signature.ClassChangeClassifier;
+import org.hotswap.agent.util.signature.ClassSignatureComparerHelper;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Hotswapper command must run in application classloader because tools.jar dependency can be easier added to
  * the application classloader than to java classpath.
+ * <p/>
+ * Each HotswapperPlugin instance (one per classloader) schedules the command with its own reload map. The command
+ * drains all known reload maps, so changes scheduled close together are sent as a single redefineClasses request.
+ * The outcome is reported to the agent the same way as by RedefinitionCoalescer. Classes whose loaded version is
+ * known to be the same class file are not sent.
  *
  * @author Jiri Bubnik
  */
@@ -39,36 +54,156 @@ public class HotswapperCommand {
     // in the application classloader to avoid NoClassDefFound error on tools.jar classes.
     private static HotSwapperJpda hotSwapper = null;
 
+    // reload maps of all plugin instances seen so far, weak to not hold a plugin of a closed classloader
+    private static final List<WeakReference<Map<Class<?>, byte[]>>> reloadMaps = new ArrayList<>();
+
     public static synchronized void hotswap(String port, final HashMap<Class<?>, byte[]> reloadMap) {
-        // synchronize on the reloadMap object - do not allow addition while in process
-        synchronized (reloadMap) {
-            if (hotSwapper == null) {
-                LOGGER.debug("Starting HotSwapperJpda agent on JPDA transport socket - port {}, classloader {}", port, HotswapperCommand.class.getClassLoader());
-                try {
-                    hotSwapper = new HotSwapperJpda(port);
-                } catch (IOException e) {
-                    LOGGER.error("Unable to connect to debug session. Did you start the application with debug enabled " +
-                            "(i.e. java -agentlib:jdwp=transport=dt_socket,server=y,suspend=n,address=8000)", e);
-                } catch (Exception e) {
-                    LOGGER.error("Unable to connect to debug session. Please check port property setting '{}'.", e, port);
+        register(reloadMap);
+
+        // keep pending changes in reload maps if not connected
+        if (!connect(port)) {
+            return;
+        }
+
+        Map<Map<Class<?>, byte[]>, Map<Class<?>, byte[]>> drained = drainReloadMaps();
+
+        // convert to Map Class name -> bytecode
+        Map<Class<?>, byte[]> reloadClasses = changedClasses(drained);
+        Map<String, byte[]> reloadMapClassNames = new HashMap<>();
+        for (Map.Entry<Class<?>, byte[]> entry : reloadClasses.entrySet()) {
+            reloadMapClassNames.put(entry.getKey().getName(), entry.getValue());
+        }
+        if (reloadMapClassNames.isEmpty()) {
+            LOGGER.trace("No pending classes, already reloaded by previous command.");
+            return;
+        }
+
+        LOGGER.debug("Reloading classes {}", reloadMapClassNames.keySet());
+        boolean reloaded = false;
+        try {
+            try {
+                // actual hotswap via JPDA
+                hotSwapper.reload(reloadMapClassNames);
+            } catch (VMDisconnectedException e) {
+                // connection dropped between the health check and reload - try once again on a new connection
+                LOGGER.debug("JPDA connection lost during reload, reconnecting.");
+                hotSwapper = null;
+                if (!connect(port)) {
+                    return;
                 }
+                hotSwapper.reload(reloadMapClassNames);
             }
+            reloaded = true;
+        } finally {
+            reportOutcome(reloadClasses, reloaded);
+            if (!reloaded) {
+                restoreReloadMaps(drained);
+            }
+        }
+        LOGGER.debug("HotSwapperJpda agent reload complete.");
+    }
 
-            if (hotSwapper != null) {
-                LOGGER.debug("Reloading classes {}", Arrays.toString(reloadMap.keySet().toArray()));
+    // one class per name - we loose some information here, reload uses the class JDI finds first by the name
+    static Map<Class<?>, byte[]> changedClasses(Map<Map<Class<?>, byte[]>, Map<Class<?>, byte[]>> drained) {
+        Map<String, Class<?>> classesByName = new HashMap<>();
+        Map<Class<?>, byte[]> result = new HashMap<>();
+        for (Map<Class<?>, byte[]> entries : drained.values()) {
+            for (Map.Entry<Class<?>, byte[]> entry : entries.entrySet()) {
+                // the loaded version is unknown after any redefinition the agent did not confirm (e.g. from IDE)
+                if (Arrays.equals(entry.getValue(), ClassChangeClassifier.getLoadedBytes(entry.getKey()))) {
+                    LOGGER.trace("Class {} is loaded from the same class file, not sent.", entry.getKey().getName());
+                    continue;
+                }
+                Class<?> previous = classesByName.put(entry.getKey().getName(), entry.getKey());
+                if (previous != null) {
+                    result.remove(previous);
+                }
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
 
-                // convert to Map Class name -> bytecode
-                // We loose some information here, reload use always first class name that it finds reference to.
-                Map<String, byte[]> reloadMapClassNames = new HashMap<>();
-                for (Map.Entry<Class<?>, byte[]> entry : reloadMap.entrySet()) {
-                    reloadMapClassNames.put(entry.getKey().getName(), entry.getValue());
+    // same as RedefinitionCoalescer - only classes transformed by this reload were redefined. A failure may come
+    // before the transformation (connection lost), the loaded version then stays unknown to the classifier.
+    static void reportOutcome(Map<Class<?>, byte[]> reloadClasses, boolean reloaded) {
+        HotswapTransformer transformer = PluginManager.getInstance().getHotswapTransformer();
+        for (Map.Entry<Class<?>, byte[]> entry : reloadClasses.entrySet()) {
+            Class<?> clazz = entry.getKey();
+            if (!ClassChangeClassifier.isRedefinitionPending(clazz)) {
+                continue;
+            }
+            if (reloaded) {
+                ClassChangeClassifier.redefinitionSucceeded(clazz, entry.getValue());
+                if (transformer != null) {
+                    transformer.redefinitionSucceeded(clazz, entry.getValue());
                 }
-                // actual hotswap via JPDA
-                hotSwapper.reload(reloadMapClassNames);
+            }
+            ClassSignatureComparerHelper.invalidate(clazz);
+        }
+    }
+
+    static void register(Map<Class<?>, byte[]> reloadMap) {
+        for (WeakReference<Map<Class<?>, byte[]>> ref : reloadMaps) {
+            if (ref.get() == reloadMap) {
+                return;
+            }
+        }
+        reloadMaps.add(new WeakReference<Map<Class<?>, byte[]>>(reloadMap));
+    }
+
+    // synchronize on each reloadMap only while copying - plugins may add new changes during the reload
+    static Map<Map<Class<?>, byte[]>, Map<Class<?>, byte[]>> drainReloadMaps() {
+        Map<Map<Class<?>, byte[]>, Map<Class<?>, byte[]>> result = new IdentityHashMap<>();
+        for (Iterator<WeakReference<Map<Class<?>, byte[]>>> it = reloadMaps.iterator(); it.hasNext(); ) {
+            Map<Class<?>, byte[]> reloadMap = it.next().get();
+            if (reloadMap == null) {
+                it.remove();
+                continue;
+            }
+            synchronized (reloadMap) {
+                if (!reloadMap.isEmpty()) {
+                    result.put(reloadMap, new HashMap<>(reloadMap));
+                    reloadMap.clear();
+                }
+            }
+        }
+        return result;
+    }
+
+    // reload failed - put the changes back unless a plugin added a newer version in the meantime
+    static void restoreReloadMaps(Map<Map<Class<?>, byte[]>, Map<Class<?>, byte[]>> drained) {
+        for (Map.Entry<Map<Class<?>, byte[]>, Map<Class<?>, byte[]>> entry : drained.entrySet()) {
+            Map<Class<?>, byte[]> reloadMap = entry.getKey();
+            synchronized (reloadMap) {
+                for (Map.Entry<Class<?>, byte[]> change : entry.getValue().entrySet()) {
+                    if (!reloadMap.containsKey(change.getKey())) {
+                        reloadMap.put(change.getKey(), change.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    // reuse the existing connection if it passes the health check, otherwise connect again
+    private static boolean connect(String port) {
+        if (hotSwapper != null && !hotSwapper.isConnected()) {
+            LOGGER.info("JPDA connection on port {} lost, reconnecting.", port);
+            hotSwapper.dispose();
+            hotSwapper = null;
+        }
 
-                reloadMap.clear();
-                LOGGER.debug("HotSwapperJpda agent reload complete.");
+        if (hotSwapper == null) {
+            LOGGER.debug("Starting HotSwapperJpda agent on JPDA transport socket - port {}, classloader {}", port, HotswapperCommand.class.getClassLoader());
+            try {
+                hotSwapper = new HotSwapperJpda(port);
+            } catch (IOException e) {
+                LOGGER.error("Unable to connect to debug session. Did you start the application with debug enabled " +
+                        "(i.e. java -agentlib:jdwp=transport=dt_socket,server=y,suspend=n,address=8000)", e);
+            } catch (Exception e) {
+                LOGGER.error("Unable to connect to debug session. Please check port property setting '{}'.", e, port);
             }
         }
+        return hotSwapper != null;
     }
 }
@@ -28,6 +28,7 @@ import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.ReflectionCommand;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.config.RedefinitionCoalescer;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.logging.AgentLogger;
@@ -36,7 +37,7 @@ import org.hotswap.agent.util.classloader.*;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -60,10 +61,11 @@ public class HotswapperPlugin {
     @Init
     PluginManager pluginManager;
 
-    // synchronize on this map to wait for previous processing
+    // pending changes for JPDA hotswap, HotswapperCommand drains it while synchronized on the map
     final Map<Class<?>, byte[]> reloadMap = new HashMap<>();
 
-    // command to do actual hotswap. Single command to merge possible multiple reload actions.
+    // command to do actual hotswap via JPDA. Single command to merge possible multiple reload actions.
+    // Null if hotswap is done by instrumentation - merged by PluginManager's RedefinitionCoalescer.
     Command hotswapCommand;
 
     /**
@@ -88,6 +90,12 @@ public class HotswapperPlugin {
             return;
         }
 
+        if (hotswapCommand == null) {
+            pluginManager.scheduleHotswap(Collections.<Class<?>, byte[]>singletonMap(clazz, ctClass.toBytecode()),
+                    RedefinitionCoalescer.DEFAULT_WINDOW);
+            return;
+        }
+
         synchronized (reloadMap) {
             reloadMap.put(clazz, ctClass.toBytecode());
         }
@@ -95,7 +103,7 @@ public class HotswapperPlugin {
     }
 
     /**
-     * Create a hotswap command using hotSwappper.
+     * Create a hotswap command using hotSwappper. Without JPDA port, classes are redefined via instrumentation.
      *
      * @param appClassLoader it can be run in any classloader with tools.jar on classpath. AppClassLoader can
      *                       be setup by maven dependency (jetty plugin), use this classloader.
@@ -105,18 +113,6 @@ public class HotswapperPlugin {
         if (port != null && port.length() > 0) {
             hotswapCommand = new ReflectionCommand(this, HotswapperCommand.class.getName(), "hotswap", appClassLoader,
                     port, reloadMap);
-        } else {
-            hotswapCommand = new Command() {
-                @Override
-                public void executeCommand() {
-                    pluginManager.hotswap(reloadMap);
-                }
-
-                @Override
-                public String toString() {
-                    return "pluginManager.hotswap(" + Arrays.toString(reloadMap.keySet().toArray()) + ")";
-                }
-            };
         }
     }
 
@@ -18,15 +18,24 @@
  */
 package org.hotswap.agent.plugin.jdk;
 
+import java.io.Serializable;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.hotswap.agent.annotation.LoadEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
 import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.bytecode.ClassFile;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ClassImpact;
 import org.hotswap.agent.util.ReflectionHelper;
+import org.hotswap.agent.util.signature.ClassChangeKind;
 
 /**
  * JdkPlugin plugin
@@ -36,6 +45,8 @@ import org.hotswap.agent.util.ReflectionHelper;
  *  <li> flush java.beans.Introspector caches
  *  <li> flush ObjectStream caches
  * </ul>
+ * ClassInfo and ObjectStream caches are flushed only for structural changes, entries of the redefined class
+ * and its loaded subtypes are evicted (see {@link ClassImpact}).
  *  @author Vladimir Dvorak
  */
 @Plugin(name = "JdkPlugin",
@@ -97,20 +108,33 @@ public class JdkPlugin {
     }
 
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE, skipSynthetic=false)
-    public static void flushIntrospectClassInfoCache(ClassLoader classLoader, CtClass ctClass) {
+    public static void flushIntrospectClassInfoCache(ClassLoader classLoader, CtClass ctClass, ClassChangeKind changeKind) {
         // com.sun.beans.introspect.ClassInfo was intruduced in j9
         if (ClassFile.MAJOR_VERSION < ClassFile.JAVA_9) {
             return;
         }
         try {
+            Class<?> clazz = classLoader.loadClass(ctClass.getName());
+            ClassImpact impact = ClassImpact.of(clazz, changeKind);
+            if (!impact.isStructural()) {
+                LOGGER.trace("Method body change of {}, com.sun.beans.introspect.ClassInfo cache not flushed", ctClass.getName());
+                return;
+            }
             LOGGER.debug("Flushing {} from com.sun.beans.introspect.ClassInfo cache", ctClass.getName());
 
-            Class<?> clazz = classLoader.loadClass(ctClass.getName());
             Class<?> classInfo = classLoader.loadClass("com.sun.beans.introspect.ClassInfo");
 
             Object cache = ReflectionHelper.get(null, classInfo, "CACHE");
             if (cache != null) {
-                ReflectionHelper.invoke(cache, cache.getClass(), "clear", new Class[] { }, null);
+                if (impact.isIndexed()) {
+                    // ClassInfo of a subtype contains inherited methods
+                    ReflectionHelper.invoke(null, classInfo, "remove", new Class[] { Class.class }, clazz);
+                    for (Class<?> subtype : impact.getLoadedSubtypes()) {
+                        ReflectionHelper.invoke(null, classInfo, "remove", new Class[] { Class.class }, subtype);
+                    }
+                } else {
+                    ReflectionHelper.invoke(cache, cache.getClass(), "clear", new Class[] { }, null);
+                }
             }
         } catch (Exception e) {
             LOGGER.error("flushClassInfoCache() exception {}.", e.getMessage());
@@ -120,23 +144,28 @@ public class JdkPlugin {
     }
 
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE, skipSynthetic=false)
-    public static void flushObjectStreamCaches(ClassLoader classLoader, CtClass ctClass) {
+    public static void flushObjectStreamCaches(ClassLoader classLoader, CtClass ctClass, ClassChangeKind changeKind) {
         try {
+            Class<?> clazz = classLoader.loadClass(ctClass.getName());
+            ClassImpact impact = ClassImpact.of(clazz, changeKind);
+            if (!impact.isStructural() || !impact.mayAppearAs(Serializable.class)) {
+                LOGGER.trace("ObjectStreamClass caches not affected by {}", ctClass.getName());
+                return;
+            }
             LOGGER.debug("Flushing {} from ObjectStreamClass caches", ctClass.getName());
 
-            Class<?> clazz = classLoader.loadClass(ctClass.getName());
             Class<?> objectStreamClassCache = classLoader.loadClass("java.io.ObjectStreamClass$Caches");
 
-            Map localDescs = (Map) ReflectionHelper.get(null, objectStreamClassCache, "localDescs");
+            Object localDescs = ReflectionHelper.get(null, objectStreamClassCache, "localDescs");
 
             if (localDescs != null) {
-                localDescs.clear();
+                evict(localDescs, impact);
             }
 
-            Map reflectors = (Map) ReflectionHelper.get(null, objectStreamClassCache, "reflectors");
+            Object reflectors = ReflectionHelper.get(null, objectStreamClassCache, "reflectors");
 
             if (reflectors != null) {
-                reflectors.clear();
+                evict(reflectors, impact);
             }
 
         } catch (Exception e) {
@@ -146,4 +175,46 @@ public class JdkPlugin {
         }
     }
 
+    // up to j18 (and older updates) the caches are maps with keys weakly referencing the class (WeakClassKey,
+    // FieldReflectorKey), newer versions use java.io.ClassCache backed by a ClassValue
+    private static void evict(Object cache, ClassImpact impact) {
+        if (!(cache instanceof Map)) {
+            ClassValue<?> classValue = (ClassValue<?>) ReflectionHelper.get(cache, "map");
+            classValue.remove(impact.getChangedClass());
+            // ClassValue cannot be cleared, without known subtypes evict all loaded subtypes
+            for (Class<?> subtype : impact.isIndexed() ? impact.getLoadedSubtypes() : allLoadedSubtypes(impact.getChangedClass())) {
+                classValue.remove(subtype);
+            }
+            return;
+        }
+        Map<?, ?> map = (Map<?, ?>) cache;
+        if (!impact.isIndexed()) {
+            map.clear();
+            return;
+        }
+        for (Iterator<?> it = map.keySet().iterator(); it.hasNext(); ) {
+            Object key = it.next();
+            if (!(key instanceof Reference)) {
+                map.clear();
+                return;
+            }
+            Object referent = ((Reference<?>) key).get();
+            if (referent == null || (referent instanceof Class && impact.isSubtype((Class<?>) referent))) {
+                it.remove();
+            }
+        }
+    }
+
+    private static List<Class<?>> allLoadedSubtypes(Class<?> clazz) {
+        List<Class<?>> result = new ArrayList<>();
+        Instrumentation instrumentation = PluginManager.getInstance().getInstrumentation();
+        if (instrumentation != null) {
+            for (Class<?> loaded : instrumentation.getAllLoadedClasses()) {
+                if (loaded != clazz && clazz.isAssignableFrom(loaded)) {
+                    result.add(loaded);
+                }
+            }
+        }
+        return result;
+    }
 }
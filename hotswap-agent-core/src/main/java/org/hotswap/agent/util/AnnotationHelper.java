@@ -18,6 +18,7 @@
  */
 package org.hotswap.agent.util;
 
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
 
@@ -27,7 +28,18 @@ import java.lang.annotation.Annotation;
  * @author Jiri Bubnik
  */
 public class AnnotationHelper {
+    /**
+     * Check class annotation of a loaded class. Indexed classes (see {@link ClassHierarchyIndex}) are resolved
+     * without reflection.
+     */
     public static boolean hasAnnotation(Class clazz, String annotationClass) {
+        if (clazz.getClassLoader() != null) {
+            Boolean indexed = PluginManager.getInstance().getClassHierarchyIndex()
+                    .hasAnnotation(clazz.getClassLoader(), clazz.getName(), annotationClass);
+            if (indexed != null) {
+                return indexed;
+            }
+        }
         for (Annotation annot : clazz.getDeclaredAnnotations())
             if (annot.annotationType().getName().equals(annotationClass))
                 return true;
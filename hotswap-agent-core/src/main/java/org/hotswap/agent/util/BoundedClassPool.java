@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Class pool with bounded cache of CtClass instances.
+ * <p/>
+ * Standard {@link ClassPool} never releases a created CtClass, a long running session accumulates every class
+ * ever passed to a plugin. This pool evicts least recently used classes above the max size and classes not
+ * accessed for max age. Modified classes, which are not frozen yet, are never evicted - the modification would
+ * be lost on the next get(). Evicted frozen classes may be pruned to release their class file data immediately.
+ * <p/>
+ * Javassist periodic compression of unmodified class files ({@code ClassPool.releaseUnmodifiedClassFile}) still
+ * applies to cached classes.
+ */
+public class BoundedClassPool extends ClassPool {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(BoundedClassPool.class);
+
+    private final int maxSize;
+    private final long maxAge;
+    private final boolean pruneEvicted;
+
+    // class name -> last access time, access ordered, guarded by itself
+    private final LinkedHashMap<String, Long> accessTimes = new LinkedHashMap<>(64, 0.75f, true);
+    private long evictionCount;
+
+    /**
+     * Create pool with system class path.
+     *
+     * @param maxSize      max number of cached classes, 0 for unbounded
+     * @param maxAge       max time in ms since the last access of a cached class, 0 for unlimited
+     * @param pruneEvicted prune evicted frozen classes
+     */
+    public BoundedClassPool(int maxSize, long maxAge, boolean pruneEvicted) {
+        super(null);
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.pruneEvicted = pruneEvicted;
+        appendSystemPath();
+    }
+
+    /**
+     * Create pool configured by properties classPool.maxSize, classPool.maxAgeSeconds and classPool.pruneEvicted.
+     *
+     * @param configuration agent configuration
+     * @return the pool or null if neither size nor age is limited (default ClassPool is used)
+     */
+    public static BoundedClassPool create(PluginConfiguration configuration) {
+        int maxSize = (int) getLongProperty(configuration, "classPool.maxSize");
+        long maxAgeSeconds = getLongProperty(configuration, "classPool.maxAgeSeconds");
+        if (maxSize <= 0 && maxAgeSeconds <= 0) {
+            return null;
+        }
+        return new BoundedClassPool(Math.max(maxSize, 0), Math.max(maxAgeSeconds, 0) * 1000,
+                configuration.getPropertyBoolean("classPool.pruneEvicted"));
+    }
+
+    private static long getLongProperty(PluginConfiguration configuration, String name) {
+        String value = configuration.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid {} value '{}', the limit is not applied.", name, value);
+            return 0;
+        }
+    }
+
+    @Override
+    protected CtClass getCached(String classname) {
+        CtClass clazz = super.getCached(classname);
+        if (clazz != null && !clazz.isPrimitive()) {
+            synchronized (accessTimes) {
+                Long accessTime = accessTimes.get(classname);
+                long now = System.currentTimeMillis();
+                if (accessTime != null && isExpired(accessTime, now) && isEvictable(clazz)) {
+                    evict(classname, clazz);
+                    return null;
+                }
+                accessTimes.put(classname, now);
+            }
+        }
+        return clazz;
+    }
+
+    @Override
+    protected void cacheCtClass(String classname, CtClass c, boolean dynamic) {
+        super.cacheCtClass(classname, c, dynamic);
+        synchronized (accessTimes) {
+            accessTimes.put(classname, System.currentTimeMillis());
+            evictOverLimit(classname);
+        }
+    }
+
+    @Override
+    protected CtClass removeCached(String classname) {
+        synchronized (accessTimes) {
+            accessTimes.remove(classname);
+        }
+        return super.removeCached(classname);
+    }
+
+    /**
+     * @return number of cached classes (primitive types excluded)
+     */
+    public int getCachedCount() {
+        synchronized (accessTimes) {
+            return accessTimes.size();
+        }
+    }
+
+    /**
+     * @return number of classes evicted from the cache
+     */
+    public long getEvictionCount() {
+        synchronized (accessTimes) {
+            return evictionCount;
+        }
+    }
+
+    // evict expired and least recently used classes above the size limit except the class being cached,
+    // guarded by accessTimes
+    private void evictOverLimit(String cachedClassname) {
+        long now = System.currentTimeMillis();
+        int size = accessTimes.size();
+        for (Iterator<Map.Entry<String, Long>> it = accessTimes.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            boolean expired = isExpired(entry.getValue(), now);
+            if (!expired && (maxSize <= 0 || size <= maxSize)) {
+                // access ordered - the rest is newer
+                break;
+            }
+            if (entry.getKey().equals(cachedClassname)) {
+                // only non evictable classes are older, the limit cannot be kept
+                continue;
+            }
+            CtClass clazz = super.getCached(entry.getKey());
+            if (clazz == null || isEvictable(clazz)) {
+                it.remove();
+                size--;
+                if (clazz != null) {
+                    super.removeCached(entry.getKey());
+                    evicted(clazz);
+                }
+            }
+        }
+    }
+
+    // guarded by accessTimes
+    private void evict(String classname, CtClass clazz) {
+        accessTimes.remove(classname);
+        super.removeCached(classname);
+        evicted(clazz);
+    }
+
+    private void evicted(CtClass clazz) {
+        evictionCount++;
+        if (pruneEvicted && clazz.isFrozen()) {
+            clazz.prune();
+        }
+        LOGGER.trace("Evicted class {} from class pool.", clazz.getName());
+    }
+
+    private boolean isExpired(long accessTime, long now) {
+        return maxAge > 0 && now - accessTime > maxAge;
+    }
+
+    private static boolean isEvictable(CtClass clazz) {
+        return clazz.isFrozen() || !clazz.isModified();
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Original bytecode of loaded classes, as the class files were defined (before any transformation).
+ * <p/>
+ * Only classes defined from a directory (build output, the classes which are going to be hotswapped) are
+ * captured, optionally restricted to configured packages. Class files are deflated and kept off-heap
+ * (direct buffers), total compressed size is capped and the least recently used entries are evicted
+ * above the cap. Query the store via {@code PluginManager.getInstance().getClassBytesStore()}.
+ */
+public class ClassBytesStore {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ClassBytesStore.class);
+
+    /**
+     * Default cap of the compressed size in MB, the store is disabled by default.
+     */
+    public static final int DEFAULT_MAX_SIZE_MB = 0;
+
+    private final long maxSize;
+    private final String[] packagePrefixes;
+
+    // access ordered for LRU eviction, guarded by this
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long size;
+    private long evictionCount;
+
+    /**
+     * @param maxSize cap of the total compressed size in bytes
+     * @param packages package names to capture, null or empty to capture all classes defined from a directory
+     */
+    public ClassBytesStore(long maxSize, String[] packages) {
+        this.maxSize = maxSize;
+        if (packages == null) {
+            packagePrefixes = new String[0];
+        } else {
+            packagePrefixes = new String[packages.length];
+            for (int i = 0; i < packages.length; i++) {
+                String prefix = packages[i].trim();
+                packagePrefixes[i] = prefix.endsWith(".") ? prefix : prefix + ".";
+            }
+        }
+    }
+
+    /**
+     * Create store configured by properties classBytesStore.maxSizeMB and classBytesStore.packages.
+     *
+     * @param configuration agent configuration
+     * @return the store or null if disabled (maxSizeMB=0, the default)
+     */
+    public static ClassBytesStore create(PluginConfiguration configuration) {
+        long maxSizeMB = DEFAULT_MAX_SIZE_MB;
+        String maxSizeProperty = configuration.getProperty("classBytesStore.maxSizeMB");
+        if (maxSizeProperty != null && !maxSizeProperty.trim().isEmpty()) {
+            try {
+                maxSizeMB = Long.parseLong(maxSizeProperty.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid classBytesStore.maxSizeMB value '{}', using default {}.", maxSizeProperty, DEFAULT_MAX_SIZE_MB);
+            }
+        }
+        if (maxSizeMB <= 0) {
+            return null;
+        }
+        String packages = configuration.getProperty("classBytesStore.packages");
+        return new ClassBytesStore(maxSizeMB * 1024 * 1024,
+                packages == null || packages.trim().isEmpty() ? null : packages.split(","));
+    }
+
+    /**
+     * Check if the class being defined should be captured.
+     *
+     * @param className class name (internal or java form)
+     * @param protectionDomain protection domain of the class
+     * @return true if the class is defined from a directory and matches configured packages
+     */
+    public boolean accepts(String className, ProtectionDomain protectionDomain) {
+        if (className == null || !IOUtils.isDirectoryCodeSource(protectionDomain)) {
+            return false;
+        }
+        if (packagePrefixes.length == 0) {
+            return true;
+        }
+        String name = className.replace('/', '.');
+        for (String prefix : packagePrefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Store class file of a class. Replaces previous bytes of the class.
+     *
+     * @param classLoader defining classloader, bootstrap classes (null) are not stored
+     * @param className class name (internal or java form)
+     * @param bytes class file
+     */
+    public void put(ClassLoader classLoader, String className, byte[] bytes) {
+        if (classLoader == null || className == null || bytes == null) {
+            return;
+        }
+        Entry entry = compress(bytes);
+        if (entry.buffer.capacity() > maxSize) {
+            return;
+        }
+        Key key = new Key(classLoader, className);
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                size -= previous.buffer.capacity();
+            }
+            size += entry.buffer.capacity();
+            for (Iterator<Entry> it = entries.values().iterator(); size > maxSize && it.hasNext(); ) {
+                size -= it.next().buffer.capacity();
+                it.remove();
+                evictionCount++;
+            }
+        }
+    }
+
+    /**
+     * @param clazz loaded class
+     * @return original class file of the class or null if not stored
+     */
+    public byte[] get(Class<?> clazz) {
+        return get(clazz.getClassLoader(), clazz.getName());
+    }
+
+    /**
+     * @param classLoader defining classloader
+     * @param className class name (internal or java form)
+     * @return original class file of the class or null if not stored
+     */
+    public byte[] get(ClassLoader classLoader, String className) {
+        if (classLoader == null || className == null) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(classLoader, className));
+        }
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return entry.decompress();
+        } catch (DataFormatException e) {
+            LOGGER.error("Unable to decompress stored class file of {}.", e, className);
+            return null;
+        }
+    }
+
+    /**
+     * Drop all classes of a classloader (and of already collected classloaders).
+     *
+     * @param classLoader closed classloader
+     */
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
+        for (Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Entry> mapEntry = it.next();
+            ClassLoader loader = mapEntry.getKey().loader.get();
+            if (loader == null || loader == classLoader) {
+                size -= mapEntry.getValue().buffer.capacity();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return number of stored classes
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return total compressed size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of entries evicted because of the size cap
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static Entry compress(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            byte[] buffer = new byte[bytes.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    byte[] larger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    buffer = larger;
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            direct.put(buffer, 0, length);
+            return new Entry(direct, bytes.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static class Entry {
+        final ByteBuffer buffer;
+        final int length;
+
+        Entry(ByteBuffer buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        byte[] decompress() throws DataFormatException {
+            byte[] compressed = new byte[buffer.capacity()];
+            // duplicate - position of the shared buffer is not touched by concurrent readers
+            ByteBuffer source = buffer.duplicate();
+            source.clear();
+            source.get(compressed);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                byte[] result = new byte[length];
+                int read = 0;
+                while (read < length && !inflater.finished()) {
+                    int count = inflater.inflate(result, read, length - read);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new DataFormatException("Truncated class file data");
+                    }
+                    read += count;
+                }
+                return result;
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    // classloader is weakly referenced, entries of a collected classloader are never matched and get evicted
+    private static class Key {
+        final WeakReference<ClassLoader> loader;
+        final String className;
+        final int hash;
+
+        Key(ClassLoader classLoader, String className) {
+            this.loader = new WeakReference<>(classLoader);
+            this.className = className.replace('/', '.');
+            this.hash = 31 * System.identityHashCode(classLoader) + this.className.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            ClassLoader classLoader = loader.get();
+            return hash == that.hash && classLoader != null && classLoader == that.loader.get()
+                    && className.equals(that.className);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class header and references read by a single pass over the raw class file. Only the constant pool,
+ * member descriptors and class attributes are decoded, method code is skipped.
+ * <p/>
+ * Used to maintain {@link ClassReferenceGraph} and {@link ClassHierarchyIndex} at class definition time
+ * without creating javassist CtClass.
+ */
+public class ClassFileInfo {
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private final byte[] bytes;
+    private int[] cpOffsets;
+    private int pos;
+
+    private String className;
+    private String superclassName;
+    private final List<String> interfaceNames = new ArrayList<>();
+    private final Set<String> annotationNames = new LinkedHashSet<>();
+    private final Set<String> referencedClassNames = new HashSet<>();
+
+    private ClassFileInfo(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Read the class file.
+     *
+     * @param bytes class file
+     * @return class file info
+     * @throws IOException class file format error
+     */
+    public static ClassFileInfo read(byte[] bytes) throws IOException {
+        ClassFileInfo info = new ClassFileInfo(bytes);
+        try {
+            info.read();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated class file", e);
+        }
+        return info;
+    }
+
+    /**
+     * Read only the class name - the constant pool and this_class index of the class file header, the rest of
+     * the class file is not parsed.
+     *
+     * @param bytes class file
+     * @return class name in java form
+     * @throws IOException class file format error
+     */
+    public static String readClassName(byte[] bytes) throws IOException {
+        ClassFileInfo info = new ClassFileInfo(bytes);
+        try {
+            info.readHeader();
+            info.pos += 2; // access flags
+            return info.classInfo(info.u2());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated class file", e);
+        }
+    }
+
+    /**
+     * @return class name in java form
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return superclass name in java form, null for java.lang.Object and module-info
+     */
+    public String getSuperclassName() {
+        return superclassName;
+    }
+
+    /**
+     * @return names of directly implemented interfaces in java form
+     */
+    public List<String> getInterfaceNames() {
+        return Collections.unmodifiableList(interfaceNames);
+    }
+
+    /**
+     * @return names of runtime visible class annotations in java form
+     */
+    public Set<String> getAnnotationNames() {
+        return Collections.unmodifiableSet(annotationNames);
+    }
+
+    /**
+     * @return names of classes referenced from the constant pool and field/method descriptors in java form
+     * (including the class itself), JDK classes (java.*) are omitted
+     */
+    public Set<String> getReferencedClassNames() {
+        return referencedClassNames;
+    }
+
+    // magic, version and constant pool
+    private void readHeader() throws IOException {
+        if (u2() != 0xCAFE || u2() != 0xBABE) {
+            throw new IOException("Not a class file");
+        }
+        pos += 4; // version
+        readConstantPool();
+    }
+
+    private void read() throws IOException {
+        readHeader();
+        for (int i = 1; i < cpOffsets.length; i++) {
+            int offset = cpOffsets[i];
+            if (offset == 0) {
+                continue;
+            }
+            switch (bytes[offset]) {
+                case 7: // Class
+                    addClassName(utf8(u2At(offset + 1)));
+                    break;
+                case 12: // NameAndType
+                    addDescriptor(utf8(u2At(offset + 3)));
+                    break;
+                case 16: // MethodType
+                    addDescriptor(utf8(u2At(offset + 1)));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        pos += 2; // access flags
+        className = classInfo(u2());
+        int superIndex = u2();
+        superclassName = superIndex != 0 ? classInfo(superIndex) : null;
+        int interfacesCount = u2();
+        for (int i = 0; i < interfacesCount; i++) {
+            interfaceNames.add(classInfo(u2()));
+        }
+        int fieldsCount = u2();
+        for (int i = 0; i < fieldsCount; i++) {
+            readMember();
+        }
+        int methodsCount = u2();
+        for (int i = 0; i < methodsCount; i++) {
+            readMember();
+        }
+
+        int attributesCount = u2();
+        for (int i = 0; i < attributesCount; i++) {
+            String name = utf8(u2());
+            int length = u4();
+            int end = pos + length;
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                int count = u2();
+                for (int j = 0; j < count; j++) {
+                    annotationNames.add(descriptorToName(utf8(u2())));
+                    skipElementValuePairs();
+                }
+            }
+            pos = end;
+        }
+    }
+
+    private void readConstantPool() throws IOException {
+        int count = u2();
+        cpOffsets = new int[count];
+        for (int i = 1; i < count; i++) {
+            cpOffsets[i] = pos;
+            int tag = bytes[pos++];
+            switch (tag) {
+                case 1: // Utf8
+                    pos += 2 + u2At(pos);
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    pos += 2;
+                    break;
+                case 15: // MethodHandle
+                    pos += 3;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    pos += 4;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    pos += 8;
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Invalid constant pool tag " + tag + " at entry " + i);
+            }
+        }
+    }
+
+    private void readMember() throws IOException {
+        pos += 4; // access flags, name
+        addDescriptor(utf8(u2()));
+        int attributesCount = u2();
+        for (int i = 0; i < attributesCount; i++) {
+            pos += 2;
+            int length = u4();
+            pos += length;
+        }
+    }
+
+    private void skipElementValuePairs() {
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            pos += 2; // name
+            skipElementValue();
+        }
+    }
+
+    private void skipElementValue() {
+        int tag = bytes[pos++];
+        switch (tag) {
+            case 'e': // enum: type name, const name
+                pos += 4;
+                break;
+            case '@':
+                pos += 2; // type
+                skipElementValuePairs();
+                break;
+            case '[':
+                int count = u2();
+                for (int i = 0; i < count; i++) {
+                    skipElementValue();
+                }
+                break;
+            default: // const value or class info index
+                pos += 2;
+                break;
+        }
+    }
+
+    private void addClassName(String name) {
+        if (name.startsWith("[")) {
+            addDescriptor(name);
+        } else {
+            addReference(name);
+        }
+    }
+
+    private void addDescriptor(String descriptor) {
+        int i = descriptor.indexOf('L');
+        while (i >= 0) {
+            int end = descriptor.indexOf(';', i);
+            if (end < 0) {
+                return;
+            }
+            addReference(descriptor.substring(i + 1, end));
+            i = descriptor.indexOf('L', end);
+        }
+    }
+
+    private void addReference(String internalName) {
+        if (!internalName.startsWith("java/")) {
+            referencedClassNames.add(internalName.replace('/', '.'));
+        }
+    }
+
+    private static String descriptorToName(String descriptor) {
+        if (descriptor.startsWith("L") && descriptor.endsWith(";")) {
+            descriptor = descriptor.substring(1, descriptor.length() - 1);
+        }
+        return descriptor.replace('/', '.');
+    }
+
+    private String classInfo(int index) throws IOException {
+        int offset = cpOffsets[index];
+        if (bytes[offset] != 7) {
+            throw new IOException("Constant pool entry " + index + " is not Class");
+        }
+        return utf8(u2At(offset + 1)).replace('/', '.');
+    }
+
+    private String utf8(int index) throws IOException {
+        int offset = cpOffsets[index];
+        if (bytes[offset] != 1) {
+            throw new IOException("Constant pool entry " + index + " is not Utf8");
+        }
+        int length = u2At(offset + 1);
+        // class names and descriptors - modified utf8 decoded as in DataInput.readUTF()
+        return new DataInputStream(new ByteArrayInputStream(bytes, offset + 1, length + 2)).readUTF();
+    }
+
+    private int u2() {
+        int value = u2At(pos);
+        pos += 2;
+        return value;
+    }
+
+    private int u4() {
+        int high = u2();
+        return (high << 16) | u2();
+    }
+
+    private int u2At(int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+}
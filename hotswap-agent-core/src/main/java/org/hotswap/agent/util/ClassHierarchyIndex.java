@@ -0,0 +1,272 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Superclass, interface and class annotation index of application classes built from class file headers.
+ * <p/>
+ * The index is maintained incrementally - a class is added when it is defined and updated after it is
+ * redefined (see HotswapTransformer), hence during class load event handlers it describes the loaded (old)
+ * version of the class. Only classes defined from a directory are indexed, per classloader by class name.
+ * <p/>
+ * Direct subtypes and annotated classes are kept in reverse maps, so "is X annotated with Y" is a single lookup,
+ * "all classes annotated with Y" is a copy of the indexed set and "all subtypes of X" walks only the subtypes.
+ * Query the index via {@code PluginManager.getInstance().getClassHierarchyIndex()}.
+ */
+public class ClassHierarchyIndex {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ClassHierarchyIndex.class);
+
+    // classloader -> index of the classloader, guarded by this
+    private final Map<ClassLoader, LoaderIndex> indexes = new WeakHashMap<>();
+
+    private static class Entry {
+        final String superclassName;
+        final List<String> interfaceNames;
+        final Set<String> annotationNames;
+
+        Entry(ClassFileInfo info) {
+            superclassName = info.getSuperclassName();
+            interfaceNames = new ArrayList<>(info.getInterfaceNames());
+            annotationNames = new HashSet<>(info.getAnnotationNames());
+        }
+
+        List<String> supertypes() {
+            List<String> result = new ArrayList<>(interfaceNames.size() + 1);
+            if (superclassName != null) {
+                result.add(superclassName);
+            }
+            result.addAll(interfaceNames);
+            return result;
+        }
+    }
+
+    private static class LoaderIndex {
+        final Map<String, Entry> entries = new HashMap<>();
+        // type name -> direct subclasses and implementations
+        final Map<String, Set<String>> subtypes = new HashMap<>();
+        // annotation name -> annotated classes
+        final Map<String, Set<String>> annotated = new HashMap<>();
+    }
+
+    /**
+     * Add or replace hierarchy of a class.
+     *
+     * @param classLoader defining classloader, bootstrap classes (null) are not indexed
+     * @param className class name (internal or java form)
+     * @param bytes class file
+     */
+    public void update(ClassLoader classLoader, String className, byte[] bytes) {
+        if (classLoader == null || className == null || bytes == null) {
+            return;
+        }
+        try {
+            update(classLoader, ClassFileInfo.read(bytes));
+        } catch (IOException e) {
+            LOGGER.debug("Unable to read class header of {}.", e, className);
+        }
+    }
+
+    /**
+     * Add or replace hierarchy of a class.
+     *
+     * @param classLoader defining classloader, bootstrap classes (null) are not indexed
+     * @param info class file info of the class
+     */
+    public synchronized void update(ClassLoader classLoader, ClassFileInfo info) {
+        if (classLoader == null) {
+            return;
+        }
+        LoaderIndex index = indexes.get(classLoader);
+        if (index == null) {
+            index = new LoaderIndex();
+            indexes.put(classLoader, index);
+        }
+        String name = info.getClassName();
+        Entry entry = new Entry(info);
+        Entry previous = index.entries.put(name, entry);
+        if (previous != null) {
+            for (String supertype : previous.supertypes()) {
+                remove(index.subtypes, supertype, name);
+            }
+            for (String annotation : previous.annotationNames) {
+                remove(index.annotated, annotation, name);
+            }
+        }
+        for (String supertype : entry.supertypes()) {
+            add(index.subtypes, supertype, name);
+        }
+        for (String annotation : entry.annotationNames) {
+            add(index.annotated, annotation, name);
+        }
+    }
+
+    /**
+     * @param classLoader defining classloader
+     * @param className class name
+     * @return true if the class is indexed (defined from a directory)
+     */
+    public synchronized boolean contains(ClassLoader classLoader, String className) {
+        LoaderIndex index = indexes.get(classLoader);
+        return index != null && index.entries.containsKey(className);
+    }
+
+    /**
+     * Check class annotation of an indexed class.
+     *
+     * @param classLoader defining classloader
+     * @param className class name
+     * @param annotationName annotation class name
+     * @return null if the class is not indexed, otherwise true if the class is annotated
+     */
+    public synchronized Boolean hasAnnotation(ClassLoader classLoader, String className, String annotationName) {
+        LoaderIndex index = indexes.get(classLoader);
+        Entry entry = index != null ? index.entries.get(className) : null;
+        return entry != null ? entry.annotationNames.contains(annotationName) : null;
+    }
+
+    /**
+     * @param classLoader classloader of the classes
+     * @param annotationName annotation class name
+     * @return names of indexed classes with the class annotation
+     */
+    public synchronized Set<String> getAnnotatedClasses(ClassLoader classLoader, String annotationName) {
+        LoaderIndex index = indexes.get(classLoader);
+        Set<String> result = index != null ? index.annotated.get(annotationName) : null;
+        return result != null ? new HashSet<>(result) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Find all indexed subclasses and implementations (direct and indirect) of a type. The type itself needs not
+     * to be indexed (e.g. java.io.Serializable).
+     *
+     * @param classLoader classloader of the classes
+     * @param typeName class or interface name
+     * @return names of subtypes, direct subtypes first
+     */
+    public synchronized Set<String> getSubtypes(ClassLoader classLoader, String typeName) {
+        LoaderIndex index = indexes.get(classLoader);
+        if (index == null) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new LinkedHashSet<>();
+        List<String> queue = new ArrayList<>();
+        queue.add(typeName);
+        for (int i = 0; i < queue.size(); i++) {
+            Set<String> subtypes = index.subtypes.get(queue.get(i));
+            if (subtypes != null) {
+                for (String subtype : subtypes) {
+                    if (result.add(subtype)) {
+                        queue.add(subtype);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if a class is a subtype of a type by indexed supertypes.
+     *
+     * @param classLoader defining classloader
+     * @param className class name
+     * @param typeName class or interface name
+     * @return null if the class is not indexed or the hierarchy leaves the index before reaching the type,
+     * otherwise true if the class is (or extends/implements) the type
+     */
+    public synchronized Boolean isSubtype(ClassLoader classLoader, String className, String typeName) {
+        LoaderIndex index = indexes.get(classLoader);
+        if (index == null || !index.entries.containsKey(className)) {
+            return null;
+        }
+        Set<String> visited = new HashSet<>();
+        List<String> queue = new ArrayList<>();
+        queue.add(className);
+        boolean complete = true;
+        for (int i = 0; i < queue.size(); i++) {
+            String name = queue.get(i);
+            if (name.equals(typeName)) {
+                return true;
+            }
+            Entry entry = index.entries.get(name);
+            if (entry == null) {
+                // class outside of the index (JDK or library)
+                complete &= "java.lang.Object".equals(name);
+                continue;
+            }
+            for (String supertype : entry.supertypes()) {
+                if (visited.add(supertype)) {
+                    queue.add(supertype);
+                }
+            }
+        }
+        return complete ? Boolean.FALSE : null;
+    }
+
+    /**
+     * @return number of indexed classes
+     */
+    public synchronized int getClassCount() {
+        int count = 0;
+        for (LoaderIndex index : indexes.values()) {
+            count += index.entries.size();
+        }
+        return count;
+    }
+
+    /**
+     * Drop the index of a classloader.
+     *
+     * @param classLoader closed classloader
+     */
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
+        indexes.remove(classLoader);
+    }
+
+    private static void add(Map<String, Set<String>> map, String key, String value) {
+        Set<String> values = map.get(key);
+        if (values == null) {
+            values = new HashSet<>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static void remove(Map<String, Set<String>> map, String key, String value) {
+        Set<String> values = map.get(key);
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+}
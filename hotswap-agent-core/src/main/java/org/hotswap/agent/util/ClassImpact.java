@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.classloader.ClassLoaderHelper;
+import org.hotswap.agent.util.signature.ClassChangeClassifier;
+import org.hotswap.agent.util.signature.ClassChangeKind;
+
+/**
+ * Impact of a class redefinition on caches keyed by classes.
+ * <p/>
+ * Plugins flushing framework caches on redefinition (JDK introspection, EL resolvers, serializers) may query
+ * the impact to evict only affected entries or skip the flush altogether:
+ * <ul>
+ * <li>a method body (or debug info) only change does not affect cached reflection metadata,</li>
+ * <li>a structural change affects the class itself and its loaded subtypes,</li>
+ * <li>users of the class (classes referencing it transitively) are known from the {@link ClassReferenceGraph},
+ * subtypes from the {@link ClassHierarchyIndex}.</li>
+ * </ul>
+ * Subtypes and users are known only for indexed classes (defined from a directory) and only within
+ * the defining classloader of the changed class. If the changed class is not indexed or its classloader has child
+ * classloaders (which may define subtypes), the impact is unknown and the plugin should flush as before.
+ * <p/>
+ * Typical usage in an {@code @OnClassLoadEvent} method with injected {@code Class} and {@code ClassChangeKind}
+ * parameters: {@code ClassImpact.of(clazz, changeKind)}.
+ */
+public class ClassImpact {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ClassImpact.class);
+
+    private final Class<?> changedClass;
+    private final ClassChangeKind changeKind;
+    private final ClassReferenceGraph graph;
+    private final ClassHierarchyIndex hierarchyIndex;
+    private final HotswapTransformer hotswapTransformer;
+
+    // lazily resolved
+    private Set<String> users;
+    private List<Class<?>> loadedSubtypes;
+
+    /**
+     * @param changedClass redefined class
+     * @param changeKind kind of the change, null if unknown
+     * @param graph class reference graph, null if not available
+     */
+    public ClassImpact(Class<?> changedClass, ClassChangeKind changeKind, ClassReferenceGraph graph) {
+        this(changedClass, changeKind, graph, null);
+    }
+
+    /**
+     * @param changedClass redefined class
+     * @param changeKind kind of the change, null if unknown
+     * @param graph class reference graph, null if not available
+     * @param hierarchyIndex class hierarchy index to resolve subtypes, null to resolve subtypes from users
+     */
+    public ClassImpact(Class<?> changedClass, ClassChangeKind changeKind, ClassReferenceGraph graph,
+                       ClassHierarchyIndex hierarchyIndex) {
+        this(changedClass, changeKind, graph, hierarchyIndex, null);
+    }
+
+    /**
+     * @param changedClass redefined class
+     * @param changeKind kind of the change, null if unknown
+     * @param graph class reference graph, null if not available
+     * @param hierarchyIndex class hierarchy index to resolve subtypes, null to resolve subtypes from users
+     * @param hotswapTransformer transformer to find child classloaders of the defining classloader, null to skip
+     *                           the check
+     */
+    public ClassImpact(Class<?> changedClass, ClassChangeKind changeKind, ClassReferenceGraph graph,
+                       ClassHierarchyIndex hierarchyIndex, HotswapTransformer hotswapTransformer) {
+        this.changedClass = changedClass;
+        this.changeKind = changeKind;
+        this.graph = graph;
+        this.hierarchyIndex = hierarchyIndex;
+        this.hotswapTransformer = hotswapTransformer;
+    }
+
+    /**
+     * Impact of the redefinition using the reference graph of the plugin manager. A change kind classified
+     * by reflection (the loaded class file is not known) is only an estimate and is treated as unknown.
+     *
+     * @param changedClass redefined class
+     * @param changeKind kind of the change, null if unknown
+     * @return the impact
+     */
+    public static ClassImpact of(Class<?> changedClass, ClassChangeKind changeKind) {
+        if (changeKind != null && ClassChangeClassifier.isClassifiedByReflection(changedClass)) {
+            changeKind = null;
+        }
+        PluginManager pluginManager = PluginManager.getInstance();
+        return new ClassImpact(changedClass, changeKind, pluginManager.getClassReferenceGraph(),
+                pluginManager.getClassHierarchyIndex(), pluginManager.getHotswapTransformer());
+    }
+
+    /**
+     * @return the redefined class
+     */
+    public Class<?> getChangedClass() {
+        return changedClass;
+    }
+
+    /**
+     * @return false if only method bodies or debug info changed - fields, methods, annotations and hierarchy
+     * are the same and cached reflection metadata is still valid
+     */
+    public boolean isStructural() {
+        return changeKind == null || !changeKind.isBodyOnly();
+    }
+
+    /**
+     * @return true if subtypes and users of the changed class are known - the class is indexed and no child
+     * classloader of its defining classloader is known
+     */
+    public boolean isIndexed() {
+        ClassLoader classLoader = changedClass.getClassLoader();
+        return graph != null && classLoader != null && graph.contains(classLoader, changedClass.getName())
+                && (hotswapTransformer == null || !hotswapTransformer.hasChildClassLoader(classLoader));
+    }
+
+    /**
+     * @param cachedClass class of a cache entry
+     * @return true if the cached class is the changed class or its subtype
+     */
+    public boolean isSubtype(Class<?> cachedClass) {
+        return cachedClass != null && changedClass.isAssignableFrom(cachedClass);
+    }
+
+    /**
+     * @param cachedClass class of a cache entry
+     * @return true if the cached class is the changed class, its subtype or references the changed class
+     * (transitively). If the changed class is not indexed, true for any class.
+     */
+    public boolean affects(Class<?> cachedClass) {
+        if (isSubtype(cachedClass)) {
+            return true;
+        }
+        if (!isIndexed()) {
+            return cachedClass != null;
+        }
+        return cachedClass != null && cachedClass.getClassLoader() == changedClass.getClassLoader()
+                && getUsers().contains(cachedClass.getName());
+    }
+
+    /**
+     * Check if the changed class or any of its loaded subtypes is assignable to a type, i.e. it may be a key
+     * of a cache for the type (e.g. Serializable for serialization caches).
+     *
+     * @param type the type of cache keys
+     * @return false only if neither the changed class nor a subtype is assignable to the type.
+     * If the changed class is not indexed, true unless the class is final and not assignable.
+     */
+    public boolean mayAppearAs(Class<?> type) {
+        if (type.isAssignableFrom(changedClass)) {
+            return true;
+        }
+        if (!isIndexed()) {
+            return !Modifier.isFinal(changedClass.getModifiers());
+        }
+        for (Class<?> subtype : getLoadedSubtypes()) {
+            if (type.isAssignableFrom(subtype)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return loaded subtypes (subclasses, implementations) of the changed class in its classloader,
+     * empty if the changed class is not indexed
+     */
+    public synchronized List<Class<?>> getLoadedSubtypes() {
+        if (loadedSubtypes == null) {
+            List<Class<?>> result = new ArrayList<>();
+            ClassLoader classLoader = changedClass.getClassLoader();
+            // every subtype references its supertype, users are a superset of subtypes
+            Set<String> candidates = hierarchyIndex != null && hierarchyIndex.contains(classLoader, changedClass.getName())
+                    ? hierarchyIndex.getSubtypes(classLoader, changedClass.getName())
+                    : getUsers();
+            for (String name : candidates) {
+                try {
+                    Class<?> clazz = (Class<?>) ClassLoaderHelper.findLoadedClass.invoke(classLoader, name);
+                    if (clazz != null && clazz != changedClass && changedClass.isAssignableFrom(clazz)) {
+                        result.add(clazz);
+                    }
+                } catch (Exception e) {
+                    LOGGER.trace("Unable to find loaded class {}", e, name);
+                }
+            }
+            loadedSubtypes = result;
+        }
+        return loadedSubtypes;
+    }
+
+    private synchronized Set<String> getUsers() {
+        if (users == null) {
+            users = isIndexed()
+                    ? graph.getTransitiveDependents(changedClass.getClassLoader(), Collections.singleton(changedClass.getName()))
+                    : Collections.<String>emptySet();
+        }
+        return users;
+    }
+}
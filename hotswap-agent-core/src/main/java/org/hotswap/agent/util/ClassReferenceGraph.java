@@ -0,0 +1,325 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Class reference graph of application classes built from constant pools of class files.
+ * <p/>
+ * The graph is maintained incrementally - a class is added when it is defined and its references are replaced
+ * after it was successfully redefined (see HotswapTransformer). When a class is transformed for redefinition,
+ * references of the new class file are added to the known ones - until the outcome is confirmed (never for
+ * redefinitions started e.g. by a debugger), the class references the union of both versions, which is safe
+ * for dependent queries. A class references all classes named in its constant pool
+ * (class entries, field and method descriptors), JDK classes are omitted. References are tracked per
+ * classloader by class name, only classes defined from a directory are indexed.
+ * <p/>
+ * Plugins may ask which loaded classes transitively depend on a changed set of classes, redefinition batches are
+ * ordered so that referenced classes come before classes referencing them (see {@link #order(Map)}).
+ * Query the graph via {@code PluginManager.getInstance().getClassReferenceGraph()}.
+ */
+public class ClassReferenceGraph {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ClassReferenceGraph.class);
+
+    // classloader -> class references of the classloader, guarded by this
+    private final Map<ClassLoader, LoaderGraph> graphs = new WeakHashMap<>();
+
+    private static class LoaderGraph {
+        // class name -> names of referenced classes
+        final Map<String, Set<String>> references = new HashMap<>();
+        // class name -> names of classes referencing it
+        final Map<String, Set<String>> dependents = new HashMap<>();
+    }
+
+    /**
+     * Add or replace references of a class.
+     *
+     * @param classLoader defining classloader, bootstrap classes (null) are not indexed
+     * @param className class name (internal or java form)
+     * @param bytes class file
+     */
+    public void update(ClassLoader classLoader, String className, byte[] bytes) {
+        if (classLoader == null || className == null || bytes == null) {
+            return;
+        }
+        try {
+            update(classLoader, className.replace('/', '.'), ClassFileInfo.read(bytes).getReferencedClassNames());
+        } catch (IOException e) {
+            LOGGER.debug("Unable to read class references of {}.", e, className);
+        }
+    }
+
+    /**
+     * Add or replace references of a class.
+     *
+     * @param classLoader defining classloader, bootstrap classes (null) are not indexed
+     * @param info class file info of the class
+     */
+    public void update(ClassLoader classLoader, ClassFileInfo info) {
+        if (classLoader != null) {
+            update(classLoader, info.getClassName(), info.getReferencedClassNames());
+        }
+    }
+
+    private void update(ClassLoader classLoader, String name, Set<String> referencedClassNames) {
+        Set<String> referenced = new HashSet<>(referencedClassNames);
+        referenced.remove(name);
+
+        synchronized (this) {
+            LoaderGraph graph = graphs.get(classLoader);
+            if (graph == null) {
+                graph = new LoaderGraph();
+                graphs.put(classLoader, graph);
+            }
+            Set<String> previous = graph.references.put(name, referenced);
+            if (previous != null) {
+                for (String reference : previous) {
+                    Set<String> dependents = graph.dependents.get(reference);
+                    if (dependents != null) {
+                        dependents.remove(name);
+                        if (dependents.isEmpty()) {
+                            graph.dependents.remove(reference);
+                        }
+                    }
+                }
+            }
+            addDependents(graph, name, referenced);
+        }
+    }
+
+    private static void addDependents(LoaderGraph graph, String name, Set<String> referenced) {
+        for (String reference : referenced) {
+            Set<String> dependents = graph.dependents.get(reference);
+            if (dependents == null) {
+                dependents = new HashSet<>();
+                graph.dependents.put(reference, dependents);
+            }
+            dependents.add(name);
+        }
+    }
+
+    /**
+     * An indexed class is being redefined, add references of the new class file to the known references. The class
+     * then references both versions until {@link #update} replaces them after the redefinition succeeds. If the
+     * redefinition is rejected or its outcome is unknown, the union stays - a superset of the loaded version.
+     *
+     * @param classLoader defining classloader
+     * @param className class name (internal or java form)
+     * @param bytes new class file
+     */
+    public void markRedefining(ClassLoader classLoader, String className, byte[] bytes) {
+        if (classLoader == null || className == null || bytes == null) {
+            return;
+        }
+        String name = className.replace('/', '.');
+        synchronized (this) {
+            LoaderGraph graph = graphs.get(classLoader);
+            if (graph == null || !graph.references.containsKey(name)) {
+                return;
+            }
+        }
+        Set<String> referenced;
+        try {
+            referenced = new HashSet<>(ClassFileInfo.read(bytes).getReferencedClassNames());
+        } catch (IOException e) {
+            LOGGER.debug("Unable to read class references of {}.", e, className);
+            return;
+        }
+        referenced.remove(name);
+        synchronized (this) {
+            LoaderGraph graph = graphs.get(classLoader);
+            Set<String> references = graph != null ? graph.references.get(name) : null;
+            if (references != null) {
+                references.addAll(referenced);
+                addDependents(graph, name, referenced);
+            }
+        }
+    }
+
+    /**
+     * @param classLoader defining classloader
+     * @param className class name
+     * @return true if references of the class are known (the class was defined from a directory)
+     */
+    public synchronized boolean contains(ClassLoader classLoader, String className) {
+        LoaderGraph graph = graphs.get(classLoader);
+        return graph != null && graph.references.containsKey(className);
+    }
+
+    /**
+     * @param classLoader defining classloader
+     * @param className class name
+     * @return names of classes referenced by the class, empty if the class is not indexed
+     */
+    public synchronized Set<String> getReferences(ClassLoader classLoader, String className) {
+        LoaderGraph graph = graphs.get(classLoader);
+        Set<String> references = graph != null ? graph.references.get(className) : null;
+        return references != null ? new HashSet<>(references) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Find all indexed classes which directly or transitively reference any of the classes.
+     *
+     * @param classLoader classloader of the classes
+     * @param classNames changed classes
+     * @return names of dependent classes (without the changed classes), nearest dependents first
+     */
+    public synchronized Set<String> getTransitiveDependents(ClassLoader classLoader, Collection<String> classNames) {
+        LoaderGraph graph = graphs.get(classLoader);
+        if (graph == null) {
+            return Collections.emptySet();
+        }
+        Set<String> visited = new LinkedHashSet<>(classNames);
+        List<String> queue = new ArrayList<>(classNames);
+        for (int i = 0; i < queue.size(); i++) {
+            Set<String> dependents = graph.dependents.get(queue.get(i));
+            if (dependents != null) {
+                for (String dependent : dependents) {
+                    if (visited.add(dependent)) {
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+        visited.removeAll(classNames);
+        return visited;
+    }
+
+    /**
+     * @return number of indexed classes
+     */
+    public synchronized int getClassCount() {
+        int count = 0;
+        for (LoaderGraph graph : graphs.values()) {
+            count += graph.references.size();
+        }
+        return count;
+    }
+
+    /**
+     * Drop all references of a classloader.
+     *
+     * @param classLoader closed classloader
+     */
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
+        graphs.remove(classLoader);
+    }
+
+    /**
+     * Order redefinitions so that referenced classes come before classes referencing them (the new class files
+     * are used). Classes in a reference cycle keep the submission order.
+     *
+     * @param batch class -> new bytecode
+     * @return new map in dependency order
+     */
+    public static Map<Class<?>, byte[]> order(Map<Class<?>, byte[]> batch) {
+        if (batch.size() < 2) {
+            return batch;
+        }
+        Map<String, List<Class<?>>> byName = new LinkedHashMap<>();
+        for (Class<?> clazz : batch.keySet()) {
+            List<Class<?>> classes = byName.get(clazz.getName());
+            if (classes == null) {
+                classes = new ArrayList<>(1);
+                byName.put(clazz.getName(), classes);
+            }
+            classes.add(clazz);
+        }
+
+        Map<Class<?>, byte[]> result = new LinkedHashMap<>();
+        Set<String> visited = new HashSet<>();
+        for (String name : byName.keySet()) {
+            visit(name, batch, byName, visited, result);
+        }
+        return result;
+    }
+
+    // depth first with explicit stack (long reference chains), referenced classes are added before the class itself
+    private static void visit(String root, Map<Class<?>, byte[]> batch, Map<String, List<Class<?>>> byName,
+                              Set<String> visited, Map<Class<?>, byte[]> result) {
+        if (!visited.add(root)) {
+            return;
+        }
+        Deque<String> names = new ArrayDeque<>();
+        Deque<Iterator<String>> references = new ArrayDeque<>();
+        names.push(root);
+        references.push(batchReferences(root, batch, byName).iterator());
+        while (!names.isEmpty()) {
+            Iterator<String> it = references.peek();
+            if (it.hasNext()) {
+                String reference = it.next();
+                if (visited.add(reference)) {
+                    names.push(reference);
+                    references.push(batchReferences(reference, batch, byName).iterator());
+                }
+            } else {
+                references.pop();
+                for (Class<?> clazz : byName.get(names.pop())) {
+                    result.put(clazz, batch.get(clazz));
+                }
+            }
+        }
+    }
+
+    // names of classes in the batch referenced by classes of the name
+    private static Set<String> batchReferences(String name, Map<Class<?>, byte[]> batch, Map<String, List<Class<?>>> byName) {
+        Set<String> result = new LinkedHashSet<>();
+        for (Class<?> clazz : byName.get(name)) {
+            try {
+                for (String reference : referencedClassNames(batch.get(clazz))) {
+                    if (byName.containsKey(reference)) {
+                        result.add(reference);
+                    }
+                }
+            } catch (IOException e) {
+                // invalid bytecode, it will fail on redefinition
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read names of classes referenced from the constant pool and field/method descriptors. JDK classes
+     * (java.*) are omitted.
+     *
+     * @param bytes class file
+     * @return referenced class names in java form (including the class itself)
+     * @throws IOException class file format error
+     */
+    public static Set<String> referencedClassNames(byte[] bytes) throws IOException {
+        return ClassFileInfo.read(bytes).getReferencedClassNames();
+    }
+}
@@ -18,8 +18,10 @@
  */
 package org.hotswap.agent.util;
 
+import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
+import java.lang.ref.WeakReference;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -36,8 +38,12 @@ import java.util.regex.Pattern;
 
 import org.hotswap.agent.annotation.handler.PluginClassFileTransformer;
 import org.hotswap.agent.command.Command;
+import org.hotswap.agent.config.LazyPluginActivator;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.classloader.ClassLoaderDefineClassPatcher;
+import org.hotswap.agent.util.signature.ClassChangeClassifier;
+import org.hotswap.agent.util.signature.ClassSignatureComparerHelper;
 
 /**
  * Java instrumentation transformer.
@@ -65,21 +71,78 @@ public class HotswapTransformer implements ClassFileTransformer {
             "org.apache.felix.framework.BundleWiringImpl$BundleClassLoaderJava5" // delegating ClassLoader in_GlassFish
     ));
 
+    // nesting depth of transform() on the current thread (class loading inside a transformation reenters it)
+    private static final ThreadLocal<int[]> transformDepth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
     private static class RegisteredTransformersRecord {
         Pattern pattern;
-        List<HaClassFileTransformer> transformerList = new LinkedList<>();
+        // transformer, or a weak reference to a transformer registered for a classloader
+        List<Object> transformerList = new LinkedList<>();
+
+        void add(HaClassFileTransformer transformer, boolean weak) {
+            // drop references to transformers of collected classloaders
+            for (Iterator<Object> it = transformerList.iterator(); it.hasNext(); ) {
+                Object registered = it.next();
+                if (registered instanceof WeakReference && ((WeakReference<?>) registered).get() == null) {
+                    it.remove();
+                }
+            }
+            transformerList.add(weak ? new WeakReference<>(transformer) : transformer);
+        }
+
+        void remove(ClassFileTransformer transformer) {
+            for (Iterator<Object> it = transformerList.iterator(); it.hasNext(); ) {
+                Object registered = it.next();
+                if (registered == transformer
+                        || (registered instanceof WeakReference && ((WeakReference<?>) registered).get() == transformer)) {
+                    it.remove();
+                    return;
+                }
+            }
+        }
+
+        // snapshot of live transformers
+        List<ClassFileTransformer> getTransformers() {
+            List<ClassFileTransformer> ret = new ArrayList<>(transformerList.size());
+            for (Object registered : new ArrayList<>(transformerList)) {
+                if (registered instanceof WeakReference) {
+                    registered = ((WeakReference<?>) registered).get();
+                }
+                if (registered != null) {
+                    ret.add((ClassFileTransformer) registered);
+                }
+            }
+            return ret;
+        }
     }
 
     protected Map<String, RegisteredTransformersRecord> redefinitionTransformers = new LinkedHashMap<>();
     protected Map<String, RegisteredTransformersRecord> otherTransformers = new LinkedHashMap<>();
 
-    // keep track about which classloader requested which transformer
-    protected Map<ClassFileTransformer, ClassLoader> classLoaderTransformers = new LinkedHashMap<>();
+    // keep track about which classloader requested which transformer, transformers (and plugin instances they
+    // reference) live as long as the classloader, the transformer maps reference them weakly
+    protected Map<ClassLoader, List<ClassFileTransformer>> classLoaderTransformers =
+            WeakRegistry.classLoaderScoped("HotswapTransformer.classLoaderTransformers");
 
     protected Map<ClassLoader, Object> seenClassLoaders = new WeakHashMap<>();
 
     private List<Pattern> excludedClassLoaderPatterns;
 
+    private volatile ClassBytesStore classBytesStore;
+
+    private volatile ClassReferenceGraph classReferenceGraph;
+
+    private volatile ClassHierarchyIndex classHierarchyIndex;
+
+    private volatile LazyPluginActivator lazyPluginActivator;
+
+    private volatile ClassLoaderDefineClassPatcher classLoaderPatcher;
+
     /**
      * @param excludedClassLoaderPatterns
      *            the excludedClassLoaderPatterns to set
@@ -88,6 +151,42 @@ public class HotswapTransformer implements ClassFileTransformer {
         this.excludedClassLoaderPatterns = excludedClassLoaderPatterns;
     }
 
+    /**
+     * @param classBytesStore store of original class files captured on class definition, null to disable
+     */
+    public void setClassBytesStore(ClassBytesStore classBytesStore) {
+        this.classBytesStore = classBytesStore;
+    }
+
+    /**
+     * @param classReferenceGraph reference graph updated on class definition and redefinition, null to disable
+     */
+    public void setClassReferenceGraph(ClassReferenceGraph classReferenceGraph) {
+        this.classReferenceGraph = classReferenceGraph;
+    }
+
+    /**
+     * @param classHierarchyIndex hierarchy index updated on class definition and redefinition, null to disable
+     */
+    public void setClassHierarchyIndex(ClassHierarchyIndex classHierarchyIndex) {
+        this.classHierarchyIndex = classHierarchyIndex;
+    }
+
+    /**
+     * @param lazyPluginActivator activator of lazy plugins called before transformers are resolved, null to disable
+     */
+    public void setLazyPluginActivator(LazyPluginActivator lazyPluginActivator) {
+        this.lazyPluginActivator = lazyPluginActivator;
+    }
+
+    /**
+     * @param classLoaderPatcher patcher to define plugin classes referenced by a transformed class in its classloader,
+     *                           null if classloaders are patched with all plugin classes on initialization
+     */
+    public void setClassLoaderPatcher(ClassLoaderDefineClassPatcher classLoaderPatcher) {
+        this.classLoaderPatcher = classLoaderPatcher;
+    }
+
     /**
      * Register a transformer for a regexp matching class names.
      * Used by {@link org.hotswap.agent.annotation.OnClassLoadEvent} annotation respective
@@ -112,11 +211,18 @@ public class HotswapTransformer implements ClassFileTransformer {
             transformerRecord.pattern = Pattern.compile(normalizeRegexp);
             transformersMap.put(normalizeRegexp, transformerRecord);
         }
-        transformerRecord.transformerList.add(transformer);
+        transformerRecord.add(transformer, classLoader != null);
 
         // register classloader association to allow classloader unregistration
         if (classLoader != null) {
-            classLoaderTransformers.put(transformer, classLoader);
+            synchronized (classLoaderTransformers) {
+                List<ClassFileTransformer> transformers = classLoaderTransformers.get(classLoader);
+                if (transformers == null) {
+                    transformers = new ArrayList<>();
+                    classLoaderTransformers.put(classLoader, transformers);
+                }
+                transformers.add(transformer);
+            }
         }
     }
 
@@ -138,7 +244,7 @@ public class HotswapTransformer implements ClassFileTransformer {
         Map<String, RegisteredTransformersRecord> transformersMap = getTransformerMap(transformer);
         RegisteredTransformersRecord transformerRecord = transformersMap.get(normalizeRegexp);
         if (transformerRecord != null) {
-            transformerRecord.transformerList.remove(transformer);
+            transformerRecord.remove(transformer);
         }
     }
 
@@ -147,16 +253,14 @@ public class HotswapTransformer implements ClassFileTransformer {
      * @param classLoader
      */
     public void closeClassLoader(ClassLoader classLoader) {
-        for (Iterator<Map.Entry<ClassFileTransformer, ClassLoader>> entryIterator = classLoaderTransformers.entrySet().iterator();
-                entryIterator.hasNext(); ) {
-            Map.Entry<ClassFileTransformer, ClassLoader> entry = entryIterator.next();
-            if (entry.getValue().equals(classLoader)) {
-                entryIterator.remove();
+        List<ClassFileTransformer> transformers = classLoaderTransformers.remove(classLoader);
+        if (transformers != null) {
+            for (ClassFileTransformer transformer : transformers) {
                 for (RegisteredTransformersRecord transformerRecord : redefinitionTransformers.values()) {
-                    transformerRecord.transformerList.remove(entry.getKey());
+                    transformerRecord.remove(transformer);
                 }
                 for (RegisteredTransformersRecord transformerRecord : otherTransformers.values()) {
-                    transformerRecord.transformerList.remove(entry.getKey());
+                    transformerRecord.remove(transformer);
                 }
             }
         }
@@ -177,6 +281,27 @@ public class HotswapTransformer implements ClassFileTransformer {
     @Override
     public byte[] transform(final ClassLoader classLoader, String className, Class<?> redefiningClass,
                             final ProtectionDomain protectionDomain, byte[] bytes) throws IllegalClassFormatException {
+        int[] depth = transformDepth.get();
+        depth[0]++;
+        try {
+            return doTransform(classLoader, className, redefiningClass, protectionDomain, bytes);
+        } finally {
+            depth[0]--;
+        }
+    }
+
+    /**
+     * Check if the current thread is inside {@link #transform}. Code reachable from a transformation must not
+     * wait for other threads, those may be blocked on loading a class transformed by this thread.
+     *
+     * @return true if called from a class transformation
+     */
+    public static boolean isTransforming() {
+        return transformDepth.get()[0] > 0;
+    }
+
+    private byte[] doTransform(final ClassLoader classLoader, String className, Class<?> redefiningClass,
+                               final ProtectionDomain protectionDomain, byte[] bytes) throws IllegalClassFormatException {
 
         // Skip delegating classloaders used for reflection
         String classLoaderClassName = classLoader != null ? classLoader.getClass().getName() : null;
@@ -186,14 +311,98 @@ public class HotswapTransformer implements ClassFileTransformer {
 
         LOGGER.trace("Transform on class '{}' @{} redefiningClass '{}'.", className, classLoader, redefiningClass);
 
+        if (redefiningClass == null) {
+            ClassBytesStore store = classBytesStore;
+            if (store != null && classLoader != null && store.accepts(className, protectionDomain)) {
+                store.put(classLoader, className, bytes);
+            }
+            byte[] result = transformClass(classLoader, className, redefiningClass, protectionDomain, bytes);
+            patchPluginClasses(classLoader, className, protectionDomain, result);
+            updateIndexes(classLoader, className, protectionDomain, bytes);
+            return result;
+        }
+        ClassChangeClassifier.beginRedefinition(redefiningClass, bytes);
+        try {
+            byte[] result = transformClass(classLoader, className, redefiningClass, protectionDomain, bytes);
+            patchPluginClasses(classLoader, className, protectionDomain, result);
+            return result;
+        } finally {
+            ClassChangeClassifier.endRedefinition();
+            // cached again by invalidate() after the JVM commits the redefinition
+            ClassSignatureComparerHelper.redefining(redefiningClass);
+            // the JVM may still reject the redefinition, indexes are updated by redefinitionSucceeded(), until then
+            // the graph has references of both versions
+            ClassReferenceGraph graph = classReferenceGraph;
+            if (graph != null) {
+                graph.markRedefining(classLoader, className, bytes);
+            }
+        }
+    }
+
+    /**
+     * Update class indexes after a successful redefinition.
+     *
+     * @param clazz redefined class
+     * @param bytes class file passed to the redefinition (before transformation)
+     */
+    public void redefinitionSucceeded(Class<?> clazz, byte[] bytes) {
+        updateIndexes(clazz.getClassLoader(), clazz.getName(), clazz.getProtectionDomain(), bytes);
+    }
+
+    // plugin classes used by instrumented code must be defined in its classloader before the class is linked
+    private void patchPluginClasses(ClassLoader classLoader, String className, ProtectionDomain protectionDomain, byte[] bytes) {
+        ClassLoaderDefineClassPatcher patcher = classLoaderPatcher;
+        ClassLoader agentClassLoader = getClass().getClassLoader();
+        if (patcher == null || classLoader == null || classLoader == agentClassLoader
+                || (agentClassLoader != null && classLoader.equals(agentClassLoader.getParent()))
+                || !patcher.isPatchAvailable(classLoader) || !shouldScheduleClassLoader(classLoader)) {
+            return;
+        }
+        String pluginPath = PluginManager.PLUGIN_PACKAGE.replace(".", "/");
+        // dependencies among plugin classes are defined by the patcher itself
+        if (className != null && className.startsWith(pluginPath + "/")) {
+            return;
+        }
+        patcher.patchReferencedClasses(agentClassLoader, pluginPath, classLoader, protectionDomain, bytes);
+    }
+
+    // indexes describe the loaded version of a class, hence they are updated after class load handlers
+    private void updateIndexes(ClassLoader classLoader, String className, ProtectionDomain protectionDomain, byte[] bytes) {
+        ClassReferenceGraph graph = classReferenceGraph;
+        ClassHierarchyIndex hierarchyIndex = classHierarchyIndex;
+        if ((graph == null && hierarchyIndex == null) || classLoader == null
+                || !IOUtils.isDirectoryCodeSource(protectionDomain)) {
+            return;
+        }
+        try {
+            ClassFileInfo info = ClassFileInfo.read(bytes);
+            if (graph != null) {
+                graph.update(classLoader, info);
+            }
+            if (hierarchyIndex != null) {
+                hierarchyIndex.update(classLoader, info);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Unable to read class file of {}.", e, className);
+        }
+    }
+
+    private byte[] transformClass(final ClassLoader classLoader, String className, Class<?> redefiningClass,
+                                  final ProtectionDomain protectionDomain, byte[] bytes) {
         List<ClassFileTransformer> toApply = new ArrayList<>();
         List<PluginClassFileTransformer> pluginTransformers = new ArrayList<>();
         try {
+            // 0. activate lazy plugins triggered by this class, they register their transformers
+            LazyPluginActivator activator = lazyPluginActivator;
+            if (activator != null) {
+                activator.activate(className, redefiningClass);
+            }
+
             // 1. call transform method of defining transformers
             for (RegisteredTransformersRecord transformerRecord : new ArrayList<RegisteredTransformersRecord>(otherTransformers.values())) {
                 if ((className != null && transformerRecord.pattern.matcher(className).matches()) ||
                         (redefiningClass != null && transformerRecord.pattern.matcher(redefiningClass.getName()).matches())) {
-                    for (ClassFileTransformer transformer : new ArrayList<ClassFileTransformer>(transformerRecord.transformerList)) {
+                    for (ClassFileTransformer transformer : transformerRecord.getTransformers()) {
                         if(transformer instanceof PluginClassFileTransformer) {
                             PluginClassFileTransformer pcft = PluginClassFileTransformer.class.cast(transformer);
                             if(!pcft.isPluginDisabled(classLoader)) {
@@ -209,7 +418,7 @@ public class HotswapTransformer implements ClassFileTransformer {
             if (redefiningClass != null && className != null) {
                 for (RegisteredTransformersRecord transformerRecord : new ArrayList<RegisteredTransformersRecord>(redefinitionTransformers.values())) {
                     if (transformerRecord.pattern.matcher(className).matches()) {
-                        for (ClassFileTransformer transformer : new ArrayList<ClassFileTransformer>(transformerRecord.transformerList)) {
+                        for (ClassFileTransformer transformer : transformerRecord.getTransformers()) {
                             if(transformer instanceof PluginClassFileTransformer) {
                                 PluginClassFileTransformer pcft = PluginClassFileTransformer.class.cast(transformer);
                                 if(!pcft.isPluginDisabled(classLoader)) {
@@ -288,6 +497,34 @@ public class HotswapTransformer implements ClassFileTransformer {
 
         return reduced;
     }
+    /**
+     * Check if any classloader seen by the transformer has the classloader as an ancestor (a child loader may define
+     * subtypes of its classes).
+     *
+     * @param classLoader the parent classloader
+     * @return true if a child classloader is known or the check could not be completed
+     */
+    public boolean hasChildClassLoader(ClassLoader classLoader) {
+        if (classLoader == null) {
+            return true;
+        }
+        List<ClassLoader> loaders;
+        try {
+            loaders = new ArrayList<>(seenClassLoaders.keySet());
+        } catch (RuntimeException e) {
+            // concurrent modification by a class definition - unknown
+            return true;
+        }
+        for (ClassLoader loader : loaders) {
+            for (ClassLoader parent = loader != null ? loader.getParent() : null; parent != null; parent = parent.getParent()) {
+                if (parent == classLoader) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Every classloader should be initialized. Usually if anything interesting happens,
      * it is initialized during plugin initialization process. However, some plugins (e.g. Hotswapper)
@@ -27,12 +27,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.net.JarURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
 
-import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.logging.AgentLogger;
 import org.xml.sax.InputSource;
 import sun.nio.ch.ChannelInputStream;
@@ -53,6 +56,9 @@ public class IOUtils {
     /** URL protocol for a JBoss VFS resource: "vfs" */
     public static final String URL_PROTOCOL_VFS = "vfs";
 
+    /** URL protocol for an entry from a jar file: "jar" */
+    public static final String URL_PROTOCOL_JAR = "jar";
+
     /**
      * Download URI to byte array.
      *
@@ -70,7 +76,7 @@ public class IOUtils {
         int tryCount = 0;
         while (inputStream == null) {
             try {
-                inputStream = uri.toURL().openStream();
+                inputStream = openStream(uri);
             } catch (FileNotFoundException e) {
                 // some IDEs remove and recreate whole package multiple times while recompiling -
                 // we may need to waitForResult for the file.
@@ -99,7 +105,7 @@ public class IOUtils {
             }
         }
 
-        try (InputStream stream = uri.toURL().openStream()) {
+        try (InputStream stream = openStream(uri)) {
             byte[] chunk = new byte[4096];
             int bytesRead;
 
@@ -114,6 +120,22 @@ public class IOUtils {
         return outputStream.toByteArray();
     }
 
+    /**
+     * Open stream of the URI. Connection to a jar entry is not cached - a watched jar may be replaced
+     * and the cached jar file would still return the previous content.
+     *
+     * @param uri uri to open
+     * @return the stream
+     * @throws IOException unable to open the stream
+     */
+    private static InputStream openStream(URI uri) throws IOException {
+        URLConnection connection = uri.toURL().openConnection();
+        if (connection instanceof JarURLConnection) {
+            connection.setUseCaches(false);
+        }
+        return connection.getInputStream();
+    }
+
     /**
      * Convert input stream to a string.
      * @param is stream
@@ -137,6 +159,16 @@ public class IOUtils {
         return (URL_PROTOCOL_FILE.equals(protocol) || protocol.startsWith(URL_PROTOCOL_VFS));
     }
 
+    /**
+     * Determine whether the given URL points to an entry in a jar file, that is, has protocol "jar".
+     *
+     * @param url the URL to check
+     * @return whether the URL has been identified as a jar URL
+     */
+    public static boolean isJarURL(URL url) {
+        return URL_PROTOCOL_JAR.equals(url.getProtocol());
+    }
+
     /**
      * Determine whether the given URL points to a directory in the file system
      *
@@ -154,15 +186,39 @@ public class IOUtils {
         return false;
     }
 
+    /**
+     * Determine whether a class with the protection domain is defined from a directory in the file system
+     * (typically build output of the application, i.e. a class which may be hotswapped).
+     *
+     * @param protectionDomain protection domain of the class, may be null
+     * @return true if the code source location is a file URL of a directory
+     */
+    public static boolean isDirectoryCodeSource(ProtectionDomain protectionDomain) {
+        if (protectionDomain == null) {
+            return false;
+        }
+        CodeSource codeSource = protectionDomain.getCodeSource();
+        URL location = codeSource != null ? codeSource.getLocation() : null;
+        return location != null && URL_PROTOCOL_FILE.equals(location.getProtocol()) && location.getPath().endsWith("/");
+    }
+
     /**
      * Return fully qualified class name of class file on a URI.
      *
      * @param uri uri of class file
      * @return name
-     * @throws IOException any exception on class instantiation
+     * @throws IOException read error or not a class file
      */
     public static String urlToClassName(URI uri) throws IOException {
-        return ClassPool.getDefault().makeClass(uri.toURL().openStream()).getName();
+        try (InputStream is = openStream(uri)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = is.read(chunk)) > 0) {
+                buffer.write(chunk, 0, bytesRead);
+            }
+            return ClassFileInfo.readClassName(buffer.toByteArray());
+        }
     }
 
     /**
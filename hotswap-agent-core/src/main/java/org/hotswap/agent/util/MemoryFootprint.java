@@ -0,0 +1,437 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.Scheduler;
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Estimate heap retained by agent subsystems.
+ * <p/>
+ * A subsystem is registered by name with one or more roots - an object or a class (its static fields). The
+ * retained size is estimated by walking the object graph from the roots with {@link Instrumentation#getObjectSize}:
+ * <ul>
+ * <li>fields of agent and plugin objects (org.hotswap.agent.*) are followed,</li>
+ * <li>JDK maps, collections and arrays are followed via their public API with a fixed per-entry overhead,</li>
+ * <li>heap byte buffers (e.g. the loaded startup cache) are counted with their backing array,</li>
+ * <li>other objects (application and framework instances, class loaders, classes, threads, referents of weak
+ * references) are counted shallow or not at all - they are not retained by the agent.</li>
+ * </ul>
+ * Objects shared by several subsystems are counted once, with the subsystem registered first. Off-heap memory
+ * (compressed class files, direct buffers) is not included.
+ * <p/>
+ * Each report is logged at debug level. A warning is logged when a subsystem exceeds the size threshold or grows
+ * in several consecutive reports.
+ */
+public class MemoryFootprint {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(MemoryFootprint.class);
+
+    /**
+     * Default size threshold of a subsystem in MB.
+     */
+    public static final int DEFAULT_WARN_THRESHOLD_MB = 64;
+
+    /**
+     * Number of consecutive growing reports to warn about unbounded growth.
+     */
+    public static final int GROWTH_WARN_REPORTS = 5;
+
+    // estimated overhead of a map entry (node) or a collection element slot
+    private static final int MAP_ENTRY_OVERHEAD = 32;
+    private static final int ELEMENT_OVERHEAD = 8;
+
+    // max number of visited objects in one report
+    private static final int MAX_OBJECTS = 2000000;
+
+    private final Instrumentation instrumentation;
+    private final long warnThreshold;
+
+    // subsystem name -> roots, roots are held weakly not to retain plugin classes and their classloaders
+    private final Map<String, List<WeakReference<Object>>> subsystems = new LinkedHashMap<>();
+
+    // objects shared by all subsystems, not counted and not followed
+    private final List<WeakReference<Object>> excluded = new ArrayList<>();
+
+    // subsystem name -> statistics of previous reports, guarded by this
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+
+    private static class Stats {
+        long size;
+        long growthStart;
+        int growthCount;
+        boolean thresholdWarned;
+    }
+
+    /**
+     * @param instrumentation instrumentation to measure object size, null to use a rough estimate
+     * @param warnThreshold   subsystem size in bytes to log a warning, 0 to disable
+     */
+    public MemoryFootprint(Instrumentation instrumentation, long warnThreshold) {
+        this.instrumentation = instrumentation;
+        this.warnThreshold = warnThreshold;
+    }
+
+    /**
+     * Create footprint configured by memoryFootprint.warnThresholdMB and start periodic report if
+     * memoryFootprint.reportIntervalSeconds is set.
+     *
+     * @param configuration   agent configuration
+     * @param instrumentation instrumentation
+     * @param scheduler       scheduler to run periodic report
+     * @return the footprint
+     */
+    public static MemoryFootprint create(PluginConfiguration configuration, Instrumentation instrumentation,
+                                         Scheduler scheduler) {
+        long warnThresholdMB = getLongProperty(configuration, "memoryFootprint.warnThresholdMB", DEFAULT_WARN_THRESHOLD_MB);
+        MemoryFootprint footprint = new MemoryFootprint(instrumentation, Math.max(warnThresholdMB, 0) * 1024 * 1024);
+        long interval = getLongProperty(configuration, "memoryFootprint.reportIntervalSeconds", 0);
+        if (interval > 0 && scheduler != null) {
+            footprint.schedule(scheduler, (int) (interval * 1000));
+        }
+        return footprint;
+    }
+
+    private static long getLongProperty(PluginConfiguration configuration, String name, long defaultValue) {
+        String value = configuration.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid {} value '{}', using default {}.", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Register a root of a subsystem. A subsystem may have several roots (e.g. a plugin class loaded in several
+     * application classloaders).
+     *
+     * @param subsystem subsystem name
+     * @param root      object or class - static fields of the class are measured
+     */
+    public synchronized void register(String subsystem, Object root) {
+        if (root == null) {
+            return;
+        }
+        List<WeakReference<Object>> roots = subsystems.get(subsystem);
+        if (roots == null) {
+            roots = new ArrayList<>();
+            subsystems.put(subsystem, roots);
+        }
+        for (WeakReference<Object> ref : roots) {
+            if (ref.get() == root) {
+                return;
+            }
+        }
+        roots.add(new WeakReference<>(root));
+    }
+
+    /**
+     * Exclude an object from measurement - it is neither counted nor followed (e.g. the plugin manager referenced
+     * from most of subsystems).
+     *
+     * @param o the object
+     */
+    public synchronized void exclude(Object o) {
+        excluded.add(new WeakReference<>(o));
+    }
+
+    /**
+     * Estimate retained size of all registered subsystems.
+     *
+     * @return subsystem name -> estimated size in bytes
+     */
+    public Map<String, Long> measure() {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        Map<String, List<Object>> roots = new LinkedHashMap<>();
+        synchronized (this) {
+            for (WeakReference<Object> ref : excluded) {
+                push(visited, ref.get());
+            }
+            for (Map.Entry<String, List<WeakReference<Object>>> entry : subsystems.entrySet()) {
+                List<Object> live = new ArrayList<>();
+                for (WeakReference<Object> ref : entry.getValue()) {
+                    Object root = ref.get();
+                    if (root != null) {
+                        live.add(root);
+                        // roots of other subsystems are boundaries
+                        visited.add(root);
+                    }
+                }
+                roots.put(entry.getKey(), live);
+            }
+        }
+
+        Map<String, Long> ret = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Object>> entry : roots.entrySet()) {
+            long size = 0;
+            for (Object root : entry.getValue()) {
+                visited.remove(root);
+                size += sizeOf(root, visited);
+            }
+            ret.put(entry.getKey(), size);
+        }
+        return ret;
+    }
+
+    /**
+     * Measure all subsystems, log the result at debug level and warn about subsystems above the threshold or
+     * growing in {@link #GROWTH_WARN_REPORTS} consecutive reports.
+     *
+     * @return subsystem name -> estimated size in bytes
+     */
+    public Map<String, Long> report() {
+        Map<String, Long> sizes = measure();
+        LOGGER.debug("Agent memory footprint: {}", format(sizes));
+        synchronized (this) {
+            for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+                check(entry.getKey(), entry.getValue());
+            }
+        }
+        return sizes;
+    }
+
+    // guarded by this
+    private void check(String subsystem, long size) {
+        Stats s = stats.get(subsystem);
+        if (s == null) {
+            s = new Stats();
+            s.size = size;
+            s.growthStart = size;
+            stats.put(subsystem, s);
+        } else {
+            if (size > s.size) {
+                if (s.growthCount == 0) {
+                    s.growthStart = s.size;
+                }
+                s.growthCount++;
+            } else {
+                s.growthCount = 0;
+            }
+            s.size = size;
+        }
+        if (s.growthCount >= GROWTH_WARN_REPORTS) {
+            LOGGER.warning("Agent subsystem '{}' grows steadily, {} -> {} in last {} reports.", subsystem,
+                    formatSize(s.growthStart), formatSize(size), s.growthCount);
+            s.growthCount = 0;
+        }
+        if (warnThreshold > 0 && size > warnThreshold) {
+            if (!s.thresholdWarned) {
+                LOGGER.warning("Agent subsystem '{}' retains {}, above threshold {} (memoryFootprint.warnThresholdMB).",
+                        subsystem, formatSize(size), formatSize(warnThreshold));
+                s.thresholdWarned = true;
+            }
+        } else {
+            s.thresholdWarned = false;
+        }
+    }
+
+    /**
+     * Run the report periodically.
+     *
+     * @param scheduler scheduler
+     * @param interval  interval in ms
+     */
+    public void schedule(final Scheduler scheduler, final int interval) {
+        scheduler.scheduleCommand(new Command() {
+            @Override
+            public void executeCommand() {
+                try {
+                    report();
+                } catch (RuntimeException e) {
+                    LOGGER.debug("Unable to measure agent memory footprint.", e);
+                }
+                scheduler.scheduleCommand(this, interval);
+            }
+
+            @Override
+            public String toString() {
+                return "MemoryFootprint.report()";
+            }
+        }, interval);
+    }
+
+    /**
+     * Estimate size of an object graph, objects already in visited set are skipped.
+     *
+     * @param root    object or class (static fields)
+     * @param visited identity set of already counted objects
+     * @return estimated size in bytes
+     */
+    public long sizeOf(Object root, Set<Object> visited) {
+        long size = 0;
+        Deque<Object> stack = new ArrayDeque<>();
+        if (root instanceof Class) {
+            pushFields(stack, (Class<?>) root, null, true);
+        } else if (root != null) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            Object o = stack.pop();
+            if (!visited.add(o)) {
+                continue;
+            }
+            if (visited.size() > MAX_OBJECTS) {
+                LOGGER.debug("Memory footprint measurement stopped after {} objects.", MAX_OBJECTS);
+                break;
+            }
+            if (o instanceof Class || o instanceof ClassLoader || o instanceof Thread) {
+                continue;
+            }
+            size += shallowSize(o);
+            if (o instanceof Reference) {
+                continue;
+            }
+            Class<?> clazz = o.getClass();
+            if (clazz.isArray()) {
+                if (!clazz.getComponentType().isPrimitive()) {
+                    for (Object element : (Object[]) o) {
+                        push(stack, element);
+                    }
+                }
+            } else if (o instanceof ByteBuffer) {
+                ByteBuffer buffer = (ByteBuffer) o;
+                if (buffer.hasArray()) {
+                    // shared by duplicates of the buffer, counted once
+                    push(stack, buffer.array());
+                } else if (!buffer.isDirect()) {
+                    // read-only heap buffer, the backing array is inaccessible
+                    size += 16 + buffer.capacity();
+                }
+            } else if (o instanceof String) {
+                // backing array (inaccessible on Java 9+), estimated as one byte per char plus array header
+                size += 16 + ((String) o).length();
+            } else if (isAgentClass(clazz)) {
+                pushFields(stack, clazz, o, false);
+            } else if (o instanceof Map && isJdkClass(clazz)) {
+                try {
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) o).entrySet()) {
+                        push(stack, entry.getKey());
+                        push(stack, entry.getValue());
+                        size += MAP_ENTRY_OVERHEAD;
+                    }
+                } catch (RuntimeException e) {
+                    // concurrent modification - partial estimate
+                }
+            } else if (o instanceof Collection && isJdkClass(clazz)) {
+                try {
+                    for (Object element : (Collection<?>) o) {
+                        push(stack, element);
+                        size += ELEMENT_OVERHEAD;
+                    }
+                } catch (RuntimeException e) {
+                    // concurrent modification - partial estimate
+                }
+            }
+        }
+        return size;
+    }
+
+    private static void push(Collection<Object> stack, Object o) {
+        if (o != null) {
+            stack.add(o);
+        }
+    }
+
+    private static void pushFields(Deque<Object> stack, Class<?> clazz, Object o, boolean statics) {
+        for (Class<?> c = clazz; c != null && isAgentClass(c); c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (field.getType().isPrimitive() || Modifier.isStatic(field.getModifiers()) != statics) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    push(stack, field.get(o));
+                } catch (RuntimeException | IllegalAccessException e) {
+                    // inaccessible field - not counted
+                }
+            }
+            if (statics) {
+                break;
+            }
+        }
+    }
+
+    private long shallowSize(Object o) {
+        if (instrumentation != null) {
+            return instrumentation.getObjectSize(o);
+        }
+        // rough estimate without instrumentation - header plus array data
+        Class<?> clazz = o.getClass();
+        if (clazz.isArray()) {
+            Class<?> type = clazz.getComponentType();
+            int elementSize = type == byte.class || type == boolean.class ? 1
+                    : type == char.class || type == short.class ? 2
+                    : type == long.class || type == double.class ? 8 : 4;
+            return 16 + (long) elementSize * Array.getLength(o);
+        }
+        return 16;
+    }
+
+    private static boolean isAgentClass(Class<?> clazz) {
+        return clazz.getName().startsWith("org.hotswap.agent.");
+    }
+
+    private static boolean isJdkClass(Class<?> clazz) {
+        String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") || name.startsWith("jdk.");
+    }
+
+    /**
+     * Format sizes for the log.
+     */
+    public static String format(Map<String, Long> sizes) {
+        StringBuilder b = new StringBuilder();
+        long total = 0;
+        for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+            b.append(entry.getKey()).append('=').append(formatSize(entry.getValue())).append(", ");
+            total += entry.getValue();
+        }
+        return b.append("total=").append(formatSize(total)).toString();
+    }
+
+    private static String formatSize(long size) {
+        if (size >= 1024 * 1024) {
+            return String.format("%.1fMB", size / (1024.0 * 1024.0));
+        }
+        return String.format("%.1fKB", size / 1024.0);
+    }
+}
@@ -20,7 +20,16 @@ package org.hotswap.agent.util;
 
 import org.hotswap.agent.config.PluginManager;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * Invoke methods on plugin manager, avoid classloader conflicts.
@@ -33,6 +42,35 @@ import java.lang.reflect.Method;
  */
 public class PluginManagerInvoker {
 
+    // plugin method key "pluginClass#method(paramType,paramType)" -> resolved method
+    private static final Map<String, PluginMethod> pluginMethods = new ConcurrentHashMap<>();
+
+    // callPluginMethod() lookups by plugin class, method name and parameter types -> resolved method
+    private static final Map<PluginMethodKey, PluginMethod> pluginMethodsByType = new ConcurrentHashMap<>();
+
+    private static final Function<String, PluginMethod> PARSE_PLUGIN_METHOD = new Function<String, PluginMethod>() {
+        @Override
+        public PluginMethod apply(String pluginMethodKey) {
+            return new PluginMethod(pluginMethodKey);
+        }
+    };
+
+    private static final Function<PluginMethodKey, PluginMethod> CREATE_PLUGIN_METHOD = new Function<PluginMethodKey, PluginMethod>() {
+        @Override
+        public PluginMethod apply(PluginMethodKey key) {
+            return new PluginMethod(key.pluginClass.getName(), key.method, key.paramTypes);
+        }
+    };
+
+    private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<>();
+
+    static {
+        for (Class<?> type : new Class<?>[]{boolean.class, byte.class, char.class, short.class, int.class,
+                long.class, float.class, double.class}) {
+            PRIMITIVE_TYPES.put(type.getName(), type);
+        }
+    }
+
     /**
      * Initialize plugin for a classloader.
      *
@@ -84,16 +122,132 @@ public class PluginManagerInvoker {
      * @return method return value
      */
     public static Object callPluginMethod(Class pluginClass, ClassLoader appClassLoader, String method, Class[] paramTypes, Object[] params) {
-        Object pluginInstance = PluginManager.getInstance().getPlugin(pluginClass.getName(), appClassLoader);
+        PluginMethod pluginMethod = pluginMethodsByType.computeIfAbsent(
+                new PluginMethodKey(pluginClass, method, paramTypes), CREATE_PLUGIN_METHOD);
+        return invoke(pluginMethod, appClassLoader, params);
+    }
 
+    /**
+     * Call a plugin method through a cached method handle. This is the entry point of the code generated by
+     * {@link #buildCallPluginMethod(String, Class, String, String...)}, the method key is a constant
+     * of the generated code and the plugin method is resolved only on the first call.
+     *
+     * @param pluginMethodKey plugin method in form "pluginClass#method(paramType,paramType)"
+     * @param appClassLoader  application classloader (to resolve plugin instance)
+     * @param params          actual param values
+     * @return method return value
+     */
+    public static Object invokePluginMethod(String pluginMethodKey, ClassLoader appClassLoader, Object[] params) {
+        return invoke(pluginMethods.computeIfAbsent(pluginMethodKey, PARSE_PLUGIN_METHOD), appClassLoader, params);
+    }
+
+    private static Object invoke(PluginMethod pluginMethod, ClassLoader appClassLoader, Object[] params) {
         try {
-            Method m = pluginInstance.getClass().getDeclaredMethod(method, paramTypes);
-            return m.invoke(pluginInstance, params);
-        } catch (Exception e) {
-            throw new Error(String.format("Exception calling method %s on plugin class %s", method, pluginClass), e);
+            Object pluginInstance = PluginManager.getInstance().getPlugin(pluginMethod.pluginClass, appClassLoader);
+            return pluginMethod.getHandle(pluginInstance.getClass()).invokeExact(pluginInstance, params);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new Error(String.format("Exception calling method %s on plugin class %s", pluginMethod.method,
+                    pluginMethod.pluginClass), e);
         }
     }
 
+    private static String pluginMethodKey(String pluginClass, String method, String signature) {
+        return pluginClass + "#" + method + "(" + signature + ")";
+    }
+
+    // immutable, the parameter types array is copied
+    private static final class PluginMethodKey {
+        final Class<?> pluginClass;
+        final String method;
+        final Class<?>[] paramTypes;
+        final int hash;
+
+        PluginMethodKey(Class<?> pluginClass, String method, Class<?>[] paramTypes) {
+            this.pluginClass = pluginClass;
+            this.method = method;
+            this.paramTypes = paramTypes.clone();
+            hash = 31 * (31 * pluginClass.hashCode() + method.hashCode()) + Arrays.hashCode(paramTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PluginMethodKey)) {
+                return false;
+            }
+            PluginMethodKey that = (PluginMethodKey) o;
+            return pluginClass == that.pluginClass && method.equals(that.method)
+                    && Arrays.equals(paramTypes, that.paramTypes);
+        }
+    }
+
+    private static class PluginMethod {
+        final String pluginClass;
+        final String method;
+        // type names from the generated code, resolved on the first call
+        final String[] paramTypeNames;
+        final Class<?>[] paramTypes;
+
+        // handle of type (Object pluginInstance, Object[] params)Object
+        volatile MethodHandle handle;
+
+        PluginMethod(String key) {
+            int hash = key.indexOf('#');
+            int paren = key.indexOf('(', hash);
+            pluginClass = key.substring(0, hash);
+            method = key.substring(hash + 1, paren);
+            String signature = key.substring(paren + 1, key.length() - 1);
+            paramTypeNames = signature.isEmpty() ? new String[0] : signature.split(",");
+            paramTypes = null;
+        }
+
+        PluginMethod(String pluginClass, String method, Class<?>[] paramTypes) {
+            this.pluginClass = pluginClass;
+            this.method = method;
+            this.paramTypeNames = null;
+            this.paramTypes = paramTypes;
+        }
+
+        MethodHandle getHandle(Class<?> pluginClass) throws ReflectiveOperationException {
+            MethodHandle ret = handle;
+            if (ret == null) {
+                Class<?>[] types = paramTypes;
+                if (types == null) {
+                    types = new Class[paramTypeNames.length];
+                    for (int i = 0; i < paramTypeNames.length; i++) {
+                        types[i] = resolveType(paramTypeNames[i].trim(), pluginClass.getClassLoader());
+                    }
+                }
+                Method m = pluginClass.getDeclaredMethod(method, types);
+                m.setAccessible(true);
+                ret = MethodHandles.lookup().unreflect(m)
+                        .asType(MethodType.genericMethodType(types.length + 1))
+                        .asSpreader(Object[].class, types.length);
+                handle = ret;
+            }
+            return ret;
+        }
+    }
+
+    // primitive, source (java.lang.String[]) or binary ([Ljava.lang.String;) type name
+    private static Class<?> resolveType(String typeName, ClassLoader classLoader) throws ClassNotFoundException {
+        if (typeName.endsWith("[]")) {
+            Class<?> componentType = resolveType(typeName.substring(0, typeName.length() - 2), classLoader);
+            return Array.newInstance(componentType, 0).getClass();
+        }
+        Class<?> primitive = PRIMITIVE_TYPES.get(typeName);
+        return primitive != null ? primitive : Class.forName(typeName, false, classLoader);
+    }
+
     /**
      * Equivalent to callPluginMethod for insertion into source code.
      * <p/>
@@ -116,7 +270,6 @@ public class PluginManagerInvoker {
     public static String buildCallPluginMethod(String appClassLoaderVar, Class pluginClass,
                                                String method, String... paramValueAndType) {
 
-        String managerClass = PluginManager.class.getName();
         int paramCount = paramValueAndType.length / 2;
 
         StringBuilder b = new StringBuilder();
@@ -124,43 +277,24 @@ public class PluginManagerInvoker {
         // block to hide variables and catch checked exceptions
         b.append("try {");
 
-        b.append("ClassLoader __pluginClassLoader = ");
-        b.append(managerClass);
-        b.append(".class.getClassLoader();");
-
-        // Object __pluginInstance = org.hotswap.agent.config.PluginManager.getInstance().getPlugin(org.hotswap.agent.plugin.TestPlugin.class.getName(), __pluginClassLoader);
-        b.append("Object __pluginInstance = ");
-        b.append(managerClass);
-        b.append(".getInstance().getPlugin(");
-        b.append(pluginClass.getName());
-        b.append(".class.getName(), " + appClassLoaderVar + ");");
-
-        // Class __pluginClass = __pluginClassLoader.loadClass("org.hotswap.agent.plugin.TestPlugin");
-        b.append("Class __pluginClass = ");
-        b.append("__pluginClassLoader.loadClass(\"");
-        b.append(pluginClass.getName());
-        b.append("\");");
-
-        // param types
-        b.append("Class[] paramTypes = new Class[" + paramCount + "];");
-        for (int i = 0; i < paramCount; i++) {
-            // paramTypes[i] = = __pluginClassLoader.loadClass("my.test.TestClass").getClass();
-            b.append("paramTypes[" + i + "] = __pluginClassLoader.loadClass(\"" + paramValueAndType[(i * 2) + 1] + "\");");
-        }
-
-        //   java.lang.reflect.Method __pluginMethod = __pluginClass.getDeclaredMethod("method", paramType1, paramType2);
-        b.append("java.lang.reflect.Method __callPlugin = __pluginClass.getDeclaredMethod(\"");
-        b.append(method);
-        b.append("\", paramTypes");
-        b.append(");");
-
         b.append("Object[] params = new Object[" + paramCount + "];");
         for (int i = 0; i < paramCount; i = i + 1) {
             b.append("params[" + i + "] = " + paramValueAndType[i * 2] + ";");
         }
 
-        // __pluginMethod.invoke(__pluginInstance, param1, param2);
-        b.append("__callPlugin.invoke(__pluginInstance, params);");
+        // org.hotswap.agent.util.PluginManagerInvoker.invokePluginMethod(
+        //      "org.hotswap.agent.plugin.TestPlugin#method(java.lang.String,java.lang.Object)", appClassLoader, params);
+        StringBuilder signature = new StringBuilder();
+        for (int i = 0; i < paramCount; i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            signature.append(paramValueAndType[(i * 2) + 1]);
+        }
+        b.append(PluginManagerInvoker.class.getName());
+        b.append(".invokePluginMethod(\"");
+        b.append(pluginMethodKey(pluginClass.getName(), method, signature.toString()));
+        b.append("\", " + appClassLoaderVar + ", params);");
 
         // catch (Exception e) {throw new Error(e);}
         b.append("} catch (Exception e) {throw new Error(e);}");
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.Scheduler;
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Persistent cache of data computed from JAR files at startup (scanned class files, deployment info), reused
+ * across JVM restarts.
+ * <p/>
+ * Entries are keyed by kind and JAR file path and are valid only while the JAR file has the same last modified
+ * time and size, which is checked on each access. The cache file is read on startup, entries are copied out
+ * on first access. It is not memory mapped - a mapped file cannot be replaced on Windows. New entries are written
+ * asynchronously by the scheduler shortly after the last change (the file is replaced, stale entries are dropped).
+ * <p/>
+ * Enabled by startupCache=true property, the cache directory is startupCache.dir (~/.hotswap-agent/cache by default).
+ */
+public class StartupCache {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(StartupCache.class);
+
+    public static final String CACHE_FILE = "startup-cache.bin";
+
+    // write the file after this period without new entries
+    static final int FLUSH_DELAY = 5000;
+
+    private static final int MAGIC = 0x48414331; // HAC1
+
+    private static volatile StartupCache instance;
+
+    private static class Entry {
+        final String kind;
+        final String path;
+        final long lastModified;
+        final long length;
+        // either data, or position of data in the loaded file
+        byte[] data;
+        int offset;
+        int size;
+
+        Entry(String kind, String path, long lastModified, long length) {
+            this.kind = kind;
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    private final File file;
+    private final Scheduler scheduler;
+
+    // guarded by this
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private ByteBuffer loaded;
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    private final Command flushCommand = new Command() {
+        @Override
+        public void executeCommand() {
+            flush();
+        }
+
+        @Override
+        public String toString() {
+            return "StartupCache.flush()";
+        }
+    };
+
+    /**
+     * @param file      the cache file, loaded if it exists
+     * @param scheduler scheduler for asynchronous writes, null to write only by explicit {@link #flush()}
+     */
+    public StartupCache(File file, Scheduler scheduler) {
+        this.file = file;
+        this.scheduler = scheduler;
+        load();
+    }
+
+    /**
+     * Create the cache configured by startupCache and startupCache.dir properties and make it available
+     * via {@link #getInstance()}.
+     *
+     * @param configuration agent configuration
+     * @param scheduler     scheduler for asynchronous writes
+     * @return the cache or null if disabled
+     */
+    public static StartupCache create(PluginConfiguration configuration, Scheduler scheduler) {
+        if (!configuration.getPropertyBoolean("startupCache")) {
+            return null;
+        }
+        String dir = configuration.getProperty("startupCache.dir");
+        File cacheDir = dir == null || dir.trim().isEmpty()
+                ? new File(System.getProperty("user.home"), ".hotswap-agent" + File.separator + "cache")
+                : new File(dir.trim());
+        instance = new StartupCache(new File(cacheDir, CACHE_FILE), scheduler);
+        return instance;
+    }
+
+    /**
+     * @return the cache created at agent startup or null if disabled
+     */
+    public static StartupCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Resolve the JAR file of a jar:file: URL.
+     *
+     * @param url URL of a JAR file entry (e.g. jar:file:/lib/a.jar!/META-INF/MANIFEST.MF)
+     * @return the JAR file or null if the URL does not point to a local JAR file
+     */
+    public static File toJarFile(URL url) {
+        String location = url.toExternalForm();
+        int separator = location.indexOf("!/");
+        if (!location.startsWith("jar:file:") || separator == -1) {
+            return null;
+        }
+        try {
+            File jarFile = new File(new URL(location.substring("jar:".length(), separator)).toURI());
+            return jarFile.isFile() ? jarFile : null;
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get cached data if the JAR file is unchanged since it was stored.
+     *
+     * @param kind kind of data (e.g. classes:org/hotswap/agent/plugin/)
+     * @param jar  the JAR file
+     * @return the data or null
+     */
+    public byte[] get(String kind, File jar) {
+        String path = jar.getAbsolutePath();
+        long lastModified = jar.lastModified();
+        long length = jar.length();
+        synchronized (this) {
+            Entry entry = entries.get(key(kind, path));
+            if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+                hitCount.incrementAndGet();
+                return data(entry);
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Store data computed from the JAR file. The cache file is written asynchronously.
+     *
+     * @param kind kind of data
+     * @param jar  the JAR file
+     * @param data the data
+     */
+    public void put(String kind, File jar, byte[] data) {
+        Entry entry = new Entry(kind, jar.getAbsolutePath(), jar.lastModified(), jar.length());
+        entry.data = data;
+        synchronized (this) {
+            entries.put(key(kind, entry.path), entry);
+        }
+        if (scheduler != null) {
+            scheduler.scheduleCommand(flushCommand, FLUSH_DELAY);
+        }
+    }
+
+    /**
+     * Write the cache file, entries of changed or deleted JAR files are dropped.
+     */
+    public void flush() {
+        List<Entry> valid = new ArrayList<>();
+        List<byte[]> validData = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                File jar = new File(entry.path);
+                if (jar.lastModified() == entry.lastModified && jar.length() == entry.length) {
+                    valid.add(entry);
+                    validData.add(data(entry));
+                }
+            }
+        }
+
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            File tmp = File.createTempFile(CACHE_FILE, ".tmp", dir);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(valid.size());
+                for (int i = 0; i < valid.size(); i++) {
+                    Entry entry = valid.get(i);
+                    writeString(out, entry.kind);
+                    writeString(out, entry.path);
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.length);
+                    out.writeInt(validData.get(i).length);
+                    out.write(validData.get(i));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.debug("Startup cache {} written with {} entries.", file, valid.size());
+        } catch (IOException e) {
+            LOGGER.debug("Unable to write startup cache {}.", e, file);
+        }
+    }
+
+    /**
+     * @return number of entries
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of successful lookups
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of lookups without valid entry
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (buffer.getInt() != MAGIC) {
+                LOGGER.debug("Startup cache {} has unknown format, ignoring.", file);
+                return;
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(readString(buffer), readString(buffer), buffer.getLong(), buffer.getLong());
+                entry.size = buffer.getInt();
+                entry.offset = buffer.position();
+                buffer.position(entry.offset + entry.size);
+                entries.put(key(entry.kind, entry.path), entry);
+            }
+            loaded = buffer;
+            LOGGER.debug("Startup cache {} loaded with {} entries.", file, count);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            LOGGER.debug("Unable to read startup cache {}, ignoring.", e, file);
+            entries.clear();
+        }
+    }
+
+    // guarded by this
+    private byte[] data(Entry entry) {
+        if (entry.data == null) {
+            byte[] data = new byte[entry.size];
+            ByteBuffer source = loaded.duplicate();
+            source.position(entry.offset);
+            source.get(data);
+            return data;
+        }
+        return entry.data;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String key(String kind, String path) {
+        return kind + '\n' + path;
+    }
+}
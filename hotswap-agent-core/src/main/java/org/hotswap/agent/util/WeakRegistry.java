@@ -0,0 +1,430 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hotswap.agent.javassist.util.proxy.DefineClassHelper;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Registry of objects associated with a class loader (or another object with application lifecycle, e.g.
+ * a web resource or a Spring scanner), the key is held weakly and compared by identity.
+ * <p/>
+ * Entries of collected keys are removed via a reference queue on each access, so a registry does not
+ * keep an undeployed application class loader reachable even if the agent's close hook was not called.
+ * <p/>
+ * Java has no ephemerons - a strongly held value referencing its key (e.g. a plugin instance holding its
+ * class loader) would keep the key reachable forever. Such registries must not hold values strongly:
+ * <ul>
+ *     <li>{@link #weakValues(String)} - the value is owned elsewhere (e.g. the application class loader of
+ *     a web resource), the entry is removed when the value is collected.</li>
+ *     <li>{@link #classLoaderScoped(String)} - the value lives as long as its class loader key. The value is
+ *     referenced from a small anchor class defined in the class loader, not from the registry. If the anchor
+ *     cannot be defined (e.g. the agent class loader or its parents) the value is held strongly.</li>
+ * </ul>
+ * <p/>
+ * All operations are synchronized on the registry, iterate over {@link #entrySet()} (a snapshot) or
+ * synchronize on the registry for compound actions. Live class loaders tracked by all registries are
+ * listed by {@link #getTrackedClassLoaders()}.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class WeakRegistry<K, V> extends AbstractMap<K, V> {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(WeakRegistry.class);
+
+    // all registries for diagnostics, the registry itself is not kept reachable
+    private static final List<WeakReference<WeakRegistry<?, ?>>> registries = new CopyOnWriteArrayList<>();
+
+    private enum Values {
+        STRONG, WEAK, CLASS_LOADER_SCOPED
+    }
+
+    private final String name;
+    private final Values values;
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    // value or ValueRef
+    private final Map<Key, Object> entries = new HashMap<>();
+    private long expungedCount;
+
+    /**
+     * Registry holding values strongly, values must not reference their keys.
+     *
+     * @param name registry name used in diagnostics, e.g. "PluginRegistry.SpringPlugin"
+     */
+    public WeakRegistry(String name) {
+        this(name, Values.STRONG);
+    }
+
+    private WeakRegistry(String name, Values values) {
+        this.name = name;
+        this.values = values;
+        registries.add(new WeakReference<WeakRegistry<?, ?>>(this));
+    }
+
+    /**
+     * Create registry holding values weakly, an entry is removed if its key or value is collected.
+     *
+     * @param name registry name used in diagnostics
+     */
+    public static <K, V> WeakRegistry<K, V> weakValues(String name) {
+        return new WeakRegistry<>(name, Values.WEAK);
+    }
+
+    /**
+     * Create registry of values living as long as the class loader key, values may reference the key.
+     *
+     * @param name registry name used in diagnostics
+     */
+    public static <V> WeakRegistry<ClassLoader, V> classLoaderScoped(String name) {
+        return new WeakRegistry<>(name, Values.CLASS_LOADER_SCOPED);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of entries removed because the key was garbage collected
+     */
+    public synchronized long getExpungedCount() {
+        expunge();
+        return expungedCount;
+    }
+
+    @Override
+    public synchronized V get(Object key) {
+        expunge();
+        return key == null ? null : value(entries.get(new Key(key, null)));
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        expunge();
+        return key != null && entries.containsKey(new Key(key, null));
+    }
+
+    @Override
+    public synchronized V put(K key, V value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null key not supported by " + name);
+        }
+        expunge();
+        Key entryKey = new Key(key, queue);
+        Object stored = value;
+        if (values != Values.STRONG && value != null
+                && (values == Values.WEAK || ClassLoaderAnchors.pin((ClassLoader) key, value))) {
+            stored = new ValueRef(entryKey, value, values == Values.CLASS_LOADER_SCOPED, queue);
+        }
+        return release(key, entries.put(entryKey, stored));
+    }
+
+    @Override
+    public synchronized V remove(Object key) {
+        expunge();
+        return key == null ? null : release(key, entries.remove(new Key(key, null)));
+    }
+
+    @Override
+    public synchronized int size() {
+        expunge();
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        expunge();
+        for (Map.Entry<Key, Object> entry : entries.entrySet()) {
+            Object key = entry.getKey().get();
+            if (key != null) {
+                release(key, entry.getValue());
+            }
+        }
+        entries.clear();
+    }
+
+    /**
+     * Snapshot of live entries. Removal via the iterator removes the entry from the registry.
+     */
+    @Override
+    public synchronized Set<Entry<K, V>> entrySet() {
+        expunge();
+        final List<Entry<K, V>> snapshot = new ArrayList<>(entries.size());
+        for (Map.Entry<Key, Object> entry : entries.entrySet()) {
+            @SuppressWarnings("unchecked")
+            K key = (K) entry.getKey().get();
+            V value = value(entry.getValue());
+            if (key != null && (value != null || !(entry.getValue() instanceof ValueRef))) {
+                snapshot.add(new SimpleImmutableEntry<>(key, value));
+            }
+        }
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                final Iterator<Entry<K, V>> it = snapshot.iterator();
+                return new Iterator<Entry<K, V>>() {
+                    Entry<K, V> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        current = it.next();
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null) {
+                            throw new IllegalStateException();
+                        }
+                        WeakRegistry.this.remove(current.getKey());
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return snapshot.size();
+            }
+        };
+    }
+
+    // remove entries of collected keys or values, guarded by this
+    private void expunge() {
+        for (Object ref; (ref = queue.poll()) != null; ) {
+            Key key = ref instanceof ValueRef ? ((ValueRef) ref).key : (Key) ref;
+            Object stored = entries.get(key);
+            if (stored != null && (key == ref || stored == ref)) {
+                entries.remove(key);
+                expungedCount++;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(Object stored) {
+        return (V) (stored instanceof ValueRef ? ((ValueRef) stored).get() : stored);
+    }
+
+    // value of a removed or replaced entry, unpinned from the class loader
+    private V release(Object key, Object stored) {
+        if (stored instanceof ValueRef && ((ValueRef) stored).pinned) {
+            Object value = ((ValueRef) stored).get();
+            if (value != null) {
+                ClassLoaderAnchors.unpin((ClassLoader) key, value);
+            }
+        }
+        return value(stored);
+    }
+
+    /**
+     * List live class loaders still tracked by any registry - as a key or as a value.
+     *
+     * @return class loader -> names of registries referencing it
+     */
+    public static Map<ClassLoader, List<String>> getTrackedClassLoaders() {
+        Map<ClassLoader, List<String>> ret = new LinkedHashMap<>();
+        for (WeakReference<WeakRegistry<?, ?>> registryRef : registries) {
+            WeakRegistry<?, ?> registry = registryRef.get();
+            if (registry == null) {
+                registries.remove(registryRef);
+                continue;
+            }
+            for (Map.Entry<?, ?> entry : registry.entrySet()) {
+                addTracked(ret, entry.getKey(), registry.name);
+                addTracked(ret, entry.getValue(), registry.name);
+            }
+        }
+        return ret;
+    }
+
+    private static void addTracked(Map<ClassLoader, List<String>> tracked, Object o, String registryName) {
+        if (o instanceof ClassLoader) {
+            List<String> names = tracked.get(o);
+            if (names == null) {
+                names = new ArrayList<>();
+                tracked.put((ClassLoader) o, names);
+            }
+            if (!names.contains(registryName)) {
+                names.add(registryName);
+            }
+        }
+    }
+
+    // weakly held value, strongly referenced from the anchor class of the key class loader if pinned
+    private static final class ValueRef extends WeakReference<Object> {
+        private final Key key;
+        private final boolean pinned;
+
+        ValueRef(Key key, Object value, boolean pinned, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            this.key = key;
+            this.pinned = pinned;
+        }
+    }
+
+    /**
+     * Class defined in each class loader holding values of class loader scoped registries. Its copy is not
+     * reachable from the agent, it lives (and keeps the values) as long as the class loader.
+     */
+    static final class Anchor {
+    }
+
+    private static final class ClassLoaderAnchors {
+        private static final String ANCHOR_RESOURCE = Anchor.class.getName().replace('.', '/') + ".class";
+
+        // class loader -> its anchor class (held weakly, the class loader references it), guarded by the class
+        private static final Map<ClassLoader, WeakReference<Class<?>>> anchors = new WeakHashMap<>();
+
+        // values pinned by each anchor class with the number of registry entries referencing them
+        private static final ClassValue<Map<Object, int[]>> pinned = new ClassValue<Map<Object, int[]>>() {
+            @Override
+            protected Map<Object, int[]> computeValue(Class<?> type) {
+                return new IdentityHashMap<>();
+            }
+        };
+
+        private static byte[] anchorBytes;
+
+        static boolean pin(ClassLoader classLoader, Object value) {
+            Class<?> anchor = getAnchor(classLoader);
+            if (anchor == null) {
+                return false;
+            }
+            Map<Object, int[]> values = pinned.get(anchor);
+            synchronized (values) {
+                int[] count = values.get(value);
+                if (count == null) {
+                    values.put(value, new int[]{1});
+                } else {
+                    count[0]++;
+                }
+            }
+            return true;
+        }
+
+        static void unpin(ClassLoader classLoader, Object value) {
+            Class<?> anchor = getAnchor(classLoader);
+            if (anchor == null) {
+                return;
+            }
+            Map<Object, int[]> values = pinned.get(anchor);
+            synchronized (values) {
+                int[] count = values.get(value);
+                if (count != null && --count[0] == 0) {
+                    values.remove(value);
+                }
+            }
+        }
+
+        // anchor class defined in the class loader, null for the agent class loader and its parents
+        private static synchronized Class<?> getAnchor(ClassLoader classLoader) {
+            for (ClassLoader loader = Anchor.class.getClassLoader(); loader != null; loader = loader.getParent()) {
+                if (loader == classLoader) {
+                    return null;
+                }
+            }
+            WeakReference<Class<?>> ref = anchors.get(classLoader);
+            if (ref == null) {
+                // failed definition is remembered as well (empty reference)
+                ref = new WeakReference<Class<?>>(defineAnchor(classLoader));
+                anchors.put(classLoader, ref);
+            }
+            return ref.get();
+        }
+
+        private static Class<?> defineAnchor(ClassLoader classLoader) {
+            try {
+                if (anchorBytes == null) {
+                    anchorBytes = readAnchorBytes();
+                }
+                return DefineClassHelper.toClass(Anchor.class.getName(), null, classLoader, null, anchorBytes);
+            } catch (Throwable e) {
+                LOGGER.debug("Unable to define registry anchor in {}, values held strongly.", e, classLoader);
+                return null;
+            }
+        }
+
+        private static byte[] readAnchorBytes() throws IOException {
+            try (InputStream is = Anchor.class.getClassLoader() != null
+                    ? Anchor.class.getClassLoader().getResourceAsStream(ANCHOR_RESOURCE)
+                    : ClassLoader.getSystemResourceAsStream(ANCHOR_RESOURCE)) {
+                if (is == null) {
+                    throw new IOException("Resource not found " + ANCHOR_RESOURCE);
+                }
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] data = new byte[1024];
+                int readBytes;
+                while ((readBytes = is.read(data, 0, data.length)) != -1) {
+                    buffer.write(data, 0, readBytes);
+                }
+                return buffer.toByteArray();
+            }
+        }
+    }
+
+    // weak key with identity semantics, lookup keys are created without the queue
+    private static final class Key extends WeakReference<Object> {
+        private final int hash;
+
+        Key(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((Key) o).get();
+        }
+    }
+}
@@ -18,22 +18,22 @@
  */
 package org.hotswap.agent.util.classloader;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hotswap.agent.javassist.CannotCompileException;
-import org.hotswap.agent.javassist.ClassPool;
-import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
+import org.hotswap.agent.javassist.util.proxy.DefineClassHelper;
 import org.hotswap.agent.logging.AgentLogger;
-import org.hotswap.agent.util.scanner.ClassPathScanner;
+import org.hotswap.agent.util.ClassFileInfo;
+import org.hotswap.agent.util.scanner.ParallelClassPathScanner;
 import org.hotswap.agent.util.scanner.Scanner;
 import org.hotswap.agent.util.scanner.ScannerVisitor;
 
@@ -48,6 +48,11 @@ import org.hotswap.agent.util.scanner.ScannerVisitor;
  * (e.g. to set some initialized property). Although the class resides in parent classloader it cannot
  * be redefined in child classloader with other definition - the classloader already knows about this class.
  * This is the reason, why plugin class cannot be executed in child classloader.
+ * <p/>
+ * Instead of copying all classes of the plugin path with {@link #patch}, the classes can be defined on demand:
+ * {@link #patchReferencedClasses} defines plugin classes referenced by an (instrumented) class before it is linked
+ * and {@link #patchClass} defines a plugin class looked up by name. Class files are read from the agent classloader
+ * only once and shared by all target classloaders.
  *
  * @author Jiri Bubnik
  */
@@ -55,7 +60,22 @@ public class ClassLoaderDefineClassPatcher {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(ClassLoaderDefineClassPatcher.class);
 
-    private static Map<String, List<byte[]>> pluginClassCache = new HashMap<>();
+    // plugin path -> plugin class name -> class file
+    private static Map<String, Map<String, PluginClass>> pluginClassCache = new HashMap<>();
+
+    private static class PluginClass {
+        final String name;
+        final byte[] bytes;
+        // plugin classes which must be defined first (superclass and interfaces)
+        final List<String> supertypes = new ArrayList<>();
+        // other referenced plugin classes
+        final List<String> references = new ArrayList<>();
+
+        PluginClass(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+    }
 
     /**
      * Patch the classloader.
@@ -68,88 +88,206 @@ public class ClassLoaderDefineClassPatcher {
     public void patch(final ClassLoader classLoaderFrom, final String pluginPath,
                       final ClassLoader classLoaderTo, final ProtectionDomain protectionDomain) {
 
-        List<byte[]> cache = getPluginCache(classLoaderFrom, pluginPath);
+        Map<String, PluginClass> cache = getPluginCache(classLoaderFrom, pluginPath);
+
+        for (PluginClass pluginClass : cache.values()) {
+            defineClass(classLoaderFrom, classLoaderTo, protectionDomain, pluginClass);
+        }
 
-        if (cache != null) {
+        LOGGER.debug("Classloader {} patched with plugin classes from agent classloader {}.", classLoaderTo, classLoaderFrom);
 
-            final ClassPool cp = new ClassPool();
-            cp.appendClassPath(new LoaderClassPath(getClass().getClassLoader()));
+    }
 
-            for (byte[] pluginBytes: cache) {
-                CtClass pluginClass = null;
-                try {
-                    // force to load class in classLoaderFrom (it may not yet be loaded) and if the classLoaderTo
-                    // is parent of classLoaderFrom, after definition in classLoaderTo will classLoaderFrom return
-                    // class from parent classloader instead own definition (hence change of behaviour).
-                    InputStream is = new ByteArrayInputStream(pluginBytes);
-                    pluginClass = cp.makeClass(is);
-                    try {
-                        classLoaderFrom.loadClass(pluginClass.getName());
-                    } catch (NoClassDefFoundError e) {
-                        LOGGER.trace("Skipping class loading {} in classloader {} - " +
-                                "class has probably unresolvable dependency.", pluginClass.getName(), classLoaderTo);
-                    }
-                    // and load the class in classLoaderTo as well. NOw the class is defined in BOTH classloaders.
-                    pluginClass.toClass(classLoaderTo, protectionDomain);
-                } catch (CannotCompileException e) {
-                    LOGGER.trace("Skipping class definition {} in app classloader {} - " +
-                            "class is probably already defined.", pluginClass.getName(), classLoaderTo);
-                } catch (NoClassDefFoundError e) {
-                    LOGGER.trace("Skipping class definition {} in app classloader {} - " +
-                            "class has probably unresolvable dependency.", pluginClass.getName(), classLoaderTo);
-                } catch (Throwable e) {
-                    LOGGER.trace("Skipping class definition app classloader {} - " +
-                            "unknown error.", e, classLoaderTo);
+    /**
+     * Define plugin classes referenced by a class (typically just instrumented by a plugin) in the classloader
+     * of the class, together with plugin classes they depend on. Must be called before the class is linked.
+     *
+     * @param classLoaderFrom  classloader to load classes from
+     * @param pluginPath       plugin path
+     * @param classLoaderTo    classloader of the class
+     * @param protectionDomain required protection in target classloader
+     * @param classBytes       class file of the class
+     */
+    public void patchReferencedClasses(ClassLoader classLoaderFrom, String pluginPath, ClassLoader classLoaderTo,
+                                       ProtectionDomain protectionDomain, byte[] classBytes) {
+        // cheap check - most classes do not reference the plugin path at all
+        if (!containsPath(classBytes, pluginPath.getBytes(StandardCharsets.UTF_8))) {
+            return;
+        }
+        Map<String, PluginClass> cache = getPluginCache(classLoaderFrom, pluginPath);
+        try {
+            for (String referencedClass : ClassFileInfo.read(classBytes).getReferencedClassNames()) {
+                PluginClass pluginClass = cache.get(referencedClass);
+                if (pluginClass != null) {
+                    defineWithDependencies(classLoaderFrom, classLoaderTo, protectionDomain, cache, pluginClass);
                 }
             }
+        } catch (IOException e) {
+            LOGGER.debug("Unable to read class file, referenced plugin classes not defined in {}.", e, classLoaderTo);
         }
+    }
 
-        LOGGER.debug("Classloader {} patched with plugin classes from agent classloader {}.", classLoaderTo, classLoaderFrom);
+    /**
+     * Define a plugin class (and plugin classes it depends on) in the classloader if not yet available there.
+     *
+     * @param classLoaderFrom  classloader to load classes from
+     * @param pluginPath       plugin path
+     * @param classLoaderTo    classloader to define the class in
+     * @param protectionDomain required protection in target classloader
+     * @param className        plugin class name
+     * @return false if the class is not a plugin class
+     */
+    public boolean patchClass(ClassLoader classLoaderFrom, String pluginPath, ClassLoader classLoaderTo,
+                              ProtectionDomain protectionDomain, String className) {
+        Map<String, PluginClass> cache = getPluginCache(classLoaderFrom, pluginPath);
+        PluginClass pluginClass = cache.get(className);
+        if (pluginClass == null) {
+            return false;
+        }
+        defineWithDependencies(classLoaderFrom, classLoaderTo, protectionDomain, cache, pluginClass);
+        return true;
+    }
+
+    // supertypes must be defined first, otherwise they are resolved from the parent classloader on definition
+    private void defineWithDependencies(ClassLoader classLoaderFrom, ClassLoader classLoaderTo, ProtectionDomain protectionDomain,
+                                        Map<String, PluginClass> cache, PluginClass pluginClass) {
+        if (ClassLoaderHelper.isClassLoaded(classLoaderTo, pluginClass.name)) {
+            return;
+        }
+        for (String supertype : pluginClass.supertypes) {
+            defineWithDependencies(classLoaderFrom, classLoaderTo, protectionDomain, cache, cache.get(supertype));
+        }
+        if (!defineClass(classLoaderFrom, classLoaderTo, protectionDomain, pluginClass)) {
+            return;
+        }
+        for (String reference : pluginClass.references) {
+            defineWithDependencies(classLoaderFrom, classLoaderTo, protectionDomain, cache, cache.get(reference));
+        }
+    }
+
+    private boolean defineClass(ClassLoader classLoaderFrom, ClassLoader classLoaderTo, ProtectionDomain protectionDomain,
+                                PluginClass pluginClass) {
+        try {
+            // force to load class in classLoaderFrom (it may not yet be loaded) and if the classLoaderTo
+            // is parent of classLoaderFrom, after definition in classLoaderTo will classLoaderFrom return
+            // class from parent classloader instead own definition (hence change of behaviour).
+            try {
+                classLoaderFrom.loadClass(pluginClass.name);
+            } catch (NoClassDefFoundError e) {
+                LOGGER.trace("Skipping class loading {} in classloader {} - " +
+                        "class has probably unresolvable dependency.", pluginClass.name, classLoaderTo);
+            }
+            // and load the class in classLoaderTo as well. NOw the class is defined in BOTH classloaders.
+            DefineClassHelper.toClass(pluginClass.name, null, classLoaderTo, protectionDomain, pluginClass.bytes);
+            return true;
+        } catch (CannotCompileException e) {
+            LOGGER.trace("Skipping class definition {} in app classloader {} - " +
+                    "class is probably already defined.", pluginClass.name, classLoaderTo);
+        } catch (NoClassDefFoundError e) {
+            LOGGER.trace("Skipping class definition {} in app classloader {} - " +
+                    "class has probably unresolvable dependency.", pluginClass.name, classLoaderTo);
+        } catch (Throwable e) {
+            LOGGER.trace("Skipping class definition app classloader {} - " +
+                    "unknown error.", e, classLoaderTo);
+        }
+        return false;
+    }
 
+    private static boolean containsPath(byte[] bytes, byte[] path) {
+        outer:
+        for (int i = 0; i <= bytes.length - path.length; i++) {
+            for (int j = 0; j < path.length; j++) {
+                if (bytes[i + j] != path[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
     }
 
-    private List<byte[]> getPluginCache(final ClassLoader classLoaderFrom, final String pluginPath) {
-        List<byte[]> ret = null;
-        synchronized(pluginClassCache) {
-            ret = pluginClassCache.get(pluginPath);
+    // the scan runs outside of the lock - scanner threads load classes, which may reenter the patcher
+    private Map<String, PluginClass> getPluginCache(final ClassLoader classLoaderFrom, final String pluginPath) {
+        synchronized (pluginClassCache) {
+            Map<String, PluginClass> ret = pluginClassCache.get(pluginPath);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        Map<String, PluginClass> scanned = scanPluginClasses(classLoaderFrom, pluginPath);
+        synchronized (pluginClassCache) {
+            Map<String, PluginClass> ret = pluginClassCache.get(pluginPath);
             if (ret == null) {
-                final List<byte[]> retList = new ArrayList<>();
-                Scanner scanner = new ClassPathScanner();
-                try {
-                    scanner.scan(classLoaderFrom, pluginPath, new ScannerVisitor() {
-                        @Override
-                        public void visit(InputStream file) throws IOException {
-
-                            // skip plugin classes
-                            // TODO this should be skipped only in patching application classloader. To copy
-                             // classes into agent classloader, Plugin class must be copied as well
+                ret = scanned;
+                pluginClassCache.put(pluginPath, ret);
+            }
+            return ret;
+        }
+    }
+
+    private static Map<String, PluginClass> scanPluginClasses(final ClassLoader classLoaderFrom, final String pluginPath) {
+        // visited concurrently by the scanner
+        final Map<String, PluginClass> retMap = new ConcurrentHashMap<>();
+        final Map<String, ClassFileInfo> infos = new ConcurrentHashMap<>();
+        Scanner scanner = new ParallelClassPathScanner();
+        try {
+            scanner.scan(classLoaderFrom, pluginPath, new ScannerVisitor() {
+                @Override
+                public void visit(InputStream file) throws IOException {
+
+                    // skip plugin classes
+                    // TODO this should be skipped only in patching application classloader. To copy
+                     // classes into agent classloader, Plugin class must be copied as well
     //                        if (patchClass.hasAnnotation(Plugin.class)) {
     //                            LOGGER.trace("Skipping plugin class: " + patchClass.getName());
     //                            return;
     //                        }
 
-                            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+                    int readBytes;
+                    byte[] data = new byte[16384];
 
-                            int readBytes;
-                            byte[] data = new byte[16384];
+                    while ((readBytes = file.read(data, 0, data.length)) != -1) {
+                        buffer.write(data, 0, readBytes);
+                    }
 
-                            while ((readBytes = file.read(data, 0, data.length)) != -1) {
-                                buffer.write(data, 0, readBytes);
-                            }
+                    buffer.flush();
+                    byte[] bytes = buffer.toByteArray();
+                    ClassFileInfo info;
+                    try {
+                        info = ClassFileInfo.read(bytes);
+                    } catch (IOException e) {
+                        LOGGER.trace("Skipping invalid class file in {}.", e, pluginPath);
+                        return;
+                    }
+                    infos.put(info.getClassName(), info);
+                    retMap.put(info.getClassName(), new PluginClass(info.getClassName(), bytes));
+                }
 
-                            buffer.flush();
-                            retList.add(buffer.toByteArray());
-                        }
+            });
+        } catch (IOException e) {
+            LOGGER.error("Exception while scanning 'org/hotswap/agent/plugin'", e);
+        }
 
-                    });
-                } catch (IOException e) {
-                    LOGGER.error("Exception while scanning 'org/hotswap/agent/plugin'", e);
+        // resolve dependencies among plugin classes
+        for (PluginClass pluginClass : retMap.values()) {
+            ClassFileInfo info = infos.get(pluginClass.name);
+            List<String> supertypes = new ArrayList<>(info.getInterfaceNames());
+            supertypes.add(info.getSuperclassName());
+            for (String supertype : supertypes) {
+                if (retMap.containsKey(supertype)) {
+                    pluginClass.supertypes.add(supertype);
+                }
+            }
+            for (String reference : info.getReferencedClassNames()) {
+                if (retMap.containsKey(reference) && !reference.equals(pluginClass.name)
+                        && !pluginClass.supertypes.contains(reference)) {
+                    pluginClass.references.add(reference);
                 }
-                ret = retList;
-                pluginClassCache.put(pluginPath, ret);
             }
         }
-        return ret;
+        return retMap;
     }
 
     /**
@@ -26,7 +26,8 @@ import org.hotswap.agent.logging.AgentLogger;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -57,11 +58,12 @@ public class ClassPathAnnotationScanner {
      *
      * @param classLoader classloader to resolve path
      * @param path        path to scan {@link org.hotswap.agent.util.scanner.Scanner#scan(ClassLoader, String, ScannerVisitor)}
-     * @return list of class names containing the annotation
+     * @return list of class names containing the annotation, in discovery order (sorted by name for
+     * the {@link ParallelClassPathScanner})
      * @throws IOException scan exception.
      */
     public List<String> scanPlugins(ClassLoader classLoader, String path) throws IOException {
-        final List<String> files = new LinkedList<>();
+        final List<String> files = Collections.synchronizedList(new ArrayList<String>());
         scanner.scan(classLoader, path, new ScannerVisitor() {
             @Override
             public void visit(InputStream file) throws IOException {
@@ -77,7 +79,12 @@ public class ClassPathAnnotationScanner {
                     files.add(cf.getName());
             }
         });
-        return files;
+        List<String> ret = new ArrayList<>(files);
+        if (scanner instanceof ParallelClassPathScanner) {
+            // files are visited concurrently, make the order of discovered classes deterministic
+            Collections.sort(ret);
+        }
+        return ret;
     }
 
     /**
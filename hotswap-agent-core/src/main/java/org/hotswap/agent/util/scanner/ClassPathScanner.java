@@ -19,10 +19,16 @@
 package org.hotswap.agent.util.scanner;
 
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.StartupCache;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -33,7 +39,8 @@ import java.util.jar.JarFile;
 /**
  * Scan classpath for a directory and visits each file.
  * <p/>
- * Thread context classloader is used to scan.
+ * Thread context classloader is used to scan. Files are visited sequentially in the calling thread,
+ * see {@link ParallelClassPathScanner} for concurrent visits.
  *
  * @author Jiri Bubnik
  */
@@ -46,6 +53,9 @@ public class ClassPathScanner implements Scanner {
     public static final String ZIP_URL_PREFIX = "zip:";
     public static final String FILE_URL_PREFIX = "file:";
 
+    // startup cache entry kind prefix, followed by the root entry path
+    private static final String STARTUP_CACHE_KIND = "classes:";
+
 
     @Override
     public void scan(ClassLoader classLoader, String path, ScannerVisitor visitor) throws IOException {
@@ -53,25 +63,35 @@ public class ClassPathScanner implements Scanner {
         // find all directories - classpath directory or JAR
         Enumeration<URL> en = classLoader == null ? ClassLoader.getSystemResources(path) : classLoader.getResources(path);
         while (en.hasMoreElements()) {
-            URL pluginDirURL = en.nextElement();
-            File pluginDir = new File(pluginDirURL.getFile());
-            if (pluginDir.isDirectory()) {
-                scanDirectory(pluginDir, visitor);
-            } else {
-                // JAR file
-                String uri;
-                try {
-                    uri = pluginDirURL.toURI().toString();
-                } catch (URISyntaxException e) {
-                    throw new IOException("Illegal directory URI " + pluginDirURL, e);
-                }
+            scanRoot(en.nextElement(), visitor);
+        }
+    }
 
-                if (uri.startsWith(JAR_URL_PREFIX) || uri.startsWith(ZIP_URL_PREFIX)) {
-                    String jarFile = uri.substring(uri.indexOf(':') + 1); // remove the prefix
-                    scanJar(jarFile, visitor);
-                } else {
-                    LOGGER.warning("Unknown resource type of file " + uri);
-                }
+    /**
+     * Scan one resource found for the path - classpath directory or directory inside a JAR file.
+     *
+     * @param pluginDirURL resource URL
+     * @param visitor      callback
+     * @throws IOException exception from a visitor
+     */
+    protected void scanRoot(URL pluginDirURL, ScannerVisitor visitor) throws IOException {
+        File pluginDir = new File(pluginDirURL.getFile());
+        if (pluginDir.isDirectory()) {
+            scanDirectory(pluginDir, visitor);
+        } else {
+            // JAR file
+            String uri;
+            try {
+                uri = pluginDirURL.toURI().toString();
+            } catch (URISyntaxException e) {
+                throw new IOException("Illegal directory URI " + pluginDirURL, e);
+            }
+
+            if (uri.startsWith(JAR_URL_PREFIX) || uri.startsWith(ZIP_URL_PREFIX)) {
+                String jarFile = uri.substring(uri.indexOf(':') + 1); // remove the prefix
+                scanJar(jarFile, visitor);
+            } else {
+                LOGGER.warning("Unknown resource type of file " + uri);
             }
         }
     }
@@ -90,11 +110,20 @@ public class ClassPathScanner implements Scanner {
             if (file.isDirectory()) {
                 scanDirectory(file, visitor);
             } else if (file.isFile() && file.getName().endsWith(".class")) {
-                visitor.visit(new FileInputStream(file));
+                visitFile(file, visitor);
             }
         }
     }
 
+    /**
+     * Visit a class file, the stream is closed after the visit.
+     */
+    protected void visitFile(File file, ScannerVisitor visitor) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            visitor.visit(is);
+        }
+    }
+
     /**
      * Scan JAR file for all entries.
      * Resolve the JAR file itself and than iterate all entries and call visitor.
@@ -108,22 +137,35 @@ public class ClassPathScanner implements Scanner {
         LOGGER.trace("Scanning JAR file '{}'", urlFile);
 
         int separatorIndex = urlFile.indexOf(JAR_URL_SEPARATOR);
-        JarFile jarFile = null;
-        String rootEntryPath;
+        String jarFileUrl = separatorIndex != -1 ? urlFile.substring(0, separatorIndex) : urlFile;
+        String rootEntryPath = separatorIndex != -1 ? urlFile.substring(separatorIndex + JAR_URL_SEPARATOR.length()) : "";
 
-        try {
-            if (separatorIndex != -1) {
-                String jarFileUrl = urlFile.substring(0, separatorIndex);
-                rootEntryPath = urlFile.substring(separatorIndex + JAR_URL_SEPARATOR.length());
-                jarFile = getJarFile(jarFileUrl);
-            } else {
-                rootEntryPath = "";
-                jarFile = new JarFile(urlFile);
-            }
+        if (!"".equals(rootEntryPath) && !rootEntryPath.endsWith("/")) {
+            rootEntryPath = rootEntryPath + "/";
+        }
 
-            if (!"".equals(rootEntryPath) && !rootEntryPath.endsWith("/")) {
-                rootEntryPath = rootEntryPath + "/";
+        // class files of an unchanged JAR from the previous run
+        StartupCache startupCache = StartupCache.getInstance();
+        File cacheJarFile = startupCache != null ? toLocalFile(jarFileUrl) : null;
+        String cacheKind = STARTUP_CACHE_KIND + rootEntryPath;
+        if (cacheJarFile != null) {
+            byte[] cached = startupCache.get(cacheKind, cacheJarFile);
+            if (cached != null) {
+                LOGGER.trace("Visiting cached class files of JAR file '{}'", urlFile);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(cached));
+                while (in.available() > 0) {
+                    byte[] classFile = new byte[in.readInt()];
+                    in.readFully(classFile);
+                    visitor.visit(new ByteArrayInputStream(classFile));
+                }
+                return;
             }
+        }
+        ByteArrayOutputStream cacheBuffer = cacheJarFile != null ? new ByteArrayOutputStream() : null;
+
+        JarFile jarFile = null;
+        try {
+            jarFile = separatorIndex != -1 ? getJarFile(jarFileUrl) : new JarFile(urlFile);
 
             for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); ) {
                 JarEntry entry = entries.nextElement();
@@ -132,7 +174,17 @@ public class ClassPathScanner implements Scanner {
                 // class files inside entry
                 if (entryPath.startsWith(rootEntryPath) && entryPath.endsWith(".class")) {
                     LOGGER.trace("Visiting JAR entry {}", entryPath);
-                    visitor.visit(jarFile.getInputStream(entry));
+                    if (cacheBuffer != null) {
+                        byte[] classFile = readEntry(jarFile, entry);
+                        DataOutputStream out = new DataOutputStream(cacheBuffer);
+                        out.writeInt(classFile.length);
+                        out.write(classFile);
+                        visitor.visit(new ByteArrayInputStream(classFile));
+                    } else {
+                        try (InputStream is = jarFile.getInputStream(entry)) {
+                            visitor.visit(is);
+                        }
+                    }
                 }
             }
         } finally {
@@ -140,6 +192,34 @@ public class ClassPathScanner implements Scanner {
                 jarFile.close();
             }
         }
+
+        if (cacheBuffer != null) {
+            startupCache.put(cacheKind, cacheJarFile, cacheBuffer.toByteArray());
+        }
+    }
+
+    private static byte[] readEntry(JarFile jarFile, JarEntry entry) throws IOException {
+        try (InputStream is = jarFile.getInputStream(entry)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] data = new byte[16384];
+            int readBytes;
+            while ((readBytes = is.read(data, 0, data.length)) != -1) {
+                buffer.write(data, 0, readBytes);
+            }
+            return buffer.toByteArray();
+        }
+    }
+
+    private File toLocalFile(String jarFileUrl) {
+        if (!jarFileUrl.startsWith(FILE_URL_PREFIX)) {
+            return null;
+        }
+        try {
+            File file = new File(toURI(jarFileUrl));
+            return file.isFile() ? file : null;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
     }
 
     /**
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.HotswapTransformer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classpath scanner visiting files in parallel.
+ * <p/>
+ * Each resource found for the path (classpath directory or JAR file) is scanned in a separate fork-join task,
+ * directories fan out further by subdirectory. Class files of a single JAR file are read sequentially in one pass
+ * over its entries. The visitor is called concurrently from the pool threads and must be thread safe.
+ * <p/>
+ * Scanning runs in an agent owned pool (not the common pool shared with the application). Scans started from
+ * a class transformation run sequentially in the calling thread - a pool thread loading a class would wait for
+ * the transforming thread, which in turn waits for the pool.
+ */
+public class ParallelClassPathScanner extends ClassPathScanner {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ParallelClassPathScanner.class);
+
+    private static ForkJoinPool agentPool;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Create scanner using the agent scanner pool.
+     */
+    public ParallelClassPathScanner() {
+        this(getAgentPool());
+    }
+
+    public ParallelClassPathScanner(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the fork-join pool of daemon threads shared by agent scanners, created on first use
+     */
+    public static synchronized ForkJoinPool getAgentPool() {
+        if (agentPool == null) {
+            agentPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                    new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                        @Override
+                        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                            };
+                            thread.setName("HotswapAgent-scanner-" + thread.getPoolIndex());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, null, false);
+        }
+        return agentPool;
+    }
+
+    @Override
+    public void scan(ClassLoader classLoader, String path, ScannerVisitor visitor) throws IOException {
+        if (HotswapTransformer.isTransforming()) {
+            super.scan(classLoader, path, visitor);
+            return;
+        }
+        LOGGER.trace("Scanning path {} in parallel", path);
+        List<URL> roots = Collections.list(classLoader == null ? ClassLoader.getSystemResources(path) : classLoader.getResources(path));
+        final List<ScanTask> tasks = new ArrayList<>(roots.size());
+        for (URL root : roots) {
+            tasks.add(new RootTask(root, visitor));
+        }
+        invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    @Override
+    protected void scanDirectory(File pluginDir, ScannerVisitor visitor) throws IOException {
+        if (HotswapTransformer.isTransforming()) {
+            super.scanDirectory(pluginDir, visitor);
+            return;
+        }
+        invoke(new DirectoryTask(pluginDir, visitor));
+    }
+
+    private void invoke(ForkJoinTask<?> task) throws IOException {
+        try {
+            // already inside the pool (root task scanning a directory) - fork from the current worker
+            if (ForkJoinTask.inForkJoinPool()) {
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private abstract class ScanTask extends RecursiveAction {
+        final ScannerVisitor visitor;
+
+        ScanTask(ScannerVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                scan();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        abstract void scan() throws IOException;
+    }
+
+    private class RootTask extends ScanTask {
+        private final URL root;
+
+        RootTask(URL root, ScannerVisitor visitor) {
+            super(visitor);
+            this.root = root;
+        }
+
+        @Override
+        void scan() throws IOException {
+            scanRoot(root, visitor);
+        }
+    }
+
+    private class DirectoryTask extends ScanTask {
+        private final File dir;
+
+        DirectoryTask(File dir, ScannerVisitor visitor) {
+            super(visitor);
+            this.dir = dir;
+        }
+
+        @Override
+        void scan() throws IOException {
+            LOGGER.trace("Scanning directory " + dir.getName());
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    subdirectories.add(new DirectoryTask(file, visitor));
+                }
+            }
+            // visit own files while subdirectories are scanned by other workers
+            for (DirectoryTask subdirectory : subdirectories) {
+                subdirectory.fork();
+            }
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(".class")) {
+                    visitFile(file, visitor);
+                }
+            }
+            for (DirectoryTask subdirectory : subdirectories) {
+                subdirectory.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hotswap.agent.annotation.Init;
+import org.hotswap.agent.annotation.OnClassFileEvent;
+import org.hotswap.agent.annotation.OnClassLoadEvent;
+import org.hotswap.agent.annotation.OnResourceFileEvent;
+import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.annotation.Versions;
+import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.AccessFlag;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.javassist.bytecode.FieldInfo;
+import org.hotswap.agent.javassist.bytecode.MethodInfo;
+import org.hotswap.agent.javassist.bytecode.annotation.Annotation;
+import org.hotswap.agent.javassist.bytecode.annotation.ArrayMemberValue;
+import org.hotswap.agent.javassist.bytecode.annotation.ClassMemberValue;
+import org.hotswap.agent.javassist.bytecode.annotation.MemberValue;
+import org.hotswap.agent.javassist.bytecode.annotation.StringMemberValue;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Plugin index generated at build time (hotswap-agent distribution) to avoid scanning and parsing of all classes
+ * in the plugin package on startup.
+ * <p/>
+ * The index resource {@link #INDEX_FILE} resides in the plugin package directory and lists plugin classes,
+ * their names, {@code @OnClassLoadEvent} class name patterns (including support classes) and {@code @Versions}
+ * constraints. One tab separated record per line:
+ * <pre>
+ * plugin      &lt;plugin class&gt; &lt;plugin name&gt;
+ * onClassLoad &lt;class name regexp&gt;
+ * trigger     &lt;class name regexp of a static handler&gt;
+ * version     &lt;maven or manifest constraint&gt;
+ * activation  lazy|eager
+ * </pre>
+ * A plugin can be activated lazily (on first class matching a trigger) if all its static handlers
+ * (including support classes) are {@code @OnClassLoadEvent} methods.
+ * The index is used only if every classpath root of the plugin package contains it, otherwise (e.g. third party
+ * plugins in pluginPackages, plugin classes in IDE output directories) the package is scanned.
+ */
+public class PluginIndex {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(PluginIndex.class);
+
+    /**
+     * Index file name inside the plugin package directory.
+     */
+    public static final String INDEX_FILE = "plugin-index.txt";
+
+    private static final String PLUGIN = "plugin";
+    private static final String ON_CLASS_LOAD = "onClassLoad";
+    private static final String TRIGGER = "trigger";
+    private static final String VERSION = "version";
+    private static final String ACTIVATION = "activation";
+    private static final String LAZY = "lazy";
+    private static final String EAGER = "eager";
+
+    // static members annotated with these need the plugin class processed at startup
+    private static final String[] EAGER_ANNOTATIONS = {
+            Init.class.getName(), OnClassFileEvent.class.getName(), OnResourceFileEvent.class.getName()
+    };
+
+    /**
+     * Indexed plugin.
+     */
+    public static class Entry {
+        private final String pluginClass;
+        private final String name;
+        private final List<String> classLoadPatterns = new ArrayList<>();
+        private final List<String> triggerPatterns = new ArrayList<>();
+        private final List<String> versions = new ArrayList<>();
+        private boolean lazy;
+
+        Entry(String pluginClass, String name) {
+            this.pluginClass = pluginClass;
+            this.name = name;
+        }
+
+        public String getPluginClass() {
+            return pluginClass;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return classNameRegexp of all @OnClassLoadEvent methods of the plugin and its support classes
+         */
+        public List<String> getClassLoadPatterns() {
+            return Collections.unmodifiableList(classLoadPatterns);
+        }
+
+        /**
+         * @return classNameRegexp of static @OnClassLoadEvent methods - the plugin is activated by these classes
+         */
+        public List<String> getTriggerPatterns() {
+            return Collections.unmodifiableList(triggerPatterns);
+        }
+
+        /**
+         * @return true if the plugin may be activated on first class matching a trigger pattern
+         */
+        public boolean isLazy() {
+            return lazy;
+        }
+
+        /**
+         * @return @Maven and @Manifest constraints of @Versions annotation in annotation source form
+         */
+        public List<String> getVersions() {
+            return Collections.unmodifiableList(versions);
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * @return indexed plugins
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return indexed plugin class names
+     */
+    public List<String> getPluginClassNames() {
+        List<String> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            result.add(entry.pluginClass);
+        }
+        return result;
+    }
+
+    /**
+     * Load the index for a plugin package.
+     *
+     * @param classLoader classloader to resolve the package
+     * @param path plugin package path (e.g. org/hotswap/agent/plugin)
+     * @return merged index of all classpath roots or null if any root of the package is not indexed
+     * @throws IOException error reading the index
+     */
+    public static PluginIndex load(ClassLoader classLoader, String path) throws IOException {
+        Set<String> indexUrls = new HashSet<>();
+        List<URL> indexes = Collections.list(getResources(classLoader, path + "/" + INDEX_FILE));
+        for (URL index : indexes) {
+            indexUrls.add(index.toString());
+        }
+        if (indexes.isEmpty()) {
+            return null;
+        }
+        for (Enumeration<URL> roots = getResources(classLoader, path); roots.hasMoreElements(); ) {
+            String root = roots.nextElement().toString();
+            if (!indexUrls.contains(root + (root.endsWith("/") ? "" : "/") + INDEX_FILE)) {
+                LOGGER.debug("Plugin package root {} not indexed, scanning.", root);
+                return null;
+            }
+        }
+
+        PluginIndex result = new PluginIndex();
+        for (URL index : indexes) {
+            try (InputStream is = index.openStream()) {
+                result.entries.addAll(read(is).entries);
+            }
+        }
+        return result;
+    }
+
+    private static Enumeration<URL> getResources(ClassLoader classLoader, String name) throws IOException {
+        return classLoader == null ? ClassLoader.getSystemResources(name) : classLoader.getResources(name);
+    }
+
+    /**
+     * Read index content.
+     *
+     * @param is index stream
+     * @return the index
+     * @throws IOException read error or invalid format
+     */
+    public static PluginIndex read(InputStream is) throws IOException {
+        PluginIndex index = new PluginIndex();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        Entry entry = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (PLUGIN.equals(fields[0]) && fields.length == 3) {
+                entry = new Entry(fields[1], fields[2]);
+                index.entries.add(entry);
+            } else if (entry != null && ON_CLASS_LOAD.equals(fields[0]) && fields.length == 2) {
+                entry.classLoadPatterns.add(fields[1]);
+            } else if (entry != null && TRIGGER.equals(fields[0]) && fields.length == 2) {
+                entry.triggerPatterns.add(fields[1]);
+            } else if (entry != null && VERSION.equals(fields[0]) && fields.length == 2) {
+                entry.versions.add(fields[1]);
+            } else if (entry != null && ACTIVATION.equals(fields[0]) && fields.length == 2) {
+                entry.lazy = LAZY.equals(fields[1]);
+            } else {
+                throw new IOException("Invalid plugin index line '" + line + "'");
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Write index content.
+     *
+     * @param writer target
+     * @throws IOException write error
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write("# HotswapAgent plugin index, generated at build time\n");
+        for (Entry entry : entries) {
+            writer.write(PLUGIN + "\t" + entry.pluginClass + "\t" + entry.name + "\n");
+            for (String pattern : entry.classLoadPatterns) {
+                writer.write(ON_CLASS_LOAD + "\t" + pattern + "\n");
+            }
+            for (String pattern : entry.triggerPatterns) {
+                writer.write(TRIGGER + "\t" + pattern + "\n");
+            }
+            for (String version : entry.versions) {
+                writer.write(VERSION + "\t" + version + "\n");
+            }
+            writer.write(ACTIVATION + "\t" + (entry.lazy ? LAZY : EAGER) + "\n");
+        }
+    }
+
+    /**
+     * Build the index by scanning class files of a plugin package.
+     *
+     * @param classLoader classloader to resolve the package
+     * @param path plugin package path (e.g. org/hotswap/agent/plugin)
+     * @param scanner scanner of the path
+     * @return the index with plugins ordered by class name
+     * @throws IOException scan error
+     */
+    public static PluginIndex build(ClassLoader classLoader, String path, Scanner scanner) throws IOException {
+        final Map<String, ClassFile> plugins = new LinkedHashMap<>();
+        final Map<String, List<String>> patterns = new LinkedHashMap<>();
+        final Map<String, List<String>> triggers = new LinkedHashMap<>();
+        final Set<String> eagerClasses = new HashSet<>();
+        scanner.scan(classLoader, path, new ScannerVisitor() {
+            @Override
+            public void visit(InputStream file) throws IOException {
+                ClassFile classFile;
+                try {
+                    classFile = new ClassFile(new DataInputStream(file));
+                } finally {
+                    file.close();
+                }
+                List<String> classPatterns = new ArrayList<>();
+                List<String> classTriggers = new ArrayList<>();
+                for (MethodInfo method : classFile.getMethods()) {
+                    AnnotationsAttribute annotations = (AnnotationsAttribute) method.getAttribute(AnnotationsAttribute.visibleTag);
+                    boolean isStatic = (method.getAccessFlags() & AccessFlag.STATIC) != 0;
+                    Annotation onClassLoad = getAnnotation(annotations, OnClassLoadEvent.class.getName());
+                    if (onClassLoad != null) {
+                        String pattern = ((StringMemberValue) onClassLoad.getMemberValue("classNameRegexp")).getValue();
+                        classPatterns.add(pattern);
+                        if (isStatic) {
+                            classTriggers.add(pattern);
+                        }
+                    }
+                    if (isStatic && hasEagerAnnotation(annotations)) {
+                        eagerClasses.add(classFile.getName());
+                    }
+                }
+                for (FieldInfo field : classFile.getFields()) {
+                    if ((field.getAccessFlags() & AccessFlag.STATIC) != 0
+                            && hasEagerAnnotation((AnnotationsAttribute) field.getAttribute(AnnotationsAttribute.visibleTag))) {
+                        eagerClasses.add(classFile.getName());
+                    }
+                }
+                patterns.put(classFile.getName(), classPatterns);
+                triggers.put(classFile.getName(), classTriggers);
+                if (getAnnotation(classAnnotations(classFile), Plugin.class.getName()) != null) {
+                    plugins.put(classFile.getName(), classFile);
+                }
+            }
+        });
+
+        List<String> pluginClasses = new ArrayList<>(plugins.keySet());
+        Collections.sort(pluginClasses);
+        PluginIndex index = new PluginIndex();
+        for (String pluginClass : pluginClasses) {
+            ClassFile classFile = plugins.get(pluginClass);
+            Annotation plugin = getAnnotation(classAnnotations(classFile), Plugin.class.getName());
+            MemberValue name = plugin.getMemberValue("name");
+            Entry entry = new Entry(pluginClass, name != null ? ((StringMemberValue) name).getValue() : "");
+            entry.classLoadPatterns.addAll(patterns.get(pluginClass));
+            entry.triggerPatterns.addAll(triggers.get(pluginClass));
+            boolean eager = eagerClasses.contains(pluginClass);
+            for (MemberValue supportClass : arrayValues(plugin, "supportClass")) {
+                String supportClassName = ((ClassMemberValue) supportClass).getValue();
+                List<String> supportPatterns = patterns.get(supportClassName);
+                if (supportPatterns != null) {
+                    entry.classLoadPatterns.addAll(supportPatterns);
+                    entry.triggerPatterns.addAll(triggers.get(supportClassName));
+                } else {
+                    // support class outside of the scanned package, static handlers unknown
+                    eager = true;
+                }
+                eager |= eagerClasses.contains(supportClassName);
+            }
+            entry.lazy = !eager && !entry.triggerPatterns.isEmpty();
+            Annotation versions = getAnnotation(classAnnotations(classFile), Versions.class.getName());
+            if (versions != null) {
+                for (MemberValue version : arrayValues(versions, "maven")) {
+                    entry.versions.add(version.toString());
+                }
+                for (MemberValue version : arrayValues(versions, "manifest")) {
+                    entry.versions.add(version.toString());
+                }
+            }
+            index.entries.add(entry);
+        }
+        return index;
+    }
+
+    private static AnnotationsAttribute classAnnotations(ClassFile classFile) {
+        return (AnnotationsAttribute) classFile.getAttribute(AnnotationsAttribute.visibleTag);
+    }
+
+    private static Annotation getAnnotation(AnnotationsAttribute attribute, String annotationName) {
+        return attribute != null ? attribute.getAnnotation(annotationName) : null;
+    }
+
+    private static boolean hasEagerAnnotation(AnnotationsAttribute attribute) {
+        for (String annotationName : EAGER_ANNOTATIONS) {
+            if (getAnnotation(attribute, annotationName) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MemberValue[] arrayValues(Annotation annotation, String member) {
+        MemberValue value = annotation.getMemberValue(member);
+        return value instanceof ArrayMemberValue ? ((ArrayMemberValue) value).getValue() : new MemberValue[0];
+    }
+}
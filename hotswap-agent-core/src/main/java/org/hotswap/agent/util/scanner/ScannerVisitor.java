@@ -23,6 +23,9 @@ import java.io.InputStream;
 
 /**
  * Visit a file found by a scanner.
+ * <p/>
+ * The stream is owned by the scanner and closed after the visit returns. A scanner may visit files
+ * concurrently (e.g. {@link ParallelClassPathScanner}), visitors used with such scanner must be thread safe.
  *
  * @author Jiri Bubnik
  */
@@ -0,0 +1,856 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.GenericDeclaration;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.javassist.bytecode.AnnotationDefaultAttribute;
+import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.AttributeInfo;
+import org.hotswap.agent.javassist.bytecode.BadBytecode;
+import org.hotswap.agent.javassist.bytecode.BootstrapMethodsAttribute;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.javassist.bytecode.CodeAttribute;
+import org.hotswap.agent.javassist.bytecode.CodeIterator;
+import org.hotswap.agent.javassist.bytecode.ConstPool;
+import org.hotswap.agent.javassist.bytecode.ConstantAttribute;
+import org.hotswap.agent.javassist.bytecode.ExceptionTable;
+import org.hotswap.agent.javassist.bytecode.ExceptionsAttribute;
+import org.hotswap.agent.javassist.bytecode.FieldInfo;
+import org.hotswap.agent.javassist.bytecode.MethodInfo;
+import org.hotswap.agent.javassist.bytecode.Opcode;
+import org.hotswap.agent.javassist.bytecode.ParameterAnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.SignatureAttribute;
+import org.hotswap.agent.javassist.bytecode.TypeAnnotationsAttribute;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ClassBytesStore;
+
+/**
+ * Classifies a redefinition by comparing the incoming class file with the currently loaded version
+ * of the class, see {@link ClassChangeKind}.
+ *
+ * <p>The loaded version is known exactly if the class was already redefined by the agent before - the class
+ * file of the last successful redefinition is kept (weakly keyed by the class, bounded by total size) - or if
+ * the class was never redefined and the original class file was captured by {@link ClassBytesStore}. After
+ * a redefinition with unknown outcome (e.g. started by a debugger) or if the class file was dropped from
+ * the bounded cache, the loaded version is not known until the next successful agent redefinition. Otherwise only the runtime class is available and the comparison falls
+ * back to reflection. Generic signatures of the class and its members are rendered from reflection and compared
+ * with the incoming Signature attributes. Reflection cannot distinguish
+ * debug info from method body changes nor compare annotation values, hence the fallback returns
+ * {@link ClassChangeKind#METHOD_BODY} for classes without runtime annotations and
+ * {@link ClassChangeKind#ANNOTATION} otherwise.</p>
+ *
+ * <p>Constant pool indexes are resolved before comparison, so a recompilation which only reorders the
+ * constant pool is not reported as a change. Whenever the classifier is unsure, it reports the more
+ * invasive kind.</p>
+ */
+public class ClassChangeClassifier {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ClassChangeClassifier.class);
+
+    // marker of members added by plugins into the loaded class
+    private static final String AGENT_MEMBER_MARKER = "$$ha$";
+
+    // class attributes not compared by raw content - debug attributes and attributes compared in other steps
+    // (bootstrap methods resolved in code, signature, annotations)
+    private static final Set<String> SKIPPED_CLASS_ATTRIBUTES = new HashSet<>(Arrays.asList(
+            "SourceFile", "SourceDebugExtension", BootstrapMethodsAttribute.tag, SignatureAttribute.tag,
+            AnnotationsAttribute.visibleTag, AnnotationsAttribute.invisibleTag,
+            TypeAnnotationsAttribute.visibleTag, TypeAnnotationsAttribute.invisibleTag
+    ));
+
+    /**
+     * Max total size of class files of redefined classes kept on heap, least recently used are dropped.
+     */
+    public static final int MAX_LOADED_BYTES = 16 * 1024 * 1024;
+
+    // class -> class file of the last successful redefinition, an entry without bytes marks a redefined class
+    // with unknown loaded version, guarded by itself
+    private static final LoadedBytesCache loadedBytes = new LoadedBytesCache(MAX_LOADED_BYTES);
+
+    private static final ThreadLocal<RedefinitionContext> currentRedefinition = new ThreadLocal<>();
+
+    private static class RedefinitionContext {
+        final Class<?> redefiningClass;
+        final byte[] bytes;
+        ClassChangeKind changeKind;
+        boolean byReflection;
+
+        RedefinitionContext(Class<?> redefiningClass, byte[] bytes) {
+            this.redefiningClass = redefiningClass;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Mark start of a class redefinition on current thread. The bytes must be the original class file
+     * before any transformation, so that all transformers get the same classification.
+     *
+     * @param redefiningClass class being redefined
+     * @param bytes incoming class file
+     */
+    public static void beginRedefinition(Class<?> redefiningClass, byte[] bytes) {
+        currentRedefinition.set(new RedefinitionContext(redefiningClass, bytes));
+    }
+
+    /**
+     * Mark end of the class transformation on current thread. The JVM may still reject the redefinition,
+     * the loaded version of the class is unknown until {@link #redefinitionSucceeded(Class, byte[])} or
+     * {@link #redefinitionFailed(Class)} is called.
+     */
+    public static void endRedefinition() {
+        RedefinitionContext context = currentRedefinition.get();
+        if (context != null) {
+            currentRedefinition.remove();
+            loadedBytes.markPending(context.redefiningClass);
+        }
+    }
+
+    /**
+     * Remember the class file of a successful redefinition as the loaded version for the next redefinition.
+     *
+     * @param clazz redefined class
+     * @param bytes class file passed to the redefinition (before transformation)
+     */
+    public static void redefinitionSucceeded(Class<?> clazz, byte[] bytes) {
+        loadedBytes.put(clazz, bytes);
+    }
+
+    /**
+     * @param clazz class
+     * @return true if the class was transformed for redefinition and the outcome was not reported yet
+     */
+    public static boolean isRedefinitionPending(Class<?> clazz) {
+        synchronized (loadedBytes) {
+            LoadedBytes loaded = loadedBytes.get(clazz);
+            return loaded != null && loaded.pending;
+        }
+    }
+
+    /**
+     * Redefinition was rejected, the previously known loaded version is still valid.
+     *
+     * @param clazz class
+     */
+    public static void redefinitionFailed(Class<?> clazz) {
+        loadedBytes.clearPending(clazz);
+    }
+
+    /**
+     * Change kind of a redefinition, cached for the redefinition in progress on current thread.
+     *
+     * @param redefiningClass class being redefined, null for class definition
+     * @param bytes incoming class file, used only if no redefinition is in progress
+     * @return change kind or null if this is not a redefinition
+     */
+    public static ClassChangeKind getChangeKind(Class<?> redefiningClass, byte[] bytes) {
+        if (redefiningClass == null) {
+            return null;
+        }
+        RedefinitionContext context = currentRedefinition.get();
+        if (context == null || context.redefiningClass != redefiningClass) {
+            return classify(redefiningClass, bytes);
+        }
+        if (context.changeKind == null) {
+            byte[] oldBytes = getLoadedBytes(redefiningClass);
+            context.byReflection = oldBytes == null;
+            context.changeKind = classify(redefiningClass, oldBytes, context.bytes);
+        }
+        return context.changeKind;
+    }
+
+    /**
+     * The loaded class file is not known, the change kind is compared with the loaded class by reflection. This
+     * is only an estimate - reflection does not expose everything the class file comparison sees.
+     *
+     * @param redefiningClass class being redefined
+     * @return true if the change kind of the class is (or would be) classified by reflection
+     */
+    public static boolean isClassifiedByReflection(Class<?> redefiningClass) {
+        RedefinitionContext context = currentRedefinition.get();
+        if (context != null && context.redefiningClass == redefiningClass && context.changeKind != null) {
+            return context.byReflection;
+        }
+        return getLoadedBytes(redefiningClass) == null;
+    }
+
+    /**
+     * Class file the loaded class was defined from, as far as known to the agent.
+     *
+     * @param clazz loaded class
+     * @return class file bytes before transformation or null if not known
+     */
+    public static byte[] getLoadedBytes(Class<?> clazz) {
+        synchronized (loadedBytes) {
+            LoadedBytes loaded = loadedBytes.get(clazz);
+            if (loaded != null) {
+                // null while a redefinition is in progress, its outcome is unknown or the bytes were dropped -
+                // never the store, it has the original class file only
+                return loaded.pending ? null : loaded.bytes;
+            }
+        }
+        ClassBytesStore store = PluginManager.getInstance().getClassBytesStore();
+        return store != null ? store.get(clazz) : null;
+    }
+
+    /**
+     * Incoming class file before transformation. Transformers get bytes modified by previous transformers,
+     * comparison with {@link #getLoadedBytes(Class)} must use the untransformed bytes.
+     *
+     * @param redefiningClass class being redefined
+     * @param bytes bytes passed to the transformer
+     * @return untransformed bytes if the class is being redefined on current thread, otherwise the bytes
+     */
+    public static byte[] getIncomingBytes(Class<?> redefiningClass, byte[] bytes) {
+        RedefinitionContext context = currentRedefinition.get();
+        return context != null && context.redefiningClass == redefiningClass ? context.bytes : bytes;
+    }
+
+    /**
+     * Compare loaded class with the incoming class file.
+     *
+     * @param clazz loaded class
+     * @param newBytes incoming class file
+     * @return change kind
+     */
+    public static ClassChangeKind classify(Class<?> clazz, byte[] newBytes) {
+        return classify(clazz, getLoadedBytes(clazz), newBytes);
+    }
+
+    private static ClassChangeKind classify(Class<?> clazz, byte[] oldBytes, byte[] newBytes) {
+        if (oldBytes != null) {
+            return classify(oldBytes, newBytes);
+        }
+        try {
+            return classifyByReflection(clazz, readClassFile(newBytes));
+        } catch (Throwable e) {
+            LOGGER.debug("Unable to classify change of class {}.", e, clazz.getName());
+            return ClassChangeKind.HIERARCHY;
+        }
+    }
+
+    /**
+     * Compare two class files.
+     *
+     * @param oldBytes loaded class file
+     * @param newBytes incoming class file
+     * @return change kind
+     */
+    public static ClassChangeKind classify(byte[] oldBytes, byte[] newBytes) {
+        if (Arrays.equals(oldBytes, newBytes)) {
+            return ClassChangeKind.NONE;
+        }
+        try {
+            ClassFile oldFile = readClassFile(oldBytes);
+            ClassFile newFile = readClassFile(newBytes);
+
+            if (!hierarchy(oldFile).equals(hierarchy(newFile))) {
+                return ClassChangeKind.HIERARCHY;
+            }
+
+            Map<String, FieldInfo> oldFields = fields(oldFile);
+            Map<String, FieldInfo> newFields = fields(newFile);
+            Map<String, MethodInfo> oldMethods = methods(oldFile);
+            Map<String, MethodInfo> newMethods = methods(newFile);
+
+            if (oldFile.getAccessFlags() != newFile.getAccessFlags()
+                    || !equal(signature(oldFile.getAttribute(SignatureAttribute.tag)), signature(newFile.getAttribute(SignatureAttribute.tag)))
+                    || !oldFields.keySet().equals(newFields.keySet())
+                    || !oldMethods.keySet().equals(newMethods.keySet())) {
+                return ClassChangeKind.SIGNATURE;
+            }
+            for (Map.Entry<String, FieldInfo> entry : oldFields.entrySet()) {
+                if (!fieldSignature(entry.getValue()).equals(fieldSignature(newFields.get(entry.getKey())))) {
+                    return ClassChangeKind.SIGNATURE;
+                }
+            }
+            for (Map.Entry<String, MethodInfo> entry : oldMethods.entrySet()) {
+                if (!methodSignature(entry.getValue()).equals(methodSignature(newMethods.get(entry.getKey())))) {
+                    return ClassChangeKind.SIGNATURE;
+                }
+            }
+
+            if (!annotations(oldFile.getAttributes()).equals(annotations(newFile.getAttributes()))) {
+                return ClassChangeKind.ANNOTATION;
+            }
+            for (Map.Entry<String, FieldInfo> entry : oldFields.entrySet()) {
+                if (!annotations(entry.getValue().getAttributes()).equals(annotations(newFields.get(entry.getKey()).getAttributes()))) {
+                    return ClassChangeKind.ANNOTATION;
+                }
+            }
+            for (Map.Entry<String, MethodInfo> entry : oldMethods.entrySet()) {
+                if (!annotations(entry.getValue().getAttributes()).equals(annotations(newMethods.get(entry.getKey()).getAttributes()))) {
+                    return ClassChangeKind.ANNOTATION;
+                }
+            }
+
+            if (!classAttributes(oldFile).equals(classAttributes(newFile))) {
+                return ClassChangeKind.METHOD_BODY;
+            }
+            for (Map.Entry<String, FieldInfo> entry : oldFields.entrySet()) {
+                if (!constantValue(entry.getValue()).equals(constantValue(newFields.get(entry.getKey())))) {
+                    return ClassChangeKind.METHOD_BODY;
+                }
+            }
+            for (Map.Entry<String, MethodInfo> entry : oldMethods.entrySet()) {
+                if (!code(oldFile, entry.getValue()).equals(code(newFile, newMethods.get(entry.getKey())))) {
+                    return ClassChangeKind.METHOD_BODY;
+                }
+            }
+
+            return ClassChangeKind.DEBUG_INFO_ONLY;
+        } catch (Throwable e) {
+            LOGGER.debug("Unable to classify class file change.", e);
+            return ClassChangeKind.HIERARCHY;
+        }
+    }
+
+    private static ClassChangeKind classifyByReflection(Class<?> clazz, ClassFile newFile) {
+        List<String> interfaces = new ArrayList<>();
+        for (Class<?> iface : clazz.getInterfaces()) {
+            interfaces.add(iface.getName());
+        }
+        Collections.sort(interfaces);
+        String superclass = clazz.isInterface() || clazz.getSuperclass() == null ? null : clazz.getSuperclass().getName();
+        List<Object> oldHierarchy = Arrays.<Object>asList(superclass, interfaces);
+        List<Object> newHierarchy = hierarchy(newFile);
+        if (clazz.isInterface()) {
+            newHierarchy.set(0, null);
+        }
+        if (!oldHierarchy.equals(newHierarchy)) {
+            return ClassChangeKind.HIERARCHY;
+        }
+
+        boolean annotated = clazz.getDeclaredAnnotations().length > 0;
+
+        // member -> modifiers and generic signature (erased signature if not generic)
+        Map<String, String> oldMembers = new HashMap<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            annotated |= field.getDeclaredAnnotations().length > 0;
+            if (!field.getName().contains(AGENT_MEMBER_MARKER)) {
+                oldMembers.put(field.getName() + " " + descriptor(field.getType()),
+                        (field.getModifiers() & Modifier.fieldModifiers()) + " " + typeSignature(field.getGenericType()));
+            }
+        }
+        for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+            annotated |= constructor.getDeclaredAnnotations().length > 0;
+            oldMembers.put("<init> " + descriptor(constructor.getParameterTypes(), void.class),
+                    (constructor.getModifiers() & Modifier.constructorModifiers()) + " "
+                            + methodSignature(constructor, constructor.getGenericParameterTypes(), void.class,
+                            constructor.getGenericExceptionTypes()));
+        }
+        for (Method method : clazz.getDeclaredMethods()) {
+            annotated |= method.getDeclaredAnnotations().length > 0;
+            if (!method.getName().contains(AGENT_MEMBER_MARKER)) {
+                oldMembers.put(method.getName() + " " + descriptor(method.getParameterTypes(), method.getReturnType()),
+                        (method.getModifiers() & Modifier.methodModifiers()) + " "
+                                + methodSignature(method, method.getGenericParameterTypes(), method.getGenericReturnType(),
+                                method.getGenericExceptionTypes()));
+            }
+        }
+
+        Map<String, String> newMembers = new HashMap<>();
+        for (FieldInfo field : newFile.getFields()) {
+            String signature = signature(field.getAttribute(SignatureAttribute.tag));
+            newMembers.put(field.getName() + " " + field.getDescriptor(), (field.getAccessFlags() & Modifier.fieldModifiers())
+                    + " " + (signature != null ? signature : field.getDescriptor()));
+            annotated |= field.getAttribute(AnnotationsAttribute.visibleTag) != null;
+        }
+        for (MethodInfo method : newFile.getMethods()) {
+            if (method.isStaticInitializer()) {
+                continue;
+            }
+            int mask = method.isConstructor() ? Modifier.constructorModifiers() : Modifier.methodModifiers();
+            String signature = signature(method.getAttribute(SignatureAttribute.tag));
+            newMembers.put(method.getName() + " " + method.getDescriptor(), (method.getAccessFlags() & mask)
+                    + " " + (signature != null ? signature : method.getDescriptor()));
+            annotated |= method.getAttribute(AnnotationsAttribute.visibleTag) != null
+                    || method.getAttribute(ParameterAnnotationsAttribute.visibleTag) != null;
+        }
+        annotated |= newFile.getAttribute(AnnotationsAttribute.visibleTag) != null;
+
+        if (!classSignature(clazz).equals(classSignature(newFile)) || !oldMembers.equals(newMembers)) {
+            return ClassChangeKind.SIGNATURE;
+        }
+        return annotated ? ClassChangeKind.ANNOTATION : ClassChangeKind.METHOD_BODY;
+    }
+
+    /*
+     * Generic signatures rendered from reflection in the class file format (JVMS 4.7.9.1). A declaration
+     * without generic types is rendered as its erased signature, which equals the descriptor for members.
+     * Any difference from the javac output (e.g. synthetic parameters) reports SIGNATURE - never a missed change.
+     */
+
+    private static String classSignature(Class<?> clazz) {
+        StringBuilder result = new StringBuilder(typeParameters(clazz));
+        Type superclass = clazz.getGenericSuperclass();
+        result.append(superclass != null ? typeSignature(superclass) : "Ljava/lang/Object;");
+        for (Type iface : clazz.getGenericInterfaces()) {
+            result.append(typeSignature(iface));
+        }
+        return result.toString();
+    }
+
+    private static String classSignature(ClassFile classFile) {
+        String signature = signature(classFile.getAttribute(SignatureAttribute.tag));
+        if (signature != null) {
+            return signature;
+        }
+        String superclass = classFile.getSuperclass();
+        StringBuilder result = new StringBuilder("L").append((superclass != null ? superclass : "java.lang.Object").replace('.', '/')).append(';');
+        for (String iface : classFile.getInterfaces()) {
+            result.append('L').append(iface.replace('.', '/')).append(';');
+        }
+        return result.toString();
+    }
+
+    private static String methodSignature(GenericDeclaration declaration, Type[] parameterTypes, Type returnType,
+                                          Type[] exceptionTypes) {
+        StringBuilder result = new StringBuilder(typeParameters(declaration)).append('(');
+        for (Type parameterType : parameterTypes) {
+            result.append(typeSignature(parameterType));
+        }
+        result.append(')').append(typeSignature(returnType));
+        // javac writes thrown types only if some of them is a type variable
+        boolean genericExceptions = false;
+        for (Type exceptionType : exceptionTypes) {
+            genericExceptions |= exceptionType instanceof TypeVariable;
+        }
+        if (genericExceptions) {
+            for (Type exceptionType : exceptionTypes) {
+                result.append('^').append(typeSignature(exceptionType));
+            }
+        }
+        return result.toString();
+    }
+
+    private static String typeParameters(GenericDeclaration declaration) {
+        TypeVariable<?>[] typeParameters = declaration.getTypeParameters();
+        if (typeParameters.length == 0) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder("<");
+        for (TypeVariable<?> typeParameter : typeParameters) {
+            result.append(typeParameter.getName());
+            Type[] bounds = typeParameter.getBounds();
+            for (int i = 0; i < bounds.length; i++) {
+                // interface bound is written after an empty class bound
+                result.append(i == 0 && isInterface(bounds[i]) ? "::" : ":").append(typeSignature(bounds[i]));
+            }
+        }
+        return result.append('>').toString();
+    }
+
+    private static boolean isInterface(Type type) {
+        if (type instanceof ParameterizedType) {
+            type = ((ParameterizedType) type).getRawType();
+        }
+        return type instanceof Class && ((Class<?>) type).isInterface();
+    }
+
+    private static String typeSignature(Type type) {
+        if (type instanceof Class) {
+            return descriptor((Class<?>) type);
+        } else if (type instanceof ParameterizedType) {
+            return parameterizedType((ParameterizedType) type) + ";";
+        } else if (type instanceof TypeVariable) {
+            return "T" + ((TypeVariable<?>) type).getName() + ";";
+        } else if (type instanceof GenericArrayType) {
+            return "[" + typeSignature(((GenericArrayType) type).getGenericComponentType());
+        } else if (type instanceof WildcardType) {
+            WildcardType wildcard = (WildcardType) type;
+            if (wildcard.getLowerBounds().length > 0) {
+                return "-" + typeSignature(wildcard.getLowerBounds()[0]);
+            }
+            Type[] upperBounds = wildcard.getUpperBounds();
+            return upperBounds.length == 0 || upperBounds[0] == Object.class ? "*" : "+" + typeSignature(upperBounds[0]);
+        }
+        throw new IllegalArgumentException("Unknown type " + type);
+    }
+
+    // without the trailing ';', nested in a parameterized owner as Outer<..>.Inner<..>
+    private static String parameterizedType(ParameterizedType type) {
+        Class<?> rawType = (Class<?>) type.getRawType();
+        StringBuilder result = new StringBuilder();
+        if (type.getOwnerType() instanceof ParameterizedType) {
+            result.append(parameterizedType((ParameterizedType) type.getOwnerType())).append('.').append(rawType.getSimpleName());
+        } else {
+            result.append('L').append(rawType.getName().replace('.', '/'));
+        }
+        Type[] arguments = type.getActualTypeArguments();
+        if (arguments.length > 0) {
+            result.append('<');
+            for (Type argument : arguments) {
+                result.append(typeSignature(argument));
+            }
+            result.append('>');
+        }
+        return result.toString();
+    }
+
+    private static ClassFile readClassFile(byte[] bytes) throws IOException {
+        return new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static List<Object> hierarchy(ClassFile classFile) {
+        List<String> interfaces = new ArrayList<>(Arrays.asList(classFile.getInterfaces()));
+        Collections.sort(interfaces);
+        return new ArrayList<Object>(Arrays.asList(classFile.getSuperclass(), interfaces));
+    }
+
+    private static Map<String, FieldInfo> fields(ClassFile classFile) {
+        Map<String, FieldInfo> result = new HashMap<>();
+        for (FieldInfo field : classFile.getFields()) {
+            result.put(field.getName() + " " + field.getDescriptor(), field);
+        }
+        return result;
+    }
+
+    private static Map<String, MethodInfo> methods(ClassFile classFile) {
+        Map<String, MethodInfo> result = new HashMap<>();
+        for (MethodInfo method : classFile.getMethods()) {
+            result.put(method.getName() + " " + method.getDescriptor(), method);
+        }
+        return result;
+    }
+
+    private static String fieldSignature(FieldInfo field) {
+        return field.getAccessFlags() + " " + signature(field.getAttribute(SignatureAttribute.tag));
+    }
+
+    private static String methodSignature(MethodInfo method) {
+        ExceptionsAttribute exceptions = method.getExceptionsAttribute();
+        String[] exceptionNames = exceptions == null ? null : exceptions.getExceptions();
+        if (exceptionNames != null) {
+            Arrays.sort(exceptionNames);
+        }
+        return method.getAccessFlags() + " " + signature(method.getAttribute(SignatureAttribute.tag))
+                + " " + Arrays.toString(exceptionNames);
+    }
+
+    private static String signature(AttributeInfo attribute) {
+        return attribute == null ? null : ((SignatureAttribute) attribute).getSignature();
+    }
+
+    private static List<String> annotations(List<AttributeInfo> attributes) {
+        List<String> result = new ArrayList<>();
+        for (AttributeInfo attribute : attributes) {
+            if (attribute instanceof AnnotationsAttribute || attribute instanceof ParameterAnnotationsAttribute
+                    || attribute instanceof AnnotationDefaultAttribute) {
+                result.add(attribute.getName() + " " + attribute.toString());
+            } else if (attribute instanceof TypeAnnotationsAttribute) {
+                // not decoded, compared by raw content - constant pool reordering reports a change
+                result.add(attribute.getName() + " " + Arrays.toString(attribute.get()));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    // non-debug class attributes not covered elsewhere (inner classes, nest members ...), compared by raw content
+    private static Map<String, String> classAttributes(ClassFile classFile) {
+        Map<String, String> result = new HashMap<>();
+        for (AttributeInfo attribute : classFile.getAttributes()) {
+            if (!SKIPPED_CLASS_ATTRIBUTES.contains(attribute.getName())) {
+                result.put(attribute.getName(), Arrays.toString(attribute.get()));
+            }
+        }
+        return result;
+    }
+
+    private static String constantValue(FieldInfo field) {
+        AttributeInfo attribute = field.getAttribute(ConstantAttribute.tag);
+        if (attribute == null) {
+            return "";
+        }
+        return constant(field.getConstPool(), null, ((ConstantAttribute) attribute).getConstantValue());
+    }
+
+    /**
+     * Code of the method with constant pool references resolved. Debug attributes of the code
+     * (line numbers, local variables) and the stack map frames are ignored.
+     */
+    private static String code(ClassFile classFile, MethodInfo method) throws BadBytecode {
+        CodeAttribute codeAttribute = method.getCodeAttribute();
+        if (codeAttribute == null) {
+            return "";
+        }
+        ConstPool constPool = classFile.getConstPool();
+        AttributeInfo bootstrap = classFile.getAttribute(BootstrapMethodsAttribute.tag);
+        BootstrapMethodsAttribute.BootstrapMethod[] bootstrapMethods =
+                bootstrap == null ? null : ((BootstrapMethodsAttribute) bootstrap).getMethods();
+
+        StringBuilder result = new StringBuilder();
+        result.append(codeAttribute.getMaxStack()).append(' ').append(codeAttribute.getMaxLocals()).append('\n');
+
+        CodeIterator iterator = codeAttribute.iterator();
+        while (iterator.hasNext()) {
+            int pos = iterator.next();
+            int end = iterator.hasNext() ? iterator.lookAhead() : iterator.getCodeLength();
+            int opcode = iterator.byteAt(pos);
+            result.append(opcode);
+
+            int operandStart = pos + 1;
+            switch (opcode) {
+                case Opcode.LDC:
+                    result.append(' ').append(constant(constPool, bootstrapMethods, iterator.byteAt(pos + 1)));
+                    operandStart = pos + 2;
+                    break;
+                case Opcode.LDC_W:
+                case Opcode.LDC2_W:
+                case Opcode.GETSTATIC:
+                case Opcode.PUTSTATIC:
+                case Opcode.GETFIELD:
+                case Opcode.PUTFIELD:
+                case Opcode.INVOKEVIRTUAL:
+                case Opcode.INVOKESPECIAL:
+                case Opcode.INVOKESTATIC:
+                case Opcode.INVOKEINTERFACE:
+                case Opcode.INVOKEDYNAMIC:
+                case Opcode.NEW:
+                case Opcode.ANEWARRAY:
+                case Opcode.CHECKCAST:
+                case Opcode.INSTANCEOF:
+                case Opcode.MULTIANEWARRAY:
+                    result.append(' ').append(constant(constPool, bootstrapMethods, iterator.u16bitAt(pos + 1)));
+                    operandStart = pos + 3;
+                    break;
+                default:
+                    break;
+            }
+            for (int i = operandStart; i < end; i++) {
+                result.append(' ').append(iterator.byteAt(i));
+            }
+            result.append('\n');
+        }
+
+        ExceptionTable exceptionTable = codeAttribute.getExceptionTable();
+        for (int i = 0; i < exceptionTable.size(); i++) {
+            int catchType = exceptionTable.catchType(i);
+            result.append(exceptionTable.startPc(i)).append(' ').append(exceptionTable.endPc(i)).append(' ')
+                    .append(exceptionTable.handlerPc(i)).append(' ')
+                    .append(catchType == 0 ? "*" : constPool.getClassInfo(catchType)).append('\n');
+        }
+        return result.toString();
+    }
+
+    private static String constant(ConstPool constPool, BootstrapMethodsAttribute.BootstrapMethod[] bootstrapMethods, int index) {
+        int tag = constPool.getTag(index);
+        switch (tag) {
+            case ConstPool.CONST_Class:
+                return "C" + constPool.getClassInfo(index);
+            case ConstPool.CONST_String:
+                return "S" + constPool.getStringInfo(index);
+            case ConstPool.CONST_Integer:
+            case ConstPool.CONST_Float:
+            case ConstPool.CONST_Long:
+            case ConstPool.CONST_Double:
+                return tag + ":" + constPool.getLdcValue(index);
+            case ConstPool.CONST_Fieldref:
+            case ConstPool.CONST_Methodref:
+            case ConstPool.CONST_InterfaceMethodref:
+                return tag + ":" + constPool.getClassInfo(constPool.getMemberClass(index)) + "."
+                        + nameAndType(constPool, constPool.getMemberNameAndType(index));
+            case ConstPool.CONST_MethodHandle:
+                return "H" + constPool.getMethodHandleKind(index) + ":"
+                        + constant(constPool, bootstrapMethods, constPool.getMethodHandleIndex(index));
+            case ConstPool.CONST_MethodType:
+                return "T" + constPool.getUtf8Info(constPool.getMethodTypeInfo(index));
+            case ConstPool.CONST_InvokeDynamic:
+                StringBuilder result = new StringBuilder("D")
+                        .append(nameAndType(constPool, constPool.getInvokeDynamicNameAndType(index)));
+                int bootstrapIndex = constPool.getInvokeDynamicBootstrap(index);
+                if (bootstrapMethods != null && bootstrapIndex < bootstrapMethods.length) {
+                    BootstrapMethodsAttribute.BootstrapMethod bootstrapMethod = bootstrapMethods[bootstrapIndex];
+                    result.append(' ').append(constant(constPool, bootstrapMethods, bootstrapMethod.methodRef));
+                    for (int argument : bootstrapMethod.arguments) {
+                        result.append(' ').append(constant(constPool, bootstrapMethods, argument));
+                    }
+                } else {
+                    result.append(" #").append(bootstrapIndex);
+                }
+                return result.toString();
+            default:
+                // unknown constant kind, index comparison reports a change on any reordering
+                return "#" + tag + ":" + index;
+        }
+    }
+
+    private static String nameAndType(ConstPool constPool, int index) {
+        return constPool.getUtf8Info(constPool.getNameAndTypeName(index)) + " "
+                + constPool.getUtf8Info(constPool.getNameAndTypeDescriptor(index));
+    }
+
+    private static String descriptor(Class<?>[] parameterTypes, Class<?> returnType) {
+        StringBuilder result = new StringBuilder("(");
+        for (Class<?> parameterType : parameterTypes) {
+            result.append(descriptor(parameterType));
+        }
+        return result.append(')').append(descriptor(returnType)).toString();
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type == void.class) {
+            return "V";
+        }
+        if (type.isPrimitive()) {
+            return Array.newInstance(type, 0).getClass().getName().substring(1);
+        }
+        if (type.isArray()) {
+            return type.getName().replace('.', '/');
+        }
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static final class LoadedBytes {
+        byte[] bytes;
+        boolean pending;
+    }
+
+    // weak identity key of a class
+    private static final class ClassKey extends WeakReference<Class<?>> {
+        private final int hash;
+
+        ClassKey(Class<?> clazz, ReferenceQueue<Class<?>> queue) {
+            super(clazz, queue);
+            hash = System.identityHashCode(clazz);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClassKey)) {
+                return false;
+            }
+            Class<?> clazz = get();
+            return clazz != null && clazz == ((ClassKey) o).get();
+        }
+    }
+
+    // class file bytes weakly keyed by the class, least recently used are dropped above max total size
+    static final class LoadedBytesCache {
+        private final long maxBytes;
+        private final ReferenceQueue<Class<?>> queue = new ReferenceQueue<>();
+        private final LinkedHashMap<ClassKey, LoadedBytes> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long totalBytes;
+
+        LoadedBytesCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized LoadedBytes get(Class<?> clazz) {
+            expunge();
+            return entries.get(new ClassKey(clazz, null));
+        }
+
+        synchronized void markPending(Class<?> clazz) {
+            expunge();
+            LoadedBytes loaded = entries.get(new ClassKey(clazz, null));
+            if (loaded == null) {
+                loaded = new LoadedBytes();
+                entries.put(new ClassKey(clazz, queue), loaded);
+            } else if (loaded.pending) {
+                // outcome of the previous redefinition is unknown, a failure of this one does not restore the bytes
+                totalBytes -= length(loaded.bytes);
+                loaded.bytes = null;
+            }
+            loaded.pending = true;
+        }
+
+        // the entry is kept even without bytes - the class may have been redefined before with unknown outcome
+        synchronized void clearPending(Class<?> clazz) {
+            expunge();
+            LoadedBytes loaded = entries.get(new ClassKey(clazz, null));
+            if (loaded != null) {
+                loaded.pending = false;
+            }
+        }
+
+        synchronized void put(Class<?> clazz, byte[] bytes) {
+            expunge();
+            LoadedBytes loaded = entries.get(new ClassKey(clazz, null));
+            if (loaded == null) {
+                loaded = new LoadedBytes();
+                entries.put(new ClassKey(clazz, queue), loaded);
+            }
+            totalBytes -= length(loaded.bytes);
+            loaded.bytes = bytes;
+            loaded.pending = false;
+            totalBytes += length(bytes);
+            // drop bytes of least recently used, but keep the class just put and pending redefinitions,
+            // the entries stay as markers of redefined classes
+            for (Iterator<LoadedBytes> it = entries.values().iterator(); totalBytes > maxBytes && it.hasNext(); ) {
+                LoadedBytes eldest = it.next();
+                if (eldest != loaded && !eldest.pending) {
+                    totalBytes -= length(eldest.bytes);
+                    eldest.bytes = null;
+                }
+            }
+        }
+
+        private void expunge() {
+            for (Object ref; (ref = queue.poll()) != null; ) {
+                LoadedBytes loaded = entries.remove(ref);
+                if (loaded != null) {
+                    totalBytes -= length(loaded.bytes);
+                }
+            }
+        }
+
+        private static int length(byte[] bytes) {
+            return bytes != null ? bytes.length : 0;
+        }
+    }
+}
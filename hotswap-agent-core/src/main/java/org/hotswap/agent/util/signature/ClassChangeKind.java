@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+/**
+ * Kind of change between the loaded and the incoming definition of a class, ordered from
+ * the least to the most invasive. If several kinds of change are present, the most invasive wins.
+ *
+ * <p>Available as an {@code @OnClassLoadEvent} method parameter. Plugins may use it to skip
+ * expensive refreshes when only method bodies changed.</p>
+ */
+public enum ClassChangeKind {
+    /**
+     * Class file is byte-identical to the loaded one.
+     */
+    NONE,
+
+    /**
+     * Only debug information differs (line numbers, local variable tables, source file).
+     */
+    DEBUG_INFO_ONLY,
+
+    /**
+     * Method bodies differ, members and annotations are the same.
+     */
+    METHOD_BODY,
+
+    /**
+     * Class, field, method or parameter annotations differ.
+     */
+    ANNOTATION,
+
+    /**
+     * Field or method added, removed, or its modifiers / generic signature changed.
+     */
+    SIGNATURE,
+
+    /**
+     * Superclass or implemented interfaces changed.
+     */
+    HIERARCHY;
+
+    /**
+     * @return true if the change does not affect class structure nor annotations
+     */
+    public boolean isBodyOnly() {
+        return ordinal() <= METHOD_BODY.ordinal();
+    }
+}
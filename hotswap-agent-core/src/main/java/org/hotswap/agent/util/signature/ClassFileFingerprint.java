@@ -0,0 +1,399 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Signature fingerprint computed by a single pass over the raw class file. Neither CtClass nor
+ * the loaded class is needed, constant pool entries are decoded only if referenced by a signature element.
+ * <p/>
+ * The fingerprint covers the same members as {@link CtClassSignature} for the given signature elements, but
+ * annotations are taken as written in the class file (runtime visible only, without default values),
+ * hence a fingerprint can be compared only with another fingerprint - e.g. of the class file the loaded
+ * class was defined from - never with a signature value.
+ */
+public class ClassFileFingerprint {
+
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_PRIVATE = 0x0002;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final String RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS = "RuntimeVisibleParameterAnnotations";
+    private static final String EXCEPTIONS = "Exceptions";
+
+    private final byte[] bytes;
+    private final Set<ClassSignatureElement> elements;
+
+    // constant pool entry offsets (position of the tag) and decoded utf8 strings
+    private int[] cpOffsets;
+    private String[] utf8Cache;
+    private int pos;
+
+    private ClassFileFingerprint(byte[] bytes, ClassSignatureElement[] elements) {
+        this.bytes = bytes;
+        this.elements = EnumSet.noneOf(ClassSignatureElement.class);
+        Collections.addAll(this.elements, elements);
+    }
+
+    /**
+     * Compute fingerprint of the class file.
+     *
+     * @param bytes class file
+     * @param signatureElements signature elements
+     * @return 128-bit fingerprint in hex format
+     * @throws IOException class file format error
+     */
+    public static String of(byte[] bytes, ClassSignatureElement[] signatureElements) throws IOException {
+        return new ClassFileFingerprint(bytes, signatureElements).compute();
+    }
+
+    private String compute() throws IOException {
+        try {
+            List<String> strings = new ArrayList<>();
+            if (u4() != 0xCAFEBABE) {
+                throw new IOException("Not a class file");
+            }
+            pos += 4; // version
+            readConstantPool();
+
+            pos += 2; // access flags
+            String className = classInfo(u2());
+            int superIndex = u2();
+            if (hasElement(ClassSignatureElement.SUPER_CLASS) && superIndex != 0) {
+                String superclassName = classInfo(superIndex);
+                if (!superclassName.equals("java/lang/Object")) {
+                    strings.add("S" + superclassName);
+                }
+            }
+            int interfacesCount = u2();
+            for (int i = 0; i < interfacesCount; i++) {
+                int index = u2();
+                if (hasElement(ClassSignatureElement.INTERFACES)) {
+                    strings.add("I" + classInfo(index));
+                }
+            }
+
+            int fieldsCount = u2();
+            for (int i = 0; i < fieldsCount; i++) {
+                readField(strings);
+            }
+            int methodsCount = u2();
+            for (int i = 0; i < methodsCount; i++) {
+                readMethod(strings, className);
+            }
+
+            String classAnnotations = readAnnotationAttributes(null, null);
+            if (hasElement(ClassSignatureElement.CLASS_ANNOTATION)) {
+                strings.add("A" + classAnnotations);
+            }
+
+            Collections.sort(strings);
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            for (String string : strings) {
+                digest.update(string.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest.digest()) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return result.toString();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated class file", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void readConstantPool() throws IOException {
+        int count = u2();
+        cpOffsets = new int[count];
+        utf8Cache = new String[count];
+        for (int i = 1; i < count; i++) {
+            cpOffsets[i] = pos;
+            int tag = bytes[pos++];
+            switch (tag) {
+                case 1: // Utf8
+                    pos += 2 + u2At(pos);
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    pos += 2;
+                    break;
+                case 15: // MethodHandle
+                    pos += 3;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    pos += 4;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    pos += 8;
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Invalid constant pool tag " + tag + " at entry " + i);
+            }
+        }
+    }
+
+    private void readField(List<String> strings) throws IOException {
+        int access = u2();
+        String name = utf8(u2());
+        String descriptor = utf8(u2());
+        String annotations = readAnnotationAttributes(null, null);
+
+        if (!hasElement(ClassSignatureElement.FIELD))
+            return;
+        if (!hasElement(ClassSignatureElement.FIELD_STATIC) && (access & ACC_STATIC) != 0)
+            return;
+        if (name.startsWith(ClassSignatureBase.SWITCH_TABLE_METHOD_PREFIX))
+            return;
+        StringBuilder result = new StringBuilder("F").append(descriptor).append(' ').append(name);
+        if (hasElement(ClassSignatureElement.FIELD_ANNOTATION)) {
+            result.append(annotations);
+        }
+        strings.add(result.toString());
+    }
+
+    private void readMethod(List<String> strings, String className) throws IOException {
+        int access = u2();
+        String name = utf8(u2());
+        String descriptor = utf8(u2());
+        StringBuilder parameterAnnotations = new StringBuilder();
+        List<String> exceptions = new ArrayList<>();
+        String annotations = readAnnotationAttributes(parameterAnnotations, exceptions);
+
+        boolean constructor = name.equals("<init>");
+        if (name.equals("<clinit>"))
+            return;
+        if (constructor) {
+            if (!hasElement(ClassSignatureElement.CONSTRUCTOR))
+                return;
+            if (!hasElement(ClassSignatureElement.CONSTRUCTOR_PRIVATE) && (access & ACC_PRIVATE) != 0)
+                return;
+        } else {
+            if (!hasElement(ClassSignatureElement.METHOD))
+                return;
+            if (!hasElement(ClassSignatureElement.METHOD_PRIVATE) && (access & ACC_PRIVATE) != 0)
+                return;
+            if (!hasElement(ClassSignatureElement.METHOD_STATIC) && (access & ACC_STATIC) != 0)
+                return;
+            if (name.startsWith(ClassSignatureBase.SWITCH_TABLE_METHOD_PREFIX))
+                return;
+        }
+
+        StringBuilder result = new StringBuilder(constructor ? "C" : "M")
+                .append(Modifier.toString(access & (Modifier.methodModifiers() | Modifier.constructorModifiers())))
+                .append(' ').append(constructor ? className : name).append(descriptor);
+        if (hasElement(ClassSignatureElement.METHOD_ANNOTATION))
+            result.append(annotations);
+        if (hasElement(ClassSignatureElement.METHOD_PARAM_ANNOTATION))
+            result.append(parameterAnnotations);
+        if (hasElement(ClassSignatureElement.METHOD_EXCEPTION)) {
+            Collections.sort(exceptions);
+            result.append(exceptions);
+        }
+        strings.add(result.toString());
+    }
+
+    /**
+     * Read attributes of a class member or the class, decode only annotation and exception attributes.
+     *
+     * @param parameterAnnotations output of parameter annotations, null if not applicable
+     * @param exceptions output of declared exceptions, null if not applicable
+     * @return runtime visible annotations
+     */
+    private String readAnnotationAttributes(StringBuilder parameterAnnotations, List<String> exceptions) throws IOException {
+        String annotations = "[]";
+        int attributesCount = u2();
+        for (int i = 0; i < attributesCount; i++) {
+            String attributeName = utf8(u2());
+            int length = u4();
+            int end = pos + length;
+            if (attributeName.equals(RUNTIME_VISIBLE_ANNOTATIONS)) {
+                annotations = readAnnotations();
+            } else if (parameterAnnotations != null && attributeName.equals(RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS)) {
+                int parameters = bytes[pos++] & 0xff;
+                for (int p = 0; p < parameters; p++) {
+                    parameterAnnotations.append(readAnnotations());
+                }
+            } else if (exceptions != null && attributeName.equals(EXCEPTIONS)) {
+                int count = u2();
+                for (int e = 0; e < count; e++) {
+                    exceptions.add(classInfo(u2()));
+                }
+            }
+            pos = end;
+        }
+        return annotations;
+    }
+
+    private String readAnnotations() throws IOException {
+        int count = u2();
+        List<String> annotations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder annotation = new StringBuilder();
+            readAnnotation(annotation);
+            annotations.add(annotation.toString());
+        }
+        Collections.sort(annotations);
+        return annotations.toString();
+    }
+
+    private void readAnnotation(StringBuilder out) throws IOException {
+        out.append('@').append(utf8(u2())).append('(');
+        int pairs = u2();
+        List<String> values = new ArrayList<>(pairs);
+        for (int i = 0; i < pairs; i++) {
+            StringBuilder value = new StringBuilder(utf8(u2())).append('=');
+            readElementValue(value);
+            values.add(value.toString());
+        }
+        Collections.sort(values);
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(values.get(i));
+        }
+        out.append(')');
+    }
+
+    private void readElementValue(StringBuilder out) throws IOException {
+        char tag = (char) bytes[pos++];
+        out.append(tag);
+        switch (tag) {
+            case 'B':
+            case 'C':
+            case 'I':
+            case 'S':
+            case 'Z':
+            case 'F':
+                out.append(u4At(cpOffsets[u2()] + 1));
+                break;
+            case 'D':
+            case 'J':
+                int offset = cpOffsets[u2()] + 1;
+                out.append(u4At(offset)).append(':').append(u4At(offset + 4));
+                break;
+            case 's':
+            case 'c':
+                out.append(utf8(u2()));
+                break;
+            case 'e':
+                out.append(utf8(u2())).append('.').append(utf8(u2()));
+                break;
+            case '@':
+                readAnnotation(out);
+                break;
+            case '[':
+                int count = u2();
+                out.append('{');
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        out.append(',');
+                    }
+                    readElementValue(out);
+                }
+                out.append('}');
+                break;
+            default:
+                throw new IOException("Invalid annotation element value tag " + tag);
+        }
+    }
+
+    private boolean hasElement(ClassSignatureElement element) {
+        return elements.contains(element);
+    }
+
+    private String classInfo(int index) throws IOException {
+        return utf8(u2At(cpOffsets[index] + 1));
+    }
+
+    private String utf8(int index) throws IOException {
+        String value = utf8Cache[index];
+        if (value == null) {
+            int offset = cpOffsets[index];
+            if (bytes[offset] != 1) {
+                throw new IOException("Constant pool entry " + index + " is not Utf8");
+            }
+            int length = u2At(offset + 1);
+            int start = offset + 3;
+            boolean ascii = true;
+            for (int i = start; i < start + length; i++) {
+                if (bytes[i] <= 0) {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) {
+                value = new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+            } else {
+                // modified UTF-8
+                value = new DataInputStream(new ByteArrayInputStream(bytes, offset + 1, length + 2)).readUTF();
+            }
+            utf8Cache[index] = value;
+        }
+        return value;
+    }
+
+    private int u2() {
+        int value = u2At(pos);
+        pos += 2;
+        return value;
+    }
+
+    private int u4() {
+        int value = u4At(pos);
+        pos += 4;
+        return value;
+    }
+
+    private int u2At(int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+
+    private int u4At(int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+}
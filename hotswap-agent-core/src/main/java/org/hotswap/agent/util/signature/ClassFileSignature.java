@@ -0,0 +1,256 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.bytecode.AccessFlag;
+import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.javassist.bytecode.Descriptor;
+import org.hotswap.agent.javassist.bytecode.ExceptionsAttribute;
+import org.hotswap.agent.javassist.bytecode.FieldInfo;
+import org.hotswap.agent.javassist.bytecode.MethodInfo;
+import org.hotswap.agent.javassist.bytecode.ParameterAnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.annotation.Annotation;
+
+/**
+ * ClassFileSignature. Creates signature directly from class file structure, the value is equal
+ * to CtClassSignature of the same class.
+ * <p/>
+ * Type names are taken from descriptors, so no CtClass of a referenced type (return, parameter,
+ * field, exception or interface type) has to be looked up in the ClassPool. The pool is used
+ * only to create annotation instances.
+ */
+public class ClassFileSignature extends ClassSignatureBase {
+
+    private final ClassFile classFile;
+    private final ClassPool classPool;
+
+    /**
+     * @param classFile the class file for signature is to be counted
+     * @param classPool pool to resolve annotation types
+     */
+    public ClassFileSignature(ClassFile classFile, ClassPool classPool) {
+        this.classFile = classFile;
+        this.classPool = classPool;
+    }
+
+    @Override
+    public String getValue() throws Exception {
+        List<String> strings = new ArrayList<>();
+
+        if (hasElement(ClassSignatureElement.METHOD)) {
+            boolean usePrivateMethod = hasElement(ClassSignatureElement.METHOD_PRIVATE);
+            boolean useStaticMethod = hasElement(ClassSignatureElement.METHOD_STATIC);
+            for (MethodInfo method : classFile.getMethods()) {
+                if (!method.isMethod())
+                    continue;
+                int modifiers = AccessFlag.toModifier(method.getAccessFlags());
+                if (!usePrivateMethod && Modifier.isPrivate(modifiers))
+                    continue;
+                if (!useStaticMethod && Modifier.isStatic(modifiers))
+                    continue;
+                if (method.getName().startsWith(SWITCH_TABLE_METHOD_PREFIX))
+                    continue;
+                strings.add(getMethodString(method, modifiers));
+            }
+        }
+
+        if (hasElement(ClassSignatureElement.CONSTRUCTOR)) {
+            boolean usePrivateConstructor = hasElement(ClassSignatureElement.CONSTRUCTOR_PRIVATE);
+            for (MethodInfo method : classFile.getMethods()) {
+                if (!method.isConstructor())
+                    continue;
+                int modifiers = AccessFlag.toModifier(method.getAccessFlags());
+                if (!usePrivateConstructor && Modifier.isPrivate(modifiers))
+                    continue;
+                strings.add(getConstructorString(method, modifiers));
+            }
+        }
+
+        if (hasElement(ClassSignatureElement.CLASS_ANNOTATION)) {
+            strings.add(annotationToString(toAnnotations(
+                    (AnnotationsAttribute) classFile.getAttribute(AnnotationsAttribute.invisibleTag),
+                    (AnnotationsAttribute) classFile.getAttribute(AnnotationsAttribute.visibleTag))));
+        }
+
+        if (hasElement(ClassSignatureElement.INTERFACES)) {
+            for (String iClass : classFile.getInterfaces()) {
+                strings.add(iClass);
+            }
+        }
+
+        if (hasElement(ClassSignatureElement.SUPER_CLASS)) {
+            String superclassName = classFile.getSuperclass();
+            if (superclassName != null && !superclassName.equals(Object.class.getName()))
+                strings.add(superclassName);
+        }
+
+        if (hasElement(ClassSignatureElement.FIELD)) {
+            boolean useStaticField = hasElement(ClassSignatureElement.FIELD_STATIC);
+            boolean useFieldAnnotation = hasElement(ClassSignatureElement.FIELD_ANNOTATION);
+            for (FieldInfo field : classFile.getFields()) {
+                if (!useStaticField && Modifier.isStatic(AccessFlag.toModifier(field.getAccessFlags())))
+                    continue;
+                if (field.getName().startsWith(SWITCH_TABLE_METHOD_PREFIX))
+                    continue;
+                String fieldSignature = Descriptor.toClassName(field.getDescriptor()) + " " + field.getName();
+                if (useFieldAnnotation) {
+                    fieldSignature += annotationToString(toAnnotations(
+                            (AnnotationsAttribute) field.getAttribute(AnnotationsAttribute.invisibleTag),
+                            (AnnotationsAttribute) field.getAttribute(AnnotationsAttribute.visibleTag)));
+                }
+
+                strings.add(fieldSignature + ";");
+            }
+        }
+        Collections.sort(strings);
+        StringBuilder strBuilder = new StringBuilder();
+        for (String methodString : strings) {
+            strBuilder.append(methodString);
+        }
+        return strBuilder.toString();
+    }
+
+    private String getConstructorString(MethodInfo method, int modifiers) {
+        StringBuilder strBuilder = new StringBuilder();
+        strBuilder.append(Modifier.toString(modifiers) + " ");
+        strBuilder.append(classFile.getName());
+        strBuilder.append(getParams(method.getDescriptor()));
+        appendMethodElements(strBuilder, method);
+        return strBuilder.toString();
+    }
+
+    private String getMethodString(MethodInfo method, int modifiers) {
+        StringBuilder strBuilder = new StringBuilder();
+        strBuilder.append(Modifier.toString(modifiers) + " ");
+        String descriptor = method.getDescriptor();
+        strBuilder.append(Descriptor.toClassName(descriptor.substring(descriptor.indexOf(')') + 1)) + " " + method.getName());
+        strBuilder.append(getParams(descriptor));
+        appendMethodElements(strBuilder, method);
+        return strBuilder.toString();
+    }
+
+    private void appendMethodElements(StringBuilder strBuilder, MethodInfo method) {
+        if (hasElement(ClassSignatureElement.METHOD_ANNOTATION))
+            strBuilder.append(annotationToString(toAnnotations(
+                    (AnnotationsAttribute) method.getAttribute(AnnotationsAttribute.invisibleTag),
+                    (AnnotationsAttribute) method.getAttribute(AnnotationsAttribute.visibleTag))));
+        if (hasElement(ClassSignatureElement.METHOD_PARAM_ANNOTATION))
+            strBuilder.append(annotationToString(toParameterAnnotations(method)));
+        if (hasElement(ClassSignatureElement.METHOD_EXCEPTION))
+            strBuilder.append(toStringException(method.getExceptionsAttribute()));
+        strBuilder.append(";");
+    }
+
+    private String getParams(String descriptor) {
+        StringBuilder strBuilder = new StringBuilder("(");
+        int end = descriptor.indexOf(')');
+        int i = 1;
+        while (i < end) {
+            int start = i;
+            while (descriptor.charAt(i) == '[')
+                i++;
+            if (descriptor.charAt(i) == 'L')
+                i = descriptor.indexOf(';', i);
+            i++;
+            if (start > 1)
+                strBuilder.append(",");
+            strBuilder.append(Descriptor.toClassName(descriptor.substring(start, i)));
+        }
+        strBuilder.append(")");
+        return strBuilder.toString();
+    }
+
+    private String toStringException(ExceptionsAttribute exceptionsAttribute) {
+        String[] a = exceptionsAttribute == null ? null : exceptionsAttribute.getExceptions();
+        if (a == null || a.length == 0)
+            return "[]";
+        a = Arrays.copyOf(a, a.length);
+        Arrays.sort(a);
+
+        StringBuilder b = new StringBuilder();
+        b.append('[');
+        for (int i = 0;; i++) {
+            b.append("class " + a[i]);
+            if (i == a.length - 1)
+                return b.append(']').toString();
+            b.append(", ");
+        }
+    }
+
+    // same as CtClass.getAvailableAnnotations() - annotations which cannot be loaded are skipped
+    private Object[] toAnnotations(AnnotationsAttribute invisible, AnnotationsAttribute visible) {
+        List<Object> result = new ArrayList<>();
+        if (invisible != null)
+            addAnnotations(result, invisible.getAnnotations());
+        if (visible != null)
+            addAnnotations(result, visible.getAnnotations());
+        return result.toArray();
+    }
+
+    private Object[][] toParameterAnnotations(MethodInfo method) {
+        ParameterAnnotationsAttribute invisible =
+                (ParameterAnnotationsAttribute) method.getAttribute(ParameterAnnotationsAttribute.invisibleTag);
+        ParameterAnnotationsAttribute visible =
+                (ParameterAnnotationsAttribute) method.getAttribute(ParameterAnnotationsAttribute.visibleTag);
+        int numParameters;
+        if (invisible != null)
+            numParameters = invisible.numParameters();
+        else if (visible != null)
+            numParameters = visible.numParameters();
+        else
+            numParameters = Descriptor.numOfParameters(method.getDescriptor());
+
+        Object[][] result = new Object[numParameters][];
+        for (int i = 0; i < numParameters; i++) {
+            List<Object> annotations = new ArrayList<>();
+            if (invisible != null)
+                addAnnotations(annotations, invisible.getAnnotations()[i]);
+            if (visible != null)
+                addAnnotations(annotations, visible.getAnnotations()[i]);
+            result[i] = annotations.toArray();
+        }
+        return result;
+    }
+
+    private void addAnnotations(List<Object> result, Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            try {
+                result.add(toAnnotationType(annotation));
+            } catch (ClassNotFoundException e) {
+                // not available, skip
+            }
+        }
+    }
+
+    private Object toAnnotationType(Annotation annotation) throws ClassNotFoundException {
+        try {
+            return annotation.toAnnotationType(classPool.getClassLoader(), classPool);
+        } catch (ClassNotFoundException e) {
+            return annotation.toAnnotationType(classPool.getClass().getClassLoader(), classPool);
+        }
+    }
+}
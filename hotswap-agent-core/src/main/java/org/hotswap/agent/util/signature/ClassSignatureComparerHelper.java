@@ -18,13 +18,30 @@
  */
 package org.hotswap.agent.util.signature;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.LoaderClassPath;
 import org.hotswap.agent.javassist.NotFoundException;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
 import org.hotswap.agent.logging.AgentLogger;
 
 /**
  * Checks if a Signature of a Class has changed
+ * <p/>
+ * Signatures of loaded classes are cached as 128-bit hashes per class and set of signature elements. The cache
+ * is weak on the class and the entry is invalidated on class redefinition (see {@link #invalidate(Class)}). While
+ * a redefinition is not committed by the JVM, signatures of the class are not cached (see {@link #redefining(Class)}).
+ * Use the hash methods if the signature value is only compared, full signature strings are not cached.
  *
  * @author Erki Ehtla, Vladimir Dvorak
  *
@@ -33,6 +50,15 @@ public class ClassSignatureComparerHelper {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(ClassSignatureComparerHelper.class);
 
+    // class -> (signature elements mask -> hash), guarded by itself
+    private static final Map<Class<?>, Map<Long, SignatureHash>> javaSignatureHashes = new WeakHashMap<>();
+
+    // class -> (signature elements mask -> fingerprint of the class file the class was loaded from), guarded by javaSignatureHashes
+    private static final Map<Class<?>, Map<Long, String>> loadedFingerprints = new WeakHashMap<>();
+
+    // classes transformed for redefinition, not yet committed by the JVM, guarded by javaSignatureHashes
+    private static final Set<Class<?>> redefiningClasses = Collections.newSetFromMap(new WeakHashMap<Class<?>, Boolean>());
+
     public static String getCtClassSignature(CtClass ctClass, ClassSignatureElement[] signatureElements) throws Exception {
         CtClassSignature signature = new CtClassSignature(ctClass);
         signature.addSignatureElements(signatureElements);
@@ -45,6 +71,74 @@ public class ClassSignatureComparerHelper {
         return signature.getValue();
     }
 
+    /**
+     * Signature of class file bytes, computed without creating CtClass.
+     *
+     * @param bytes class file
+     * @param classPool pool used to resolve annotations
+     * @param signatureElements signature elements
+     * @return signature equal to getCtClassSignature() of the same class
+     */
+    public static String getClassFileSignature(byte[] bytes, ClassPool classPool, ClassSignatureElement[] signatureElements) throws Exception {
+        ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        ClassFileSignature signature = new ClassFileSignature(classFile, classPool);
+        signature.addSignatureElements(signatureElements);
+        return signature.getValue();
+    }
+
+    /**
+     * Fingerprint of class file bytes computed by {@link ClassFileFingerprint}. Fingerprints can be compared
+     * only with each other.
+     *
+     * @param bytes class file
+     * @param signatureElements signature elements
+     * @return 128-bit fingerprint in hex format
+     */
+    public static String getClassFileFingerprint(byte[] bytes, ClassSignatureElement[] signatureElements) throws Exception {
+        return ClassFileFingerprint.of(bytes, signatureElements);
+    }
+
+    /**
+     * Cached hash of the java class signature. Hashes can be compared with each other, not with signatures.
+     *
+     * @param clazz loaded class
+     * @param signatureElements signature elements
+     * @return 128-bit hash in hex format
+     */
+    public static String getJavaClassSignatureHash(Class<?> clazz, ClassSignatureElement[] signatureElements) throws Exception {
+        return getJavaSignatureHash(clazz, signatureElements).toString();
+    }
+
+    /**
+     * Invalidate cached signatures of the class. Must be called after the JVM committed (or rejected)
+     * a redefinition of the class, signatures are cached again from now on.
+     *
+     * @param clazz redefined class
+     */
+    public static void invalidate(Class<?> clazz) {
+        synchronized (javaSignatureHashes) {
+            javaSignatureHashes.remove(clazz);
+            loadedFingerprints.remove(clazz);
+            redefiningClasses.remove(clazz);
+        }
+    }
+
+    /**
+     * Invalidate cached signatures of a class transformed for redefinition. Until {@link #invalidate(Class)}
+     * is called after the redefinition, signatures of the class are computed on each call - the JVM commits
+     * the redefinition after the transformation and a concurrent lookup would cache the old signature again.
+     * If the agent does not learn the outcome (e.g. redefinition started by IDE), the class stays uncached.
+     *
+     * @param clazz class being redefined
+     */
+    public static void redefining(Class<?> clazz) {
+        synchronized (javaSignatureHashes) {
+            javaSignatureHashes.remove(clazz);
+            loadedFingerprints.remove(clazz);
+            redefiningClasses.add(clazz);
+        }
+    }
+
     /**
      * @param ctClass new CtClass definition
      * @param clazz old Class definition
@@ -52,9 +146,52 @@ public class ClassSignatureComparerHelper {
      */
     public static boolean isDifferent(CtClass ctClass, Class<?> clazz, ClassSignatureElement[] signatureElements) {
         try {
-            String sig1 = getCtClassSignature(ctClass, signatureElements);
-            String sig2 = getJavaClassSignature(clazz, signatureElements);
-            return !sig1.equals(sig2);
+            SignatureHash hash1 = SignatureHash.of(getCtClassSignature(ctClass, signatureElements));
+            SignatureHash hash2 = getJavaSignatureHash(clazz, signatureElements);
+            return !hash1.equals(hash2);
+        } catch (Exception e) {
+            LOGGER.error("Error reading signature", e);
+            return false;
+        }
+    }
+
+    /**
+     * If the class file of the loaded class is known to the agent, compares class file fingerprints. Otherwise
+     * compares signature of the class file with the cached signature of the loaded class.
+     *
+     * @param bytes new class file
+     * @param clazz old Class definition
+     * @return is signature different
+     */
+    public static boolean isDifferent(byte[] bytes, Class<?> clazz, ClassSignatureElement[] signatureElements) {
+        return isDifferent(bytes, clazz, null, signatureElements);
+    }
+
+    /**
+     * @param bytes new class file
+     * @param clazz old Class definition
+     * @param classPool pool to resolve annotations, if null a pool of the class' classloader is created on demand
+     * @return is signature different
+     * @see #isDifferent(byte[], Class, ClassSignatureElement[])
+     */
+    public static boolean isDifferent(byte[] bytes, Class<?> clazz, ClassPool classPool, ClassSignatureElement[] signatureElements) {
+        try {
+            byte[] loadedBytes = ClassChangeClassifier.getLoadedBytes(clazz);
+            if (loadedBytes != null) {
+                String fingerprint1 = ClassFileFingerprint.of(ClassChangeClassifier.getIncomingBytes(clazz, bytes), signatureElements);
+                String fingerprint2 = getLoadedFingerprint(clazz, loadedBytes, signatureElements);
+                return !fingerprint1.equals(fingerprint2);
+            }
+            if (classPool == null) {
+                classPool = new ClassPool();
+                classPool.appendSystemPath();
+                if (clazz.getClassLoader() != null) {
+                    classPool.appendClassPath(new LoaderClassPath(clazz.getClassLoader()));
+                }
+            }
+            SignatureHash hash1 = SignatureHash.of(getClassFileSignature(bytes, classPool, signatureElements));
+            SignatureHash hash2 = getJavaSignatureHash(clazz, signatureElements);
+            return !hash1.equals(hash2);
         } catch (Exception e) {
             LOGGER.error("Error reading signature", e);
             return false;
@@ -63,9 +200,9 @@ public class ClassSignatureComparerHelper {
 
     public static boolean isDifferent(Class<?> clazz1, Class<?> clazz2, ClassSignatureElement[] signatureElements) {
         try {
-            String sig1 = getJavaClassSignature(clazz1, signatureElements);
-            String sig2 = getJavaClassSignature(clazz2, signatureElements);
-            return !sig1.equals(sig2);
+            SignatureHash hash1 = getJavaSignatureHash(clazz1, signatureElements);
+            SignatureHash hash2 = getJavaSignatureHash(clazz2, signatureElements);
+            return !hash1.equals(hash2);
         } catch (Exception e) {
             LOGGER.error("Error reading signature", e);
             return false;
@@ -86,4 +223,102 @@ public class ClassSignatureComparerHelper {
         }
     }
 
+    private static SignatureHash getJavaSignatureHash(Class<?> clazz, ClassSignatureElement[] signatureElements) throws Exception {
+        Long mask = elementsMask(signatureElements);
+        synchronized (javaSignatureHashes) {
+            Map<Long, SignatureHash> hashes = javaSignatureHashes.get(clazz);
+            SignatureHash hash = hashes != null ? hashes.get(mask) : null;
+            if (hash != null) {
+                return hash;
+            }
+        }
+        // computed outside of the lock, concurrent computation gives the same result
+        SignatureHash hash = SignatureHash.of(getJavaClassSignature(clazz, signatureElements));
+        synchronized (javaSignatureHashes) {
+            if (redefiningClasses.contains(clazz)) {
+                return hash;
+            }
+            Map<Long, SignatureHash> hashes = javaSignatureHashes.get(clazz);
+            if (hashes == null) {
+                hashes = new HashMap<>();
+                javaSignatureHashes.put(clazz, hashes);
+            }
+            hashes.put(mask, hash);
+        }
+        return hash;
+    }
+
+    private static String getLoadedFingerprint(Class<?> clazz, byte[] loadedBytes, ClassSignatureElement[] signatureElements) throws Exception {
+        Long mask = elementsMask(signatureElements);
+        synchronized (javaSignatureHashes) {
+            Map<Long, String> fingerprints = loadedFingerprints.get(clazz);
+            String fingerprint = fingerprints != null ? fingerprints.get(mask) : null;
+            if (fingerprint != null) {
+                return fingerprint;
+            }
+        }
+        String fingerprint = ClassFileFingerprint.of(loadedBytes, signatureElements);
+        synchronized (javaSignatureHashes) {
+            if (redefiningClasses.contains(clazz)) {
+                return fingerprint;
+            }
+            Map<Long, String> fingerprints = loadedFingerprints.get(clazz);
+            if (fingerprints == null) {
+                fingerprints = new HashMap<>();
+                loadedFingerprints.put(clazz, fingerprints);
+            }
+            fingerprints.put(mask, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private static long elementsMask(ClassSignatureElement[] signatureElements) {
+        long mask = 0;
+        for (ClassSignatureElement element : signatureElements) {
+            mask |= 1L << element.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * 128-bit (MD5) hash of a signature.
+     */
+    private static final class SignatureHash {
+        private final long high;
+        private final long low;
+
+        private SignatureHash(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        static SignatureHash of(String signature) throws Exception {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(signature.getBytes(StandardCharsets.UTF_8));
+            long high = 0;
+            long low = 0;
+            for (int i = 0; i < 8; i++) {
+                high = (high << 8) | (digest[i] & 0xff);
+                low = (low << 8) | (digest[i + 8] & 0xff);
+            }
+            return new SignatureHash(high, low);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SignatureHash)) return false;
+            SignatureHash that = (SignatureHash) o;
+            return high == that.high && low == that.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high ^ (high >>> 32) ^ low ^ (low >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", high, low);
+        }
+    }
 }
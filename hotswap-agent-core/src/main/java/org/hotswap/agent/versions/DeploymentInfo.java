@@ -18,6 +18,11 @@
  */
 package org.hotswap.agent.versions;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -29,6 +34,7 @@ import java.util.Set;
 import java.util.jar.Manifest;
 
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.StartupCache;
 import org.hotswap.agent.util.spring.io.resource.Resource;
 import org.hotswap.agent.util.spring.path.PathMatchingResourcePatternResolver;
 
@@ -44,6 +50,9 @@ public class DeploymentInfo {
 
     /** The logger. */
     private static AgentLogger LOGGER = AgentLogger.getLogger(DeploymentInfo.class);
+    // startup cache entry kinds - maven infos and manifest of a JAR file
+    private static final String MAVEN_CACHE_KIND = "maven";
+    private static final String MANIFEST_CACHE_KIND = "manifest";
     
     /** The set of maven coordinates this deployment depends on. */
     private Set<MavenInfo> maven = new LinkedHashSet<>();
@@ -179,7 +188,15 @@ public class DeploymentInfo {
                 Enumeration<URL> urls = classloader.getResources("META-INF/maven/");
                 while (urls.hasMoreElements()) {
                     URL u = urls.nextElement();
+                    StartupCache startupCache = StartupCache.getInstance();
+                    File jarFile = startupCache != null ? StartupCache.toJarFile(u) : null;
                     try {
+                        byte[] cached = jarFile != null ? startupCache.get(MAVEN_CACHE_KIND, jarFile) : null;
+                        if (cached != null) {
+                            maven.addAll(readMavenInfos(cached));
+                            continue;
+                        }
+                        Set<MavenInfo> jarMaven = new LinkedHashSet<>();
                         Resource[] resources = resolver.getResources(u.toExternalForm() + "**/pom.properties");
                         if (resources != null) {
                             if(LOGGER.isDebugEnabled()){
@@ -188,10 +205,14 @@ public class DeploymentInfo {
                             for (Resource resource : resources) {
                                 MavenInfo m = getMavenInfo(resource);
                                 if (m != null) {
-                                    maven.add(m);
+                                    jarMaven.add(m);
                                 }
                             }
                         }
+                        maven.addAll(jarMaven);
+                        if (jarFile != null) {
+                            startupCache.put(MAVEN_CACHE_KIND, jarFile, writeMavenInfos(jarMaven));
+                        }
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -206,6 +227,37 @@ public class DeploymentInfo {
         }
     }
 
+    private static byte[] writeMavenInfos(Set<MavenInfo> infos) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (MavenInfo info : infos) {
+            writeNullable(out, info.getGroupId());
+            writeNullable(out, info.getArtifactId());
+            writeNullable(out, info.getVersion().getVersion());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Set<MavenInfo> readMavenInfos(byte[] data) throws IOException {
+        Set<MavenInfo> infos = new LinkedHashSet<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        while (in.available() > 0) {
+            infos.add(new MavenInfo(readNullable(in), readNullable(in), readNullable(in)));
+        }
+        return infos;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     /**
      * Gets the maven info.
      *
@@ -244,7 +296,24 @@ public class DeploymentInfo {
             Enumeration<URL> urls = classloader.getResources("META-INF/MANIFEST.MF");
             while (urls.hasMoreElements()) {
                 URL u = urls.nextElement();
+                StartupCache startupCache = StartupCache.getInstance();
+                File jarFile = startupCache != null ? StartupCache.toJarFile(u) : null;
                 try {
+                    byte[] cached = jarFile != null ? startupCache.get(MANIFEST_CACHE_KIND, jarFile) : null;
+                    if (cached != null) {
+                        manifests.add(new ManifestInfo(new Manifest(new ByteArrayInputStream(cached))));
+                        continue;
+                    }
+                    if (jarFile != null) {
+                        try (InputStream is = u.openStream()) {
+                            Manifest manifest = new Manifest(is);
+                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+                            manifest.write(out);
+                            startupCache.put(MANIFEST_CACHE_KIND, jarFile, out.toByteArray());
+                            manifests.add(new ManifestInfo(manifest));
+                        }
+                        continue;
+                    }
                     Resource[] resources = resolver.getResources(u.toExternalForm());
                     if (resources != null) {
                         if(LOGGER.isDebugEnabled()){
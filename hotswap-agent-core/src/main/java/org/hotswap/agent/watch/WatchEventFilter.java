@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.PathMatcher;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.hotswap.agent.annotation.FileEvent;
+
+/**
+ * Precompiled filter declared by a listener at registration time.
+ * <p/>
+ * The watcher applies the filter before it creates any event object or calls the listener, hence
+ * listeners interested only in a small subset of events (e.g. *.class files) do not pay for other events.
+ * <p/>
+ * Path may be filtered either by regexp matching whole URI string of the file (the same semantics as
+ * {@link org.hotswap.agent.annotation.OnResourceFileEvent#filter()}) or by glob matching the file path.
+ */
+public class WatchEventFilter {
+
+    private final Set<FileEvent> events;
+    private final boolean acceptDirectories;
+    private final Pattern uriPattern;
+    private final PathMatcher pathMatcher;
+
+    private WatchEventFilter(FileEvent[] events, boolean acceptDirectories, Pattern uriPattern, PathMatcher pathMatcher) {
+        this.events = events.length == 0 ? EnumSet.noneOf(FileEvent.class) : EnumSet.copyOf(Arrays.asList(events));
+        this.acceptDirectories = acceptDirectories;
+        this.uriPattern = uriPattern;
+        this.pathMatcher = pathMatcher;
+    }
+
+    /**
+     * Filter by event type and regexp on URI string.
+     *
+     * @param events            accepted event types
+     * @param uriRegexp         regexp to match whole URI string of the file, null or empty for any file
+     * @param acceptDirectories if false, events on directories are skipped
+     * @return the filter
+     */
+    public static WatchEventFilter ofRegexp(FileEvent[] events, String uriRegexp, boolean acceptDirectories) {
+        Pattern pattern = uriRegexp == null || uriRegexp.isEmpty() ? null : Pattern.compile(uriRegexp);
+        return new WatchEventFilter(events, acceptDirectories, pattern, null);
+    }
+
+    /**
+     * Filter by event type and glob on the file path.
+     *
+     * @param events            accepted event types
+     * @param glob              glob pattern (syntax of {@link java.nio.file.FileSystem#getPathMatcher(String)})
+     * @param acceptDirectories if false, events on directories are skipped
+     * @return the filter
+     */
+    public static WatchEventFilter ofGlob(FileEvent[] events, String glob, boolean acceptDirectories) {
+        PathMatcher matcher = glob == null || glob.isEmpty() ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        return new WatchEventFilter(events, acceptDirectories, null, matcher);
+    }
+
+    /**
+     * @param eventType type of the event
+     * @return true if the listener handles the event type
+     */
+    public boolean acceptEventType(FileEvent eventType) {
+        return events.contains(eventType);
+    }
+
+    /**
+     * @return false if events on directories should be skipped
+     */
+    public boolean isAcceptDirectories() {
+        return acceptDirectories;
+    }
+
+    /**
+     * @return true if {@link #acceptPath(Path, String)} requires URI string
+     */
+    public boolean isUriPatternDefined() {
+        return uriPattern != null;
+    }
+
+    /**
+     * @param path      the file path
+     * @param uriString URI string of the path, may be null if {@link #isUriPatternDefined()} is false
+     * @return true if the path matches the filter
+     */
+    public boolean acceptPath(Path path, String uriString) {
+        if (uriPattern != null && !uriPattern.matcher(uriString).matches()) {
+            return false;
+        }
+        if (pathMatcher != null && !pathMatcher.matches(path)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check already created event, for listeners called without the filter applied by the watcher.
+     *
+     * @param event the event
+     * @return true if the event matches the filter
+     */
+    public boolean accept(WatchFileEvent event) {
+        if (!acceptEventType(event.getEventType())) {
+            return false;
+        }
+        if (!acceptDirectories && event.isDirectory()) {
+            return false;
+        }
+        if (uriPattern != null && !uriPattern.matcher(event.getURI().toString()).matches()) {
+            return false;
+        }
+        if (pathMatcher != null && !pathMatcher.matches(Paths.get(event.getURI()))) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "WatchEventFilter{" +
+                "events=" + events +
+                ", acceptDirectories=" + acceptDirectories +
+                ", uriPattern=" + uriPattern +
+                '}';
+    }
+}
@@ -47,6 +47,18 @@ public interface Watcher {
      */
     void addEventListener(ClassLoader classLoader, URL pathPrefix, WatchEventListener listener);
 
+    /**
+     * Register listeners on an event. The listener is called only for events accepted by the filter, the filter
+     * is evaluated by the watcher before the event is created.
+     *
+     * @param classLoader the classloader to which this path is associated. May be null, but then this
+     *                    listener will never be disassociated (even if application is undeployed)
+     * @param pathPrefix where to listen
+     * @param filter     filter of events the listener is interested in, null for all events
+     * @param listener   the listener
+     */
+    void addEventListener(ClassLoader classLoader, URI pathPrefix, WatchEventFilter filter, WatchEventListener listener);
+
     /**
      * Remove all listeners registered with a classloader
      * @param classLoader classloadr to close
@@ -18,6 +18,10 @@
  */
 package org.hotswap.agent.watch;
 
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.watch.nio.AbstractNIO2Watcher;
+import org.hotswap.agent.watch.nio.BuildBatchWindow;
+import org.hotswap.agent.watch.nio.ContentDigestFilter;
 import org.hotswap.agent.watch.nio.TreeWatcherNIO;
 import org.hotswap.agent.watch.nio.WatcherNIO2;
 
@@ -56,16 +60,44 @@ public class WatcherFactory {
     }
 
     public Watcher getWatcher() throws IOException {
+        return getWatcher(null);
+    }
+
+    /**
+     * Create the watcher and set up optional event processing stages from agent configuration.
+     *
+     * @param configuration agent configuration, may be null to use defaults
+     * @return the watcher
+     * @throws IOException unable to create watch service
+     */
+    public Watcher getWatcher(PluginConfiguration configuration) throws IOException {
         if (JAVA_VERSION >= 1.7) {
+            AbstractNIO2Watcher watcher;
             if (IS_WINDOWS) {
-                return new TreeWatcherNIO();
+                watcher = new TreeWatcherNIO();
             } else {
-                return new WatcherNIO2();
+                watcher = new WatcherNIO2();
             }
+            if (configuration != null) {
+                configure(watcher, configuration);
+            }
+            return watcher;
         } else {
             throw new UnsupportedOperationException("Watcher is implemented only for Java 1.7 (NIO2). " +
                     "JNotify implementation should be added in the future for older Java version support.");
         }
 
     }
+
+    private void configure(AbstractNIO2Watcher watcher, PluginConfiguration configuration) {
+        if (configuration.getPropertyBoolean("watcher.contentDigest")) {
+            watcher.getDispatcher().setContentDigestFilter(new ContentDigestFilter());
+        }
+        if (configuration.getPropertyBoolean("watcher.batchWindow")) {
+            int burstThreshold = Integer.parseInt(configuration.getProperty("watcher.batchWindow.burstThreshold", "20"));
+            long quietPeriod = Long.parseLong(configuration.getProperty("watcher.batchWindow.quietPeriod", "500"));
+            boolean waitForMarker = configuration.getPropertyBoolean("watcher.batchWindow.waitForMarker");
+            watcher.getDispatcher().setBatchWindow(new BuildBatchWindow(burstThreshold, quietPeriod, waitForMarker));
+        }
+    }
 }
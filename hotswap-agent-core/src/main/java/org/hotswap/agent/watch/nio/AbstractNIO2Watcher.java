@@ -37,16 +37,24 @@ import java.nio.file.Paths;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.logging.AgentLogger.Level;
+import org.hotswap.agent.util.WeakRegistry;
+import org.hotswap.agent.watch.WatchEventFilter;
 import org.hotswap.agent.watch.WatchEventListener;
 import org.hotswap.agent.watch.Watcher;
 
@@ -66,6 +74,9 @@ public abstract class AbstractNIO2Watcher implements Watcher {
 
     protected final static WatchEvent.Kind<?>[] KINDS = new WatchEvent.Kind<?>[] { ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY };
 
+    // owner of keys registered without a classloader, such keys are never released
+    private static final Object NO_CLASSLOADER = new Object();
+
     protected WatchService watcher;
     protected final Map<WatchKey, Path> keys;
     private final Map<Path, List<WatchEventListener>> listeners = new ConcurrentHashMap<>();
@@ -73,6 +84,19 @@ public abstract class AbstractNIO2Watcher implements Watcher {
     // keep track about which classloader requested which event
     protected Map<WatchEventListener, ClassLoader> classLoaderListeners = new ConcurrentHashMap<>();
 
+    // filters declared by listeners on registration
+    private final Map<WatchEventListener, WatchEventFilter> listenerFilters = new ConcurrentHashMap<>();
+
+    // listeners registered by a classloader (path -> listener), removed together on closeClassLoader,
+    // listeners reference their classloader
+    private final WeakRegistry<ClassLoader, List<Entry<Path, WatchEventListener>>> ownerListeners =
+            WeakRegistry.classLoaderScoped("AbstractNIO2Watcher.ownerListeners");
+
+    // reference counting of watch keys - a key is cancelled when the last classloader which needs it is closed,
+    // owners are held weakly (keys of a collected classloader are not cancelled)
+    private final Map<WatchKey, Set<Object>> keyOwners = new HashMap<>();
+    private final WeakRegistry<Object, Set<WatchKey>> ownerKeys = new WeakRegistry<>("AbstractNIO2Watcher.ownerKeys");
+
     private Thread runner;
 
     private volatile boolean stopped;
@@ -82,7 +106,7 @@ public abstract class AbstractNIO2Watcher implements Watcher {
     public AbstractNIO2Watcher() throws IOException {
         this.watcher = FileSystems.getDefault().newWatchService();
         this.keys = new ConcurrentHashMap<>();
-        dispatcher = new EventDispatcher(listeners);
+        dispatcher = new EventDispatcher(listeners, listenerFilters);
     }
 
     @SuppressWarnings("unchecked")
@@ -91,7 +115,18 @@ public abstract class AbstractNIO2Watcher implements Watcher {
     }
 
     @Override
-    public synchronized void addEventListener(ClassLoader classLoader, URI pathPrefix, WatchEventListener listener) {
+    public void addEventListener(ClassLoader classLoader, URI pathPrefix, WatchEventListener listener) {
+        addEventListener(classLoader, pathPrefix, null, listener);
+    }
+
+    @Override
+    public synchronized void addEventListener(ClassLoader classLoader, URI pathPrefix, WatchEventFilter filter,
+                                              WatchEventListener listener) {
+        if (JarWatchRegistry.isJarURI(pathPrefix)) {
+            addJarEventListener(classLoader, pathPrefix, filter, listener);
+            return;
+        }
+
         File path;
         try {
             // check that it is regular file
@@ -107,8 +142,9 @@ public abstract class AbstractNIO2Watcher implements Watcher {
             return;
         }
 
+        Object owner = classLoader != null ? classLoader : NO_CLASSLOADER;
         try {
-            addDirectory(path.toPath());
+            registerAll(path.toPath(), Collections.singleton(owner));
         } catch (IOException e) {
             if (!LOGGER.isLevelEnabled(Level.TRACE)) {
                 LOGGER.warning("Unable to watch for path {}, not a local regular file or directory.", pathPrefix);
@@ -118,16 +154,56 @@ public abstract class AbstractNIO2Watcher implements Watcher {
             return;
         }
 
-        List<WatchEventListener> list = listeners.get(Paths.get(pathPrefix));
+        Path listenerPath = Paths.get(pathPrefix);
+        List<WatchEventListener> list = listeners.get(listenerPath);
         if (list == null) {
             list = new ArrayList<WatchEventListener>();
-            listeners.put(Paths.get(pathPrefix), list);
+            listeners.put(listenerPath, list);
         }
         list.add(listener);
 
-        if (classLoader != null) {
-            classLoaderListeners.put(listener, classLoader);
+        if (filter != null) {
+            listenerFilters.put(listener, filter);
+        }
+
+        registerOwnerListener(classLoader, listenerPath, listener);
+    }
+
+    /**
+     * Watch directory of the jar, listener is called for changed jar entries when the jar is replaced.
+     */
+    private void addJarEventListener(ClassLoader classLoader, URI jarUri, WatchEventFilter filter,
+                                     WatchEventListener listener) {
+        Object owner = classLoader != null ? classLoader : NO_CLASSLOADER;
+        Path jar;
+        try {
+            jar = JarWatchRegistry.getJarPath(jarUri);
+            registerAll(jar.getParent(), Collections.singleton(owner));
+            dispatcher.getJarWatchRegistry().addListener(jar, JarWatchRegistry.getEntryPrefix(jarUri), filter, listener);
+        } catch (IOException | IllegalArgumentException e) {
+            if (!LOGGER.isLevelEnabled(Level.TRACE)) {
+                LOGGER.warning("Unable to watch for jar {}, not a local readable jar file.", jarUri);
+            } else {
+                LOGGER.trace("Unable to watch jar '{}' for changes.", e, jarUri);
+            }
+            return;
+        }
+
+        registerOwnerListener(classLoader, jar, listener);
+    }
+
+    private void registerOwnerListener(ClassLoader classLoader, Path path, WatchEventListener listener) {
+        // listeners registered without a classloader are never removed
+        if (classLoader == null) {
+            return;
+        }
+        List<Entry<Path, WatchEventListener>> registered = ownerListeners.get(classLoader);
+        if (registered == null) {
+            registered = new ArrayList<>();
+            ownerListeners.put(classLoader, registered);
         }
+        registered.add(new SimpleImmutableEntry<>(path, listener));
+        classLoaderListeners.put(listener, classLoader);
     }
 
     @Override
@@ -144,69 +220,158 @@ public abstract class AbstractNIO2Watcher implements Watcher {
     }
 
     /**
-     * Remove all transformers registered with a classloader
+     * Remove all listeners registered with a classloader and cancel watch keys no other classloader needs.
+     * <p/>
+     * The watch service itself is shared and stays open, other classloaders are watched without interruption.
      *
      * @param classLoader
      */
     @Override
-    public void closeClassLoader(ClassLoader classLoader) {
-        for (Iterator<Entry<WatchEventListener, ClassLoader>> entryIterator = classLoaderListeners.entrySet().iterator(); entryIterator.hasNext();) {
-            Entry<WatchEventListener, ClassLoader> entry = entryIterator.next();
-            if (entry.getValue().equals(classLoader)) {
-                entryIterator.remove();
-                try {
-                    for (Iterator<Entry<Path, List<WatchEventListener>>> listenersIterator = listeners.entrySet().iterator(); listenersIterator.hasNext();) {
-                        Entry<Path, List<WatchEventListener>> pathListenerEntry = listenersIterator.next();
-                        List<WatchEventListener> l = pathListenerEntry.getValue();
-
-                        if (l != null) {
-                            l.remove(entry.getKey());
-                        }
-
-                        if (l == null || l.isEmpty()) {
-                            listenersIterator.remove();
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
+        List<Entry<Path, WatchEventListener>> registered = ownerListeners.remove(classLoader);
+        if (registered != null) {
+            ContentDigestFilter contentDigestFilter = dispatcher.getContentDigestFilter();
+            for (Entry<Path, WatchEventListener> entry : registered) {
+                WatchEventListener listener = entry.getValue();
+                classLoaderListeners.remove(listener);
+                listenerFilters.remove(listener);
+                dispatcher.getJarWatchRegistry().removeListener(listener);
+
+                List<WatchEventListener> l = listeners.get(entry.getKey());
+                if (l != null) {
+                    l.remove(listener);
+                    if (l.isEmpty()) {
+                        listeners.remove(entry.getKey());
+                        if (contentDigestFilter != null) {
+                            contentDigestFilter.remove(entry.getKey());
                         }
-
                     }
-                } catch (Exception e) {
-                    LOGGER.error("Ooops", e);
                 }
             }
         }
-        // cleanup...
-        if (classLoaderListeners.isEmpty()) {
-            listeners.clear();
-            for (WatchKey wk : keys.keySet()) {
-                try {
-                    wk.cancel();
-                } catch (Exception e) {
-                    LOGGER.error("Ooops", e);
+
+        int cancelled = releaseKeys(classLoader);
+        LOGGER.debug("All watch listeners removed for classLoader {}, {} watch keys cancelled.", classLoader, cancelled);
+    }
+
+    /**
+     * Returns the dispatcher of collected events.
+     */
+    public EventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Registers the given directory, the directory is watched until the watcher stops.
+     */
+    public void addDirectory(Path path) throws IOException {
+       registerAll(path, Collections.singleton(NO_CLASSLOADER));
+    }
+
+    /**
+     * Register the directory (and sub-directories) with the watch service.
+     *
+     * @param dir    the directory
+     * @param owners owners of the registration, pass to {@link #registerKey(WatchKey, Path, Collection)}
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    protected abstract void registerAll(final Path dir, Collection<Object> owners) throws IOException;
+
+    /**
+     * Store watch key returned by registration and acquire reference of each owner.
+     * Registering the same directory again returns the same key, hence one key may have more owners.
+     *
+     * @param key    the watch key
+     * @param dir    watched directory
+     * @param owners classloaders (or other owners) which need the key
+     */
+    protected synchronized void registerKey(WatchKey key, Path dir, Collection<Object> owners) {
+        keys.put(key, dir);
+        Set<Object> keyOwnerSet = keyOwners.get(key);
+        if (keyOwnerSet == null) {
+            keyOwnerSet = Collections.newSetFromMap(new WeakHashMap<Object, Boolean>());
+            keyOwners.put(key, keyOwnerSet);
+        }
+        for (Object owner : owners) {
+            if (keyOwnerSet.add(owner)) {
+                Set<WatchKey> ownerKeySet = ownerKeys.get(owner);
+                if (ownerKeySet == null) {
+                    ownerKeySet = new HashSet<>();
+                    ownerKeys.put(owner, ownerKeySet);
                 }
+                ownerKeySet.add(key);
             }
-            try {
-                this.watcher.close();
-            } catch (IOException e) {
-                LOGGER.error("Ooops", e);
+        }
+    }
+
+    /**
+     * Owners of the key, used to register new sub-directories on behalf of the same classloaders.
+     */
+    private synchronized Collection<Object> getKeyOwners(WatchKey key) {
+        Set<Object> keyOwnerSet = keyOwners.get(key);
+        return keyOwnerSet != null ? new ArrayList<>(keyOwnerSet) : Collections.singleton(NO_CLASSLOADER);
+    }
+
+    /**
+     * Release references of the owner and cancel keys without any other owner.
+     *
+     * @return number of cancelled keys
+     */
+    private synchronized int releaseKeys(Object owner) {
+        Set<WatchKey> ownerKeySet = ownerKeys.remove(owner);
+        if (ownerKeySet == null) {
+            return 0;
+        }
+        int cancelled = 0;
+        for (WatchKey key : ownerKeySet) {
+            Set<Object> keyOwnerSet = keyOwners.get(key);
+            if (keyOwnerSet != null) {
+                keyOwnerSet.remove(owner);
+                if (!keyOwnerSet.isEmpty()) {
+                    continue;
+                }
             }
-            LOGGER.info("All classloaders closed, released watch service..");
+            removeKey(key);
             try {
-                // Reset
-                this.watcher = FileSystems.getDefault().newWatchService();
-            } catch (IOException e) {
-                LOGGER.error("Ooops", e);
+                key.cancel();
+            } catch (Exception e) {
+                LOGGER.error("Unable to cancel watch key {}", e, key);
             }
+            cancelled++;
         }
-        LOGGER.debug("All watch listeners removed for classLoader {}", classLoader);
+        return cancelled;
     }
 
     /**
-     * Registers the given directory
+     * Forget the key (cancelled or no longer valid) including all references.
      */
-    public void addDirectory(Path path) throws IOException {
-       registerAll(path);
+    private synchronized void removeKey(WatchKey key) {
+        keys.remove(key);
+        Set<Object> keyOwnerSet = keyOwners.remove(key);
+        if (keyOwnerSet != null) {
+            for (Object owner : keyOwnerSet) {
+                Set<WatchKey> ownerKeySet = ownerKeys.get(owner);
+                if (ownerKeySet != null) {
+                    ownerKeySet.remove(key);
+                }
+            }
+        }
     }
 
-    protected abstract void registerAll(final Path dir) throws IOException;
+    /**
+     * Registered directory containing the path, used by watchers with recursive (file tree) keys.
+     *
+     * @return the key or null
+     */
+    protected WatchKey findKeyForPath(Path dir) {
+        for (Entry<WatchKey, Path> entry : keys.entrySet()) {
+            // This may NOT be correct for all cases (ensure resolve will work!)
+            if (dir.startsWith(entry.getValue())) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
 
     /**
      * Process all events for keys queued to the watcher
@@ -251,7 +416,7 @@ public abstract class AbstractNIO2Watcher implements Watcher {
             if (kind == ENTRY_CREATE) {
                 try {
                     if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
-                        registerAll(child);
+                        registerAll(child, getKeyOwners(key));
                     }
                 } catch (IOException x) {
                     LOGGER.warning("Unable to register events for directory {}", x, child);
@@ -260,20 +425,11 @@ public abstract class AbstractNIO2Watcher implements Watcher {
         }
 
         // reset key and remove from set if directory no longer accessible
+        // keep running even if no key is left, new directories may be registered by next classloader
         boolean valid = key.reset();
         if (!valid) {
             LOGGER.warning("Watcher on {} not valid, removing path=", keys.get(key));
-            keys.remove(key);
-            // all directories are inaccessible
-            if (keys.isEmpty()) {
-                return false;
-            }
-            if (classLoaderListeners.isEmpty()) {
-                for (WatchKey k : keys.keySet()) {
-                    k.cancel();
-                }
-                return false;
-            }
+            removeKey(key);
         }
         return true;
     }
@@ -325,4 +481,4 @@ public abstract class AbstractNIO2Watcher implements Watcher {
             return null;
         }
     }
-}
\ No newline at end of file
+}
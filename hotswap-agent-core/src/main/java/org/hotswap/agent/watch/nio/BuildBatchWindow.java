@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.watch.nio.EventDispatcher.Event;
+
+/**
+ * Hold file events while a build writes its output and release them as a single change set.
+ * <p/>
+ * When Maven/Gradle/javac writes hundreds of class files, dispatching events as they come would start
+ * redefinition and framework refresh while the build is still writing (and then do it all again).
+ * The window detects a burst by event rate - at least burstThreshold events collected without
+ * a quiet period. In burst, events are held until no event arrives for quietPeriod, or until
+ * the build creates/touches the {@link #BUILD_COMPLETE_MARKER} file in a watched directory.
+ * <p/>
+ * Outside of a burst events are released after a short settle period, which is enough to recognize
+ * beginning of a burst without delaying single file changes noticeably.
+ * <p/>
+ * All released events are dispatched in the same dispatcher cycle, so the resulting commands are
+ * scheduled together and merged into one hotswap command (i.e. one redefineClasses call).
+ * <p/>
+ * Not thread safe, used only from the dispatcher thread.
+ */
+public class BuildBatchWindow {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(BuildBatchWindow.class);
+
+    /**
+     * Build tool may create (or touch) this file in a watched directory after all output is written
+     * to release the batch immediately.
+     */
+    public static final String BUILD_COMPLETE_MARKER = ".hotswap-build-complete";
+
+    /** Release events at latest after this time to avoid holding them forever on continuous writes. */
+    static final long MAX_HOLD_TIME = 30000;
+
+    /** Hold events outside of burst for this time to recognize beginning of a burst. */
+    static final long SETTLE_PERIOD = 100;
+
+    private final int burstThreshold;
+    private final long quietPeriod;
+    private final boolean waitForMarker;
+
+    private final List<Event> pending = new ArrayList<>();
+    private long lastEventTime;
+    private long burstStart;
+    private boolean burst;
+    private boolean markerSeen;
+
+    /**
+     * @param burstThreshold number of events without quiet period considered as a build burst
+     * @param quietPeriod    the burst ends after this time (ms) without new events
+     * @param waitForMarker  in burst, wait for BUILD_COMPLETE_MARKER instead of quiet period
+     */
+    public BuildBatchWindow(int burstThreshold, long quietPeriod, boolean waitForMarker) {
+        this.burstThreshold = burstThreshold;
+        this.quietPeriod = quietPeriod;
+        this.waitForMarker = waitForMarker;
+    }
+
+    /**
+     * Add events collected by the dispatcher.
+     *
+     * @param events new events
+     * @param now    current time in ms
+     */
+    public void add(List<Event> events, long now) {
+        if (events.isEmpty()) {
+            return;
+        }
+        for (Event e : events) {
+            if (isMarker(e.path)) {
+                markerSeen = true;
+            } else {
+                pending.add(e);
+            }
+        }
+        lastEventTime = now;
+        if (!burst && pending.size() >= burstThreshold) {
+            burst = true;
+            burstStart = now;
+            LOGGER.debug("Build output burst detected, holding file events until the build is quiet.");
+        }
+    }
+
+    /**
+     * Return events ready to dispatch.
+     *
+     * @param now current time in ms
+     * @return events to dispatch or empty list if the events are held
+     */
+    public List<Event> release(long now) {
+        if (pending.isEmpty()) {
+            burst = false;
+            markerSeen = false;
+            return Collections.emptyList();
+        }
+
+        boolean holdExpired = burst && now - burstStart >= MAX_HOLD_TIME;
+        if (!markerSeen && !holdExpired) {
+            if (now - lastEventTime < (burst ? quietPeriod : SETTLE_PERIOD)) {
+                return Collections.emptyList();
+            }
+            if (burst && waitForMarker) {
+                return Collections.emptyList();
+            }
+        }
+
+        if (burst) {
+            LOGGER.debug("Build output burst finished, releasing {} file events as one batch.", pending.size());
+        }
+        List<Event> result = new ArrayList<>(pending);
+        pending.clear();
+        burst = false;
+        markerSeen = false;
+        return result;
+    }
+
+    /**
+     * @return true if the window is holding events of a build burst
+     */
+    public boolean isBurst() {
+        return burst;
+    }
+
+    static boolean isMarker(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null && BUILD_COMPLETE_MARKER.equals(fileName.toString());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Drop file events which do not change the file content.
+ * <p/>
+ * Build tools and IDEs often rewrite class and resource files with identical content (e.g. Gradle up-to-date
+ * outputs, "save all" in IDE). The filter remembers the last content digest per file and rejects events
+ * whose content digest did not change. The first event for a file is always accepted, because the previous
+ * content is not known.
+ * <p/>
+ * Files are streamed through a small buffer (no memory mapping, which would keep the file locked on Windows).
+ * Digests of at most maxEntries files are kept, the least recently changed are forgotten - the next event for
+ * such file is accepted.
+ */
+public class ContentDigestFilter {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ContentDigestFilter.class);
+
+    /** Default number of files with known digest. */
+    public static final int DEFAULT_MAX_ENTRIES = 20000;
+
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final String DIGEST_ALGORITHM = "MD5";
+
+    private final int maxEntries;
+
+    // path -> last known digest of the content, access ordered, guarded by itself
+    private final Map<Path, byte[]> digests;
+
+    public ContentDigestFilter() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries max number of files with known digest
+     */
+    public ContentDigestFilter(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.digests = new LinkedHashMap<Path, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, byte[]> eldest) {
+                return size() > ContentDigestFilter.this.maxEntries;
+            }
+        };
+        // fail fast
+        newMessageDigest();
+    }
+
+    /**
+     * Check if the event should be dispatched to listeners.
+     *
+     * @param kind event kind
+     * @param path file or directory with the event
+     * @return false if the file content is the same as on previous event
+     */
+    public boolean accept(WatchEvent.Kind<?> kind, Path path) {
+        if (kind == ENTRY_DELETE) {
+            synchronized (digests) {
+                digests.remove(path);
+            }
+            return true;
+        }
+
+        if (!Files.isRegularFile(path)) {
+            return true;
+        }
+
+        byte[] digest;
+        try {
+            digest = digest(path);
+        } catch (IOException e) {
+            // file is probably just being rewritten, do not filter
+            LOGGER.trace("Unable to compute digest of {}", e, path);
+            synchronized (digests) {
+                digests.remove(path);
+            }
+            return true;
+        }
+
+        byte[] previous;
+        synchronized (digests) {
+            previous = digests.put(path, digest);
+        }
+        if (previous != null && MessageDigest.isEqual(previous, digest)) {
+            LOGGER.trace("Skipping event {} on {}, content not changed.", kind.name(), path);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forget digests of all files under the path.
+     *
+     * @param pathPrefix directory no longer watched
+     */
+    public void remove(Path pathPrefix) {
+        synchronized (digests) {
+            for (Iterator<Path> it = digests.keySet().iterator(); it.hasNext(); ) {
+                if (it.next().startsWith(pathPrefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of files with known digest
+     */
+    public int size() {
+        synchronized (digests) {
+            return digests.size();
+        }
+    }
+
+    /**
+     * Compute digest of the file content. Called concurrently, each call uses its own digest and buffer.
+     */
+    byte[] digest(Path path) throws IOException {
+        MessageDigest messageDigest = newMessageDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+        return messageDigest.digest();
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Digest algorithm " + DIGEST_ALGORITHM + " not available.", e);
+        }
+    }
+}
@@ -18,14 +18,18 @@
  */
 package org.hotswap.agent.watch.nio;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 
+import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.watch.WatchEventFilter;
 import org.hotswap.agent.watch.WatchEventListener;
 import org.hotswap.agent.watch.WatchFileEvent;
 
@@ -73,12 +77,24 @@ public class EventDispatcher implements Runnable {
     /** The map of listeners.  This is managed by the watcher service*/
     private final Map<Path, List<WatchEventListener>> listeners;
 
+    /** Filters declared by listeners. This is managed by the watcher service*/
+    private final Map<WatchEventListener, WatchEventFilter> listenerFilters;
+
     /** The working queue. The event queue is drained and all pending events are added in this list */
     private final ArrayList<Event> working = new ArrayList<>();
 
     /** The runnable. */
     private Thread runnable = null;
 
+    /** Optional filter of events not changing file content (null if disabled). */
+    private volatile ContentDigestFilter contentDigestFilter;
+
+    /** Optional window holding events of build output bursts (null if disabled). */
+    private volatile BuildBatchWindow batchWindow;
+
+    /** Listeners on jar files, called for changed jar entries. */
+    private final JarWatchRegistry jarWatchRegistry = new JarWatchRegistry();
+
     /**
      * Instantiates a new event dispatcher.
      *
@@ -86,8 +102,21 @@ public class EventDispatcher implements Runnable {
      *            the listeners
      */
     public EventDispatcher(Map<Path, List<WatchEventListener>> listeners) {
+        this(listeners, Collections.<WatchEventListener, WatchEventFilter>emptyMap());
+    }
+
+    /**
+     * Instantiates a new event dispatcher.
+     *
+     * @param listeners
+     *            the listeners
+     * @param listenerFilters
+     *            filters declared by listeners
+     */
+    public EventDispatcher(Map<Path, List<WatchEventListener>> listeners, Map<WatchEventListener, WatchEventFilter> listenerFilters) {
         super();
         this.listeners = listeners;
+        this.listenerFilters = listenerFilters;
     }
 
     /** The event queue. */
@@ -111,7 +140,7 @@ public class EventDispatcher implements Runnable {
         while (true) {
             // finish any pending ones
             for (Event e : working) {
-                callListeners(e.event, e.path);
+                dispatch(e);
                 if (Thread.interrupted()) {
                     return;
                 }
@@ -120,9 +149,18 @@ public class EventDispatcher implements Runnable {
             // drain the event queue
             eventQueue.drainTo(working);
 
+            // optionally hold events while build output is being written
+            BuildBatchWindow window = batchWindow;
+            if (window != null) {
+                long now = System.currentTimeMillis();
+                window.add(working, now);
+                working.clear();
+                working.addAll(window.release(now));
+            }
+
             // work on new events.
             for (Event e : working) {
-                callListeners(e.event, e.path);
+                dispatch(e);
                 if (Thread.interrupted()) {
                     return;
                 }
@@ -153,6 +191,63 @@ public class EventDispatcher implements Runnable {
         eventQueue.offer(new Event(event, path));
     }
 
+    /**
+     * Sets the content digest filter.
+     *
+     * @param contentDigestFilter
+     *            the filter, null to disable content deduplication
+     */
+    public void setContentDigestFilter(ContentDigestFilter contentDigestFilter) {
+        this.contentDigestFilter = contentDigestFilter;
+    }
+
+    /**
+     * Gets the content digest filter.
+     *
+     * @return the filter or null if disabled
+     */
+    public ContentDigestFilter getContentDigestFilter() {
+        return contentDigestFilter;
+    }
+
+    /**
+     * Sets the build batch window.
+     *
+     * @param batchWindow
+     *            the window, null to dispatch events immediately
+     */
+    public void setBatchWindow(BuildBatchWindow batchWindow) {
+        this.batchWindow = batchWindow;
+    }
+
+    /**
+     * Gets the registry of listeners on jar files.
+     *
+     * @return the registry
+     */
+    public JarWatchRegistry getJarWatchRegistry() {
+        return jarWatchRegistry;
+    }
+
+    /**
+     * Pass the event through optional filters and call the listeners.
+     *
+     * @param e
+     *            the event
+     */
+    private void dispatch(Event e) {
+        ContentDigestFilter filter = contentDigestFilter;
+        if (filter != null && !filter.accept(e.event.kind(), e.path)) {
+            return;
+        }
+        boolean matchedJar = jarWatchRegistry.dispatch(e.event.kind(), e.path);
+        boolean matchedOne = callListeners(e.event, e.path);
+        // other files in a directory watched because of a jar are expected
+        if (!matchedOne && !matchedJar && !jarWatchRegistry.isJarDirectory(e.path.getParent())) {
+            LOGGER.error("No match for  watch event '{}',  path '{}'", e.event, e.path);
+        }
+    }
+
     /**
      * Call the listeners.
      * Listeners are organized per path in a Map. The number of paths is low so a simple iteration should be fast enough.
@@ -161,15 +256,30 @@ public class EventDispatcher implements Runnable {
      *            the event
      * @param path
      *            the path
+     * @return true if any listener path matched
      */
     // notify listeners about new event
-    private void callListeners(final WatchEvent<?> event, final Path path) {
+    private boolean callListeners(final WatchEvent<?> event, final Path path) {
         boolean matchedOne = false;
+        EventAttributes attributes = null;
+        WatchFileEvent agentEvent = null;
         for (Map.Entry<Path, List<WatchEventListener>> list : listeners.entrySet()) {
             if (path.startsWith(list.getKey())) {
                 matchedOne = true;
                 for (WatchEventListener listener : new ArrayList<>(list.getValue())) {
-                    WatchFileEvent agentEvent = new HotswapWatchFileEvent(event, path);
+                    WatchEventFilter filter = listenerFilters.get(listener);
+                    if (filter != null) {
+                        if (attributes == null) {
+                            attributes = new EventAttributes(event, path);
+                        }
+                        if (!attributes.accept(filter)) {
+                            continue;
+                        }
+                    }
+                    // the event is immutable, share single instance between listeners
+                    if (agentEvent == null) {
+                        agentEvent = new HotswapWatchFileEvent(event, path);
+                    }
                     try {
                         listener.onEvent(agentEvent);
                     } catch (Throwable e) {
@@ -179,8 +289,43 @@ public class EventDispatcher implements Runnable {
                 }
             }
         }
-        if (!matchedOne) {
-            LOGGER.error("No match for  watch event '{}',  path '{}'", event, path);
+        return matchedOne;
+    }
+
+    /**
+     * Event attributes evaluated lazily and at most once for all listener filters.
+     */
+    private static class EventAttributes {
+        private final WatchEvent<?> event;
+        private final Path path;
+        private FileEvent eventType;
+        private Boolean directory;
+        private String uriString;
+
+        EventAttributes(WatchEvent<?> event, Path path) {
+            this.event = event;
+            this.path = path;
+        }
+
+        boolean accept(WatchEventFilter filter) {
+            if (eventType == null) {
+                eventType = HotswapWatchFileEvent.toAgentEvent(event.kind());
+            }
+            if (!filter.acceptEventType(eventType)) {
+                return false;
+            }
+            if (!filter.isAcceptDirectories()) {
+                if (directory == null) {
+                    directory = Files.isDirectory(path);
+                }
+                if (directory) {
+                    return false;
+                }
+            }
+            if (filter.isUriPatternDefined() && uriString == null) {
+                uriString = path.toUri().toString();
+            }
+            return filter.acceptPath(path, uriString);
         }
     }
 
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.hotswap.agent.annotation.FileEvent;
+
+/**
+ * Index of jar file entries (name, CRC, size) read from the central directory.
+ * <p/>
+ * Entry content is not inflated, hence the index is cheap to build even for a large jar. Index of the
+ * replaced jar is compared with the previous one to find entries which really changed.
+ */
+public class JarEntryIndex {
+
+    // entry name -> {crc, size}
+    private final Map<String, long[]> entries;
+
+    JarEntryIndex(Map<String, long[]> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Read the central directory of the jar.
+     *
+     * @param jar the jar file
+     * @return the index
+     * @throws IOException jar does not exist or is not complete (e.g. it is still being written)
+     */
+    public static JarEntryIndex read(Path jar) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            Map<String, long[]> entries = new HashMap<>(zipFile.size() * 4 / 3 + 1);
+            Enumeration<? extends ZipEntry> en = zipFile.entries();
+            while (en.hasMoreElements()) {
+                ZipEntry entry = en.nextElement();
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), new long[]{entry.getCrc(), entry.getSize()});
+                }
+            }
+            return new JarEntryIndex(entries);
+        }
+    }
+
+    /**
+     * Compare with index of the newer jar.
+     *
+     * @param newer index of the replaced jar
+     * @return changed entries sorted by name (CREATE, MODIFY or DELETE)
+     */
+    public Map<String, FileEvent> diff(JarEntryIndex newer) {
+        Map<String, FileEvent> changes = new TreeMap<>();
+        for (Map.Entry<String, long[]> entry : newer.entries.entrySet()) {
+            long[] previous = entries.get(entry.getKey());
+            if (previous == null) {
+                changes.put(entry.getKey(), FileEvent.CREATE);
+            } else if (previous[0] != entry.getValue()[0] || previous[1] != entry.getValue()[1]) {
+                changes.put(entry.getKey(), FileEvent.MODIFY);
+            }
+        }
+        for (String name : entries.keySet()) {
+            if (!newer.entries.containsKey(name)) {
+                changes.put(name, FileEvent.DELETE);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return number of file entries
+     */
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import java.net.URI;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.hotswap.agent.watch.WatchFileEvent;
+
+/**
+ * Change of a jar entry found by comparison of the replaced jar with its previous index.
+ * <p/>
+ * URI of the event is jar URI of the entry (jar:file:/...!/entry).
+ */
+public class JarEntryWatchFileEvent implements WatchFileEvent {
+
+    private final URI uri;
+    private final FileEvent eventType;
+
+    public JarEntryWatchFileEvent(URI uri, FileEvent eventType) {
+        this.uri = uri;
+        this.eventType = eventType;
+    }
+
+    @Override
+    public FileEvent getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public URI getURI() {
+        return uri;
+    }
+
+    @Override
+    public boolean isFile() {
+        // directory entries are not indexed
+        return true;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "WatchFileEvent on jar entry " + uri + " for event " + eventType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        JarEntryWatchFileEvent that = (JarEntryWatchFileEvent) o;
+
+        return eventType == that.eventType && uri.equals(that.uri);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = eventType.hashCode();
+        result = 31 * result + uri.hashCode();
+        return result;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.watch.WatchEventFilter;
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchFileEvent;
+
+/**
+ * Listeners registered on jar files (or on a directory inside a jar).
+ * <p/>
+ * The watcher watches directory of the jar. When the jar is replaced, its central directory is compared
+ * with in-memory {@link JarEntryIndex} and listeners are called only for changed entries. All events of
+ * one jar replacement are dispatched at once, hence class redefinitions are merged by the scheduler into
+ * a single batch.
+ */
+public class JarWatchRegistry {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(JarWatchRegistry.class);
+
+    private static final String JAR_URL_SEPARATOR = "!/";
+
+    private final Map<Path, WatchedJar> jars = new ConcurrentHashMap<>();
+
+    /**
+     * Check if the URI points to a jar file or a directory inside a jar file.
+     *
+     * @param uri the URI
+     * @return true for jar:file:/...!/... or file:/....jar URIs
+     */
+    public static boolean isJarURI(URI uri) {
+        if ("jar".equals(uri.getScheme())) {
+            return uri.getRawSchemeSpecificPart().startsWith("file:") && uri.getRawSchemeSpecificPart().contains(JAR_URL_SEPARATOR);
+        }
+        return "file".equals(uri.getScheme()) && uri.getPath() != null && uri.getPath().toLowerCase().endsWith(".jar");
+    }
+
+    /**
+     * Jar file path of jar URI.
+     *
+     * @param uri jar URI, see {@link #isJarURI(URI)}
+     * @return path of the jar file
+     */
+    public static Path getJarPath(URI uri) {
+        if ("jar".equals(uri.getScheme())) {
+            String ssp = uri.getRawSchemeSpecificPart();
+            return Paths.get(URI.create(ssp.substring(0, ssp.indexOf(JAR_URL_SEPARATOR))));
+        }
+        return Paths.get(uri);
+    }
+
+    /**
+     * Entry prefix of jar URI.
+     *
+     * @param uri jar URI, see {@link #isJarURI(URI)}
+     * @return decoded entry name prefix, empty string for whole jar
+     */
+    public static String getEntryPrefix(URI uri) {
+        if ("jar".equals(uri.getScheme())) {
+            String ssp = uri.getRawSchemeSpecificPart();
+            String rawPrefix = ssp.substring(ssp.indexOf(JAR_URL_SEPARATOR) + JAR_URL_SEPARATOR.length());
+            return URI.create(rawPrefix).getPath();
+        }
+        return "";
+    }
+
+    /**
+     * Add listener on the jar. Index of the jar is created on first registration.
+     *
+     * @param jar         the jar file
+     * @param entryPrefix only entries starting with this prefix, empty string for all entries
+     * @param filter      the filter or null
+     * @param listener    the listener
+     * @throws IOException unable to read the jar
+     */
+    public synchronized void addListener(Path jar, String entryPrefix, WatchEventFilter filter, WatchEventListener listener)
+            throws IOException {
+        WatchedJar watchedJar = jars.get(jar);
+        if (watchedJar == null) {
+            watchedJar = new WatchedJar(jar.toUri(), JarEntryIndex.read(jar));
+            jars.put(jar, watchedJar);
+            LOGGER.debug("Watching jar {} with {} entries.", jar, watchedJar.index.size());
+        }
+        watchedJar.listeners.add(new JarListener(entryPrefix, filter, listener));
+    }
+
+    /**
+     * Remove the listener from all jars, jar without any listener is not watched anymore.
+     *
+     * @param listener the listener
+     */
+    public synchronized void removeListener(WatchEventListener listener) {
+        for (Iterator<WatchedJar> it = jars.values().iterator(); it.hasNext();) {
+            WatchedJar watchedJar = it.next();
+            for (JarListener jarListener : watchedJar.listeners) {
+                if (jarListener.listener == listener) {
+                    watchedJar.listeners.remove(jarListener);
+                }
+            }
+            if (watchedJar.listeners.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param dir directory
+     * @return true if the directory was registered only to watch a jar, other files in it may be ignored
+     */
+    public boolean isJarDirectory(Path dir) {
+        if (dir == null || jars.isEmpty()) {
+            return false;
+        }
+        for (Path jar : jars.keySet()) {
+            if (dir.equals(jar.getParent())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handle filesystem event. If the path is watched jar, call listeners for changed entries.
+     *
+     * @param kind event kind
+     * @param path path of the event
+     * @return true if the path is a watched jar
+     */
+    public boolean dispatch(WatchEvent.Kind<?> kind, Path path) {
+        WatchedJar watchedJar = jars.get(path);
+        if (watchedJar == null) {
+            return false;
+        }
+
+        // the jar is usually replaced by delete/create sequence, keep the index to compare with new content
+        if (kind == ENTRY_DELETE) {
+            return true;
+        }
+
+        JarEntryIndex index;
+        try {
+            index = JarEntryIndex.read(path);
+        } catch (IOException e) {
+            LOGGER.trace("Jar {} is not readable (write in progress?), waiting for next event.", e, path);
+            return true;
+        }
+
+        Map<String, FileEvent> changes = watchedJar.index.diff(index);
+        watchedJar.index = index;
+        if (changes.isEmpty()) {
+            LOGGER.trace("Jar {} replaced without any entry change.", path);
+            return true;
+        }
+
+        LOGGER.debug("Jar {} replaced, {} changed entries.", path, changes.size());
+        for (Map.Entry<String, FileEvent> change : changes.entrySet()) {
+            callListeners(watchedJar, change.getKey(), change.getValue());
+        }
+        return true;
+    }
+
+    private void callListeners(WatchedJar watchedJar, String entryName, FileEvent eventType) {
+        WatchFileEvent agentEvent = null;
+        String uriString = null;
+        for (JarListener jarListener : watchedJar.listeners) {
+            if (!entryName.startsWith(jarListener.entryPrefix)) {
+                continue;
+            }
+            if (uriString == null) {
+                uriString = watchedJar.entryUri(entryName);
+            }
+            WatchEventFilter filter = jarListener.filter;
+            if (filter != null && (!filter.acceptEventType(eventType) || !filter.acceptPath(Paths.get(entryName), uriString))) {
+                continue;
+            }
+            if (agentEvent == null) {
+                agentEvent = new JarEntryWatchFileEvent(URI.create(uriString), eventType);
+            }
+            try {
+                jarListener.listener.onEvent(agentEvent);
+            } catch (Throwable e) {
+                LOGGER.error("Error in watch event '{}' listener '{}'", e, agentEvent, jarListener.listener);
+            }
+        }
+    }
+
+    private static class WatchedJar {
+        private final String uriPrefix;
+        private final List<JarListener> listeners = new CopyOnWriteArrayList<>();
+        // replaced only by dispatcher thread
+        private volatile JarEntryIndex index;
+
+        WatchedJar(URI jarUri, JarEntryIndex index) {
+            this.uriPrefix = "jar:" + jarUri.toString() + JAR_URL_SEPARATOR;
+            this.index = index;
+        }
+
+        String entryUri(String entryName) {
+            try {
+                return uriPrefix + new URI(null, null, entryName, null).getRawPath();
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("Invalid jar entry name " + entryName, e);
+            }
+        }
+    }
+
+    private static class JarListener {
+        private final String entryPrefix;
+        private final WatchEventFilter filter;
+        private final WatchEventListener listener;
+
+        JarListener(String entryPrefix, WatchEventFilter filter, WatchEventListener listener) {
+            this.entryPrefix = entryPrefix;
+            this.filter = filter;
+            this.listener = listener;
+        }
+    }
+}
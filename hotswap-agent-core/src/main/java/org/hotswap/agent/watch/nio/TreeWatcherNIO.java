@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
+import java.util.Collection;
 
 /**
  * <p>
@@ -67,16 +68,17 @@ public class TreeWatcherNIO extends AbstractNIO2Watcher {
      * Register the given directory with the WatchService.
      *
      * @param dir the directory to register watch on
+     * @param owners owners of the registration
      * @throws IOException Signals that an I/O exception has occurred.
      */
-    private void register(Path dir) throws IOException {
+    private void register(Path dir, Collection<Object> owners) throws IOException {
 
-        for(Path p: keys.values()) {
-            // This may NOT be correct for all cases (ensure resolve will work!)
-            if(dir.startsWith(p)) {
-                LOGGER.debug("Path {} watched via {}", dir, p);
-                return;
-            }
+        WatchKey existing = findKeyForPath(dir);
+        if (existing != null) {
+            LOGGER.debug("Path {} watched via {}", dir, keys.get(existing));
+            // the tree key is shared, the owner keeps it alive
+            registerKey(existing, keys.get(existing), owners);
+            return;
         }
 
         if (FILE_TREE == null) {
@@ -87,7 +89,7 @@ public class TreeWatcherNIO extends AbstractNIO2Watcher {
 
         final WatchKey key = dir.register(watcher, KINDS,  MODIFIERS);
 
-        keys.put(key, dir);
+        registerKey(key, dir, owners);
     }
 
     /**
@@ -95,11 +97,12 @@ public class TreeWatcherNIO extends AbstractNIO2Watcher {
      * WatchService. Sub-directories are automatically watched (filesystem supported)
      *
      * @param dir the dir
+     * @param owners owners of the registration
      * @throws IOException Signals that an I/O exception has occurred.
      */
     @Override
-    protected void registerAll(Path dir) throws IOException {
+    protected void registerAll(Path dir, Collection<Object> owners) throws IOException {
         LOGGER.info("Registering directory {} ", dir);
-        register(dir);
+        register(dir, owners);
     }
-}
\ No newline at end of file
+}
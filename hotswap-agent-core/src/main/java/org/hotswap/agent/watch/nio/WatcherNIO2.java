@@ -27,6 +27,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
 import java.util.EnumSet;
 
 /**
@@ -51,14 +52,14 @@ public class WatcherNIO2 extends AbstractNIO2Watcher {
     }
 
     @Override
-    protected void registerAll(final Path dir) throws IOException {
+    protected void registerAll(final Path dir, final Collection<Object> owners) throws IOException {
         // register directory and sub-directories
         LOGGER.debug("Registering directory  {}", dir);
 
         Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                register(dir);
+                register(dir, owners);
                 return FileVisitResult.CONTINUE;
             }
         });
@@ -67,9 +68,9 @@ public class WatcherNIO2 extends AbstractNIO2Watcher {
     /**
      * Register the given directory with the WatchService
      */
-    private void register(Path dir) throws IOException {
+    private void register(Path dir, Collection<Object> owners) throws IOException {
         // try to set high sensitivity
         final WatchKey key = HIGH == null ? dir.register(watcher, KINDS) : dir.register(watcher, KINDS, HIGH);
-        keys.put(key, dir);
+        registerKey(key, dir, owners);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hotswap.agent.util.scanner.PluginIndex;
+import org.junit.Test;
+
+public class LazyPluginActivatorTest {
+
+    final List<String> activated = new ArrayList<>();
+
+    PluginRegistry pluginRegistry = new PluginRegistry(PluginManager.getInstance(), null) {
+        @Override
+        public void activatePlugin(String pluginClassName) {
+            activated.add(pluginClassName);
+        }
+    };
+
+    LazyPluginActivator activator = new LazyPluginActivator(pluginRegistry);
+
+    @Test
+    public void activateOnFirstTriggerClass() throws Exception {
+        PluginIndex index = PluginIndex.read(new ByteArrayInputStream((
+                "plugin\torg.example.FooPlugin\tFoo\n" +
+                "trigger\torg.example.foo.Factory\n" +
+                "trigger\torg.example.foo.Config\n" +
+                "activation\tlazy\n" +
+                "plugin\torg.example.BarPlugin\tBar\n" +
+                "trigger\torg.example.bar.*\n" +
+                "activation\tlazy\n").getBytes(StandardCharsets.UTF_8)));
+        for (PluginIndex.Entry entry : index.getEntries()) {
+            activator.register(entry);
+        }
+        assertEquals(2, activator.getPendingPluginCount());
+
+        activator.activate("org/example/Other", null);
+        assertEquals(0, activated.size());
+
+        activator.activate("org/example/foo/Config", null);
+        activator.activate("org/example/foo/Factory", null);
+        assertEquals(Arrays.asList("org.example.FooPlugin"), activated);
+        assertEquals(1, activator.getPendingPluginCount());
+
+        activator.activate(null, String.class);
+        activator.activate("org/example/bar/Service", null);
+        assertEquals(Arrays.asList("org.example.FooPlugin", "org.example.BarPlugin"), activated);
+        assertEquals(0, activator.getPendingPluginCount());
+        assertEquals(2, activator.getActivatedPluginCount());
+    }
+
+    @Test
+    public void nonTriggerClassDoesNotLock() throws Exception {
+        PluginIndex index = PluginIndex.read(new ByteArrayInputStream((
+                "plugin\torg.example.FooPlugin\tFoo\n" +
+                "trigger\torg.example.foo.Factory\n" +
+                "activation\tlazy\n").getBytes(StandardCharsets.UTF_8)));
+        activator.register(index.getEntries().get(0));
+
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                activator.activate("org/example/Other", null);
+                activator.activate(null, String.class);
+            }
+        };
+        synchronized (activator) {
+            loader.start();
+            loader.join(5000);
+            assertFalse(loader.isAlive());
+        }
+        assertEquals(1, activator.getPendingPluginCount());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.Test;
+
+public class PluginManagerClassLoaderTest {
+
+    PluginManager pluginManager = PluginManager.getInstance();
+
+    @Test
+    public void undeployedClassLoaderCollected() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[0]);
+        boolean lazyPluginClassDefinition = pluginManager.lazyPluginClassDefinition;
+        pluginManager.lazyPluginClassDefinition = true;
+        try {
+            pluginManager.initClassLoader(appClassLoader);
+        } finally {
+            pluginManager.lazyPluginClassDefinition = lazyPluginClassDefinition;
+        }
+        PluginConfiguration configuration = pluginManager.getPluginConfiguration(appClassLoader);
+        assertNotNull(configuration);
+        assertSame("Configuration references its classloader", appClassLoader, configuration.getClassLoader());
+        configuration = null;
+
+        // no closeClassLoader() call
+        long expunged = pluginManager.classLoaderConfigurations.getExpungedCount();
+        WeakReference<ClassLoader> classLoaderRef = new WeakReference<>(appClassLoader);
+        appClassLoader = null;
+        for (int i = 0; i < 50 && classLoaderRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertNull(classLoaderRef.get());
+        assertTrue("Configuration removed", pluginManager.classLoaderConfigurations.getExpungedCount() > expunged);
+    }
+}
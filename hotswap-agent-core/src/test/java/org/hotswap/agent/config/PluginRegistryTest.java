@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hotswap.agent.testData.SimplePlugin;
+import org.junit.Test;
+
+public class PluginRegistryTest {
+
+    PluginRegistry pluginRegistry = new PluginRegistry(PluginManager.getInstance(), null);
+
+    ClassLoader appClassLoader = new URLClassLoader(new URL[0]);
+    ClassLoader childClassLoader = new URLClassLoader(new URL[0], appClassLoader);
+
+    SimplePlugin plugin = new SimplePlugin();
+
+    @Test
+    public void getPluginResolvedOnce() {
+        register();
+
+        assertNull(pluginRegistry.getResolvedPlugin(SimplePlugin.class.getName(), childClassLoader));
+        assertSame(plugin, pluginRegistry.getPlugin(SimplePlugin.class, childClassLoader));
+        assertSame(plugin, pluginRegistry.getResolvedPlugin(SimplePlugin.class.getName(), childClassLoader));
+        assertSame(plugin, pluginRegistry.getPlugin(SimplePlugin.class, childClassLoader));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void resolvedPluginInvalidatedOnClose() {
+        register();
+        pluginRegistry.getPlugin(SimplePlugin.class, childClassLoader);
+
+        pluginRegistry.closeClassLoader(appClassLoader);
+
+        assertNull(pluginRegistry.getResolvedPlugin(SimplePlugin.class.getName(), childClassLoader));
+        pluginRegistry.getPlugin(SimplePlugin.class, childClassLoader);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appClassLoaderRemovedOnClose() {
+        register();
+        assertSame(appClassLoader, pluginRegistry.getAppClassLoader(plugin));
+        assertSame("Reverse lookup", appClassLoader, pluginRegistry.getAppClassLoader(plugin));
+
+        pluginRegistry.closeClassLoader(appClassLoader);
+        pluginRegistry.getAppClassLoader(plugin);
+    }
+
+    private void register() {
+        Map<ClassLoader, Object> instances = new HashMap<>();
+        instances.put(appClassLoader, plugin);
+        pluginRegistry.getRegisteredPlugins().put(SimplePlugin.class, instances);
+    }
+}
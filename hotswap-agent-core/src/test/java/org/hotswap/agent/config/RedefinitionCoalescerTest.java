@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.Scheduler;
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.javassist.bytecode.SourceFileAttribute;
+import org.hotswap.agent.util.IOUtils;
+import org.hotswap.agent.util.signature.ClassChangeClassifier;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.Test;
+
+public class RedefinitionCoalescerTest {
+
+    Mockery context = new Mockery();
+
+    Instrumentation instrumentation = context.mock(Instrumentation.class);
+    Scheduler scheduler = context.mock(Scheduler.class);
+
+    RedefinitionCoalescer coalescer = new RedefinitionCoalescer(instrumentation, scheduler, new Object());
+
+    static class A {
+        B b;
+    }
+
+    static class B {
+    }
+
+    static class C {
+    }
+
+    static class D {
+    }
+
+    static class E {
+    }
+
+    static class F {
+    }
+
+    @Test
+    public void submissionsMergedToSingleCall() throws Exception {
+        context.checking(new Expectations() {{
+            allowing(scheduler).scheduleCommand(with(any(Command.class)), with(any(Integer.class)));
+            oneOf(instrumentation).redefineClasses(with(any(ClassDefinition[].class)));
+        }});
+
+        coalescer.submit(Collections.<Class<?>, byte[]>singletonMap(A.class, bytecode(A.class)));
+        coalescer.submit(Collections.<Class<?>, byte[]>singletonMap(C.class, bytecode(C.class)));
+        coalescer.flush();
+
+        context.assertIsSatisfied();
+        assertEquals(2, coalescer.getSubmissionCount());
+        assertEquals(1, coalescer.getRedefineCallCount());
+        assertEquals(1, coalescer.getSavedSafepointCount());
+        assertEquals(2, coalescer.getRedefinedClassCount());
+    }
+
+    @Test
+    public void failedBatchSplitToIndependentSets() throws Exception {
+        final int[] failures = new int[1];
+        context.checking(new Expectations() {{
+            allowing(scheduler).scheduleCommand(with(any(Command.class)), with(any(Integer.class)));
+            oneOf(instrumentation).redefineClasses(with(any(ClassDefinition[].class)));
+            will(throwException(new UnmodifiableClassException()));
+            exactly(2).of(instrumentation).redefineClasses(with(any(ClassDefinition[].class)));
+        }});
+
+        // classes not redefined by other tests, successful redefinition records the loaded bytes
+        Map<Class<?>, byte[]> batch = new LinkedHashMap<>();
+        batch.put(E.class, bytecode(E.class));
+        batch.put(F.class, bytecode(F.class));
+        coalescer.submit(batch, RedefinitionCoalescer.DEFAULT_WINDOW, new Runnable() {
+            @Override
+            public void run() {
+                failures[0]++;
+            }
+        });
+        coalescer.flush();
+
+        context.assertIsSatisfied();
+        assertEquals("Failure handler not called, sets redefined", 0, failures[0]);
+        assertEquals(3, coalescer.getRedefineCallCount());
+    }
+
+    @Test
+    public void debugInfoOnlyChangeSkipped() throws Exception {
+        context.checking(new Expectations() {{
+            allowing(scheduler).scheduleCommand(with(any(Command.class)), with(any(Integer.class)));
+            never(instrumentation).redefineClasses(with(any(ClassDefinition[].class)));
+        }});
+
+        // D was redefined before with its current bytecode
+        ClassChangeClassifier.redefinitionSucceeded(D.class, bytecode(D.class));
+
+        coalescer.setSkipDebugInfoOnly(true);
+        coalescer.submit(Collections.<Class<?>, byte[]>singletonMap(D.class, withSourceFile(bytecode(D.class), "Other.java")));
+        coalescer.flush();
+
+        context.assertIsSatisfied();
+        assertEquals(1, coalescer.getSkippedClassCount());
+        assertEquals(0, coalescer.getRedefineCallCount());
+    }
+
+    @Test
+    public void debugInfoOnlyChangeRedefinedByDefault() throws Exception {
+        context.checking(new Expectations() {{
+            allowing(scheduler).scheduleCommand(with(any(Command.class)), with(any(Integer.class)));
+            oneOf(instrumentation).redefineClasses(with(any(ClassDefinition[].class)));
+        }});
+
+        ClassChangeClassifier.redefinitionSucceeded(D.class, bytecode(D.class));
+
+        coalescer.submit(Collections.<Class<?>, byte[]>singletonMap(D.class, withSourceFile(bytecode(D.class), "Other.java")));
+        coalescer.flush();
+
+        context.assertIsSatisfied();
+        assertEquals(0, coalescer.getSkippedClassCount());
+    }
+
+    @Test
+    public void twoStepProxyRedefinitionNotSkipped() throws Exception {
+        final int[] failures = new int[1];
+        context.checking(new Expectations() {{
+            allowing(scheduler).scheduleCommand(with(any(Command.class)), with(any(Integer.class)));
+            exactly(2).of(instrumentation).redefineClasses(with(any(ClassDefinition[].class)));
+        }});
+        Runnable onFailure = new Runnable() {
+            @Override
+            public void run() {
+                failures[0]++;
+            }
+        };
+
+        // the proxy transformer resubmits identical bytes for its second step
+        coalescer.setSkipDebugInfoOnly(true);
+        byte[] bytes = bytecode(B.class);
+        coalescer.submit(Collections.<Class<?>, byte[]>singletonMap(B.class, bytes), RedefinitionCoalescer.DEFAULT_WINDOW, onFailure, true);
+        coalescer.flush();
+        coalescer.submit(Collections.<Class<?>, byte[]>singletonMap(B.class, bytes), RedefinitionCoalescer.DEFAULT_WINDOW, onFailure, true);
+        coalescer.flush();
+
+        context.assertIsSatisfied();
+        assertEquals(0, coalescer.getSkippedClassCount());
+        assertEquals(0, failures[0]);
+    }
+
+    @Test
+    public void forcedDebugInfoOnlyChangeRedefined() throws Exception {
+        context.checking(new Expectations() {{
+            allowing(scheduler).scheduleCommand(with(any(Command.class)), with(any(Integer.class)));
+            oneOf(instrumentation).redefineClasses(with(any(ClassDefinition[].class)));
+        }});
+
+        ClassChangeClassifier.redefinitionSucceeded(D.class, bytecode(D.class));
+
+        coalescer.setSkipDebugInfoOnly(true);
+        coalescer.submit(Collections.<Class<?>, byte[]>singletonMap(D.class, withSourceFile(bytecode(D.class), "Other.java")),
+                RedefinitionCoalescer.DEFAULT_WINDOW, null, true);
+        coalescer.flush();
+
+        context.assertIsSatisfied();
+        assertEquals(0, coalescer.getSkippedClassCount());
+    }
+
+    @Test
+    public void splitIndependentSets() throws Exception {
+        Map<Class<?>, byte[]> batch = new LinkedHashMap<>();
+        batch.put(A.class, bytecode(A.class));
+        batch.put(B.class, bytecode(B.class));
+        batch.put(C.class, bytecode(C.class));
+
+        List<Map<Class<?>, byte[]>> sets = RedefinitionCoalescer.splitIndependentSets(batch);
+        assertEquals(2, sets.size());
+        assertEquals("A references B", 2, sets.get(0).size());
+        assertEquals(Collections.singleton(C.class), sets.get(1).keySet());
+    }
+
+    private static byte[] withSourceFile(byte[] bytes, String sourceFile) throws Exception {
+        ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        classFile.addAttribute(new SourceFileAttribute(classFile.getConstPool(), sourceFile));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        classFile.write(new DataOutputStream(out));
+        return out.toByteArray();
+    }
+
+    private static byte[] bytecode(Class<?> clazz) throws Exception {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        return IOUtils.toByteArray(clazz.getClassLoader().getResource(resource).toURI());
+    }
+}
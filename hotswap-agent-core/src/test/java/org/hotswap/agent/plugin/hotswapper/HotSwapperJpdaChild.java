@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.hotswapper;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.LoaderClassPath;
+
+/**
+ * Child JVM side of {@link HotSwapperJpdaTest}. The JVM is started with JDWP agent on the port from the first
+ * argument and attaches HotSwapperJpda to itself. Exit code 0 on success, failure message on the output otherwise.
+ */
+public class HotSwapperJpdaChild {
+
+    public static class Swap1 {
+        public int value() {
+            return 1;
+        }
+    }
+
+    public static class Swap2 {
+        public int value() {
+            return 2;
+        }
+    }
+
+    public static class Other1 {
+        public String value() {
+            return "1";
+        }
+    }
+
+    public static class Other2 {
+        public String value() {
+            return "2";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String port = args[0];
+        HotSwapperJpda hotSwapper = new HotSwapperJpda(port);
+        check("connected", true, hotSwapper.isConnected());
+        check("Swap1 original", 1, new Swap1().value());
+        check("Other1 original", "1", new Other1().value());
+
+        // both classes in a single request
+        Map<String, byte[]> batch = new HashMap<>();
+        batch.put(Swap1.class.getName(), bytecode(Swap1.class, Swap2.class));
+        batch.put(Other1.class.getName(), bytecode(Other1.class, Other2.class));
+        hotSwapper.reload(batch);
+        check("Swap1 redefined", 2, new Swap1().value());
+        check("Other1 redefined", "2", new Other1().value());
+        check("single request", 1, hotSwapper.getRedefineCount());
+
+        // back to the original class file
+        hotSwapper.reload(Swap1.class.getName(), bytecode(Swap1.class, Swap1.class));
+        check("Swap1 restored", 1, new Swap1().value());
+        check("second request", 2, hotSwapper.getRedefineCount());
+
+        // health check after disconnect and a new session on the same port
+        hotSwapper.dispose();
+        check("disconnected", false, hotSwapper.isConnected());
+        hotSwapper = connect(port);
+        hotSwapper.reload(Swap1.class.getName(), bytecode(Swap1.class, Swap2.class));
+        check("Swap1 redefined after reconnect", 2, new Swap1().value());
+        hotSwapper.dispose();
+
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    // JDWP agent starts listening again asynchronously after the debugger detaches
+    private static HotSwapperJpda connect(String port) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return new HotSwapperJpda(port);
+            } catch (IOException e) {
+                if (i == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static byte[] bytecode(Class<?> original, Class<?> swap) throws Exception {
+        ClassPool classPool = new ClassPool();
+        classPool.appendClassPath(new LoaderClassPath(original.getClassLoader()));
+        return classPool.getAndRename(swap.getName(), original.getName()).toBytecode();
+    }
+
+    private static void check(String message, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            System.out.println(message + ": expected " + expected + " but was " + actual);
+            System.exit(1);
+        }
+    }
+}
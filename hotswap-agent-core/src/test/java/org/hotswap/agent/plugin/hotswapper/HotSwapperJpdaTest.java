@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.hotswapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Run JPDA hotswap against a child JVM started with the JDWP agent, see {@link HotSwapperJpdaChild}.
+ */
+public class HotSwapperJpdaTest {
+
+    @Test
+    public void reloadInChildJvm() throws Exception {
+        assumeTrue("JDI not available", isJdiAvailable());
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String port = String.valueOf(freePort());
+        File output = File.createTempFile("hotswapper-jpda", ".log");
+        try {
+            Process process = new ProcessBuilder(java,
+                    "-agentlib:jdwp=transport=dt_socket,server=y,suspend=n,address=" + port,
+                    "-cp", System.getProperty("java.class.path"),
+                    HotSwapperJpdaChild.class.getName(), port)
+                    .redirectErrorStream(true).redirectOutput(output).start();
+
+            if (!process.waitFor(60, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                assertTrue("Child JVM timeout", false);
+            }
+            assertEquals(new String(Files.readAllBytes(output.toPath())), 0, process.exitValue());
+        } finally {
+            output.delete();
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static boolean isJdiAvailable() {
+        try {
+            Class.forName("com.sun.jdi.Bootstrap");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.hotswapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.util.signature.ClassChangeClassifier;
+import org.junit.Test;
+
+public class HotswapperCommandTest {
+
+    static class Loaded {
+    }
+
+    static class Changed {
+    }
+
+    @Test
+    public void failedReloadRestoresChanges() {
+        Map<Class<?>, byte[]> reloadMap = new HashMap<>();
+        reloadMap.put(String.class, new byte[]{1});
+        reloadMap.put(Integer.class, new byte[]{2});
+        HotswapperCommand.register(reloadMap);
+
+        Map<Map<Class<?>, byte[]>, Map<Class<?>, byte[]>> drained = HotswapperCommand.drainReloadMaps();
+        assertTrue(reloadMap.isEmpty());
+        assertEquals(2, drained.get(reloadMap).size());
+
+        // newer change scheduled while reloading wins
+        reloadMap.put(Integer.class, new byte[]{3});
+        HotswapperCommand.restoreReloadMaps(drained);
+
+        assertEquals(2, reloadMap.size());
+        assertArrayEquals(new byte[]{1}, reloadMap.get(String.class));
+        assertArrayEquals(new byte[]{3}, reloadMap.get(Integer.class));
+    }
+
+    @Test
+    public void loadedClassFileNotSent() throws Exception {
+        byte[] loadedBytes = new ClassPool(true).get(Loaded.class.getName()).toBytecode();
+        ClassChangeClassifier.redefinitionSucceeded(Loaded.class, loadedBytes);
+        Map<Class<?>, byte[]> reloadMap = new HashMap<>();
+        reloadMap.put(Loaded.class, loadedBytes);
+        reloadMap.put(Changed.class, new byte[]{1});
+
+        assertEquals(Collections.<Class<?>>singleton(Changed.class),
+                HotswapperCommand.changedClasses(Collections.singletonMap(reloadMap, reloadMap)).keySet());
+    }
+
+    @Test
+    public void reloadOutcomeReported() throws Exception {
+        byte[] bytes = new ClassPool(true).get(Changed.class.getName()).toBytecode();
+        Map<Class<?>, byte[]> reloadClasses = Collections.<Class<?>, byte[]>singletonMap(Changed.class, bytes);
+        // transformed during the JDWP redefinition
+        ClassChangeClassifier.beginRedefinition(Changed.class, bytes);
+        ClassChangeClassifier.endRedefinition();
+
+        HotswapperCommand.reportOutcome(reloadClasses, true);
+        assertArrayEquals(bytes, ClassChangeClassifier.getLoadedBytes(Changed.class));
+        assertTrue("Loaded version not sent again", HotswapperCommand.changedClasses(
+                Collections.singletonMap(reloadClasses, reloadClasses)).isEmpty());
+
+        // redefined by another path (e.g. IDE), the same class file must be sent again
+        ClassChangeClassifier.beginRedefinition(Changed.class, new byte[]{1});
+        ClassChangeClassifier.endRedefinition();
+        assertNull(ClassChangeClassifier.getLoadedBytes(Changed.class));
+        assertEquals(reloadClasses, HotswapperCommand.changedClasses(Collections.singletonMap(reloadClasses, reloadClasses)));
+    }
+}
@@ -46,4 +46,11 @@ public class SimplePlugin {
     // used by PluginManagerInvokerTest to dynamically call this method.
     public void callPluginMethod(Boolean val) {
     }
+
+    public int sumPluginMethod(int first, int[] others) {
+        for (int other : others) {
+            first += other;
+        }
+        return first;
+    }
 }
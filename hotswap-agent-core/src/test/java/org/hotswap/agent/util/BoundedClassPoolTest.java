@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.hotswap.agent.javassist.CtClass;
+import org.junit.Test;
+
+public class BoundedClassPoolTest {
+
+    @Test
+    public void leastRecentlyUsedEvicted() throws Exception {
+        BoundedClassPool classPool = new BoundedClassPool(2, 0, false);
+        CtClass first = classPool.get(ClassBytesStore.class.getName());
+        classPool.get(ClassReferenceGraph.class.getName());
+        // touch the first class, the second is the least recently used now
+        assertSame(first, classPool.get(ClassBytesStore.class.getName()));
+        classPool.get(ClassHierarchyIndex.class.getName());
+
+        assertEquals(2, classPool.getCachedCount());
+        assertEquals(1, classPool.getEvictionCount());
+        assertSame(first, classPool.get(ClassBytesStore.class.getName()));
+    }
+
+    @Test
+    public void modifiedClassKept() throws Exception {
+        BoundedClassPool classPool = new BoundedClassPool(1, 0, false);
+        CtClass runnable = classPool.get(Runnable.class.getName());
+        CtClass modified = classPool.get(ClassBytesStore.class.getName());
+        modified.addInterface(runnable);
+        classPool.get(ClassReferenceGraph.class.getName());
+
+        assertSame("Modified class not evicted", modified, classPool.get(ClassBytesStore.class.getName()));
+    }
+
+    @Test
+    public void cachedClassKeptOverLimit() throws Exception {
+        BoundedClassPool classPool = new BoundedClassPool(1, 0, false);
+        CtClass runnable = classPool.get(Runnable.class.getName());
+        classPool.get(ClassBytesStore.class.getName()).addInterface(runnable);
+        // the modified class cannot be evicted, the newly cached class must not be evicted instead
+        CtClass clazz = classPool.get(ClassReferenceGraph.class.getName());
+
+        assertSame(clazz, classPool.get(ClassReferenceGraph.class.getName()));
+    }
+
+    @Test
+    public void expiredClassReloaded() throws Exception {
+        BoundedClassPool classPool = new BoundedClassPool(0, 50, true);
+        CtClass clazz = classPool.get(ClassBytesStore.class.getName());
+        Thread.sleep(100);
+
+        assertNotSame(clazz, classPool.get(ClassBytesStore.class.getName()));
+        assertEquals(1, classPool.getEvictionCount());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ClassBytesStoreTest {
+
+    private final ClassLoader loader = getClass().getClassLoader();
+
+    private static byte[] classBytes(int size, long seed) {
+        // half random, half repeated - compressible like a class file
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        for (int i = size / 2; i < size; i++) {
+            bytes[i] = (byte) (i % 7);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void storeAndRead() {
+        ClassBytesStore store = new ClassBytesStore(1024 * 1024, null);
+        byte[] bytes = classBytes(10000, 1);
+        store.put(loader, "org/example/A", bytes);
+
+        assertArrayEquals(bytes, store.get(loader, "org.example.A"));
+        assertNull(store.get(loader, "org.example.B"));
+        assertNull(store.get(new URLClassLoader(new URL[0]), "org.example.A"));
+        assertEquals(1, store.getCount());
+        assertTrue("compressed", store.getSize() < bytes.length);
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() {
+        ClassBytesStore store = new ClassBytesStore(12000, null);
+        store.put(loader, "A", classBytes(10000, 1));
+        store.put(loader, "B", classBytes(10000, 2));
+        store.get(loader, "A");
+        store.put(loader, "C", classBytes(10000, 3));
+
+        assertTrue(store.getSize() <= 12000);
+        assertEquals(1, store.getEvictionCount());
+        assertNull(store.get(loader, "B"));
+        assertTrue(store.get(loader, "A") != null);
+        assertTrue(store.get(loader, "C") != null);
+    }
+
+    @Test
+    public void closeClassLoader() {
+        ClassBytesStore store = new ClassBytesStore(1024 * 1024, null);
+        ClassLoader other = new URLClassLoader(new URL[0]);
+        store.put(loader, "A", classBytes(100, 1));
+        store.put(other, "A", classBytes(100, 2));
+
+        store.closeClassLoader(other);
+        assertNull(store.get(other, "A"));
+        assertTrue(store.get(loader, "A") != null);
+        assertEquals(1, store.getCount());
+    }
+
+    @Test
+    public void acceptsDirectoryClassesInPackages() throws Exception {
+        ClassBytesStore store = new ClassBytesStore(1024 * 1024, new String[] {"org.example"});
+        ProtectionDomain directory = new ProtectionDomain(
+                new CodeSource(new URL("file:/project/target/classes/"), (Certificate[]) null), null);
+        ProtectionDomain jar = new ProtectionDomain(
+                new CodeSource(new URL("file:/repository/lib.jar"), (Certificate[]) null), null);
+
+        assertTrue(store.accepts("org/example/A", directory));
+        assertFalse(store.accepts("org/other/A", directory));
+        assertFalse(store.accepts("org/example/A", jar));
+        assertFalse(store.accepts("org/example/A", null));
+    }
+}
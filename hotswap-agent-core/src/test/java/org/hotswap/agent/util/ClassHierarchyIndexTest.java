@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.junit.Test;
+
+public class ClassHierarchyIndexTest {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Marker {
+        String value() default "";
+        int[] numbers() default {};
+    }
+
+    interface Api {
+    }
+
+    @Marker(value = "base", numbers = {1, 2})
+    static class Base implements Api {
+    }
+
+    static class Sub extends Base {
+    }
+
+    @Marker
+    static class SubSub extends Sub {
+    }
+
+    static class Other {
+    }
+
+    ClassLoader classLoader = getClass().getClassLoader();
+    ClassHierarchyIndex index = new ClassHierarchyIndex();
+
+    @Test
+    public void classFileInfo() throws Exception {
+        ClassFileInfo info = ClassFileInfo.read(bytecode(Base.class));
+        assertEquals(Base.class.getName(), info.getClassName());
+        assertEquals(Object.class.getName(), info.getSuperclassName());
+        assertEquals(Collections.singletonList(Api.class.getName()), info.getInterfaceNames());
+        assertEquals(Collections.singleton(Marker.class.getName()), info.getAnnotationNames());
+    }
+
+    @Test
+    public void subtypesAndAnnotations() throws Exception {
+        index(Api.class, Base.class, Sub.class, SubSub.class, Other.class);
+
+        assertEquals(new HashSet<>(Arrays.asList(Base.class.getName(), Sub.class.getName(), SubSub.class.getName())),
+                index.getSubtypes(classLoader, Api.class.getName()));
+        assertEquals(new HashSet<>(Arrays.asList(Base.class.getName(), SubSub.class.getName())),
+                index.getAnnotatedClasses(classLoader, Marker.class.getName()));
+        assertTrue(index.hasAnnotation(classLoader, Base.class.getName(), Marker.class.getName()));
+        assertFalse(index.hasAnnotation(classLoader, Sub.class.getName(), Marker.class.getName()));
+        assertNull("Not indexed", index.hasAnnotation(classLoader, String.class.getName(), Marker.class.getName()));
+        assertTrue(index.isSubtype(classLoader, SubSub.class.getName(), Api.class.getName()));
+        assertFalse(index.isSubtype(classLoader, Other.class.getName(), Api.class.getName()));
+
+        // redefinition of Sub extending Other
+        ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode(Sub.class))));
+        classFile.setSuperclass(Other.class.getName());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        classFile.write(new DataOutputStream(out));
+        index.update(classLoader, ClassFileInfo.read(out.toByteArray()));
+        assertEquals(Collections.singleton(Base.class.getName()), index.getSubtypes(classLoader, Api.class.getName()));
+        assertEquals(new HashSet<>(Arrays.asList(Sub.class.getName(), SubSub.class.getName())),
+                index.getSubtypes(classLoader, Other.class.getName()));
+
+        index.closeClassLoader(classLoader);
+        assertEquals(0, index.getClassCount());
+    }
+
+    @Test
+    public void annotationHelperUsesIndex() {
+        assertTrue(AnnotationHelper.hasAnnotation(Base.class, Marker.class.getName()));
+        assertFalse(AnnotationHelper.hasAnnotation(Sub.class, Marker.class.getName()));
+    }
+
+    private void index(Class<?>... classes) throws Exception {
+        for (Class<?> clazz : classes) {
+            index.update(classLoader, clazz.getName(), bytecode(clazz));
+        }
+    }
+
+    private static byte[] bytecode(Class<?> clazz) throws Exception {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        return IOUtils.toByteArray(clazz.getClassLoader().getResource(resource).toURI());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.util.signature.ClassChangeClassifier;
+import org.hotswap.agent.util.signature.ClassChangeKind;
+import org.junit.Test;
+
+public class ClassImpactTest {
+
+    static class Base {
+    }
+
+    static class Sub extends Base implements Serializable {
+    }
+
+    static class User {
+        Base base;
+    }
+
+    static class Unrelated {
+    }
+
+    ClassReferenceGraph graph = new ClassReferenceGraph();
+
+    @Test
+    public void methodBodyChangeNotStructural() {
+        assertFalse(new ClassImpact(Base.class, ClassChangeKind.METHOD_BODY, null).isStructural());
+        assertTrue(new ClassImpact(Base.class, ClassChangeKind.SIGNATURE, null).isStructural());
+        assertTrue("Unknown change", new ClassImpact(Base.class, null, null).isStructural());
+    }
+
+    @Test
+    public void reflectionClassificationStructural() throws Exception {
+        byte[] bytes = new ClassPool(true).get(Unrelated.class.getName()).toBytecode();
+        ClassChangeClassifier.beginRedefinition(Unrelated.class, bytes);
+        ClassChangeKind changeKind = ClassChangeClassifier.getChangeKind(Unrelated.class, bytes);
+        assertTrue(ClassChangeClassifier.isClassifiedByReflection(Unrelated.class));
+        assertTrue("Estimated change kind", ClassImpact.of(Unrelated.class, changeKind).isStructural());
+        ClassChangeClassifier.endRedefinition();
+        ClassChangeClassifier.redefinitionSucceeded(Unrelated.class, bytes);
+
+        ClassChangeClassifier.beginRedefinition(Unrelated.class, bytes);
+        changeKind = ClassChangeClassifier.getChangeKind(Unrelated.class, bytes);
+        assertFalse(ClassChangeClassifier.isClassifiedByReflection(Unrelated.class));
+        assertFalse("Loaded class file known", ClassImpact.of(Unrelated.class, changeKind).isStructural());
+        ClassChangeClassifier.endRedefinition();
+        ClassChangeClassifier.redefinitionSucceeded(Unrelated.class, bytes);
+    }
+
+    @Test
+    public void subtypesAndUsers() throws Exception {
+        index(Base.class, Sub.class, User.class, Unrelated.class);
+        ClassImpact impact = new ClassImpact(Base.class, ClassChangeKind.SIGNATURE, graph);
+
+        assertTrue(impact.isIndexed());
+        assertEquals(Collections.<Class<?>>singletonList(Sub.class), impact.getLoadedSubtypes());
+        assertTrue(impact.affects(Sub.class));
+        assertTrue(impact.affects(User.class));
+        assertFalse(impact.affects(Unrelated.class));
+        assertTrue("Serializable subclass", impact.mayAppearAs(Serializable.class));
+
+        assertFalse(new ClassImpact(Unrelated.class, ClassChangeKind.SIGNATURE, graph).mayAppearAs(Serializable.class));
+    }
+
+    @Test
+    public void notIndexedAffectsAll() {
+        ClassImpact impact = new ClassImpact(Unrelated.class, ClassChangeKind.SIGNATURE, graph);
+        assertFalse(impact.isIndexed());
+        assertTrue(impact.affects(Base.class));
+        assertTrue(impact.mayAppearAs(Serializable.class));
+    }
+
+    @Test
+    public void childClassLoaderUnknown() throws Exception {
+        index(Base.class, Sub.class, User.class, Unrelated.class);
+        HotswapTransformer transformer = new HotswapTransformer();
+        ClassImpact impact = new ClassImpact(Unrelated.class, ClassChangeKind.SIGNATURE, graph, null, transformer);
+        assertFalse(impact.mayAppearAs(Serializable.class));
+
+        // a child loader may define a Serializable subtype
+        transformer.seenClassLoaders.put(new URLClassLoader(new URL[0], Unrelated.class.getClassLoader()), null);
+        impact = new ClassImpact(Unrelated.class, ClassChangeKind.SIGNATURE, graph, null, transformer);
+        assertFalse(impact.isIndexed());
+        assertTrue(impact.mayAppearAs(Serializable.class));
+    }
+
+    private void index(Class<?>... classes) throws Exception {
+        for (Class<?> clazz : Arrays.asList(classes)) {
+            String resource = clazz.getName().replace('.', '/') + ".class";
+            graph.update(clazz.getClassLoader(), clazz.getName(),
+                    IOUtils.toByteArray(clazz.getClassLoader().getResource(resource).toURI()));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.CtField;
+
+import org.junit.Test;
+
+public class ClassReferenceGraphTest {
+
+    static class A {
+        B b;
+    }
+
+    static class B {
+        C c() {
+            return null;
+        }
+    }
+
+    static class C {
+    }
+
+    static class D {
+    }
+
+    ClassLoader classLoader = getClass().getClassLoader();
+
+    @Test
+    public void referencedClassNames() throws Exception {
+        assertTrue(ClassReferenceGraph.referencedClassNames(bytecode(A.class)).contains(B.class.getName()));
+        assertTrue("method descriptor", ClassReferenceGraph.referencedClassNames(bytecode(B.class)).contains(C.class.getName()));
+        assertTrue("JDK classes omitted", Collections.disjoint(ClassReferenceGraph.referencedClassNames(bytecode(A.class)),
+                Arrays.asList(Object.class.getName())));
+    }
+
+    @Test
+    public void transitiveDependents() throws Exception {
+        ClassReferenceGraph graph = new ClassReferenceGraph();
+        for (Class<?> clazz : Arrays.asList(A.class, B.class, C.class, D.class)) {
+            graph.update(classLoader, clazz.getName().replace('.', '/'), bytecode(clazz));
+        }
+        assertEquals(4, graph.getClassCount());
+        assertEquals(new LinkedHashSet<>(Arrays.asList(B.class.getName(), A.class.getName())),
+                graph.getTransitiveDependents(classLoader, Collections.singleton(C.class.getName())));
+
+        // redefinition of A without the reference to B
+        graph.update(classLoader, A.class.getName(), bytecode(D.class));
+        assertEquals(Collections.singleton(B.class.getName()),
+                graph.getTransitiveDependents(classLoader, Collections.singleton(C.class.getName())));
+
+        graph.closeClassLoader(classLoader);
+        assertEquals(0, graph.getClassCount());
+    }
+
+    @Test
+    public void order() throws Exception {
+        Map<Class<?>, byte[]> batch = new LinkedHashMap<>();
+        for (Class<?> clazz : Arrays.asList(A.class, D.class, C.class, B.class)) {
+            batch.put(clazz, bytecode(clazz));
+        }
+        assertEquals(Arrays.<Class<?>>asList(C.class, B.class, A.class, D.class),
+                new ArrayList<>(ClassReferenceGraph.order(batch).keySet()));
+    }
+
+    @Test
+    public void unconfirmedRedefinitionReferencesBothVersions() throws Exception {
+        ClassReferenceGraph graph = new ClassReferenceGraph();
+        for (Class<?> clazz : Arrays.asList(A.class, B.class, C.class)) {
+            graph.update(classLoader, clazz.getName(), bytecode(clazz));
+        }
+
+        // new version of A references C instead of B, the outcome is not known yet
+        graph.markRedefining(classLoader, A.class.getName().replace('.', '/'), bytecode(B.class));
+        assertTrue(graph.contains(classLoader, A.class.getName()));
+        assertTrue(graph.getReferences(classLoader, A.class.getName()).containsAll(
+                Arrays.asList(B.class.getName(), C.class.getName())));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(B.class.getName(), A.class.getName())),
+                graph.getTransitiveDependents(classLoader, Collections.singleton(C.class.getName())));
+        assertEquals(Collections.singleton(A.class.getName()),
+                graph.getTransitiveDependents(classLoader, Collections.singleton(B.class.getName())));
+
+        // confirmed redefinition of A without any reference
+        graph.update(classLoader, A.class.getName(), bytecode(D.class));
+        assertEquals(Collections.singleton(B.class.getName()),
+                graph.getTransitiveDependents(classLoader, Collections.singleton(C.class.getName())));
+        assertTrue(graph.getTransitiveDependents(classLoader, Collections.singleton(B.class.getName())).isEmpty());
+    }
+
+    @Test
+    public void orderLongChain() throws Throwable {
+        // Chain0 -> Chain1 -> ... each class references the next one
+        final int length = 3000;
+        final Map<Class<?>, byte[]> batch = new LinkedHashMap<>();
+        ClassPool classPool = new ClassPool(true);
+        final Map<String, byte[]> classFiles = new HashMap<>();
+        for (int i = 0; i < length; i++) {
+            CtClass ctClass = classPool.makeClass("chain.Chain" + i);
+            if (i + 1 < length) {
+                ctClass.addField(new CtField(classPool.makeClass("chain.Chain" + (i + 1)), "next", ctClass));
+            }
+            classFiles.put(ctClass.getName(), ctClass.toBytecode());
+        }
+        ClassLoader chainLoader = new ClassLoader(null) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytes = classFiles.get(name);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        for (int i = 0; i < length; i++) {
+            String name = "chain.Chain" + i;
+            batch.put(chainLoader.loadClass(name), classFiles.get(name));
+        }
+
+        final List<Class<?>> ordered = new ArrayList<>();
+        final Throwable[] error = new Throwable[1];
+        // small stack, recursive depth first search would overflow
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ordered.addAll(ClassReferenceGraph.order(batch).keySet());
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            }
+        }, "orderLongChain", 64 * 1024);
+        thread.start();
+        thread.join();
+        if (error[0] != null) {
+            throw error[0];
+        }
+        assertEquals(length, ordered.size());
+        assertEquals("chain.Chain" + (length - 1), ordered.get(0).getName());
+        assertEquals("chain.Chain0", ordered.get(length - 1).getName());
+    }
+
+    private static byte[] bytecode(Class<?> clazz) throws Exception {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        return IOUtils.toByteArray(clazz.getClassLoader().getResource(resource).toURI());
+    }
+}
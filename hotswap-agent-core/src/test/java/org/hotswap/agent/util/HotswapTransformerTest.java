@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.instrument.IllegalClassFormatException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.ProtectionDomain;
+
+import org.junit.Test;
+
+public class HotswapTransformerTest {
+
+    HotswapTransformer hotswapTransformer = new HotswapTransformer();
+
+    int transformCount;
+
+    @Test
+    public void undeployedClassLoaderCollected() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[0]);
+        hotswapTransformer.registerTransformer(appClassLoader, "org.example.Type", new ClassLoaderTransformer(appClassLoader));
+
+        System.gc();
+        hotswapTransformer.transform(null, "org/example/Type", null, null, new byte[0]);
+        assertEquals("Transformer lives with its classloader", 1, transformCount);
+
+        // no closeClassLoader() call
+        WeakReference<ClassLoader> classLoaderRef = new WeakReference<>(appClassLoader);
+        appClassLoader = null;
+        for (int i = 0; i < 50 && classLoaderRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertNull(classLoaderRef.get());
+        assertEquals(0, hotswapTransformer.classLoaderTransformers.size());
+        hotswapTransformer.transform(null, "org/example/Type", null, null, new byte[0]);
+        assertEquals(1, transformCount);
+    }
+
+    // references its classloader like a plugin transformer (via the plugin instance)
+    private class ClassLoaderTransformer implements HaClassFileTransformer {
+        final ClassLoader appClassLoader;
+
+        ClassLoaderTransformer(ClassLoader appClassLoader) {
+            this.appClassLoader = appClassLoader;
+        }
+
+        @Override
+        public boolean isForRedefinitionOnly() {
+            return false;
+        }
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+            transformCount++;
+            return classfileBuffer;
+        }
+    }
+}
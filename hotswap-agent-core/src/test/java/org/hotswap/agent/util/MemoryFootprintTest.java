@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class MemoryFootprintTest {
+
+    MemoryFootprint footprint = new MemoryFootprint(null, 0);
+
+    static class Holder {
+        Map<String, byte[]> cache = new HashMap<>();
+        Object other;
+    }
+
+    static class StaticHolder {
+        static byte[] data = new byte[10000];
+    }
+
+    @Test
+    public void agentObjectsFollowed() {
+        Holder holder = new Holder();
+        for (int i = 0; i < 10; i++) {
+            holder.cache.put("key" + i, new byte[1000]);
+        }
+        footprint.register("holder", holder);
+
+        long size = footprint.measure().get("holder");
+        assertTrue("Map values counted: " + size, size > 10000 && size < 12000);
+    }
+
+    @Test
+    public void sharedObjectCountedOnce() {
+        byte[] shared = new byte[10000];
+        Holder first = new Holder();
+        first.other = shared;
+        Holder second = new Holder();
+        second.other = shared;
+        footprint.register("first", first);
+        footprint.register("second", second);
+
+        Map<String, Long> sizes = footprint.measure();
+        assertTrue(sizes.get("first") > 10000);
+        assertTrue("Counted with the first subsystem", sizes.get("second") < 1000);
+    }
+
+    @Test
+    public void otherSubsystemRootNotCounted() {
+        Holder inner = new Holder();
+        inner.other = new byte[10000];
+        Holder outer = new Holder();
+        outer.other = inner;
+        footprint.register("outer", outer);
+        footprint.register("inner", inner);
+
+        Map<String, Long> sizes = footprint.measure();
+        assertTrue(sizes.get("outer") < 1000);
+        assertTrue(sizes.get("inner") > 10000);
+    }
+
+    @Test
+    public void classRootMeasuresStaticFields() {
+        footprint.register("statics", StaticHolder.class);
+
+        assertTrue(footprint.measure().get("statics") > 10000);
+    }
+
+    @Test
+    public void foreignObjectsShallow() {
+        Holder holder = new Holder();
+        holder.other = new AtomicReference<>(new byte[10000]);
+        footprint.register("holder", holder);
+
+        assertTrue(footprint.measure().get("holder") < 1000);
+    }
+
+    @Test
+    public void heapBufferCountedWithBackingArray() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[10000]);
+        Holder holder = new Holder();
+        holder.other = buffer.duplicate();
+        footprint.register("holder", holder);
+        footprint.register("buffer", buffer);
+
+        Map<String, Long> sizes = footprint.measure();
+        assertTrue(sizes.get("holder") > 10000);
+        assertTrue("Backing array counted once", sizes.get("buffer") < 1000);
+
+        holder.other = buffer.asReadOnlyBuffer();
+        assertTrue(new MemoryFootprint(null, 0).sizeOf(holder, Collections.newSetFromMap(
+                new IdentityHashMap<Object, Boolean>())) > 10000);
+    }
+
+    @Test
+    public void excludedObjectNotCounted() {
+        Holder shared = new Holder();
+        shared.other = new byte[10000];
+        Holder holder = new Holder();
+        holder.other = shared;
+        footprint.exclude(shared);
+        footprint.register("holder", holder);
+
+        assertTrue(footprint.measure().get("holder") < 1000);
+    }
+
+    @Test
+    public void reportGrowingSubsystem() {
+        Holder holder = new Holder();
+        footprint = new MemoryFootprint(null, 1000);
+        footprint.register("holder", holder);
+
+        long previous = 0;
+        for (int i = 0; i <= MemoryFootprint.GROWTH_WARN_REPORTS; i++) {
+            holder.cache.put("key" + i, new byte[1000]);
+            long size = footprint.report().get("holder");
+            assertTrue(size > previous);
+            previous = size;
+        }
+        assertEquals(1, footprint.measure().size());
+    }
+}
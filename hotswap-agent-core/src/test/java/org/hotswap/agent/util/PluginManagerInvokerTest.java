@@ -26,6 +26,9 @@ import org.hotswap.agent.javassist.CtNewMethod;
 import org.hotswap.agent.testData.SimplePlugin;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Collections;
@@ -60,6 +63,45 @@ public class PluginManagerInvokerTest {
 
     }
 
+    @Test
+    public void testCallPluginMethod() throws Exception {
+        registerPlugin(new SimplePlugin());
+
+        for (int i = 0; i < 2; i++) {
+            assertNull(PluginManagerInvoker.callPluginMethod(SimplePlugin.class, getClass().getClassLoader(),
+                    "callPluginMethod", new Class[]{Boolean.class}, new Object[]{Boolean.TRUE}));
+        }
+    }
+
+    @Test
+    public void testCallPluginMethodPrimitiveAndArray() throws Exception {
+        registerPlugin(new SimplePlugin());
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(6, PluginManagerInvoker.callPluginMethod(SimplePlugin.class, getClass().getClassLoader(),
+                    "sumPluginMethod", new Class[]{int.class, int[].class}, new Object[]{1, new int[]{2, 3}}));
+        }
+    }
+
+    @Test
+    public void testInvokePluginMethodPrimitiveAndArray() throws Exception {
+        registerPlugin(new SimplePlugin());
+        String pluginClass = SimplePlugin.class.getName();
+
+        assertEquals(6, PluginManagerInvoker.invokePluginMethod(pluginClass + "#sumPluginMethod(int,int[])",
+                getClass().getClassLoader(), new Object[]{1, new int[]{2, 3}}));
+        assertEquals(1, PluginManagerInvoker.invokePluginMethod(pluginClass + "#sumPluginMethod(int,[I)",
+                getClass().getClassLoader(), new Object[]{1, new int[0]}));
+    }
+
+    @Test(expected = Error.class)
+    public void testCallUnknownPluginMethod() throws Exception {
+        registerPlugin(new SimplePlugin());
+
+        PluginManagerInvoker.callPluginMethod(SimplePlugin.class, getClass().getClassLoader(),
+                "unknownMethod", new Class[0], new Object[0]);
+    }
+
     // plugin registration is not public, use reflection to insert test data
     private void registerPlugin(Object plugin) throws NoSuchFieldException, IllegalAccessException {
         Field f = PluginRegistry.class.getDeclaredField("registeredPlugins");
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StartupCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesSurviveRestart() throws Exception {
+        File jar = jar("a.jar", 1);
+        File cacheFile = new File(folder.getRoot(), "cache/" + StartupCache.CACHE_FILE);
+
+        StartupCache cache = new StartupCache(cacheFile, null);
+        assertNull(cache.get("classes:", jar));
+        cache.put("classes:", jar, new byte[]{1, 2, 3});
+        cache.flush();
+
+        StartupCache restarted = new StartupCache(cacheFile, null);
+        assertEquals(1, restarted.getEntryCount());
+        assertArrayEquals(new byte[]{1, 2, 3}, restarted.get("classes:", jar));
+        assertNull("Other kind", restarted.get("maven", jar));
+        assertEquals(1, restarted.getHitCount());
+    }
+
+    @Test
+    public void loadedFileReplaced() throws Exception {
+        File jar = jar("c.jar", 1);
+        File cacheFile = new File(folder.getRoot(), StartupCache.CACHE_FILE);
+
+        StartupCache cache = new StartupCache(cacheFile, null);
+        cache.put("classes:", jar, new byte[]{1});
+        cache.flush();
+
+        StartupCache restarted = new StartupCache(cacheFile, null);
+        restarted.put("maven", jar, new byte[]{2});
+        restarted.flush();
+        assertArrayEquals("Loaded entry still readable", new byte[]{1}, restarted.get("classes:", jar));
+        assertEquals(2, new StartupCache(cacheFile, null).getEntryCount());
+    }
+
+    @Test
+    public void changedJarInvalidatesEntry() throws Exception {
+        File jar = jar("b.jar", 1);
+        File cacheFile = new File(folder.getRoot(), StartupCache.CACHE_FILE);
+
+        StartupCache cache = new StartupCache(cacheFile, null);
+        cache.put("maven", jar, new byte[]{1});
+        cache.flush();
+
+        jar("b.jar", 2);
+        StartupCache restarted = new StartupCache(cacheFile, null);
+        assertNull("Size changed", restarted.get("maven", jar));
+
+        restarted.flush();
+        assertEquals("Stale entry dropped", 0, new StartupCache(cacheFile, null).getEntryCount());
+    }
+
+    @Test
+    public void invalidFileIgnored() throws Exception {
+        File cacheFile = folder.newFile(StartupCache.CACHE_FILE);
+        try (FileOutputStream out = new FileOutputStream(cacheFile)) {
+            out.write(new byte[]{0x48, 0x41, 0x43, 0x31, 0, 0, 0, 5});
+        }
+        assertEquals(0, new StartupCache(cacheFile, null).getEntryCount());
+    }
+
+    @Test
+    public void toJarFile() throws Exception {
+        File jar = jar("c d.jar", 1);
+        assertEquals(jar.getAbsoluteFile(), StartupCache.toJarFile(new URL("jar:" + jar.toURI() + "!/META-INF/MANIFEST.MF")));
+        assertNull(StartupCache.toJarFile(folder.getRoot().toURI().toURL()));
+    }
+
+    private File jar(String name, int size) throws Exception {
+        File jar = new File(folder.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(jar)) {
+            out.write(new byte[size]);
+        }
+        jar.setLastModified(1000000L);
+        return jar;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class WeakRegistryTest {
+
+    @Test
+    public void entryOfCollectedClassLoaderExpunged() throws Exception {
+        WeakRegistry<ClassLoader, Object> registry = new WeakRegistry<>("test");
+        ClassLoader classLoader = new URLClassLoader(new URL[0]);
+        registry.put(classLoader, "plugin");
+        assertEquals(1, registry.size());
+
+        classLoader = null;
+        for (int i = 0; i < 50 && registry.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertEquals(0, registry.size());
+        assertEquals(1, registry.getExpungedCount());
+    }
+
+    @Test
+    public void keysComparedByIdentity() {
+        WeakRegistry<Object, String> registry = new WeakRegistry<>("test");
+        String key = new String("key");
+        registry.put(key, "value");
+
+        assertEquals("value", registry.get(key));
+        assertNull(registry.get(new String("key")));
+        assertFalse(registry.containsKey(new String("key")));
+    }
+
+    @Test
+    public void entrySetIteratorRemoves() {
+        WeakRegistry<Object, String> registry = new WeakRegistry<>("test");
+        Object key = new Object();
+        registry.put(key, "value");
+
+        for (Iterator<Map.Entry<Object, String>> it = registry.entrySet().iterator(); it.hasNext(); ) {
+            it.next();
+            it.remove();
+        }
+
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void trackedClassLoadersListed() {
+        WeakRegistry<Object, ClassLoader> registry = new WeakRegistry<>("tracked");
+        Object resource = new Object();
+        ClassLoader classLoader = new URLClassLoader(new URL[0]);
+        registry.put(resource, classLoader);
+
+        List<String> registries = WeakRegistry.getTrackedClassLoaders().get(classLoader);
+        assertEquals(1, registries.size());
+        assertEquals("tracked", registries.get(0));
+    }
+
+    @Test
+    public void weakValueEntryExpunged() throws Exception {
+        WeakRegistry<Object, ClassLoader> registry = WeakRegistry.weakValues("test");
+        Object resource = new Object();
+        registry.put(resource, new URLClassLoader(new URL[0]));
+
+        gc(registry);
+
+        assertEquals(0, registry.size());
+        assertNull(registry.get(resource));
+    }
+
+    @Test
+    public void classLoaderScopedValueReferencingKey() throws Exception {
+        WeakRegistry<ClassLoader, Object> registry = WeakRegistry.classLoaderScoped("test");
+        ClassLoader classLoader = new URLClassLoader(new URL[0]);
+        // like a plugin instance holding its app classloader
+        registry.put(classLoader, new Object[]{classLoader});
+
+        System.gc();
+        assertNotNull("Value lives with the classloader", registry.get(classLoader));
+
+        WeakReference<ClassLoader> classLoaderRef = new WeakReference<>(classLoader);
+        classLoader = null;
+        gc(registry);
+
+        assertNull(classLoaderRef.get());
+        assertEquals(0, registry.size());
+    }
+
+    static void gc(Map<?, ?> registry) throws InterruptedException {
+        for (int i = 0; i < 50 && registry.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+    }
+}
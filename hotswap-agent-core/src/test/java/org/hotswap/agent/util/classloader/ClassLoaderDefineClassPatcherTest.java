@@ -19,13 +19,16 @@
 package org.hotswap.agent.util.classloader;
 
 import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.plugin.jdk.JdkPlugin;
 import org.hotswap.agent.plugin.jvm.AnonymousClassInfo;
+import org.hotswap.agent.util.IOUtils;
 import org.junit.Test;
 
 import java.net.URL;
 import java.net.URLClassLoader;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 /**
  * Created by bubnik on 29.10.13.
@@ -55,4 +58,40 @@ public class ClassLoaderDefineClassPatcherTest {
         ;
     }
 
+    @Test
+    public void testPatchClass() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+
+        new ClassLoaderDefineClassPatcher().patchClass(getClass().getClassLoader(), PluginManager.PLUGIN_PACKAGE.replace(".", "/"),
+                appClassLoader, null, AnonymousClassInfo.class.getName());
+
+        assertEquals("Class created in app classloader", appClassLoader,
+                appClassLoader.loadClass(AnonymousClassInfo.class.getName()).getClassLoader());
+        assertEquals("Other plugin class not defined", getClass().getClassLoader(),
+                appClassLoader.loadClass(JdkPlugin.class.getName()).getClassLoader());
+    }
+
+    static class UsesPluginClass {
+        AnonymousClassInfo info;
+    }
+
+    @Test
+    public void testPatchReferencedClasses() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+        String pluginPath = PluginManager.PLUGIN_PACKAGE.replace(".", "/");
+        ClassLoaderDefineClassPatcher patcher = new ClassLoaderDefineClassPatcher();
+
+        patcher.patchReferencedClasses(getClass().getClassLoader(), pluginPath, appClassLoader, null, bytecode(ClassLoaderHelper.class));
+        assertFalse("No plugin class referenced",
+                ClassLoaderHelper.isClassLoaded(appClassLoader, AnonymousClassInfo.class.getName()));
+
+        patcher.patchReferencedClasses(getClass().getClassLoader(), pluginPath, appClassLoader, null, bytecode(UsesPluginClass.class));
+        assertEquals("Referenced class created in app classloader", appClassLoader,
+                appClassLoader.loadClass(AnonymousClassInfo.class.getName()).getClassLoader());
+    }
+
+    private static byte[] bytecode(Class<?> clazz) throws Exception {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        return IOUtils.toByteArray(clazz.getClassLoader().getResource(resource).toURI());
+    }
 }
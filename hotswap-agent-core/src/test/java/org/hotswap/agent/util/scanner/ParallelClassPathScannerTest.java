@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.util.HaClassFileTransformer;
+import org.hotswap.agent.util.HotswapTransformer;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parallel scanner visits the same class files as the sequential one.
+ */
+public class ParallelClassPathScannerTest {
+
+    @Test
+    public void testScanDirectory() throws Exception {
+        List<String> expected = scan(new ClassPathScanner(), "org/hotswap/agent/util");
+        List<String> parallel = scan(new ParallelClassPathScanner(new ForkJoinPool(4)), "org/hotswap/agent/util");
+
+        assertTrue("Classes in subdirectories visited", expected.contains(ParallelClassPathScanner.class.getName()));
+        assertEquals(expected, parallel);
+    }
+
+    @Test
+    public void testScanJar() throws Exception {
+        List<String> expected = scan(new ClassPathScanner(), "org/junit/runner");
+        List<String> parallel = scan(new ParallelClassPathScanner(new ForkJoinPool(4)), "org/junit/runner");
+
+        assertTrue("Classes in JAR file visited", expected.contains("org.junit.runner.JUnitCore"));
+        assertEquals(expected, parallel);
+    }
+
+    @Test(expected = IOException.class)
+    public void testVisitorException() throws Exception {
+        new ParallelClassPathScanner(new ForkJoinPool(4)).scan(getClass().getClassLoader(), "org/hotswap/agent/util", new ScannerVisitor() {
+            @Override
+            public void visit(InputStream file) throws IOException {
+                throw new IOException("Visitor failure");
+            }
+        });
+    }
+
+    @Test
+    public void testAgentPool() throws Exception {
+        Set<String> threads = visitingThreads();
+        for (String thread : threads) {
+            assertTrue(thread, thread.startsWith("HotswapAgent-scanner-") || thread.equals(Thread.currentThread().getName()));
+        }
+    }
+
+    @Test
+    public void testSequentialInTransform() throws Exception {
+        final List<Set<String>> threads = new ArrayList<>();
+        HotswapTransformer hotswapTransformer = new HotswapTransformer();
+        hotswapTransformer.registerTransformer(null, "org.example.Transformed", new HaClassFileTransformer() {
+            @Override
+            public boolean isForRedefinitionOnly() {
+                return false;
+            }
+
+            @Override
+            public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                    ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+                try {
+                    threads.add(visitingThreads());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return classfileBuffer;
+            }
+        });
+        assertFalse(HotswapTransformer.isTransforming());
+        hotswapTransformer.transform(null, "org/example/Transformed", null, null, new byte[0]);
+
+        assertEquals(1, threads.size());
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), threads.get(0));
+        assertFalse(HotswapTransformer.isTransforming());
+    }
+
+    private Set<String> visitingThreads() throws IOException {
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        new ParallelClassPathScanner().scan(getClass().getClassLoader(), "org/hotswap/agent/util", new ScannerVisitor() {
+            @Override
+            public void visit(InputStream file) throws IOException {
+                threads.add(Thread.currentThread().getName());
+            }
+        });
+        return new HashSet<>(threads);
+    }
+
+    private List<String> scan(Scanner scanner, String path) throws IOException {
+        final List<String> classNames = Collections.synchronizedList(new ArrayList<String>());
+        scanner.scan(getClass().getClassLoader(), path, new ScannerVisitor() {
+            @Override
+            public void visit(InputStream file) throws IOException {
+                classNames.add(new ClassFile(new DataInputStream(file)).getName());
+            }
+        });
+        List<String> ret = new ArrayList<>(classNames);
+        Collections.sort(ret);
+        return ret;
+    }
+}
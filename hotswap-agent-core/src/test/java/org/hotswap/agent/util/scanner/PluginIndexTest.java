@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.hotswap.agent.plugin.jdk.JdkPlugin;
+import org.hotswap.agent.testData.SimplePlugin;
+import org.junit.Test;
+
+/**
+ * Test build-time plugin index.
+ */
+public class PluginIndexTest {
+
+    @Test
+    public void testBuild() throws Exception {
+        PluginIndex index = PluginIndex.build(getClass().getClassLoader(), "org/hotswap/agent/testData", new ClassPathScanner());
+
+        assertEquals(1, index.getEntries().size());
+        PluginIndex.Entry entry = index.getEntries().get(0);
+        assertEquals(SimplePlugin.class.getName(), entry.getPluginClass());
+        assertEquals("Hibernate plugin", entry.getName());
+        assertEquals(Collections.singletonList("org.hotswap.example.type"), entry.getClassLoadPatterns());
+        assertTrue("Non static handler is not a trigger", entry.getTriggerPatterns().isEmpty());
+        assertFalse(entry.isLazy());
+    }
+
+    @Test
+    public void testBuildLazy() throws Exception {
+        PluginIndex index = PluginIndex.build(getClass().getClassLoader(), "org/hotswap/agent/plugin/jdk", new ClassPathScanner());
+
+        PluginIndex.Entry entry = index.getEntries().get(0);
+        assertEquals(JdkPlugin.class.getName(), entry.getPluginClass());
+        assertFalse(entry.getTriggerPatterns().isEmpty());
+        assertTrue("Only static @OnClassLoadEvent handlers", entry.isLazy());
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        PluginIndex index = PluginIndex.build(getClass().getClassLoader(), "org/hotswap/agent/testData", new ClassPathScanner());
+        StringWriter writer = new StringWriter();
+        index.write(writer);
+
+        PluginIndex read = PluginIndex.read(new ByteArrayInputStream(writer.toString().getBytes(StandardCharsets.UTF_8)));
+        assertEquals(index.getPluginClassNames(), read.getPluginClassNames());
+        assertEquals(index.getEntries().get(0).getName(), read.getEntries().get(0).getName());
+        assertEquals(index.getEntries().get(0).getClassLoadPatterns(), read.getEntries().get(0).getClassLoadPatterns());
+        assertEquals(index.getEntries().get(0).isLazy(), read.getEntries().get(0).isLazy());
+    }
+
+    @Test
+    public void testLoadNotIndexed() throws Exception {
+        assertNull("Package without index is scanned", PluginIndex.load(getClass().getClassLoader(), "org/hotswap/agent/testData"));
+    }
+}
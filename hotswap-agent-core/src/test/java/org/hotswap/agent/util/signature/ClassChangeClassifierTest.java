@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.CtMethod;
+import org.hotswap.agent.javassist.CtNewMethod;
+import org.hotswap.agent.javassist.bytecode.AnnotationsAttribute;
+import org.hotswap.agent.javassist.bytecode.ConstPool;
+import org.hotswap.agent.javassist.bytecode.SourceFileAttribute;
+import org.hotswap.agent.javassist.bytecode.annotation.Annotation;
+import org.junit.Test;
+
+public class ClassChangeClassifierTest {
+
+    private static final String CLASS_NAME = "org.hotswap.agent.util.signature.ClassifiedTestClass";
+
+    public static class Plain {
+        private int value;
+
+        public int getValue() {
+            return value + 1;
+        }
+    }
+
+    public static class Redefined {
+    }
+
+    public static class Generic<T extends Comparable<T>> extends java.util.ArrayList<T> {
+        private java.util.List<String> names;
+
+        public <E extends Exception> java.util.Map<String, ? super T> lookup(java.util.List<? extends T>[] values) throws E {
+            return null;
+        }
+
+        public class Inner {
+            public Inner(java.util.List<T> values) {
+            }
+        }
+    }
+
+    private byte[] makeClass(String body, String sourceFile, boolean annotated, boolean extraMethod,
+                             boolean runnable, String unusedConstant) throws Exception {
+        ClassPool classPool = new ClassPool(true);
+        CtClass ctClass = classPool.makeClass(CLASS_NAME);
+        ConstPool constPool = ctClass.getClassFile().getConstPool();
+        if (unusedConstant != null) {
+            constPool.addStringInfo(unusedConstant);
+        }
+        if (runnable) {
+            ctClass.addInterface(classPool.get(Runnable.class.getName()));
+            ctClass.addMethod(CtNewMethod.make("public void run() {}", ctClass));
+        }
+        CtMethod method = CtNewMethod.make("public Object get() { " + body + " }", ctClass);
+        if (annotated) {
+            AnnotationsAttribute attribute = new AnnotationsAttribute(constPool, AnnotationsAttribute.visibleTag);
+            attribute.addAnnotation(new Annotation(Deprecated.class.getName(), constPool));
+            method.getMethodInfo().addAttribute(attribute);
+        }
+        ctClass.addMethod(method);
+        if (extraMethod) {
+            ctClass.addMethod(CtNewMethod.make("public void extra() {}", ctClass));
+        }
+        if (sourceFile != null) {
+            ctClass.getClassFile().addAttribute(new SourceFileAttribute(constPool, sourceFile));
+        }
+        return ctClass.toBytecode();
+    }
+
+    private byte[] makeClass(String body) throws Exception {
+        return makeClass(body, null, false, false, false, null);
+    }
+
+    @Test
+    public void identical() throws Exception {
+        assertEquals(ClassChangeKind.NONE, ClassChangeClassifier.classify(makeClass("return \"a\";"), makeClass("return \"a\";")));
+    }
+
+    @Test
+    public void debugInfoOnly() throws Exception {
+        byte[] oldBytes = makeClass("return \"a\";", "A.java", false, false, false, null);
+        byte[] newBytes = makeClass("return \"a\";", "B.java", false, false, false, null);
+        assertEquals(ClassChangeKind.DEBUG_INFO_ONLY, ClassChangeClassifier.classify(oldBytes, newBytes));
+    }
+
+    @Test
+    public void constantPoolReorderIsNotBodyChange() throws Exception {
+        byte[] oldBytes = makeClass("return \"a\";");
+        byte[] newBytes = makeClass("return \"a\";", null, false, false, false, "unused");
+        assertEquals(ClassChangeKind.DEBUG_INFO_ONLY, ClassChangeClassifier.classify(oldBytes, newBytes));
+    }
+
+    @Test
+    public void methodBody() throws Exception {
+        assertEquals(ClassChangeKind.METHOD_BODY, ClassChangeClassifier.classify(makeClass("return \"a\";"), makeClass("return null;")));
+        // same code bytes, different constant
+        assertEquals(ClassChangeKind.METHOD_BODY, ClassChangeClassifier.classify(makeClass("return \"a\";"), makeClass("return \"b\";")));
+    }
+
+    @Test
+    public void annotation() throws Exception {
+        byte[] newBytes = makeClass("return \"a\";", null, true, false, false, null);
+        assertEquals(ClassChangeKind.ANNOTATION, ClassChangeClassifier.classify(makeClass("return \"a\";"), newBytes));
+    }
+
+    @Test
+    public void signature() throws Exception {
+        byte[] newBytes = makeClass("return null;", null, true, true, false, null);
+        assertEquals(ClassChangeKind.SIGNATURE, ClassChangeClassifier.classify(makeClass("return \"a\";"), newBytes));
+    }
+
+    @Test
+    public void hierarchy() throws Exception {
+        byte[] newBytes = makeClass("return \"a\";", null, false, false, true, null);
+        assertEquals(ClassChangeKind.HIERARCHY, ClassChangeClassifier.classify(makeClass("return \"a\";"), newBytes));
+    }
+
+    @Test
+    public void reflectionFallback() throws Exception {
+        ClassPool classPool = new ClassPool(true);
+        CtClass ctClass = classPool.get(Plain.class.getName());
+        assertEquals(ClassChangeKind.METHOD_BODY, ClassChangeClassifier.classify(Plain.class, ctClass.toBytecode()));
+
+        ctClass.defrost();
+        ctClass.addMethod(CtNewMethod.make("public void extra() {}", ctClass));
+        assertEquals(ClassChangeKind.SIGNATURE, ClassChangeClassifier.classify(Plain.class, ctClass.toBytecode()));
+    }
+
+    @Test
+    public void reflectionFallbackGenericSignature() throws Exception {
+        ClassPool classPool = new ClassPool(true);
+        CtClass ctClass = classPool.get(Generic.class.getName());
+        assertEquals(ClassChangeKind.METHOD_BODY, ClassChangeClassifier.classify(Generic.class, ctClass.toBytecode()));
+        CtClass inner = classPool.get(Generic.Inner.class.getName());
+        assertEquals(ClassChangeKind.METHOD_BODY, ClassChangeClassifier.classify(Generic.Inner.class, inner.toBytecode()));
+
+        ctClass.defrost();
+        ctClass.getField("names").setGenericSignature("Ljava/util/List<Ljava/lang/Integer;>;");
+        assertEquals(ClassChangeKind.SIGNATURE, ClassChangeClassifier.classify(Generic.class, ctClass.toBytecode()));
+
+        ctClass = new ClassPool(true).get(Generic.class.getName());
+        ctClass.setGenericSignature("<T::Ljava/lang/Comparable<TT;>;>Ljava/util/ArrayList<Ljava/lang/String;>;");
+        assertEquals(ClassChangeKind.SIGNATURE, ClassChangeClassifier.classify(Generic.class, ctClass.toBytecode()));
+    }
+
+    @Test
+    public void loadedBytesKeptAfterSuccessfulRedefinition() throws Exception {
+        byte[] bytes = new ClassPool(true).get(Redefined.class.getName()).toBytecode();
+        ClassChangeClassifier.beginRedefinition(Redefined.class, bytes);
+        ClassChangeClassifier.endRedefinition();
+        assertNull("Outcome not known yet", ClassChangeClassifier.getLoadedBytes(Redefined.class));
+
+        ClassChangeClassifier.redefinitionFailed(Redefined.class);
+        assertNull("Rejected redefinition not recorded", ClassChangeClassifier.getLoadedBytes(Redefined.class));
+
+        ClassChangeClassifier.beginRedefinition(Redefined.class, bytes);
+        ClassChangeClassifier.endRedefinition();
+        ClassChangeClassifier.redefinitionSucceeded(Redefined.class, bytes);
+        assertSame(bytes, ClassChangeClassifier.getLoadedBytes(Redefined.class));
+    }
+
+    @Test
+    public void loadedBytesCacheKeepsPendingAndRedefinedMarkers() {
+        ClassChangeClassifier.LoadedBytesCache cache = new ClassChangeClassifier.LoadedBytesCache(12);
+        cache.put(Plain.class, new byte[6]);
+        cache.put(Redefined.class, new byte[6]);
+        cache.markPending(Plain.class);
+        // the pending class is the least recently used now
+        cache.get(Redefined.class);
+        cache.put(Generic.class, new byte[6]);
+
+        assertNull("Least recently used not pending dropped", cache.get(Redefined.class).bytes);
+        assertNotNull("Pending not dropped", cache.get(Plain.class).bytes);
+
+        cache.markPending(Generic.Inner.class);
+        cache.clearPending(Generic.Inner.class);
+        assertNotNull("Redefined class marker kept", cache.get(Generic.Inner.class));
+    }
+
+    @Test
+    public void bodyOnly() {
+        assertTrue(ClassChangeKind.DEBUG_INFO_ONLY.isBodyOnly());
+        assertTrue(ClassChangeKind.METHOD_BODY.isBodyOnly());
+        assertFalse(ClassChangeKind.ANNOTATION.isBodyOnly());
+    }
+}
@@ -19,15 +19,20 @@
 package org.hotswap.agent.util.signature;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.util.Map;
 
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.CtNewMethod;
 import org.hotswap.agent.javassist.NotFoundException;
 import org.junit.Test;
 
@@ -303,4 +308,76 @@ public class SignatureTest {
         String actual = ClassSignatureComparerHelper.getCtClassSignature(makeClass, SIGNATURE_ELEMENTS);
         assertEquals("Signatures not equal", expected, actual);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void classFileSignatureTest() throws Exception {
+        byte[] bytes = ClassPool.getDefault().get(OneMethod.class.getName()).toBytecode();
+        String expected = ClassSignatureComparerHelper.getJavaClassSignature(OneMethod.class, SIGNATURE_ELEMENTS);
+        String actual = ClassSignatureComparerHelper.getClassFileSignature(bytes, ClassPool.getDefault(), SIGNATURE_ELEMENTS);
+        assertEquals("Signatures not equal", expected, actual);
+        assertFalse(ClassSignatureComparerHelper.isDifferent(bytes, OneMethod.class, SIGNATURE_ELEMENTS));
+    }
+
+    @Test
+    public void signatureHashTest() throws Exception {
+        String hash = ClassSignatureComparerHelper.getJavaClassSignatureHash(C.class, SIGNATURE_ELEMENTS);
+        assertEquals(32, hash.length());
+        assertEquals(hash, ClassSignatureComparerHelper.getJavaClassSignatureHash(C.class, SIGNATURE_ELEMENTS));
+        ClassSignatureComparerHelper.invalidate(C.class);
+        assertEquals(hash, ClassSignatureComparerHelper.getJavaClassSignatureHash(C.class, SIGNATURE_ELEMENTS));
+
+        CtClass ctClass = new ClassPool(true).get(C.class.getName());
+        assertFalse(ClassSignatureComparerHelper.isDifferent(ctClass, C.class, SIGNATURE_ELEMENTS));
+        ctClass.addMethod(CtNewMethod.make("public void added() {}", ctClass));
+        assertTrue(ClassSignatureComparerHelper.isDifferent(ctClass, C.class, SIGNATURE_ELEMENTS));
+    }
+
+    @Test
+    public void signatureNotCachedWhileRedefining() throws Exception {
+        ClassSignatureComparerHelper.redefining(C.class);
+        ClassSignatureComparerHelper.getJavaClassSignatureHash(C.class, SIGNATURE_ELEMENTS);
+        assertFalse("Redefinition not committed yet", cachedSignatureHashes().containsKey(C.class));
+
+        ClassSignatureComparerHelper.invalidate(C.class);
+        ClassSignatureComparerHelper.getJavaClassSignatureHash(C.class, SIGNATURE_ELEMENTS);
+        assertTrue(cachedSignatureHashes().containsKey(C.class));
+    }
+
+    private static Map<?, ?> cachedSignatureHashes() throws Exception {
+        Field field = ClassSignatureComparerHelper.class.getDeclaredField("javaSignatureHashes");
+        field.setAccessible(true);
+        return (Map<?, ?>) field.get(null);
+    }
+
+    @Test
+    public void classFileFingerprintTest() throws Exception {
+        CtClass ctClass = new ClassPool(true).get(OneMethod.class.getName());
+        byte[] bytes = ctClass.toBytecode();
+        String fingerprint = ClassSignatureComparerHelper.getClassFileFingerprint(bytes, SIGNATURE_ELEMENTS);
+        assertEquals(fingerprint, ClassSignatureComparerHelper.getClassFileFingerprint(bytes, SIGNATURE_ELEMENTS));
+
+        ctClass.defrost();
+        ctClass.getDeclaredMethod("get9").setBody("return 1;");
+        byte[] bodyChanged = ctClass.toBytecode();
+        assertEquals(fingerprint, ClassSignatureComparerHelper.getClassFileFingerprint(bodyChanged, SIGNATURE_ELEMENTS));
+
+        ctClass.defrost();
+        ctClass.addMethod(CtNewMethod.make("public void added() {}", ctClass));
+        byte[] methodAdded = ctClass.toBytecode();
+        assertFalse(fingerprint.equals(ClassSignatureComparerHelper.getClassFileFingerprint(methodAdded, SIGNATURE_ELEMENTS)));
+    }
+
+    @Test
+    public void loadedBytesFingerprintTest() throws Exception {
+        CtClass ctClass = new ClassPool(true).get(B.class.getName());
+        byte[] bytes = ctClass.toBytecode();
+        // B was loaded from bytes known to the agent
+        ClassChangeClassifier.redefinitionSucceeded(B.class, bytes);
+        ClassSignatureComparerHelper.invalidate(B.class);
+
+        assertFalse(ClassSignatureComparerHelper.isDifferent(bytes, B.class, SIGNATURE_ELEMENTS));
+        ctClass.defrost();
+        ctClass.addMethod(CtNewMethod.make("public void added() {}", ctClass));
+        assertTrue(ClassSignatureComparerHelper.isDifferent(ctClass.toBytecode(), B.class, SIGNATURE_ELEMENTS));
+    }
+}
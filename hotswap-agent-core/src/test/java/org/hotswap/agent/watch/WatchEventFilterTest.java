@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.junit.Test;
+
+public class WatchEventFilterTest {
+
+    @Test
+    public void eventTypeFilter() {
+        WatchEventFilter filter = WatchEventFilter.ofRegexp(new FileEvent[]{FileEvent.MODIFY}, null, false);
+        assertTrue(filter.acceptEventType(FileEvent.MODIFY));
+        assertFalse(filter.acceptEventType(FileEvent.CREATE));
+        assertFalse(filter.isUriPatternDefined());
+    }
+
+    @Test
+    public void regexpFilter() {
+        WatchEventFilter filter = WatchEventFilter.ofRegexp(FileEvent.values(), ".*(?<!_jsp)\\.class", false);
+        Path clazz = Paths.get("/tmp/test/Test.class");
+        Path jsp = Paths.get("/tmp/test/index_jsp.class");
+        assertTrue(filter.isUriPatternDefined());
+        assertTrue(filter.acceptPath(clazz, clazz.toUri().toString()));
+        assertFalse(filter.acceptPath(jsp, jsp.toUri().toString()));
+    }
+
+    @Test
+    public void globFilter() {
+        WatchEventFilter filter = WatchEventFilter.ofGlob(FileEvent.values(), "**/*.xml", true);
+        assertTrue(filter.isAcceptDirectories());
+        assertTrue(filter.acceptPath(Paths.get("/tmp/test/beans.xml"), null));
+        assertFalse(filter.acceptPath(Paths.get("/tmp/test/beans.properties"), null));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hotswap.agent.watch.nio.EventDispatcher.Event;
+import org.junit.Test;
+
+public class BuildBatchWindowTest {
+
+    @Test
+    public void singleChangeReleasedAfterSettle() {
+        BuildBatchWindow window = new BuildBatchWindow(10, 500, false);
+        window.add(events("A.class"), 1000);
+        assertTrue(window.release(1050).isEmpty());
+        assertEquals(1, window.release(1000 + BuildBatchWindow.SETTLE_PERIOD).size());
+    }
+
+    @Test
+    public void burstHeldUntilQuiet() {
+        BuildBatchWindow window = new BuildBatchWindow(3, 500, false);
+        window.add(events("A.class", "B.class"), 1000);
+        window.add(events("C.class", "D.class"), 1050);
+        assertTrue(window.isBurst());
+        assertTrue(window.release(1200).isEmpty());
+        window.add(events("E.class"), 1300);
+        assertTrue(window.release(1700).isEmpty());
+
+        List<Event> batch = window.release(1800);
+        assertEquals("Whole burst released as one batch", 5, batch.size());
+        assertFalse(window.isBurst());
+    }
+
+    @Test
+    public void markerReleasesBurst() {
+        BuildBatchWindow window = new BuildBatchWindow(2, 500, true);
+        window.add(events("A.class", "B.class", "C.class"), 1000);
+        assertTrue("Waits for marker even if quiet", window.release(5000).isEmpty());
+        window.add(events(BuildBatchWindow.BUILD_COMPLETE_MARKER), 5100);
+        assertEquals("Marker itself is not dispatched", 3, window.release(5100).size());
+    }
+
+    @Test
+    public void markerWaitLimited() {
+        BuildBatchWindow window = new BuildBatchWindow(1, 500, true);
+        window.add(events("A.class"), 1000);
+        assertTrue(window.release(2000).isEmpty());
+        assertEquals(1, window.release(1000 + BuildBatchWindow.MAX_HOLD_TIME).size());
+    }
+
+    private List<Event> events(String... names) {
+        List<Event> ret = new ArrayList<>();
+        for (String name : names) {
+            final Path path = Paths.get("/tmp/classes", name);
+            ret.add(new Event(new WatchEvent<Path>() {
+                @Override
+                public Kind<Path> kind() {
+                    return ENTRY_MODIFY;
+                }
+
+                @Override
+                public int count() {
+                    return 1;
+                }
+
+                @Override
+                public Path context() {
+                    return path.getFileName();
+                }
+            }, path));
+        }
+        return Collections.unmodifiableList(ret);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentDigestFilterTest {
+
+    ContentDigestFilter filter;
+    Path temp;
+
+    @Before
+    public void setup() throws IOException {
+        filter = new ContentDigestFilter();
+        temp = Files.createTempDirectory("contentDigestFilterTest");
+    }
+
+    @Test
+    public void sameContentIsSkipped() throws IOException {
+        Path file = temp.resolve("Test.class");
+        Files.write(file, new byte[]{1, 2, 3});
+        assertTrue("First event accepted", filter.accept(ENTRY_CREATE, file));
+
+        Files.write(file, new byte[]{1, 2, 3});
+        assertFalse("Same content skipped", filter.accept(ENTRY_MODIFY, file));
+
+        Files.write(file, new byte[]{1, 2, 4});
+        assertTrue("Changed content accepted", filter.accept(ENTRY_MODIFY, file));
+    }
+
+    @Test
+    public void deleteResetsDigest() throws IOException {
+        Path file = temp.resolve("test.xml");
+        Files.write(file, new byte[]{1});
+        assertTrue(filter.accept(ENTRY_CREATE, file));
+        assertTrue("Delete always accepted", filter.accept(ENTRY_DELETE, file));
+        assertTrue("Recreated file accepted", filter.accept(ENTRY_CREATE, file));
+    }
+
+    @Test
+    public void largeFileIsStreamed() throws IOException {
+        Path file = temp.resolve("large.jar");
+        byte[] content = new byte[ContentDigestFilter.BUFFER_SIZE * 3 + 7];
+        Arrays.fill(content, (byte) 5);
+        Files.write(file, content);
+        assertTrue(filter.accept(ENTRY_CREATE, file));
+        assertFalse(filter.accept(ENTRY_MODIFY, file));
+
+        content[content.length - 1] = 6;
+        Files.write(file, content);
+        assertTrue(filter.accept(ENTRY_MODIFY, file));
+    }
+
+    @Test
+    public void leastRecentlyChangedForgotten() throws IOException {
+        filter = new ContentDigestFilter(2);
+        Path first = temp.resolve("First.class");
+        Path second = temp.resolve("Second.class");
+        Path third = temp.resolve("Third.class");
+        for (Path file : Arrays.asList(first, second, third)) {
+            Files.write(file, new byte[]{1});
+            assertTrue(filter.accept(ENTRY_CREATE, file));
+        }
+
+        assertEquals(2, filter.size());
+        assertTrue("Forgotten file accepted", filter.accept(ENTRY_MODIFY, first));
+        assertFalse(filter.accept(ENTRY_MODIFY, third));
+    }
+
+    @Test
+    public void directoryIsAccepted() {
+        assertTrue(filter.accept(ENTRY_MODIFY, temp));
+        assertTrue(filter.accept(ENTRY_MODIFY, temp));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2022 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.hotswap.agent.annotation.FileEvent;
+import org.hotswap.agent.watch.WatchEventFilter;
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchFileEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JarWatchRegistryTest {
+
+    JarWatchRegistry registry;
+    Path jar;
+    List<WatchFileEvent> events;
+
+    @Before
+    public void setup() throws IOException {
+        registry = new JarWatchRegistry();
+        jar = Files.createTempDirectory("jarWatchRegistryTest").resolve("module.jar");
+        events = new ArrayList<>();
+    }
+
+    @Test
+    public void jarURI() {
+        URI uri = URI.create("jar:file:/tmp/my%20dir/module.jar!/org/example/");
+        assertTrue(JarWatchRegistry.isJarURI(uri));
+        assertTrue(JarWatchRegistry.isJarURI(URI.create("file:/tmp/module.jar")));
+        assertFalse(JarWatchRegistry.isJarURI(URI.create("file:/tmp/classes/")));
+        assertEquals("/tmp/my dir/module.jar", JarWatchRegistry.getJarPath(uri).toString());
+        assertEquals("org/example/", JarWatchRegistry.getEntryPrefix(uri));
+    }
+
+    @Test
+    public void changedEntriesOnly() throws IOException {
+        writeJar("org/example/A.class", "a", "org/example/B.class", "b", "META-INF/beans.xml", "x");
+        registry.addListener(jar, "org/", null, collector());
+
+        writeJar("org/example/A.class", "a2", "org/example/B.class", "b", "org/example/C.class", "c");
+        assertTrue(registry.dispatch(ENTRY_MODIFY, jar));
+
+        assertEquals(2, events.size());
+        assertEquals(FileEvent.MODIFY, events.get(0).getEventType());
+        assertEquals("jar:" + jar.toUri() + "!/org/example/A.class", events.get(0).getURI().toString());
+        assertEquals(FileEvent.CREATE, events.get(1).getEventType());
+        assertTrue(events.get(1).getURI().toString().endsWith("!/org/example/C.class"));
+    }
+
+    @Test
+    public void deleteKeepsIndex() throws IOException {
+        writeJar("org/example/A.class", "a");
+        registry.addListener(jar, "", null, collector());
+
+        Files.delete(jar);
+        assertTrue(registry.dispatch(ENTRY_DELETE, jar));
+        writeJar("org/example/A.class", "a");
+        assertTrue(registry.dispatch(ENTRY_MODIFY, jar));
+
+        assertTrue("Same content after delete/create", events.isEmpty());
+    }
+
+    @Test
+    public void filterAndRemove() throws IOException {
+        writeJar("org/example/A.class", "a", "beans.xml", "x");
+        WatchEventListener listener = collector();
+        registry.addListener(jar, "", WatchEventFilter.ofRegexp(new FileEvent[]{FileEvent.MODIFY}, ".*\\.xml", false), listener);
+
+        writeJar("org/example/A.class", "a2", "beans.xml", "x2");
+        registry.dispatch(ENTRY_MODIFY, jar);
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).getURI().toString().endsWith("beans.xml"));
+
+        registry.removeListener(listener);
+        assertFalse("Jar without listeners is not watched", registry.dispatch(ENTRY_MODIFY, jar));
+    }
+
+    private WatchEventListener collector() {
+        return new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                events.add(event);
+            }
+        };
+    }
+
+    private void writeJar(String... nameContent) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < nameContent.length; i += 2) {
+            entries.put(nameContent[i], nameContent[i + 1]);
+        }
+        try (OutputStream os = Files.newOutputStream(jar); JarOutputStream jos = new JarOutputStream(os)) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                jos.putNextEntry(new ZipEntry(entry.getKey()));
+                jos.write(entry.getValue().getBytes("UTF-8"));
+                jos.closeEntry();
+            }
+        }
+    }
+}
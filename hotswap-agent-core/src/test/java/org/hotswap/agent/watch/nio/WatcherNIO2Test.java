@@ -34,6 +34,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 
 /**
@@ -75,6 +76,34 @@ public class WatcherNIO2Test {
         assertTrue("Event listener called", waitForResult(resultHolder));
     }
 
+    @Test
+    public void closeClassLoaderKeepsSharedDirectory() throws IOException {
+        ClassLoader closed = new ClassLoader() {};
+        ClassLoader alive = new ClassLoader() {};
+        final ResultHolder closedHolder = new ResultHolder();
+        final ResultHolder aliveHolder = new ResultHolder();
+        watcher.addEventListener(closed, temp.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                closedHolder.result = true;
+            }
+        });
+        watcher.addEventListener(alive, temp.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                aliveHolder.result = true;
+            }
+        });
+
+        watcher.closeClassLoader(closed);
+
+        File testFile = new File(temp.toFile(), "shared.class");
+        testFile.createNewFile();
+
+        assertTrue("Event listener of other classloader called", waitForResult(aliveHolder));
+        assertFalse("Closed classloader listener not called", closedHolder.result);
+    }
+
     // ensure it works on file:/ URIs as returned by classloader
     //@Test
     public void testTargetClasses() throws Exception {
@@ -0,0 +1,46 @@
+package org.hotswap.agent.distribution;
+
+import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.util.scanner.ClassPathScanner;
+import org.hotswap.agent.util.scanner.PluginIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generate plugin index of all plugins on the classpath into the distribution classes directory. The index
+ * is used by PluginRegistry instead of scanning the plugin package at agent startup.
+ * <p/>
+ * Launched by maven in process-classes phase of the distribution module.
+ */
+public class PluginIndexGenerator {
+
+    /**
+     * Generate the index.
+     *
+     * @param args output classes directory (e.g. target/classes)
+     * @throws IOException scan or write error
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: PluginIndexGenerator <output classes directory>");
+        }
+
+        String pluginPath = PluginManager.PLUGIN_PACKAGE.replace(".", "/");
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        PluginIndex index = PluginIndex.build(classLoader, pluginPath, new ClassPathScanner());
+
+        File indexFile = new File(new File(args[0], pluginPath), PluginIndex.INDEX_FILE);
+        if (!indexFile.getParentFile().isDirectory() && !indexFile.getParentFile().mkdirs()) {
+            throw new IOException("Unable to create directory " + indexFile.getParentFile());
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), StandardCharsets.UTF_8)) {
+            index.write(writer);
+        }
+        System.out.println("Plugin index with " + index.getEntries().size() + " plugins written to " + indexFile);
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Map;
 import javax.enterprise.context.spi.Context;
 import javax.enterprise.inject.spi.Bean;
 
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
@@ -235,6 +236,7 @@ public class HaCdiCommons {
 
         if (classLoader != null) {
             try {
+                PluginManager.getInstance().definePluginClass(classLoader, HaCdiCommons.class.getName());
                 Class<?> clazz = classLoader.loadClass(HaCdiCommons.class.getName());
                 if (clazz != HaCdiCommons.class) {
                     return (Map) ReflectionHelper.get(null, clazz, "scopeToContextMap");
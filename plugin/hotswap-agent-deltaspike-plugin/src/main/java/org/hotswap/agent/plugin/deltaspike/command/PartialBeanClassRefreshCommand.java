@@ -26,6 +26,7 @@ import java.util.List;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.MergeableCommand;
 import org.hotswap.agent.command.Scheduler;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.deltaspike.DeltaSpikePlugin;
 
@@ -63,6 +64,7 @@ public class PartialBeanClassRefreshCommand extends MergeableCommand  {
 
         try {
             LOGGER.debug("Executing PartialBeanClassRefreshAgent.refreshPartialBeanClass('{}')", className);
+            PluginManager.getInstance().definePluginClass(appClassLoader, PartialBeanClassRefreshAgent.class.getName());
             Class<?> agentClazz = Class.forName(PartialBeanClassRefreshAgent.class.getName(), true, appClassLoader);
             Method m  = agentClazz.getDeclaredMethod("refreshPartialBeanClass", new Class[] {ClassLoader.class, Object.class, String.class});
             m.invoke(null, appClassLoader, partialBean, oldSignForProxyCheck);
@@ -23,6 +23,7 @@ import java.lang.reflect.Method;
 import java.util.List;
 
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.deltaspike.transformer.RepositoryTransformer;
 
@@ -82,6 +83,7 @@ public class RepositoryRefreshCommand  extends MergeableCommand  {
     private void refreshRepository2() {
         try {
             LOGGER.debug( "Executing RepositoryRefreshAgent.refreshHandler('{}')", repoClassName);
+            PluginManager.getInstance().definePluginClass(appClassLoader, RepositoryRefreshAgent.class.getName());
             Class<?> agentClazz = Class.forName(
                     RepositoryRefreshAgent.class.getName(), true,
                     appClassLoader);
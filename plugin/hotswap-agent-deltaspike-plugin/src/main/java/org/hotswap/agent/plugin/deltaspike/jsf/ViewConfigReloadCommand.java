@@ -23,6 +23,7 @@ import java.lang.reflect.Method;
 import java.util.List;
 
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 
 /**
@@ -48,6 +49,7 @@ public class ViewConfigReloadCommand extends MergeableCommand {
     public void executeCommand() {
         try {
             LOGGER.debug("Executing ViewConfigReloader.reloadViewConfig('{}')", rootClassNameList);
+            PluginManager.getInstance().definePluginClass(classLoader, ViewConfigReloader.class.getName());
             Class<?> reloaderClazz = Class.forName(ViewConfigReloader.class.getName(), true, classLoader);
             Method m  = reloaderClazz.getDeclaredMethod("reloadViewConfig", new Class[] {ClassLoader.class, Object.class, java.util.List.class});
             m.invoke(null, classLoader, viewConfigExtension, rootClassNameList);
@@ -41,10 +41,13 @@ import org.hotswap.agent.javassist.CtMethod;
 import org.hotswap.agent.javassist.CtNewMethod;
 import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ClassImpact;
 import org.hotswap.agent.util.PluginManagerInvoker;
+import org.hotswap.agent.util.signature.ClassChangeKind;
 
 /**
- * Clear javax.el.BeanELResolver cache after any class redefinition.
+ * Clear javax.el.BeanELResolver cache after any class redefinition. Method body only changes do not affect
+ * cached bean properties, the cache is kept.
  *
  * @author Vladimir Dvorak
  */
@@ -267,7 +270,12 @@ public class ELResolverPlugin {
     }
 
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-    public void invalidateClassCache(ClassLoader appClassLoader, CtClass ctClass) throws Exception {
+    public void invalidateClassCache(ClassLoader appClassLoader, CtClass ctClass, Class<?> clazz,
+                                     ClassChangeKind changeKind) throws Exception {
+        if (!ClassImpact.of(clazz, changeKind).isStructural()) {
+            LOGGER.trace("Method body change of {}, BeanELResolver cache kept.", ctClass.getName());
+            return;
+        }
         if (jbossReflectionUtil) {
             PurgeJbossReflectionUtil jbossCleanCmd = new PurgeJbossReflectionUtil(appClassLoader);
             scheduler.scheduleCommand(jbossCleanCmd);
@@ -18,11 +18,14 @@ import org.hotswap.agent.javassist.CtMethod;
 import org.hotswap.agent.javassist.CtNewMethod;
 import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ClassImpact;
 import org.hotswap.agent.util.PluginManagerInvoker;
 import org.hotswap.agent.util.ReflectionHelper;
+import org.hotswap.agent.util.signature.ClassChangeKind;
 
 /**
- * Reload jackson caches after class change
+ * Reload jackson caches after class change. Method body only changes do not affect (de)serializers,
+ * caches are kept.
  *
  * @author liuzhengyang
  * 2021/12/3
@@ -58,7 +61,11 @@ public class JacksonPlugin {
     private Scheduler scheduler;
 
     @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
-    public void reload() {
+    public void reload(Class<?> clazz, ClassChangeKind changeKind) {
+        if (!ClassImpact.of(clazz, changeKind).isStructural()) {
+            LOGGER.trace("Method body change of {}, Jackson caches kept.", clazz.getName());
+            return;
+        }
         scheduler.scheduleCommand(reloadJacksonCommand, 500);
     }
 
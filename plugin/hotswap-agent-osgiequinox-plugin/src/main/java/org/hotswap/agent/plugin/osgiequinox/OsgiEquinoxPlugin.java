@@ -25,7 +25,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -37,10 +36,9 @@ import org.hotswap.agent.annotation.Init;
 import org.hotswap.agent.annotation.LoadEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
 import org.hotswap.agent.annotation.Plugin;
-import org.hotswap.agent.command.Command;
-import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginConfiguration;
 import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.config.RedefinitionCoalescer;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
@@ -65,9 +63,6 @@ public class OsgiEquinoxPlugin {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(OsgiEquinoxPlugin.class);
 
-    @Init
-    Scheduler scheduler;
-
     @Init
     PluginManager pluginManager;
 
@@ -77,16 +72,10 @@ public class OsgiEquinoxPlugin {
     @Init
     Watcher watcher;
 
-    // synchronize on this map to wait for previous processing
-    final Map<Class<?>, byte[]> reloadMap = new HashMap<>();
-
     private AutoHotswapPathEventListener listener;
 
     private Set<ClassLoader> registeredEquinoxClassLoaders = Collections.newSetFromMap(new WeakHashMap<ClassLoader, Boolean>());
 
-    // command to do actual hotswap. Single command to merge possible multiple reload actions.
-    private Command hotswapCommand;
-
     private String extraClasspath;
 
     private boolean isDebugMode;
@@ -103,7 +92,7 @@ public class OsgiEquinoxPlugin {
     }
 
     public void initOsgiEquinox() {
-        if (hotswapCommand != null)
+        if (listener != null)
             return;
 
         LOGGER.debug("Init OsgiEquinoxPlugin.");
@@ -129,20 +118,6 @@ public class OsgiEquinoxPlugin {
                 } catch (Exception e) {
                     LOGGER.warning("initOsgiEquinox() exception : {}",  e.getMessage());
                 }
-
-                if (resource != null) {
-                    hotswapCommand = new Command() {
-                        @Override
-                        public void executeCommand() {
-                            pluginManager.hotswap(reloadMap);
-                        }
-
-                        @Override
-                        public String toString() {
-                            return "pluginManager.hotswap(" + Arrays.toString(reloadMap.keySet().toArray()) + ")";
-                        }
-                    };
-                }
             }
 
         }
@@ -181,11 +156,7 @@ public class OsgiEquinoxPlugin {
         }
     }
 
-    private void scheduleHotswapCommand() {
-        scheduler.scheduleCommand(hotswapCommand, 100, Scheduler.DuplicateSheduleBehaviour.SKIP);
-    }
-
-    private boolean loadClassToTargetClassLoaders(CtClass ctClass, URI uri, boolean putToReloadMap) {
+    private boolean loadClassToTargetClassLoaders(CtClass ctClass, URI uri, boolean hotswap) {
         List<ClassLoader> targetClassLoaders = getTargetLoaders(ctClass);
 
         if (targetClassLoaders == null) {
@@ -200,17 +171,18 @@ public class OsgiEquinoxPlugin {
         try {
 
             byte[] bytecode = ctClass.toBytecode();
+            Map<Class<?>, byte[]> reloadMap = new HashMap<>();
 
             for (int i=0; i < targetClassLoaders.size(); i++) {
                 classLoader = targetClassLoaders.get(i);
 
                 Class clazz  = classLoader.loadClass(ctClass.getName());
+                reloadMap.put(clazz, bytecode);
+            }
 
-                if (putToReloadMap) {
-                    synchronized (reloadMap) {
-                        reloadMap.put(clazz, bytecode);
-                    }
-                }
+            if (hotswap) {
+                // merged with other redefinitions by plugin manager
+                pluginManager.scheduleHotswap(reloadMap, RedefinitionCoalescer.DEFAULT_WINDOW);
             }
 
         } catch (ClassNotFoundException e) {
@@ -274,10 +246,9 @@ public class OsgiEquinoxPlugin {
             File classFile = new File(fileURI);
             CtClass ctClass = null;
 
-            boolean doHotswap = false;
             try {
                 ctClass = pool.makeClass(new FileInputStream(classFile));
-                doHotswap = equinoxPlugin.loadClassToTargetClassLoaders(ctClass, fileURI, true);
+                equinoxPlugin.loadClassToTargetClassLoaders(ctClass, fileURI, true);
             } catch (Exception e) {
                 LOGGER.warning("MakeClass exception : {}",  e.getMessage());
             } finally {
@@ -285,9 +256,6 @@ public class OsgiEquinoxPlugin {
                     ctClass.detach();
                 }
             }
-
-            if (doHotswap)
-                equinoxPlugin.scheduleHotswapCommand();
         }
 
     }
@@ -71,7 +71,7 @@ public class OwbClassSignatureHelper {
      */
     public static String getSignatureForProxyClass(Class<?> clazz) {
         try {
-            return ClassSignatureComparerHelper.getJavaClassSignature(clazz, SIGNATURE_ELEM_PROXY);
+            return ClassSignatureComparerHelper.getJavaClassSignatureHash(clazz, SIGNATURE_ELEM_PROXY);
         } catch (Exception e) {
             LOGGER.error("getSignatureForProxyClass(): Error reading signature", e);
             return null;
@@ -104,7 +104,7 @@ public class OwbClassSignatureHelper {
 
     private static String getClassMethodFieldsSignature(Class<?> clazz) {
         try {
-            return ClassSignatureComparerHelper.getJavaClassSignature(clazz, SIGNATURE_ELEM_METHOD_FIELDS);
+            return ClassSignatureComparerHelper.getJavaClassSignatureHash(clazz, SIGNATURE_ELEM_METHOD_FIELDS);
         } catch (Exception e) {
             LOGGER.error("getSignatureForProxyClass(): Error reading signature", e);
             return null;
@@ -113,7 +113,7 @@ public class OwbClassSignatureHelper {
 
     private static String getClassFieldsSignature(Class<?> clazz) {
         try {
-            return ClassSignatureComparerHelper.getJavaClassSignature(clazz, SIGNATURE_ELEM_FIELDS);
+            return ClassSignatureComparerHelper.getJavaClassSignatureHash(clazz, SIGNATURE_ELEM_FIELDS);
         } catch (Exception e) {
             LOGGER.error("getSignatureForProxyClass(): Error reading signature", e);
             return null;
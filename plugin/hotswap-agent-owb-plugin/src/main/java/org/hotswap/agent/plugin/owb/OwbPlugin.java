@@ -243,7 +243,7 @@ public class OwbPlugin {
                     LOGGER.debug("Class '{}' redefined in classLoader {}.", original.getName(), classLoader);
                     String oldSignForProxyCheck = OwbClassSignatureHelper.getSignatureForProxyClass(original);
                     String oldSignByStrategy = OwbClassSignatureHelper.getSignatureByStrategy(beanReloadStrategy, original);
-                    String oldFullSignature = ClassSignatureComparerHelper.getJavaClassSignature(original, ClassSignatureElement.values());
+                    String oldFullSignature = ClassSignatureComparerHelper.getJavaClassSignatureHash(original, ClassSignatureElement.values());
                     scheduler.scheduleCommand(
                             new BeanClassRefreshCommand(appClassLoader,
                                     original.getName(),
@@ -177,7 +177,7 @@ public class BeanClassRefreshAgent {
     private static boolean fullSignatureChanged(Bean<?> bean, Map<String, String> oldFullSignatures) {
 
         try {
-            String newSignature = ClassSignatureComparerHelper.getJavaClassSignature(bean.getBeanClass(), ClassSignatureElement.values());
+            String newSignature = ClassSignatureComparerHelper.getJavaClassSignatureHash(bean.getBeanClass(), ClassSignatureElement.values());
             String oldSignature = oldFullSignatures.get(bean.getBeanClass().getName());
             return oldSignature != null && newSignature != null && !oldSignature.equals(newSignature);
         } catch (Exception e) {
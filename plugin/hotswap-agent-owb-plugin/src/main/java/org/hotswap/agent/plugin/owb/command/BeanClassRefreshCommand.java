@@ -28,6 +28,7 @@ import java.util.Map;
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.owb.BeanReloadStrategy;
 import org.hotswap.agent.watch.WatchFileEvent;
@@ -179,6 +180,7 @@ public class BeanClassRefreshCommand extends MergeableCommand {
         if (className != null) {
             try {
                 LOGGER.debug("Executing ProxyRefreshAgent.recreateProxy('{}')", className);
+                PluginManager.getInstance().definePluginClass(appClassLoader, ProxyRefreshAgent.class.getName());
                 Class<?> agentClazz = Class.forName(ProxyRefreshAgent.class.getName(), true, appClassLoader);
                 Method agentMethod  = agentClazz.getDeclaredMethod("recreateProxy",
                         new Class[] { ClassLoader.class,
@@ -211,6 +213,7 @@ public class BeanClassRefreshCommand extends MergeableCommand {
         if (className != null) {
             try {
                 LOGGER.debug("Executing BeanClassRefreshAgent.reloadBean('{}')", className);
+                PluginManager.getInstance().definePluginClass(appClassLoader, BeanClassRefreshAgent.class.getName());
                 Class<?> agentClazz = Class.forName(BeanClassRefreshAgent.class.getName(), true, appClassLoader);
                 Method agentMethod  = agentClazz.getDeclaredMethod("reloadBean",
                         new Class[] { ClassLoader.class,
@@ -18,38 +18,33 @@
  */
 package org.hotswap.agent.plugin.proxy;
 
-import java.lang.instrument.ClassDefinition;
-import java.lang.instrument.Instrumentation;
+import java.util.Collections;
 
-import org.hotswap.agent.annotation.Init;
+import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.config.RedefinitionCoalescer;
 
 /**
  * Schedules a new redefiniton event for MultistepProxyTransformer
+ * <p/>
+ * The redefinition is merged with other pending redefinitions by plugin manager's {@link RedefinitionCoalescer}.
+ * It is forced - the next step resubmits the same bytes, which must not be skipped as unchanged.
  *
  * @author Erki Ehtla
  */
-public final class RedefinitionScheduler implements Runnable {
-    private MultistepProxyTransformer transformer;
+public final class RedefinitionScheduler {
 
-    @Init
-    private static Instrumentation instrumentation;
-
-    public RedefinitionScheduler(MultistepProxyTransformer transformer) {
-        this.transformer = transformer;
-    }
-
-    @Override
-    public void run() {
-        try {
-            instrumentation.redefineClasses(new ClassDefinition(transformer.getClassBeingRedefined(), transformer
-                    .getClassfileBuffer()));
-        } catch (Throwable t) {
-            transformer.removeClassState();
-            throw new RuntimeException(t);
-        }
+    private RedefinitionScheduler() {
     }
 
-    public static void schedule(MultistepProxyTransformer multistepProxyTransformer) {
-        new Thread(new RedefinitionScheduler(multistepProxyTransformer)).start();
+    public static void schedule(final MultistepProxyTransformer multistepProxyTransformer) {
+        PluginManager.getInstance().getRedefinitionCoalescer().submit(
+                Collections.<Class<?>, byte[]>singletonMap(multistepProxyTransformer.getClassBeingRedefined(),
+                        multistepProxyTransformer.getClassfileBuffer()),
+                RedefinitionCoalescer.DEFAULT_WINDOW, new Runnable() {
+                    @Override
+                    public void run() {
+                        multistepProxyTransformer.removeClassState();
+                    }
+                }, true);
     }
-}
\ No newline at end of file
+}
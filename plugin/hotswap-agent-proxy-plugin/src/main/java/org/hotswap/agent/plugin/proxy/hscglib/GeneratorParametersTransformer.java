@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.CtMethod;
 import org.hotswap.agent.javassist.Modifier;
@@ -98,6 +99,7 @@ public class GeneratorParametersTransformer {
                 mapRef = classLoaderMaps.get(loader);
                 if (mapRef == null) {
                     if (ClassLoaderHelper.isClassLoderStarted(loader)) {
+                        PluginManager.getInstance().definePluginClass(loader, GeneratorParametersRecorder.class.getName());
                         Map<String, Object> map = (Map<String, Object>) loader
                                 .loadClass(GeneratorParametersRecorder.class.getName()).getField("generatorParams")
                                 .get(null);
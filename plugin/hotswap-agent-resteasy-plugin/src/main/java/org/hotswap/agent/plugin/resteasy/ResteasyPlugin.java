@@ -31,6 +31,7 @@ import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
@@ -153,6 +154,7 @@ public class ResteasyPlugin {
     private void refresh(ClassLoader classLoader, int timeout) {
         if (!registeredDispatchers.isEmpty()) {
             try {
+                PluginManager.getInstance().definePluginClass(appClassLoader, RefreshDispatchersCommand.class.getName());
                 Class<?> cmdClass = Class.forName(RefreshDispatchersCommand.class.getName(), true, appClassLoader);
                 Command cmd = (Command) cmdClass.newInstance();
                 ReflectionHelper.invoke(cmd, cmdClass, "setupCmd",
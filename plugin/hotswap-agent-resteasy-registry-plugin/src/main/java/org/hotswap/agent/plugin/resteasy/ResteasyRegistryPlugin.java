@@ -27,6 +27,7 @@ import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
@@ -159,6 +160,7 @@ public class ResteasyRegistryPlugin {
 
     private void refreshClass(ClassLoader classLoader, String name, Class<?> original, int timeout) {
         try {
+            PluginManager.getInstance().definePluginClass(appClassLoader, RefreshRegistryCommand.class.getName());
             Class<?> cmdClass = Class.forName(RefreshRegistryCommand.class.getName(), true, appClassLoader);
             Command cmd = (Command) cmdClass.newInstance();
             ReflectionHelper.invoke(cmd, cmdClass, "setupCmd",
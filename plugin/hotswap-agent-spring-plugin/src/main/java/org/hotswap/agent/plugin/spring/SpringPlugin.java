@@ -34,12 +34,14 @@ import org.hotswap.agent.annotation.OnResourceFileEvent;
 import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.CtConstructor;
 import org.hotswap.agent.javassist.CtMethod;
 import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.plugin.spring.getbean.DetachableBeanHolder;
 import org.hotswap.agent.plugin.spring.getbean.ProxyReplacerTransformer;
 import org.hotswap.agent.plugin.spring.scanner.ClassPathBeanDefinitionScannerTransformer;
 import org.hotswap.agent.plugin.spring.scanner.ClassPathBeanRefreshCommand;
@@ -87,15 +89,35 @@ public class SpringPlugin {
     @Init
     ClassLoader appClassLoader;
 
+    @Init
+    PluginConfiguration pluginConfiguration;
+
     public void init() {
         LOGGER.info("Spring plugin initialized");
         this.registerBasePackageFromConfiguration();
         this.initBasePackagePrefixes();
+        this.registerMemoryFootprint();
     }
     public void init(String version) {
         LOGGER.info("Spring plugin initialized - Spring core version '{}'", version);
         this.registerBasePackageFromConfiguration();
         this.initBasePackagePrefixes();
+        this.registerMemoryFootprint();
+    }
+
+    /**
+     * Report the bean proxies list of DetachableBeanHolder, it is static in the application classloader and grows
+     * with each created proxy until the next detach.
+     */
+    private void registerMemoryFootprint() {
+        try {
+            PluginManager.getInstance().definePluginClass(appClassLoader, DetachableBeanHolder.class.getName());
+            Class<?> beanHolderClass = appClassLoader.loadClass(DetachableBeanHolder.class.getName());
+            PluginManager.getInstance().getMemoryFootprint().register("plugin.Spring.beanProxies", beanHolderClass);
+        } catch (ClassNotFoundException e) {
+            LOGGER.debug("DetachableBeanHolder not available in classloader {}, bean proxies are not measured.",
+                    appClassLoader);
+        }
     }
 
     private void initBasePackagePrefixes() {
@@ -176,9 +198,9 @@ public class SpringPlugin {
         while (resourceUrls.hasMoreElements()) {
             URL basePackageURL = resourceUrls.nextElement();
 
-            if (!IOUtils.isFileURL(basePackageURL)) {
+            if (!IOUtils.isFileURL(basePackageURL) && !(IOUtils.isJarURL(basePackageURL) && pluginConfiguration.isWatchedJar(basePackageURL))) {
                 LOGGER.debug("Spring basePackage '{}' - unable to watch files on URL '{}' for changes (JAR file?), limited hotswap reload support. " +
-                        "Use extraClassPath configuration to locate class file on filesystem.", basePackage, basePackageURL);
+                        "Use extraClassPath configuration to locate class file on filesystem or watchJars to watch the JAR file.", basePackage, basePackageURL);
                 continue;
             } else {
                 watcher.addEventListener(appClassLoader, basePackageURL, new WatchEventListener() {
@@ -21,6 +21,7 @@ package org.hotswap.agent.plugin.spring.scanner;
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.IOUtils;
 import org.hotswap.agent.watch.WatchFileEvent;
@@ -85,7 +86,9 @@ public class ClassPathBeanRefreshCommand extends MergeableCommand {
 
             LOGGER.debug("Executing ClassPathBeanDefinitionScannerAgent.refreshClass('{}')", className);
 
-            Class<?> clazz = Class.forName("org.hotswap.agent.plugin.spring.scanner.ClassPathBeanDefinitionScannerAgent", true, appClassLoader);
+            String agentClassName = "org.hotswap.agent.plugin.spring.scanner.ClassPathBeanDefinitionScannerAgent";
+            PluginManager.getInstance().definePluginClass(appClassLoader, agentClassName);
+            Class<?> clazz = Class.forName(agentClassName, true, appClassLoader);
             Method method  = clazz.getDeclaredMethod(
                     "refreshClass", new Class[] {String.class, byte[].class});
             method.invoke(null, basePackage, classDefinition);
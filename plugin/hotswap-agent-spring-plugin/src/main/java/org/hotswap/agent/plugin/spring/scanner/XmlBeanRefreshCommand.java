@@ -24,6 +24,7 @@ import java.lang.reflect.Method;
 import java.net.URL;
 
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 
 /**
@@ -59,7 +60,9 @@ public class XmlBeanRefreshCommand extends MergeableCommand {
             // not using Class.getName() to get class name
             // because it will cause common classloader to load XmlBeanDefinitionScannerAgent
             // which may cause problem in multi-app scenario.
-            Class clazz = Class.forName("org.hotswap.agent.plugin.spring.scanner.XmlBeanDefinitionScannerAgent", true, appClassLoader);
+            String agentClassName = "org.hotswap.agent.plugin.spring.scanner.XmlBeanDefinitionScannerAgent";
+            PluginManager.getInstance().definePluginClass(appClassLoader, agentClassName);
+            Class clazz = Class.forName(agentClassName, true, appClassLoader);
             Method method  = clazz.getDeclaredMethod(
                     "reloadXml", new Class[] {URL.class});
             method.invoke(null, this.url);
@@ -48,4 +48,8 @@ public class ClassSignatureComparer {
     public static boolean isPoolClassDifferent(Class<?> classBeingRedefined, ClassPool cp) {
         return ClassSignatureComparerHelper.isPoolClassDifferent(classBeingRedefined, cp, SIGNATURE_ELEMENTS);
     }
+
+    public static boolean isClassFileDifferent(Class<?> classBeingRedefined, byte[] classfileBuffer, ClassPool cp) {
+        return ClassSignatureComparerHelper.isDifferent(classfileBuffer, classBeingRedefined, cp, SIGNATURE_ELEMENTS);
+    }
 }
@@ -34,6 +34,7 @@ import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.PluginManagerInvoker;
 import org.hotswap.agent.util.ReflectionHelper;
+import org.hotswap.agent.util.WeakRegistry;
 import org.hotswap.agent.util.classloader.WatchResourcesClassLoader;
 
 /**
@@ -76,10 +77,10 @@ public class TomcatPlugin {
     int tomcatMajorVersion = 8;
 
     // tomcat associated resource object to a web application classloader
-    static Map<Object, ClassLoader> registeredResourcesMap = new HashMap<>();
+    static Map<Object, ClassLoader> registeredResourcesMap = WeakRegistry.weakValues("TomcatPlugin.registeredResourcesMap");
 
     // for each app classloader map of tomcat repository name to associated watch resource classloader
-    private static Map<ClassLoader, Map<String, ClassLoader>> extraRepositories = new HashMap<>();
+    private static Map<ClassLoader, Map<String, ClassLoader>> extraRepositories = WeakRegistry.classLoaderScoped("TomcatPlugin.extraRepositories");
 
     /**
      * Init the plugin during WebappLoader.start lifecycle. This method is invoked before the plugin is initialized.
@@ -22,7 +22,6 @@ import java.io.File;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,6 +31,7 @@ import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.PluginManagerInvoker;
 import org.hotswap.agent.util.ReflectionHelper;
+import org.hotswap.agent.util.WeakRegistry;
 
 /**
  * Undertow plugin (http://undertow.io/)
@@ -48,10 +48,10 @@ public class UndertowPlugin {
     private static AgentLogger LOGGER = AgentLogger.getLogger(UndertowPlugin.class);
 
     // Undertow resource manager object to a application classloader
-    static Map<Object, ClassLoader> registeredResourceManagersMap = new HashMap<>();
+    static Map<Object, ClassLoader> registeredResourceManagersMap = WeakRegistry.weakValues("UndertowPlugin.registeredResourceManagersMap");
 
     // For each app classloader map of undertow repository name to associated watch resource classloader
-    private static Map<ClassLoader, Map<String, ClassLoader>> extraRepositories = new HashMap<>();
+    private static Map<ClassLoader, Map<String, ClassLoader>> extraRepositories = WeakRegistry.classLoaderScoped("UndertowPlugin.extraRepositories");
 
     String undertowVersion = "";
 
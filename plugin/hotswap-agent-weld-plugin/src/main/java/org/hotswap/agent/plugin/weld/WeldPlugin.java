@@ -34,6 +34,7 @@ import org.hotswap.agent.annotation.OnClassLoadEvent;
 import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
@@ -192,6 +193,7 @@ public class WeldPlugin {
     private static boolean isBdaRegistered(ClassLoader classLoader, String archivePath) {
         if (archivePath != null) {
             try {
+                PluginManager.getInstance().definePluginClass(classLoader, BdaAgentRegistry.class.getName());
                 return (boolean) ReflectionHelper.invoke(null, Class.forName(BdaAgentRegistry.class.getName(), true, classLoader), "contains", new Class[] {String.class}, archivePath);
             } catch (ClassNotFoundException e) {
                 LOGGER.error("isBdaRegistered() exception {}.", e.getMessage());
@@ -246,7 +248,7 @@ public class WeldPlugin {
                 LOGGER.debug("Class '{}' redefined for archive {} ", original.getName(), archivePath);
                 String oldSignatureForProxyCheck = WeldClassSignatureHelper.getSignatureForProxyClass(original);
                 String oldSignatureByStrategy = WeldClassSignatureHelper.getSignatureByStrategy(beanReloadStrategy, original);
-                String oldFullSignature = ClassSignatureComparerHelper.getJavaClassSignature(original, ClassSignatureElement.values());
+                String oldFullSignature = ClassSignatureComparerHelper.getJavaClassSignatureHash(original, ClassSignatureElement.values());
                 scheduler.scheduleCommand(new BeanClassRefreshCommand(classLoader, archivePath, registeredProxiedBeans,
                         original.getName(), oldFullSignature, oldSignatureForProxyCheck, oldSignatureByStrategy, beanReloadStrategy), WAIT_ON_REDEFINE);
             }
@@ -257,6 +259,7 @@ public class WeldPlugin {
 
     private String getArchivePath(ClassLoader classLoader, CtClass ctClass, String knownClassName) throws NotFoundException {
          try {
+             PluginManager.getInstance().definePluginClass(classLoader, BdaAgentRegistry.class.getName());
              return (String) ReflectionHelper.invoke(null, Class.forName(BdaAgentRegistry.class.getName(), true, classLoader),
                      "getArchiveByClassName", new Class[] {String.class}, knownClassName);
          } catch (ClassNotFoundException e) {
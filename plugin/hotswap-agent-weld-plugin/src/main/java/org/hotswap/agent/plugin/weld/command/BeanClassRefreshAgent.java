@@ -29,6 +29,7 @@ import java.util.Set;
 import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.CDI;
 
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.weld.WeldClassSignatureHelper;
 import org.hotswap.agent.plugin.weld.WeldPlugin;
@@ -94,6 +95,7 @@ public class BeanClassRefreshAgent {
                 @SuppressWarnings("unused")
                 File path = new File(archivePath);
 
+                PluginManager.getInstance().definePluginClass(appClassLoader, BdaAgentRegistry.class.getName());
                 Class<?> registryClass = Class.forName(BdaAgentRegistry.class.getName(), true, appClassLoader);
 
                 boolean contain = (boolean) ReflectionHelper.invoke(null, registryClass, "contains", new Class[] {String.class}, archivePath);
@@ -201,6 +203,7 @@ public class BeanClassRefreshAgent {
             }
 
             ClassLoader beanManagerClassLoader = beanManager.getClass().getClassLoader();
+            PluginManager.getInstance().definePluginClass(beanManagerClassLoader, BeanReloadExecutor.class.getName());
             Class<?> bdaAgentClazz = Class.forName(BeanReloadExecutor.class.getName(), true, beanManagerClassLoader);
 
             // Execute reload in BeanManagerClassLoader since reloading creates weld classes used for bean redefinition
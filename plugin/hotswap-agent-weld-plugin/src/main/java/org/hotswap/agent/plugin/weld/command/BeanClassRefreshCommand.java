@@ -27,6 +27,7 @@ import java.util.Map;
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.weld.BeanReloadStrategy;
 import org.hotswap.agent.watch.WatchFileEvent;
@@ -153,6 +154,7 @@ public class BeanClassRefreshCommand extends MergeableCommand {
         if (className != null) {
             try {
                 LOGGER.debug("Executing BeanClassRefreshAgent.recreateProxy('{}')", className);
+                PluginManager.getInstance().definePluginClass(classLoader, BeanClassRefreshAgent.class.getName());
                 Class<?> bdaAgentClazz = Class.forName(BeanClassRefreshAgent.class.getName(), true, classLoader);
                 Method recreateProxy  = bdaAgentClazz.getDeclaredMethod("recreateProxy",
                         new Class[] { ClassLoader.class,
@@ -191,6 +193,7 @@ public class BeanClassRefreshCommand extends MergeableCommand {
         if (className != null) {
             try {
                 LOGGER.debug("Executing BeanClassRefreshAgent.reloadBean('{}')", className);
+                PluginManager.getInstance().definePluginClass(classLoader, BeanClassRefreshAgent.class.getName());
                 Class<?> bdaAgentClazz = Class.forName(BeanClassRefreshAgent.class.getName(), true, classLoader);
                 Method refreshBean  = bdaAgentClazz.getDeclaredMethod("reloadBean",
                         new Class[] { ClassLoader.class,